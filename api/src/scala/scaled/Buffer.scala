@@ -90,6 +90,24 @@ abstract class BufferV extends Region {
     offset(loc.row-1, 0) + loc.col
   }
 
+  /** Returns the locations of `offsets`, which must be sorted in ascending order. This is
+    * equivalent to calling [[loc]] for each offset, but the conversion is done in a single pass
+    * over the buffer. */
+  def locs (offsets :SeqV[Int]) :Seq[Loc] = {
+    val lls = lines ; val last = lls.length-1
+    val lb = Seq.builder[Loc](offsets.size)
+    var row = 0 ; var start = 0 ; var prev = 0
+    var ii = 0 ; while (ii < offsets.size) {
+      val off = offsets(ii)
+      if (off < prev) throw new IllegalArgumentException(s"Offsets not sorted: $offsets")
+      while (row <= last && off-start > lls(row).length) { start += lls(row).length+1 ; row += 1 }
+      lb += (if (row > last) Loc(last, lls(last).length) else Loc(row, off-start))
+      prev = off
+      ii += 1
+    }
+    lb.build()
+  }
+
   /** A read-only view of the lines in this buffer. */
   def lines :SeqV[LineV]
 
@@ -235,8 +253,8 @@ abstract class BufferV extends Region {
     @inline @tailrec def seek (row :Int, col :Int) :Loc = {
       val line = this.line(row)
       val last = if (row == stopr) stopc else line.length
-      var p = col ; while (p <= last && !pred(line.charAt(p), line.syntaxAt(p))) p += 1
-      if (p <= last) Loc(row, p)
+      val p = line.scanForward(pred, col, last)
+      if (p >= 0) Loc(row, p)
       else if (row == stopr) stop
       else seek(row+1, 0)
     }
@@ -254,8 +272,8 @@ abstract class BufferV extends Region {
     @inline @tailrec def seek (row :Int, col :Int) :Loc = {
       val line = this.line(row)
       val first = if (row == stopr) stopc else 0
-      var p = col ; while (p >= first && !pred(line.charAt(p), line.syntaxAt(p))) p -= 1
-      if (p >= first) Loc(row, p)
+      val p = line.scanBackward(pred, col, first)
+      if (p >= 0) Loc(row, p)
       else if (row == stopr) stop
       else seek(row-1, this.line(row-1).length)
     }
@@ -271,11 +289,12 @@ abstract class BufferV extends Region {
     */
   def scanForWhile (pred :(Char,Syntax) => Boolean, start :Loc, stop :Loc = this.end) :Loc = {
     val stopr = stop.row ; val stopc = stop.col
+    val npred = (c :Char, s :Syntax) => !pred(c, s)
     @inline @tailrec def seek (row :Int, col :Int) :Loc = {
       val line = this.line(row)
       val last = if (row == stopr) stopc else line.length
-      var p = col ; while (p <= last && pred(line.charAt(p), line.syntaxAt(p))) p += 1
-      if (p <= last) backward(Loc(row, p), 1)
+      val p = line.scanForward(npred, col, last)
+      if (p >= 0) backward(Loc(row, p), 1)
       else if (row == stopr) stop
       else seek(row+1, 0)
     }
@@ -291,11 +310,12 @@ abstract class BufferV extends Region {
     */
   def scanBackWhile (pred :(Char,Syntax) => Boolean, start :Loc, stop :Loc = this.start) :Loc = {
     val stopr = stop.row ; val stopc = stop.col
+    val npred = (c :Char, s :Syntax) => !pred(c, s)
     @inline @tailrec def seek (row :Int, col :Int) :Loc = {
       val line = this.line(row)
       val first = if (row == stopr) stopc else 0
-      var p = col ; while (p >= first && pred(line.charAt(p), line.syntaxAt(p))) p -= 1
-      if (p >= first) forward(Loc(row, p), 1)
+      val p = line.scanBackward(npred, col, first)
+      if (p >= 0) forward(Loc(row, p), 1)
       else if (row == stopr) stop
       else seek(row-1, this.line(row-1).length)
     }
@@ -375,6 +395,35 @@ abstract class Buffer extends BufferV {
   /** Saves this buffer to `store`, updating [[store]] and [[name]] appropriately. */
   def saveTo (store :Store) :Unit
 
+  /** Returns true if this buffer is currently in a [[transaction]]. */
+  def inTransaction :Boolean
+
+  /** Returns true if this buffer's lines are paged in from its store as they are needed (as is done
+    * for very large files). Visiting every line of such a buffer is expensive. */
+  def isPaged :Boolean = false
+
+  /** Applies `op` to this buffer as a single transaction. The edits made by `op` are grouped into
+    * a single undoable action. The `lineStyled` notifications for style changes made by `op` are
+    * deferred until the transaction completes (or rows are added or removed), and only one is
+    * emitted per styled line. Finally, a [[Buffer.Commit]] summarizing the rows changed by `op`
+    * is emitted via [[RBuffer.committed]]. Individual `edited` events are still emitted as usual.
+    * Transactions may be nested, in which case they all complete with the outermost transaction.
+    * @return the value returned by `op`. */
+  def transaction[T] (op : => T) :T
+
+  /** Saves this buffer to its current store in the background. If the buffer is not dirty, NOOPs.
+    * See [[saveToAsync]]. */
+  def saveAsync (exec :Executor, sync :Boolean = false) :Future[Unit] =
+    if (dirty) saveToAsync(store, exec, sync) else Future.success(())
+
+  /** Saves this buffer to `store` like [[saveTo]], but only snapshots the buffer's contents on the
+    * calling (UI) thread and writes them on a background thread of `exec`. When the write succeeds,
+    * [[store]] and [[name]] are updated and the buffer is marked clean (unless it was edited while
+    * the write was in progress). Successive saves of a buffer are written in order.
+    * @param sync if true, the written data is forced to the storage device before completing.
+    * @return a future which reports completion or failure on the UI thread. */
+  def saveToAsync (store :Store, exec :Executor, sync :Boolean = false) :Future[Unit]
+
   /** Configures whether this buffer can be edited interactively (by the user). */
   def editable_= (editable :Boolean) :Unit
 
@@ -546,6 +595,22 @@ object Buffer {
     def unapply (edit :Transform) = Some((edit.start, edit.end, edit.original))
   }
 
+  /** Summarizes the edits made during a [[Buffer.transaction]].
+    * @param rows the rows that were changed (or added) by the transaction, as sorted, disjoint
+    * `[start, end)` ranges, in terms of the buffer's rows after the transaction.
+    * @param edits the number of individual edits made during the transaction. */
+  case class Commit (rows :Seq[(Int, Int)], edits :Int)
+
+  /** An immutable snapshot of a buffer's contents, obtained via [[RBuffer.snapshot]]. Snapshots
+    * may be read from any thread. Buffer-local state is not snapshotted, so `state` is empty.
+    * @param version the [[RBuffer.version]] of the buffer when the snapshot was taken. */
+  class Snapshot (val name :String, val store :Store, val mark :Option[Loc],
+                  val editable :Boolean, val dirty :Boolean, val version :Long,
+                  val lines :SeqV[Line]) extends BufferV {
+    override lazy val state :StateV = new RState()
+    override def toString = s"Snapshot($name, v$version, ${lines.size} lines)"
+  }
+
   /** Returns true if `name` is a temporary buffer name. */
   def isScratch (name :String) = (name startsWith "*") && (name endsWith "*")
 
@@ -602,6 +667,20 @@ abstract class RBuffer extends Buffer {
   /** A signal emitted when this buffer is edited. */
   def edited :SignalV[Buffer.Edit]
 
+  /** A signal emitted when a [[transaction]] which edited this buffer completes. */
+  def committed :SignalV[Buffer.Commit]
+
+  /** The version of this buffer's contents. This increases every time the buffer is edited, so it
+    * can be used to tell whether results computed from a [[snapshot]] are stale. */
+  def version :Long
+
+  /** Returns an immutable snapshot of this buffer's contents, for analysis on a background thread.
+    * Snapshots are cheap: lines which have not changed since the previous snapshot are shared with
+    * it, and the characters of other lines are shared with this buffer until they are edited. Lines
+    * of a paged buffer which have not yet been paged in are read from its file when requested from
+    * the snapshot, rather than being paged in to take the snapshot. */
+  def snapshot () :Buffer.Snapshot
+
   /** A signal emitted when a line in this buffer has a CSS style applied to it. The emitted `Loc`
     * will contain the row of the line that was edited and the positon of the earliest character to
     * which a style was applied. Zero or more additional style changes may have been made to
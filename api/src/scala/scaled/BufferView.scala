@@ -16,7 +16,7 @@ trait LineView {
 
 /** The visualization of a text buffer. It also manages the UX for manipulating and editing the
   * buffer. This includes:
-  * - a series of [LineView] instances visualizing each line of text
+  * - a series of [LineView] instances visualizing the visible lines of text
   * - the point, which defines the cursor/insertion point and the point end of the point/mark
   * - the scroll position of the view, which indicates which lines of the buffer are visible
   * Anything other than the data model for the buffer itself (which is encapsulated in [Buffer])
@@ -30,8 +30,10 @@ abstract class BufferView {
   /** The window in which this buffer view is displayed. */
   def window :Window
 
-  /** Views for the lines in this buffer. */
-  def lines :SeqV[LineView]
+  /** Returns the view for the line at `row`, if that line is currently visualized. Views only
+    * exist for the lines in (and just around) the visible area of the buffer, and are recycled as
+    * the view scrolls, so the returned view should not be retained. */
+  def lineView (row :Int) :Option[LineView]
 
   /** The current point (aka the cursor position). */
   def point :Property[Loc]
@@ -55,9 +57,8 @@ abstract class BufferView {
     val ctop = scrollTop()
     val h = height()
     // bound bottom first, then top; this snaps buffers that are less than one screen tall to top
-    // TODO: nix buffer.lines.length, use lines.length when lines is implemented
     val ntop = math.max(math.min(ctop + delta, buffer.lines.length - h), 0)
-    // println(s"Updating scroll top ($delta ${lines.length} $height) $ctop => $ntop")
+    // println(s"Updating scroll top ($delta ${buffer.lines.length} $h) $ctop => $ntop")
     scrollTop() = ntop
 
     val p = point()
@@ -4,6 +4,7 @@
 
 package scaled
 
+import com.google.common.cache.{CacheBuilder, RemovalListener, RemovalNotification}
 import java.nio.file.{FileSystems, Files, Path, Paths}
 import java.util.stream.Stream
 import scaled.util.{FuzzyMatch, IFuzzyMatch}
@@ -35,6 +36,11 @@ abstract class Completion[+T] (
 /** Factory methods for standard completions. */
 object Completion {
 
+  /** The number of completions displayed to the user (at most). When a completion is refined,
+    * only this many of the best matches are put in order up front; the rest are put in order if
+    * and when they are needed (e.g. to [[Completer.extend]] a completion). */
+  final val Displayed = 256
+
   /** Returns an empty completion of type `T`. */
   def empty[T] (prefix :String) :Completion[T] = new Completion[T](prefix, Seq()) {
     override def apply (curval :String) = None
@@ -87,14 +93,16 @@ object Completion {
     * @param map a map from completion string back to completed object.
     */
   def apply[T] (glob :String, cs :Seq[String], map :Map[String,T]) :Completion[T] =
-    new MapComp(glob, cs, map)
+    new MapComp(glob, FuzzyMatch.Candidates(cs), map)
 
-  private class MapComp[T] (gl :String, cs :SeqV[String], map :Map[String,T])
-      extends Completion[T](gl, cs) {
-    def apply (comp :String) = map.get(comp) orElse cs.headOption.flatMap(map.get)
+  // the candidates are case-folded once, for the root completion, and each refinement filters
+  // (and shares the folded strings of) the candidates of the completion it refines
+  private class MapComp[T] (gl :String, cands :FuzzyMatch.Candidates, map :Map[String,T])
+      extends Completion[T](gl, cands.toSeq) {
+    def apply (comp :String) = map.get(comp) orElse comps.headOption.flatMap(map.get)
     def refine (prefix :String) = {
       val outer = this
-      new MapComp[T](prefix, FuzzyMatch(prefix).filter(comps), map) {
+      new MapComp[T](prefix, FuzzyMatch(prefix).filter(cands, Displayed), map) {
         override def root = outer.root
       }
     }
@@ -267,8 +275,13 @@ object Completer {
     * culprit here. */
   def defang (name :String) :String = name.replace('\n', ' ').replace('\r', ' ')
 
-  /** A completer on file system files. */
-  class File (exec :Executor) extends Completer[Store] {
+  /** A completer on file system files.
+    * @param watchSvc if supplied, directory listings are cached (across completers) until the
+    * watch service reports that a file was created in or deleted from the directory. Otherwise
+    * directories are listed anew each time they are expanded. */
+  class File (exec :Executor, watchSvc :Option[WatchService]) extends Completer[Store] {
+    def this (exec :Executor) = this(exec, None)
+
     private def fileSep = java.io.File.separator
 
     override def complete (prefix :String) = {
@@ -310,24 +323,34 @@ object Completer {
     }
 
     private def expand (path :String, dir :Path, prefix :String) = exec.runAsync({
-      val fstream = if (Files.exists(dir)) Files.list(dir) else Stream.empty[Path]()
-      val files = try fstream.iterator.toSeq finally fstream.close()
-      val matches = new FileFuzzyMatch(prefix).filterBy(files)(p => defang(p.getFileName.toString))
+      val entries = watchSvc match {
+        case Some(svc) => Listings.get(dir, svc, list)
+        case None      => list(dir)
+      }
+      val matches = new FileFuzzyMatch(prefix).filterBy(entries)(_.name)
 
-      class FileComp (gl :String, mstrs :Seq[String]) extends Completion[Store](gl, mstrs) {
+      class FileComp (gl :String, cands :FuzzyMatch.Candidates)
+          extends Completion[Store](gl, cands.toSeq) {
         override def apply (comp :String) = None
         override def refine (prefix :String) = {
           val outer = this
-          new FileComp(prefix, new FileFuzzyMatch(prefix).filter(mstrs)) {
+          new FileComp(prefix, new FileFuzzyMatch(prefix).filter(cands, Completion.Displayed)) {
             override def root = outer.root
           }
         }
         override def root = this
-        override def toString = s"($dir, $prefix) => $mstrs"
+        override def toString = s"($dir, $prefix) => $comps"
       }
-      new FileComp(path, matches.map(format)) :Completion[Store]
+      new FileComp(path, FuzzyMatch.Candidates(matches.map(_.comp))) :Completion[Store]
     })
 
+    private def list (dir :Path) :Seq[DirEntry] = {
+      val fstream = if (Files.exists(dir)) Files.list(dir) else Stream.empty[Path]()
+      try fstream.iterator.toSeq.map(file => DirEntry(defang(file.getFileName.toString),
+                                                      format(file)))
+      finally fstream.close()
+    }
+
     private def fromString (value :String) = {
       val path = Paths.get(value)
       if (Files.exists(path) && Files.isDirectory(path)) None else Some(Store(path))
@@ -351,4 +374,55 @@ object Completer {
 
   /** Returns a completer on file system files. */
   def file (exec :Executor) :Completer[Store] = new File(exec)
+
+  /** Returns a completer on file system files, which caches directory listings until `watchSvc`
+    * reports that they have changed. */
+  def file (exec :Executor, watchSvc :WatchService) :Completer[Store] =
+    new File(exec, Some(watchSvc))
+
+  /** A file in a directory listing: its (defanged) name and its completion string. */
+  private case class DirEntry (name :String, comp :String)
+
+  /** The directory listings cached for file completion. A listing is dropped (and its watch
+    * closed) when a file is created in or deleted from its directory, or when it is evicted to
+    * make room for more recently used listings. */
+  private object Listings {
+    final val MaxDirs = 64
+
+    private class Listing (dir :Path, svc :WatchService) {
+      @volatile var stale = false
+      var entries :Seq[DirEntry] = Seq()
+      // watch before listing, so that a change made while we list is not missed
+      val watch = svc.watchDir(dir, new Watcher() {
+        override def onCreate (dir :Path, child :String) = invalidate()
+        override def onDelete (dir :Path, child :String) = invalidate()
+      })
+      // the removal listener closes our watch
+      private def invalidate () :Unit = {
+        stale = true
+        cache.asMap.remove(dir, this)
+      }
+    }
+
+    private val cache = CacheBuilder.newBuilder().maximumSize(MaxDirs).
+      asInstanceOf[CacheBuilder[Path,Listing]].
+      removalListener(new RemovalListener[Path,Listing]() {
+        def onRemoval (note :RemovalNotification[Path,Listing]) = note.getValue.watch.close()
+      }).build[Path,Listing]()
+
+    def get (dir :Path, svc :WatchService, list :Path => Seq[DirEntry]) :Seq[DirEntry] = {
+      val cached = cache.getIfPresent(dir)
+      if (cached != null && !cached.stale) cached.entries
+      // a missing directory can't be watched (nor cached), it simply has no entries
+      else if (!Files.isDirectory(dir)) list(dir)
+      else {
+        val listing = new Listing(dir, svc)
+        try listing.entries = list(dir)
+        catch { case t :Throwable => listing.watch.close() ; throw t }
+        if (listing.stale) listing.watch.close()
+        else cache.put(dir, listing)
+        listing.entries
+      }
+    }
+  }
 }
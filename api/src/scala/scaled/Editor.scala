@@ -73,6 +73,14 @@ object EditorConfig extends Config.Defs {
   @Var("The number of entries retained in most minibuffer histories.")
   val historySize = key(40)
 
+  @Var("""If true, saved files are forced to the storage device (via fsync) before the save is
+          reported as complete.""")
+  val syncOnSave = key(false)
+
+  @Var("""The number of megabytes of undo history kept in memory for each buffer.
+          Older history is spilled to a temporary file.""")
+  val undoMemory = key(16)
+
   /** The default CSS class name for text. */
   val textStyle = "textFace"
   /** The CSS class name for the active region face. */
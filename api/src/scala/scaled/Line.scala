@@ -60,7 +60,10 @@ abstract class LineV extends CharSequence {
   }
 
   /** Returns the syntax of the character at `pos`. */
-  def syntaxAt (pos :Int) :Syntax = if (pos < length) _syns(_offset+pos) else Syntax.Default
+  def syntaxAt (pos :Int) :Syntax = {
+    val xs = _syns
+    if (pos < length && xs != null) Syntax.byId(xs(_offset+pos)) else Syntax.Default
+  }
 
   /** Returns the CSS style classes applied to the character at `pos`, if any. */
   def stylesAt (pos :Int) :List[String] = _tags.tagsAt(classOf[String], pos).map(_.tag)
@@ -109,12 +112,26 @@ abstract class LineV extends CharSequence {
     * @param until one past the index of the last character to include in the slice. */
   def slice (start :Int, until :Int = length) :Line
 
-  /** Copies `[start, until)` from this line into `cs`/`ss` at `off`. Tags that overlap the region
-    * will be added to `ts` and all line tags will be added to `lts`. */
+  /** Copies `[start, until)` from this line into `cs`/`xs` at `off`. Tags that overlap the region
+    * will be added to `ts` and all line tags will be added to `lts`. Syntaxes are copied as ids
+    * (see [[Syntax.id]]). */
+  def sliceInto (start :Int, until :Int, cs :Array[Char], xs :Array[Short],
+                 ts :Tags, lts :Line.TagSet, off :Int) :Unit = {
+    System.arraycopy(_chars, _offset+start, cs, off, until-start)
+    val txs = _syns
+    if (txs != null) System.arraycopy(txs, _offset+start, xs, off, until-start)
+    else Arrays.fill(xs, off, off+until-start, Syntax.Default.id)
+    _tags.sliceInto(start, until, ts, off)
+    _ltags.addTo(lts)
+  }
+
+  /** Copies `[start, until)` from this line into `cs`/`xs` at `off`, like the above, but copies
+    * syntaxes into an array of [[Syntax]] instances. */
+  @deprecated("Lines store syntax ids, use sliceInto with an Array[Short]", "1.0")
   def sliceInto (start :Int, until :Int, cs :Array[Char], xs :Array[Syntax],
                  ts :Tags, lts :Line.TagSet, off :Int) :Unit = {
     System.arraycopy(_chars, _offset+start, cs, off, until-start)
-    System.arraycopy(_syns, _offset+start, xs, off, until-start)
+    var ii = start ; while (ii < until) { xs(off+ii-start) = syntaxAt(ii) ; ii += 1 }
     _tags.sliceInto(start, until, ts, off)
     _ltags.addTo(lts)
   }
@@ -125,7 +142,7 @@ abstract class LineV extends CharSequence {
   /** Returns a new line which contains `other` appended to `this`. */
   def merge (other :LineV) :Line = {
     val cs = new Array[Char](length + other.length)
-    val xs = new Array[Syntax](cs.length)
+    val xs = new Array[Short](cs.length)
     val tags = new Tags()
     val ltags = new Line.TagSet()
     sliceInto(0, length, cs, xs, tags, ltags, 0)
@@ -198,17 +215,58 @@ abstract class LineV extends CharSequence {
   /** Returns the index of the first character whose syntax matches `pred` at pos `from or later.
     * Returns -1 if no match is found. */
   def synIndexOf (pred :Syntax => Boolean, from :Int) :Int = {
-    val offset = _offset ; val end = length
-    var pos = from ; while (pos < end && !pred(_syns(offset+pos))) pos += 1
-    if (pos == end) -1 else pos
+    val offset = _offset ; val end = length ; val xs = _syns
+    if (xs == null) { if (from < end && pred(Syntax.Default)) from else -1 }
+    else {
+      var pos = from ; while (pos < end && !pred(Syntax.byId(xs(offset+pos)))) pos += 1
+      if (pos == end) -1 else pos
+    }
   }
 
   /** Returns the index of the first character whose syntax matches `pred` at pos `from or earlier.
     * Returns -1 if no match is found. */
   def synLastIndexOf (pred :Syntax => Boolean, from :Int) :Int = {
-    val offset = _offset
-    var pos = from ; while (pos >= 0 && !pred(_syns(offset+pos))) pos -= 1
-    pos
+    val offset = _offset ; val xs = _syns
+    if (xs == null) { if (from >= 0 && pred(Syntax.Default)) from else -1 }
+    else {
+      var pos = from ; while (pos >= 0 && !pred(Syntax.byId(xs(offset+pos)))) pos -= 1
+      pos
+    }
+  }
+
+  /** Returns the first position in `[from, last]` at which `pred` matches the character and
+    * syntax, or -1 if no position matches. `last` may extend to [[length]] in which case the line
+    * separator is also checked (see [[charAt]]). This checks the backing arrays directly and is
+    * thus much cheaper than calling `charAt` and `syntaxAt` for each position. */
+  def scanForward (pred :(Char,Syntax) => Boolean, from :Int, last :Int) :Int = {
+    val cs = _chars ; val xs = _syns ; val offset = _offset ; val end = math.min(last+1, length)
+    var pos = from
+    if (xs == null) { val dflt = Syntax.Default
+                      while (pos < end && !pred(cs(offset+pos), dflt)) pos += 1 }
+    else while (pos < end && !pred(cs(offset+pos), Syntax.byId(xs(offset+pos)))) pos += 1
+    if (pos < end) pos
+    else { // check any positions at or beyond the end of the line
+      while (pos <= last && !pred(charAt(pos), syntaxAt(pos))) pos += 1
+      if (pos <= last) pos else -1
+    }
+  }
+
+  /** Returns the last position in `[first, from]` at which `pred` matches the character and syntax,
+    * or -1 if no position matches. Positions are checked from `from` backward. See
+    * [[scanForward]]. */
+  def scanBackward (pred :(Char,Syntax) => Boolean, from :Int, first :Int) :Int = {
+    val end = length
+    // check any positions at or beyond the end of the line
+    var pos = from
+    while (pos >= first && pos >= end && !pred(charAt(pos), syntaxAt(pos))) pos -= 1
+    if (pos >= first && pos >= end) pos
+    else {
+      val cs = _chars ; val xs = _syns ; val offset = _offset ; val stop = math.max(first, 0)
+      if (xs == null) { val dflt = Syntax.Default
+                        while (pos >= stop && !pred(cs(offset+pos), dflt)) pos -= 1 }
+      else while (pos >= stop && !pred(cs(offset+pos), Syntax.byId(xs(offset+pos)))) pos -= 1
+      if (pos >= stop) pos else -1
+    }
   }
 
   /** Returns the index of the first non-whitespace character on this line, or [[length]] if
@@ -228,17 +286,27 @@ abstract class LineV extends CharSequence {
     * matches ALL of the remaining characters on the line. */
   def matches (m :Matcher) :Boolean = matches(m, 0)
 
-  /** Returns true if the syntaxes of `xs` in `[offset, length)` are equal to the syntaxes in this
-    * line in `[start, length)`. */
-  def syntaxMatches (xs :Array[Syntax], offset :Int, length :Int, start :Int) :Boolean = {
+  /** Returns true if the syntax ids in `xs` in `[offset, length)` are equal to the syntaxes in
+    * this line in `[start, length)`. */
+  def syntaxMatches (xs :Array[Short], offset :Int, length :Int, start :Int) :Boolean = {
     if (start + length > this.length) false
     else {
       val txs = _syns ; val toffset = _offset + start
-      var ii = 0 ; while (ii < length && (xs(offset+ii) eq txs(toffset+ii))) ii += 1
+      var ii = 0
+      if (txs == null) { val dflt = Syntax.Default.id
+                         while (ii < length && xs(offset+ii) == dflt) ii += 1 }
+      else while (ii < length && xs(offset+ii) == txs(toffset+ii)) ii += 1
       ii == length
     }
   }
 
+  /** Returns true if the syntaxes in `xs` in `[offset, length)` are equal to the syntaxes in this
+    * line in `[start, length)`. */
+  @deprecated("Lines store syntax ids, use syntaxMatches with an Array[Short]", "1.0")
+  def syntaxMatches (xs :Array[Syntax], offset :Int, length :Int, start :Int) :Boolean =
+    (start + length <= this.length) && syntaxMatches(Syntax.toIds(xs, offset, length), 0,
+                                                     length, start)
+
   /** Compares this line to `other` lexically and sensitive to case. */
   def compare (other :LineV) :Int = LineV.compare(
     _chars, _offset, length, other._chars, other._offset, other.length, LineV.CaseCmp)
@@ -254,7 +322,7 @@ abstract class LineV extends CharSequence {
 
   override def equals (other :Any) = other match {
     case ol :LineV => (length == ol.length && compare(ol) == 0 && ol._tags == _tags &&
-                       ol.syntaxMatches(_syns, _offset, length, 0))
+                       syntaxMatches(ol))
     case _ => false
   }
 
@@ -264,6 +332,13 @@ abstract class LineV extends CharSequence {
     loop(1, _chars, _offset, _offset+length)
   }
 
+  private def syntaxMatches (ol :LineV) :Boolean = {
+    val xs = _syns
+    if (xs != null) ol.syntaxMatches(xs, _offset, length, 0)
+    else if (ol._syns != null) ol.syntaxMatches(this)
+    else true
+  }
+
   /** Returns the `char` array that backs this line. The returned array will only be used to
     * implement read-only methods and will never be mutated. */
   protected def _chars :Array[Char]
@@ -271,9 +346,10 @@ abstract class LineV extends CharSequence {
   /** Returns the offset into [[_chars]] at which our data starts. */
   protected def _offset :Int
 
-  /** Returns the `Syntax` array that backs this line. The returned array will only be used to
-    * implement read-only methods and will never be mutated. */
-  protected def _syns :Array[Syntax]
+  /** Returns the syntax id array that backs this line, or `null` if every character in the line has
+    * the default syntax. The returned array will only be used to implement read-only methods and
+    * will never be mutated. */
+  protected def _syns :Array[Short]
 
   /** Returns the `Tags` for this line. The returned object will only be used to implement
     * read-only methods and will never be mutated. */
@@ -290,7 +366,7 @@ object Line {
   /** Used to build (immutable) lines with non-default syntax, styles and tags. */
   class Builder (private var _cs :Array[Char]) {
     private var _length = _cs.length
-    private var _xs = Array.fill(_cs.length)(Syntax.Default)
+    private var _xs :Array[Short] = null // null until a non-default syntax is needed
     private var _ts = new Tags()
     private var _lts = new TagSet()
 
@@ -299,12 +375,16 @@ object Line {
       if (nlength > ocapacity) {
         val ncapacity = (nlength + 63) & -64 // round up to multiple of 64
         _cs = Arrays.copyOf(_cs, ncapacity)
-        _xs = Arrays.copyOf(_xs, ncapacity)
-        Arrays.fill(_xs.asInstanceOf[Array[Object]], olength, _xs.length, Syntax.Default)
+        if (_xs != null) _xs = Arrays.copyOf(_xs, ncapacity)
       }
       _length = nlength
     }
 
+    private def syns = {
+      if (_xs == null) _xs = new Array[Short](_cs.length)
+      _xs
+    }
+
     /** Returns the current length of this builder's line. */
     def length = _length
 
@@ -355,7 +435,7 @@ object Line {
     def append (line :LineV) :Builder = {
       val olength = _length
       expand(line.length)
-      line.sliceInto(0, line.length, _cs, _xs, _ts, _lts, olength)
+      line.sliceInto(0, line.length, _cs, syns, _ts, _lts, olength)
       this
     }
     /** A synonym for [[append(LineV)]]. */
@@ -379,7 +459,7 @@ object Line {
 
     /** Applies `syntax` to `[start,end)` of the being-built line. */
     def withSyntax (syntax :Syntax, start :Int = 0, end :Int = _length) :Builder = {
-      Arrays.fill(_xs.asInstanceOf[Array[Object]], start, end, syntax)
+      if (_xs != null || (syntax ne Syntax.Default)) Arrays.fill(syns, start, end, syntax.id)
       this
     }
 
@@ -576,15 +656,21 @@ object Line {
 /** Models a single immutable line of text that is not associated with a buffer.
   *
   * The constructor takes ownership of the supplied arrays. Do not mutate them after using them to
-  * create a `Line`. Clone them first if you need to retain the ability to mutate the arrays.
+  * create a `Line`. Clone them first if you need to retain the ability to mutate the arrays. The
+  * syntax id array may be `null` in which case all characters have [[Syntax.Default]].
   */
-class Line (_cs :Array[Char], _xs :Array[Syntax], _ts :Tags, _lts :Line.TagSet,
+class Line (_cs :Array[Char], _xs :Array[Short], _ts :Tags, _lts :Line.TagSet,
             protected val _offset :Int, val length :Int) extends LineV {
-  def this (cs :Array[Char], xs :Array[Syntax], tags :Tags, ltags :Line.TagSet) = this(
+  def this (cs :Array[Char], xs :Array[Short], tags :Tags, ltags :Line.TagSet) = this(
     cs, xs, tags, ltags, 0, cs.length)
+  def this (cs :Array[Char], xs :Array[Short]) = this(cs, xs, new Tags(), new Line.TagSet())
+  @deprecated("Lines store syntax ids, use Syntax.mkIds or Line.builder", "1.0")
+  def this (cs :Array[Char], xs :Array[Syntax], tags :Tags, ltags :Line.TagSet) = this(
+    cs, Syntax.toIds(xs, 0, xs.length), tags, ltags)
+  @deprecated("Lines store syntax ids, use Syntax.mkIds or Line.builder", "1.0")
   def this (cs :Array[Char], xs :Array[Syntax]) = this(cs, xs, new Tags(), new Line.TagSet())
 
-  require(_cs != null && _xs != null && _ts != null && _cs.length == _xs.length &&
+  require(_cs != null && _ts != null && (_xs == null || _cs.length == _xs.length) &&
           _offset >= 0 && length >= 0 && length <= (_cs.length - _offset),
           s"Invalid Line args ${_cs} ${_xs} ${_ts} ${_offset} $length")
 
@@ -35,6 +35,11 @@ abstract class Matcher {
     * a regexp, this should be the original regexp text. If it's a simple string matcher, this
     * should be the string being matched. */
   def show :String
+
+  /** Returns a matcher that matches the same text as this one, but which may be used on another
+    * thread concurrently with this one. Matchers that keep state between calls (like the length
+    * of the last match) must return a new instance; stateless matchers may return themselves. */
+  def fork () :Matcher = this
 }
 
 /** A specialized matcher that searches and matches regular expressions. */
@@ -111,6 +116,7 @@ class RegexpMatcher (pattern :String) extends Matcher {
   }
 
   override def show = pattern
+  override def fork () = new RegexpMatcher(pattern)
   override def toString = pattern + ":regex"
 
   private def prep (haystack :Array[Char], start :Int, end :Int) :Unit = {
@@ -148,6 +154,7 @@ object Matcher {
       newend
     }
     protected def eq (have :Char, want :Char) = have == want || have == Character.toLowerCase(want)
+    override protected def fold (c :Char) = Character.toLowerCase(c)
     override def toString = show + ":loose"
   }
 
@@ -166,45 +173,84 @@ object Matcher {
   def on (sought :CharSequence) :Matcher =
     if (mixedCase(sought, 0)) exact(sought) else loose(sought)
 
-  // TODO: if it turns out to be worth it performance-wise, we can create specialized matchers on
-  // Line which operate directly on the _chars array; it's probably not worth it...
-
+  /** A matcher on a literal string. The needle is preprocessed into a pair of Horspool skip tables
+    * when the matcher is created, so that a search can skip past most of a haystack without
+    * examining every character. Chars are hashed into the skip tables by their low byte and chars
+    * that collide share the smallest skip, so any needle is handled, though needles with chars that
+    * are all over Unicode skip less far than those that are mostly ASCII (or mostly one script). */
   abstract class CSMatcher (needle :CharSequence) extends Matcher {
     if (needle.length == 0) throw new IllegalArgumentException("Must provide non-empty needle.")
 
+    private[this] val _needle = Array.tabulate(needle.length)(needle.charAt)
+    private[this] val _length = _needle.length
+    // how far the window may move given the (folded) char under its last position (forward
+    // searches) or first position (backward searches)
+    private[this] val _fskip = Array.fill(256)(_length)
+    private[this] val _bskip = Array.fill(256)(_length)
+    locally {
+      var ii = 0 ; while (ii < _length-1) {
+        _fskip(fold(_needle(ii)) & 0xFF) = _length-1-ii
+        ii += 1
+      }
+      ii = _length-1 ; while (ii > 0) {
+        _bskip(fold(_needle(ii)) & 0xFF) = ii
+        ii -= 1
+      }
+    }
+
     def search (haystack :Array[Char], begin :Int, end :Int, from :Int) :Int = {
-      val searchEnd = end-needle.length+1
-      if (searchEnd < from) -1 else search(needle, haystack, from, searchEnd, 1)
+      val searchEnd = end-_length+1
+      if (searchEnd <= from) -1 else try {
+        val last = _length-1 ; val skip = _fskip
+        var ss = from ; while (ss < searchEnd) {
+          if (check(haystack, ss)) return ss
+          ss += skip(fold(haystack(ss+last)) & 0xFF)
+        }
+        -1
+      } catch {
+        case e :ArrayIndexOutOfBoundsException => gack(haystack, from, searchEnd, 1, e)
+      }
     }
 
     def searchBackward (haystack :Array[Char], begin :Int, end :Int, from :Int) :Int = {
-      val start = math.min(from, end-needle.length)
-      if (start < begin) -1 else search(needle, haystack, start, begin-1, -1)
+      val start = math.min(from, end-_length)
+      if (start < begin) -1 else try {
+        val skip = _bskip
+        var ss = start ; while (ss >= begin) {
+          if (check(haystack, ss)) return ss
+          ss -= skip(fold(haystack(ss)) & 0xFF)
+        }
+        -1
+      } catch {
+        case e :ArrayIndexOutOfBoundsException => gack(haystack, start, begin-1, -1, e)
+      }
     }
 
     def matches (haystack :Array[Char], hfirst :Int, hlast :Int) :Boolean =
-      if (hfirst + needle.length > hlast) false
-      else check(needle.length, needle, 0, haystack, hfirst)
+      if (hfirst + _length > hlast) false
+      else check(haystack, hfirst)
 
-    def matchLength = needle.length
+    def matchLength = _length
 
     override def show = needle.toString
     override def toString = show
 
-    private def search (n :CharSequence, hay :Array[Char], start :Int, stop :Int, dd :Int) = try {
-      val length = n.length
-      var ss = start ; while (ss != stop && !check(length, n, 0, hay, ss)) ss += dd
-      if (ss == stop) -1 else ss
-    } catch {
-      case e :ArrayIndexOutOfBoundsException =>
-        println(s"Gack! [m=$this, hay=${hay.length}, start=$start, stop=$stop, dd=$dd] $e") ; -1
+    private def check (h :Array[Char], hh :Int) :Boolean = {
+      val n = _needle ; val ll = _length
+      var nn = 0 ; while (nn < ll && eq(n(nn), h(hh+nn))) nn += 1
+      nn == ll
     }
 
-    @tailrec
-    private def check (ll :Int, n :CharSequence, nn :Int, h :Array[Char], hh :Int) :Boolean =
-      (nn == ll) || (eq(n.charAt(nn), h(hh)) && check(ll, n, nn+1, h, hh+1))
+    private def gack (hay :Array[Char], start :Int, stop :Int, dd :Int, e :Throwable) = {
+      println(s"Gack! [m=$this, hay=${hay.length}, start=$start, stop=$stop, dd=$dd] $e") ; -1
+    }
 
     /** Compares two characters for equality. Allows for case-sensitive or insensitive matching. */
     protected def eq (have :Char, want :Char) :Boolean
+
+    /** Folds `c` such that any chars which are [[eq]] fold to the same char. This is used to build
+      * and consult the skip tables. It is called during construction, so it must not depend on
+      * the state of a subclass. */
+    protected def fold (c :Char) :Char = c
   }
 }
@@ -4,6 +4,8 @@
 
 package scaled
 
+import java.util.concurrent.atomic.AtomicInteger
+
 /** Encapsulates a search on a buffer. This is tailored to support i-search, but is exposed as a
   * reusable API in case of broader utility.
   */
@@ -37,6 +39,25 @@ abstract class Search (val min :Loc) {
     loop(min)
   }
 
+  /** Finds all occurrances of the sought text between `min` and `max` on `exec`'s background
+    * threads. Matches in `first` (generally the visible part of the buffer) are found and reported
+    * first. The default implementation simply runs [[findAll]] on a background thread; searches
+    * on a buffer split a snapshot of the buffer (taken when this is called) into ranges of rows and
+    * search them in parallel.
+    * @return a [[Search.Finding]] which reports the matches and via which the search is canceled
+    * if it is no longer needed. */
+  def findAllAsync (exec :Executor, first :Region) :Search.Finding = {
+    val finding = new Search.Finding(exec)
+    exec.runInBG {
+      if (!finding.isClosed) try {
+        val all = findAll()
+        finding.report(all)
+        finding.complete(all)
+      } catch { case t :Throwable => finding.fail(t) }
+    }
+    finding
+  }
+
   /** Returns a string describing this search (for display to user). */
   def show :String
 }
@@ -44,6 +65,48 @@ abstract class Search (val min :Loc) {
 /** Search constructors. */
 object Search {
 
+  /** The number of rows searched as a unit by [[Search.findAllAsync]]. The search checks whether
+    * it has been canceled between units. */
+  final val RowsPerUnit = 4096
+
+  /** The matches of a [[Search.findAllAsync]], which are found on background threads and reported
+    * on the UI thread. A search that is no longer needed should be closed, which stops it; nothing
+    * further is reported by a closed search. */
+  class Finding (exec :Executor) extends Closeable {
+    @volatile private var _closed = false
+    private val _found = Signal[Seq[Loc]]()
+    private val _all = Promise[Seq[Loc]]()
+
+    /** Emits batches of matches as they are found. The matches in a batch are in order, but the
+      * batches are not: the batch(es) for the search's `first` region are emitted first, the
+      * rest in whatever order they are found. */
+    def found :SignalV[Seq[Loc]] = _found
+
+    /** Completes with all matches, in order, once they have all been found. */
+    def all :Future[Seq[Loc]] = _all
+
+    /** Returns true if this search has been closed. */
+    def isClosed :Boolean = _closed
+
+    /** Stops this search. */
+    override def close () :Unit = _closed = true
+
+    /** Reports a batch of matches. May be called on any thread. */
+    def report (matches :Seq[Loc]) :Unit = if (!matches.isEmpty) exec.runOnUI {
+      if (!_closed) _found.emit(matches)
+    }
+
+    /** Reports that all matches have been found. May be called on any thread. */
+    def complete (matches :Seq[Loc]) :Unit = exec.runOnUI {
+      if (!_closed) _all.succeed(matches)
+    }
+
+    /** Reports that the search failed. May be called on any thread. */
+    def fail (cause :Throwable) :Unit = exec.runOnUI {
+      if (!_closed) _all.fail(cause)
+    }
+  }
+
   /** Creates a [[Search]] with the specified parameters. */
   def apply (buffer :BufferV, min :Loc, max :Loc, sought :Matcher) :Search = new Search(min) {
     override def findForward (from :Loc) = buffer.findForward(sought, from, max)
@@ -52,6 +115,80 @@ object Search {
     override def replace (buffer :Buffer, loc :Loc, lines :Seq[LineV]) =
       sought.replace(buffer, loc, lines)
     override def show = sought.show
+
+    override def findAllAsync (exec :Executor, first :Region) = {
+      val finding = new Finding(exec)
+      // search a snapshot of our buffer, so that it may continue to be edited while we search
+      val snap = buffer match {
+        case buf :RBuffer => buf.snapshot()
+        case _            => buffer
+      }
+      // split our rows into units, the rows of `first` going first
+      val units = SeqBuffer[(Int,Int)]()
+      def split (from :Int, to :Int) = {
+        var row = from ; while (row < to) {
+          val next = math.min(to, row + RowsPerUnit)
+          units += (row -> next)
+          row = next
+        }
+      }
+      val minr = min.row ; val maxr = max.row+1
+      val firstr = math.max(minr, math.min(first.start.row, maxr))
+      val lastr = math.max(firstr, math.min(first.end.row+1, maxr))
+      split(firstr, lastr) ; val nfirst = units.size
+      split(minr, firstr) ; split(lastr, maxr)
+
+      // search the units in parallel, each worker pulling the next unit to search until we're done
+      val results = new Array[Seq[Loc]](units.size)
+      val next = new AtomicInteger(nfirst) ; val remain = new AtomicInteger(units.size)
+      def search (m :Matcher, ii :Int) :Unit = {
+        val (from, to) = units(ii)
+        val matches = findRows(snap, m, from, to)
+        results(ii) = matches
+        finding.report(matches)
+        if (remain.decrementAndGet() == 0) finding.complete(merge(units, results))
+      }
+      def work (m :Matcher) :Unit = {
+        var ii = next.getAndIncrement() ; while (ii < results.length && !finding.isClosed) {
+          search(m, ii)
+          ii = next.getAndIncrement()
+        }
+      }
+      def inBG (op : => Unit) = exec.runInBG {
+        try op catch { case t :Throwable => finding.fail(t) }
+      }
+      if (units.isEmpty) finding.complete(Seq())
+      // search the `first` units before the rest, so that their matches are reported first
+      else inBG {
+        val m = sought.fork()
+        var ii = 0 ; while (ii < nfirst && !finding.isClosed) { search(m, ii) ; ii += 1 }
+        val workers = math.min(units.size-nfirst, Runtime.getRuntime.availableProcessors)
+        for (ww <- 1 until workers) inBG { work(sought.fork()) }
+        work(m)
+      }
+      finding
+    }
+
+    // finds the matches that start on rows `[from, to)` (and between `min` and `max`)
+    private def findRows (buffer :BufferV, m :Matcher, from :Int, to :Int) :Seq[Loc] = {
+      val matches = Seq.builder[Loc]()
+      val stop = if (to > max.row) max else Loc(to, 0)
+      var loc = buffer.findForward(m, if (from > min.row) Loc(from, 0) else min, stop)
+      while (loc != Loc.None) {
+        matches += loc
+        // don't get stuck on an empty match (i.e. of a regexp like '$')
+        val len = m.matchLength
+        loc = buffer.findForward(m, if (len > 0) loc + (0, len) else buffer.forward(loc, 1), stop)
+      }
+      matches.build()
+    }
+
+    private def merge (units :SeqV[(Int,Int)], results :Array[Seq[Loc]]) :Seq[Loc] = {
+      val order = (0 until units.size).sortBy(ii => units(ii)._1)
+      val all = Seq.builder[Loc]()
+      for (ii <- order) all ++= results(ii)
+      all.build()
+    }
   }
 
   /** Creates a [[Search]] with the specified parameters. */
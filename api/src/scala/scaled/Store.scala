@@ -4,11 +4,17 @@
 
 package scaled
 
-import java.io.{File, FileNotFoundException, FileReader, FileWriter, Reader, Writer}
-import java.io.{BufferedReader, BufferedWriter, InputStreamReader, StringReader}
-import java.nio.file.{Files, Path, Paths, StandardCopyOption}
+import java.io.{File, FileNotFoundException, Reader, Writer}
+import java.io.{BufferedReader, InputStreamReader, StringReader}
+import java.nio.{ByteBuffer, CharBuffer}
+import java.nio.channels.FileChannel
+import java.nio.charset.{Charset, CodingErrorAction}
+import java.nio.file.{AtomicMoveNotSupportedException, FileAlreadyExistsException, Files, Path}
+import java.nio.file.{Paths, StandardCopyOption}
+import java.nio.file.StandardOpenOption.{READ, TRUNCATE_EXISTING, WRITE}
 import java.nio.file.attribute.PosixFileAttributeView
 import java.util.zip.ZipFile
+import scaled.util.MappedReader
 
 /** A place from which to read and optionally to which to write data. This is slightly more general
   * than file in that it allows Scaled to seamlessly read data from `.zip`. and `.jar` file entries,
@@ -41,10 +47,19 @@ abstract class Store extends Comparable[Store] {
     finally r.close()
   }
 
+  /** Passes the contents of this store to `lr` line by line. The default implementation reads
+    * via [[read]] and [[Store.reader]], but stores may provide a more efficient implementation. */
+  def readLines (lr :Store.LineReader) :Unit = read(Store.reader(lr))
+
   /** Writes `lines` to this store. */
   def write (lines :Iterable[Store.Writable]) :Unit =
     throw new UnsupportedOperationException(s"$name is not writable.")
 
+  /** Writes `lines` to this store. This does not touch any editor state, so stores that
+    * support it may be written from a background thread.
+    * @param sync if true, the written data is forced to the storage device before returning. */
+  def write (lines :Iterable[Store.Writable], sync :Boolean) :Unit = write(lines)
+
   /** Returns last modified time of backing file, or 0L for non-file stores. */
   def lastModified :Long = file.map { path =>
     try if (Files.exists(path)) Files.getLastModifiedTime(path).toMillis else 0L
@@ -116,23 +131,25 @@ object Store {
     var storeOffset = 0
     var read = 0
     var leftover = 0
+    var skipLF = false // true if the last buffer ended with \r, which might be half of a \r\n
     while (read >= 0) {
       read = r.read(buffer, leftover, buffer.length-leftover)
       if (read > 0) {
         val have = leftover + read
         var start = 0
+        if (skipLF && leftover == 0 && buffer(0) == '\n') { start = 1 ; storeOffset += 1 }
+        skipLF = false
         var next = start
         while (next < have) {
           val c = buffer(next)
           // TEMP: hackery to remove tabs; TODO: remove when we support tabs
           if (c == '\t') buffer(next) = ' '
-          // TODO: handle bare \r?
           if (c == '\r' || c == '\n') {
             lr(buffer, start, next, storeOffset)
             next += 1
-            if (next < have-1) {
-              val nc = buffer(next)
-              if (c == '\r' && nc == '\n') next += 1
+            if (c == '\r') {
+              if (next == have) skipLF = true
+              else if (buffer(next) == '\n') next += 1
             }
             storeOffset += (next-start)
             start = next
@@ -160,22 +177,62 @@ class FileStore private (val path :Path) extends Store {
   override def exists = Files.exists(path)
   override def readOnly = exists && !Files.isWritable(path)
 
-  override def reader = if (exists) new FileReader(path.toFile) else new StringReader("")
+  // the encoding of our file when it was last read, which we use when writing it
+  @volatile private var _encoding :MappedReader.Encoding = null
+
+  override def reader =
+    if (!exists) new StringReader("")
+    // pipes and the like can't be sniffed, so decode them with our last known encoding
+    else if (!Files.isRegularFile(path)) new InputStreamReader(Files.newInputStream(path), charset)
+    else {
+      // decode with the encoding with which we last read our file, or detect it if we haven't
+      val chan = FileChannel.open(path, READ)
+      try {
+        val enc = _encoding match {
+          case null => val detected = MappedReader.detect(chan, chan.size)
+                       _encoding = detected ; detected
+          case enc  => enc
+        }
+        MappedReader.reader(chan, enc)
+      } catch {
+        case t :Throwable => chan.close() ; throw t
+      }
+    }
+
+  override def readLines (lr :Store.LineReader) :Unit =
+    if (Files.isRegularFile(path)) _encoding = MappedReader.readLines(path, lr)
+    else super.readLines(lr)
+
+  override def write (lines :Iterable[Store.Writable]) :Unit = write(lines, false)
 
-  override def write (lines :Iterable[Store.Writable]) :Unit = {
+  /** Writes `lines` to a temporary file which then atomically replaces this store's file. If
+    * `sync` is true, the written data is forced to the storage device before it is renamed. This
+    * does not touch any editor state, so it may be called from a background thread. */
+  override def write (lines :Iterable[Store.Writable], sync :Boolean) :Unit = {
     Files.createDirectories(path.getParent) // make sure our parent directory exists
-    // TODO: file encoding?
-    val temp = path.resolveSibling(name + "~")
     val canPosix = Files.getFileAttributeView(path, classOf[PosixFileAttributeView]) != null
     val perms = if (exists && canPosix) Files.getPosixFilePermissions(path) else null
-    val out = new BufferedWriter(new FileWriter(temp.toFile))
+    val enc = _encoding
+    val charset = if (enc == null) Charset.defaultCharset else enc.charset
+    // each write uses its own temp file, so concurrent writes cannot clobber one another's
+    val temp = FileStore.createTemp(path)
     try {
-      val iter = lines.iterator ; while (iter.hasNext) {
-        iter.next.write(out)
-        if (iter.hasNext) out.newLine()
+      val chan = FileChannel.open(temp, TRUNCATE_EXISTING, WRITE)
+      try {
+        val out = new FileStore.ChannelWriter(chan, charset)
+        if (enc != null && enc.bom) out.write('\uFEFF')
+        val iter = lines.iterator ; while (iter.hasNext) {
+          iter.next.write(out)
+          if (iter.hasNext) out.write(FileStore.LineSep)
+        }
+        out.close()
+        if (sync) chan.force(true)
+      } finally chan.close()
+      try Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE)
+      catch {
+        case _ :AtomicMoveNotSupportedException =>
+          Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING)
       }
-      out.close()
-      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING)
       if (perms != null && !perms.isEmpty) Files.setPosixFilePermissions(path, perms)
 
     } finally {
@@ -183,6 +240,12 @@ class FileStore private (val path :Path) extends Store {
     }
   }
 
+  // the charset of our file when it was last read, or the default if it hasn't been read
+  private def charset = _encoding match {
+    case null => Charset.defaultCharset
+    case enc  => enc.charset
+  }
+
   override def equals (other :Any) = other match {
     case os :FileStore => path == os.path
     case _ => false
@@ -194,6 +257,54 @@ class FileStore private (val path :Path) extends Store {
 object FileStore {
   def apply (path :Path) = new FileStore(Store.realPath(path))
   def unapply (store :FileStore) :Option[Path] = Some(store.path)
+
+  private val LineSep = System.lineSeparator
+
+  // creates a uniquely named temp file next to `path`; unlike `Files.createTempFile` this creates
+  // the file with the default permissions, which a new file will keep
+  private def createTemp (path :Path) :Path = {
+    val rand = java.util.concurrent.ThreadLocalRandom.current
+    while (true) {
+      val temp = path.resolveSibling(s".${path.getFileName}.${rand.nextInt() >>> 1}~")
+      try return Files.createFile(temp)
+      catch { case _ :FileAlreadyExistsException => } // try another name
+    }
+    throw new AssertionError("unreachable")
+  }
+
+  // each writing thread reuses a single direct buffer into which to encode text
+  private val byteBufs = ThreadLocal.withInitial[ByteBuffer](
+    () => ByteBuffer.allocateDirect(64*1024))
+
+  /** Encodes characters via `charset` directly into a (reused) byte buffer which is drained to
+    * `chan` when full. Unmappable characters are replaced (as with `OutputStreamWriter`). */
+  private class ChannelWriter (chan :FileChannel, charset :Charset) extends Writer {
+    private val bytes = byteBufs.get
+    private val encoder = charset.newEncoder.
+      onMalformedInput(CodingErrorAction.REPLACE).
+      onUnmappableCharacter(CodingErrorAction.REPLACE)
+    bytes.clear()
+
+    override def write (cs :Array[Char], off :Int, len :Int) =
+      encode(CharBuffer.wrap(cs, off, len))
+    override def write (str :String, off :Int, len :Int) =
+      encode(CharBuffer.wrap(str, off, off+len))
+    override def flush () = drain()
+    override def close () = {
+      encode(CharBuffer.allocate(0), true)
+      while (encoder.flush(bytes).isOverflow) drain()
+      drain()
+    }
+
+    private def encode (chars :CharBuffer, eoi :Boolean = false) :Unit =
+      while (encoder.encode(chars, bytes, eoi).isOverflow) drain()
+
+    private def drain () :Unit = {
+      bytes.flip()
+      while (bytes.hasRemaining) chan.write(bytes)
+      bytes.clear()
+    }
+  }
 }
 
 /** A store that represents an entry in a zip file.
@@ -12,9 +12,19 @@ import java.util.Arrays
   *
   * A mode can make use of custom syntax instances if desired, but most general purpose code should
   * base behavior on the results of the syntax methods rather than object identity.
+  *
+  * Syntax instances are interned by value (via `equals` and `hashCode`) into a global table when
+  * first applied to a line, and lines store the (two byte) [[id]] of each character's syntax
+  * rather than a reference. By default two syntaxes are equal if they are of the same class and
+  * have the same properties, so syntaxes that differ in other ways must override `equals` and
+  * `hashCode`. A line reports the interned instance for each of its characters, which may not be
+  * the (equal) instance that was applied to it.
   */
 abstract class Syntax {
 
+  /** The id of this syntax in the global syntax table. See [[Syntax.byId]]. */
+  final lazy val id :Short = Syntax.intern(this)
+
   /** Returns true if this syntax represents a comment of some sort. */
   def isComment :Boolean
 
@@ -27,12 +37,49 @@ abstract class Syntax {
   /** Returns true if this syntax matches the properties of `other`. */
   def matches (other :Syntax) :Boolean =
     (isComment == other.isComment) && (isLiteral == other.isLiteral)
+
+  override def equals (other :Any) = other match {
+    case syn :Syntax => (syn.getClass eq getClass) && matches(syn)
+    case _           => false
+  }
+  override def hashCode = getClass.hashCode ^ (if (isComment) 1 else 0) ^ (if (isLiteral) 2 else 0)
 }
 
 /** Various standard syntax singletons. */
 object Syntax {
 
-  /** The default syntax. Interpreted as actual code. */
+  /** The maximum number of distinct syntaxes that may be interned. Any syntaxes beyond this are
+    * interned as the first interned syntax which [[Syntax.matches]] them. */
+  final val MaxSyntaxes = 65536
+
+  // the interned syntaxes, by id; this is only ever replaced by a larger copy (by `intern`), so
+  // `byId` can read it from any thread without locking
+  @volatile private var _table = new Array[Syntax](16)
+  private val _ids = new java.util.HashMap[Syntax,Integer]()
+
+  /** Returns the syntax with id `id`. */
+  @inline def byId (id :Short) :Syntax = _table(id & 0xFFFF)
+
+  // called by Syntax.id to intern a syntax into our table
+  private def intern (syn :Syntax) :Short = synchronized {
+    val id = _ids.get(syn)
+    if (id != null) id.shortValue
+    else if (_ids.size == MaxSyntaxes) {
+      var ii = 0 ; while (!_table(ii).matches(syn)) ii += 1
+      ii.toShort
+    }
+    else {
+      val nid = _ids.size ; var table = _table
+      if (nid == table.length) table = Arrays.copyOf(table, nid*2)
+      table(nid) = syn
+      _table = table
+      _ids.put(syn, nid)
+      nid.toShort
+    }
+  }
+
+  /** The default syntax. Interpreted as actual code. This is always the first syntax interned, so
+    * its id is zero and newly created syntax id arrays are filled with it. */
   val Default = new Syntax {
     def isComment = false
     def isLiteral = false
@@ -89,10 +136,28 @@ object Syntax {
     override def toString = "OtherLiteral"
   }
 
+  // intern the default syntax first, so that its id is zero
+  Default.id
+
+  /** Creates a syntax id array of `length`, filled with the id of `syn`. */
+  def mkIds (length :Int, syn :Syntax) :Array[Short] = {
+    val syns = new Array[Short](length)
+    if (syn ne Default) Arrays.fill(syns, syn.id)
+    syns
+  }
+
   /** Creates a syntax array of `length`, filled with `syn`. */
+  @deprecated("Lines store syntax ids, use mkIds", "1.0")
   def mkArray (length :Int, syn :Syntax) :Array[Syntax] = {
     val syns = new Array[Syntax](length)
     Arrays.fill(syns.asInstanceOf[Array[Object]], syn)
     syns
   }
+
+  /** Returns the ids of the syntaxes in `[offset, offset+length)` of `syns`. */
+  private[scaled] def toIds (syns :Array[Syntax], offset :Int, length :Int) :Array[Short] = {
+    val ids = new Array[Short](length)
+    var ii = 0 ; while (ii < length) { ids(ii) = syns(offset+ii).id ; ii += 1 }
+    ids
+  }
 }
@@ -4,6 +4,8 @@
 
 package scaled
 
+import java.util.Arrays
+
 /** Tags a segment of a line with a value. This is used for CSS style spans, and also allows modes
   * to tag arbitrary segments of the buffer with data.
   *
@@ -44,13 +46,15 @@ abstract class Tag[T] {
 /** Maintains an ordered collection of tags for a line. Supports the various queries and mutations
   * that are needed by [[Line]] and [[Buffer]].
   *
-  * We're mainly optimizing for minimal memory use: lookup time is linear in the number of tags on
-  * the line. The expectation is that there will usually be no more than a couple of dozen tags per
-  * line and that tag lookup will not be done at high frequency (versus syntax lookup which is used
-  * during character by character searches of the buffer and which may be done thousands or tens of
-  * thousands of times in a time slice). If tags turn out to be used substantially differently, we
-  * can consider using a more complex data structure like a segment tree or interval tree, but that
-  * complexity seemed overkill from the present perspective.
+  * Tags are kept in arrays sorted by `start` (tags with the same `start` are kept in the order in
+  * which they were added). Point queries ([[tagAt]], [[tagsAt]]) binary search for the tags that
+  * start at or before the query point and then consult a tree of the maximum `end` of each range
+  * of tags to skip those that end before it, so they take `O(log n + k)` time where `k` is the
+  * number of tags that contain the point. That tree is built lazily, and only for lines with more
+  * than a handful of tags. Mutations ([[expand]], [[delete]], etc.) adjust the arrays in place, in
+  * a single pass, without allocating. This keeps lines with thousands of tags (minified code,
+  * generated sources) responsive, while costing little more than the tags themselves for lines
+  * with just a few.
   *
   * Note regarding tag matching: tags are identified by their `Class` and `Class.isInstance` is
   * used to check tags for a match, so a hierarchy of tag sub-classes can be used under the
@@ -59,43 +63,65 @@ abstract class Tag[T] {
 class Tags {
   import Tags._
 
-  // a dummy element at the root of our node linked list simplifies logic
-  private val _root :Node[_] = rootNode()
+  // the tags, sorted by start, and the start and end of their segments
+  private var _tags :Array[Any] = NoTags
+  private var _starts :Array[Int] = NoInts
+  private var _ends :Array[Int] = NoInts
+  // the `Tag` for each tag, created on demand and cleared when the tag's segment changes
+  private[this] var _nodes :Array[Node[_]] = NoNodes
+  private var _size = 0
+
+  // a tree over the maximum end of our tags: node `n` covers children `2n` and `2n+1`, leaf `i` is
+  // node `_width+i`; only valid when `_indexed` is true
+  private[this] var _maxEnds :Array[Int] = null
+  private[this] var _width = 0
+  private[this] var _indexed = false
 
   /** Returns true if this tags set contains no tags. */
-  def isEmpty :Boolean = _root.isEmpty
+  def isEmpty :Boolean = _size == 0
 
   /** Adds a tag for the specified region denoted by `tag`. */
   def add[T] (tag :T, start :Int, end :Int) :Unit = {
-    _root.insert(mkNode(tag, start, end))
+    if (start < 0) throw new IllegalArgumentException(
+      s"start must be >= 0 ($tag, $start, $end)")
+    if (end <= start) throw new IllegalArgumentException(
+      s"end must be > start ($tag, $start, $end)")
+    // new tags go after any existing tags with the same start
+    val idx = firstAfter(start)
+    openGap(idx, 1)
+    set(idx, tag, start, end)
   }
 
   /** Returns the tags in this collection as a list. They are sorted by increasing `start`. */
-  def tags :List[Tag[_]] = _root.toListTail
+  def tags :List[Tag[_]] = {
+    var rs = Nil :List[Tag[_]] ; var ii = _size-1
+    while (ii >= 0) { rs = node(ii) :: rs ; ii -= 1 }
+    rs
+  }
 
   /** Returns the first tag found at `idx` which matches `tclass`. */
   def tagAt[T] (tclass :Class[T], idx :Int, dflt :T) :T = {
-    var node = _root.next ; while (node != null) {
-      if (tclass.isInstance(node.tag) && node.contains(idx)) return node.tag.asInstanceOf[T]
-      node = node.next
+    var ii = firstAt(0, idx) ; while (ii >= 0) {
+      if (tclass.isInstance(_tags(ii))) return _tags(ii).asInstanceOf[T]
+      ii = firstAt(ii+1, idx)
     }
     dflt
   }
 
   /** Returns all tags that intersect `idx` which match `tclass`. */
   def tagsAt[T] (tclass :Class[T], idx :Int) :List[Tag[T]] = {
-    var rs = Nil :List[Tag[T]] ; var node = _root.next ; while (node != null) {
-      if (tclass.isInstance(node.tag) && node.contains(idx)) rs = node.asInstanceOf[Tag[T]] :: rs
-      node = node.next
+    var rs = Nil :List[Tag[T]] ; var ii = firstAt(0, idx) ; while (ii >= 0) {
+      if (tclass.isInstance(_tags(ii))) rs = node(ii).asInstanceOf[Tag[T]] :: rs
+      ii = firstAt(ii+1, idx)
     }
     rs
   }
 
   /** Returns all tags that intersect `idx`. */
   def tagsAt (idx :Int) :List[Tag[_]] = {
-    var rs = Nil :List[Tag[_]] ; var node = _root.next ; while (node != null) {
-      if (node.contains(idx)) rs = node :: rs
-      node = node.next
+    var rs = Nil :List[Tag[_]] ; var ii = firstAt(0, idx) ; while (ii >= 0) {
+      rs = node(ii) :: rs
+      ii = firstAt(ii+1, idx)
     }
     rs
   }
@@ -104,20 +130,21 @@ class Tags {
     * a unique set of tags (including no tags). */
   def visit[T] (tclass :Class[T])(vis :(Seq[Tag[T]], Int, Int) => Unit) :Unit = try {
     var vts = Seq[Tag[T]]() ; var start = 0 ; var maxex = Int.MaxValue
-    var node = _root.next ; while (node != null) {
-      if (!tclass.isInstance(node.tag)) node = node.next
+    var ii = 0 ; while (ii < _size) {
+      if (!tclass.isInstance(_tags(ii))) ii += 1
       else {
+        val nstart = _starts(ii)
         // if we have no active visitation, start one with this tag; if we do have an active
         // visitation and this tag coincides with its start, add the tag
-        if (vts.isEmpty || node.start == start) {
-          vts :+= node.asInstanceOf[Tag[T]]
-          start = node.start // NOOPs unless vts was empty
-          maxex = math.min(maxex, node.end)
-          node = node.next
+        if (vts.isEmpty || nstart == start) {
+          vts :+= node(ii).asInstanceOf[Tag[T]]
+          start = nstart // NOOPs unless vts was empty
+          maxex = math.min(maxex, _ends(ii))
+          ii += 1
         }
         // otherwise constrain our current visitation to the start of this tag, and do it
         else {
-          maxex = math.min(maxex, node.start)
+          maxex = math.min(maxex, nstart)
           vis(vts, start, maxex)
           // start a new visitation and filter out any tags that are done
           start = maxex
@@ -153,21 +180,16 @@ class Tags {
     * part of it overlaps the region.
     * @return true if at least one tag was found and removed, false if no changes were made. */
   def removeAll[T] (tclass :Class[T], pred :T => Boolean, start :Int, end :Int) :Boolean = {
-    // val where = s"removeAll($tclass, $pred, [$start,$end))"
-    // checkInvariant(where)
-    var removed = false
-    var pnode = _root ; var node = _root.next ; while (node != null && node.start < end) {
-      if (tclass.isInstance(node.tag) && node.overlaps(start, end) &&
-          pred(node.tag.asInstanceOf[T])) {
-        pnode.next = node.next
-        node = node.next
-        removed = true
-      } else {
-        pnode = node
-        node = node.next
-      }
+    val size = _size ; var r = 0 ; var w = 0
+    while (r < size && _starts(r) < end) {
+      val tag = _tags(r)
+      val remove = tclass.isInstance(tag) && overlaps(_starts(r), _ends(r), start, end) &&
+        pred(tag.asInstanceOf[T])
+      if (!remove) { if (w != r) move(r, w) ; w += 1 }
+      r += 1
     }
-    // checkInvariant(where)
+    val removed = w < r
+    if (removed) closeGap(w, r-w)
     removed
   }
 
@@ -178,19 +200,19 @@ class Tags {
   /** Inserts a gap into the tag collection at `start`. Tags that overlap will be expanded,
     * tags that start at or after `start` will be shifted. */
   def expand (start :Int, length :Int) :Unit = {
-    // val where = s"expand(start=$start, length=$length)"
-    // checkInvariant(where)
-    var pnode = _root ; var node = _root.next ; while (node != null) {
-      val nstart = node.start ; val nend = node.end
-      // if the node starts at or after the expansion point, shift it
-      if (nstart >= start) pnode.replaceNext(mkNode(node.tag, nstart+length, nend+length))
-      // if the node overlaps the expansion point, expand it
-      else if (nend > start) pnode.replaceNext(mkNode(node.tag, nstart, nend+length))
-      // otherwise it starts and ends before the expansion point, ignore it
-      pnode = pnode.next // TODO: write failing test for 'pnode = node'...
-      node = node.next
+    val starts = _starts ; val ends = _ends ; val nodes = _nodes
+    // tags that start at or after the expansion point are shifted
+    val first = firstAfter(start-1)
+    var ii = first ; while (ii < _size) {
+      starts(ii) += length ; ends(ii) += length ; nodes(ii) = null
+      ii += 1
+    }
+    // tags that start before it and overlap it are expanded
+    ii = 0 ; while (ii < first) {
+      if (ends(ii) > start) { ends(ii) += length ; nodes(ii) = null }
+      ii += 1
     }
-    // checkInvariant(where)
+    _indexed = false
   }
 
   /** Deletes tags in the specified region, but does no shifting. */
@@ -206,119 +228,224 @@ class Tags {
 
   /** Slices `[start, end)` from these tags into `into` at `offset`. */
   def sliceInto (start :Int, end :Int, into :Tags, offset :Int) :Unit = {
-    // val where = s"sliceInto([$start,$end), $into, offset=$offset)"
-    // checkInvariant(where)
     def clip[T] (tag :T, cstart :Int, cend :Int) = if (cend > cstart) into.add(tag, cstart, cend)
-    var node = _root.next ; while (node != null && node.start < end) {
-      val nstart = node.start ; val nend = node.end
-      // node starts at or before the region
+    var ii = 0 ; while (ii < _size && _starts(ii) < end) {
+      val nstart = _starts(ii) ; val nend = _ends(ii)
+      // tag starts at or before the region
       if (nstart <= start) {
-        // if the node overlaps the region, slice out the middle
-        if (nend >= end) clip(node.tag, offset, offset+end-start)
-        // if the node overlaps on the left, include the overlappy bit
-        else if (nend > start) clip(node.tag, offset, offset+nend-start)
+        // if the tag overlaps the region, slice out the middle
+        if (nend >= end) clip(_tags(ii), offset, offset+end-start)
+        // if the tag overlaps on the left, include the overlappy bit
+        else if (nend > start) clip(_tags(ii), offset, offset+nend-start)
         // otherwise it starts and ends before the region; ignore it
       }
-      // node starts inside the region
-      else if (nstart < end) {
-        // take as much of the node as fits in the region
-        clip(node.tag, offset+nstart-start, offset+math.min(nend, end)-start)
-      }
-      // otherwise node starts after region, ignore it
-      node = node.next
+      // otherwise the tag starts inside the region, take as much of it as fits in the region
+      else clip(_tags(ii), offset+nstart-start, offset+math.min(nend, end)-start)
+      ii += 1
     }
-    // checkInvariant(where)
   }
 
-  override def equals (other :Any) :Boolean = other.isInstanceOf[Tags] && (
-    chaineq(_root, other.asInstanceOf[Tags]._root))
+  override def equals (other :Any) :Boolean = other match {
+    case ot :Tags => (_size == ot._size) && {
+      var ii = 0 ; while (ii < _size && _starts(ii) == ot._starts(ii) &&
+                          _ends(ii) == ot._ends(ii) && _tags(ii) == ot._tags(ii)) ii += 1
+      ii == _size
+    }
+    case _ => false
+  }
 
   override def toString :String = tags.mkString("[",", ","]")
 
   private def delete (pred :Any => Boolean, start :Int, end :Int, shift :Int) :Boolean = {
-    // val where = s"delete($pred, [$start,$end), shift=$shift)"
-    // checkInvariant(where)
-    @inline @tailrec def loop (pnode :Node[_], mod :Boolean) :Boolean = {
-      val node = pnode.next
-      if (node == null) mod
-      else if (pred != null && !pred(node.tag)) loop(node, mod)
-      else {
-        val nstart = node.start ; val nend = node.end
-        // node starts before region
-        if (nstart < start) {
-          // if node also ends before region, it is not affected
-          if (nend <= start) loop(node, mod)
-          // if it ends inside the region, chop off the right
-          else if (nend <= end) loop(pnode.replaceNext(mkNode(node.tag, node.start, start)), true)
-          else { // otherwise split it into before and after region parts
-            val lfrag = mkNode(node.tag, node.start, start)
-            val rfrag = mkNode(node.tag, end-shift, node.end)
-            // replace the split node with the left fragment
-            pnode.replaceNext(lfrag)
-            // 'insert' the right fragment because it may not sort immediately after the left
-            // fragment in our ordered tag list; note that the right fragment will be shifted when
-            // this loop arrives there, so we don't create it shifted by default; this is somewhat
-            // inefficient, but avoiding the extra allocation would greatly complicate things
-            lfrag.insert(rfrag)
-            loop(lfrag, true)
+    // tags which span the region are split in two; the right fragments all start at `rstart`,
+    // and are placed (in the order they were split) before the first tag that starts after that
+    val rstart = end-shift
+    var rtags :Array[Any] = null ; var rends :Array[Int] = null ; var rcount = 0
+    var mod = false ; var r = 0 ; var w = 0
+    while (r < _size) {
+      val nstart = _starts(r)
+      if (rcount > 0 && nstart > rstart) {
+        // make room for the right fragments if we've not dropped enough tags to fit them
+        val need = rcount - (r-w)
+        if (need > 0) { openGap(r, need) ; r += need }
+        var ii = 0 ; while (ii < rcount) { set(w, rtags(ii), rstart, rends(ii)) ; w += 1 ; ii += 1 }
+        rcount = 0
+      }
+      val nend = _ends(r) ; val tag = _tags(r)
+      // tag does not match, or starts and ends before region: it is not affected
+      if ((pred != null && !pred(tag)) || (nstart < start && nend <= start)) {
+        if (w != r) move(r, w) ; w += 1
+      }
+      // tag starts before region: chop off the right
+      else if (nstart < start) {
+        set(w, tag, nstart, start) ; w += 1 ; mod = true
+        // if it extends beyond the region, we keep the (shifted) after part as a separate tag
+        if (nend > end) {
+          if (rtags == null) { rtags = new Array[Any](4) ; rends = new Array[Int](4) }
+          else if (rcount == rtags.length) {
+            rtags = Arrays.copyOf(rtags.asInstanceOf[Array[Object]], rcount*2).
+              asInstanceOf[Array[Any]]
+            rends = Arrays.copyOf(rends, rcount*2)
           }
+          rtags(rcount) = tag ; rends(rcount) = nend-shift ; rcount += 1
         }
-        // node starts inside region
-        else if (nstart < end) {
-          // if it also ends inside the region, just delete it
-          if (nend <= end) loop(pnode.setNext(node.next), true)
-          // otherwise retain the after part (and shift it)
-          else loop(pnode.replaceNext(mkNode(node.tag, end-shift, nend-shift)), true)
-        }
-        // node starts and ends after region, may need to be shifted
-        else if (shift != 0) {
-          loop(pnode.replaceNext(mkNode(node.tag, nstart-shift, nend-shift)), true)
-        }
-        else loop(node, mod)
       }
+      // tag starts inside region: delete it, or retain (and shift) the after part
+      else if (nstart < end) {
+        if (nend > end) { set(w, tag, rstart, nend-shift) ; w += 1 }
+        mod = true
+      }
+      // tag starts and ends after region, may need to be shifted
+      else if (shift != 0) { set(w, tag, nstart-shift, nend-shift) ; w += 1 ; mod = true }
+      else { if (w != r) move(r, w) ; w += 1 }
+      r += 1
+    }
+    if (rcount > 0) {
+      openGap(w, rcount - (r-w) max 0)
+      var ii = 0 ; while (ii < rcount) { set(w, rtags(ii), rstart, rends(ii)) ; w += 1 ; ii += 1 }
     }
-    val res = loop(_root, false)
-    // checkInvariant(where)
-    res
+    if (w < _size) closeGap(w, _size-w)
+    // removing a tag can move the remains of a tag that starts in the region to its end, beyond
+    // non-matching tags that start in the region, so we restore our order if necessary
+    if (pred != null && mod) sort()
+    _indexed = false
+    mod
   }
 
-  // private def checkInvariant (where :String) :Unit = {
-  //   var node = _root.next ; while (node != null) {
-  //     if (node.next != null && node.start > node.next.start) throw new IllegalStateException(
-  //       s"Invalid node order: $where -> $node in $tags")
-  //     node = node.next
-  //   }
-  // }
-}
+  // returns the index of the first tag at or after `from` which contains `idx`, or -1
+  private def firstAt (from :Int, idx :Int) :Int = {
+    val size = _size
+    if (size <= IndexMin) {
+      var ii = from ; while (ii < size && _starts(ii) <= idx) {
+        if (_ends(ii) > idx) return ii
+        ii += 1
+      }
+      -1
+    } else {
+      val until = firstAfter(idx)
+      if (from >= until) -1 else firstAt(index(), 1, 0, _width, from, until, idx)
+    }
+  }
 
-object Tags {
+  private def firstAt (maxEnds :Array[Int], node :Int, lo :Int, hi :Int,
+                       from :Int, until :Int, idx :Int) :Int =
+    if (hi <= from || lo >= until || maxEnds(node) <= idx) -1
+    else if (hi - lo == 1) lo
+    else {
+      val mid = (lo + hi) >>> 1
+      val left = firstAt(maxEnds, 2*node, lo, mid, from, until, idx)
+      if (left >= 0) left else firstAt(maxEnds, 2*node+1, mid, hi, from, until, idx)
+    }
 
-  private def mkNode[T] (tag :T, start :Int, end :Int) = {
-    if (start < 0) throw new IllegalArgumentException(s"start must be >= 0 ($tag, $start, $end)")
-    if (end <= start) throw new IllegalArgumentException(s"end must be > start ($tag, $start, $end)")
-    new Node(tag, start, end)
+  // returns the index of the first tag which starts after `pos`
+  private def firstAfter (pos :Int) :Int = {
+    val starts = _starts ; var low = 0 ; var high = _size
+    while (low < high) {
+      val mid = (low + high) >>> 1
+      if (starts(mid) <= pos) low = mid+1 else high = mid
+    }
+    low
   }
 
-  private def rootNode () = Node(null, Int.MinValue, Int.MaxValue)
+  private def index () :Array[Int] = {
+    if (!_indexed) {
+      val size = _size
+      var width = 1 ; while (width < size) width *= 2
+      if (_maxEnds == null || _maxEnds.length < 2*width) _maxEnds = new Array[Int](2*width)
+      val maxEnds = _maxEnds
+      System.arraycopy(_ends, 0, maxEnds, width, size)
+      Arrays.fill(maxEnds, width+size, 2*width, Int.MinValue)
+      var ii = width-1 ; while (ii > 0) {
+        maxEnds(ii) = math.max(maxEnds(2*ii), maxEnds(2*ii+1))
+        ii -= 1
+      }
+      _width = width
+      _indexed = true
+    }
+    _maxEnds
+  }
 
-  private case class Node[T] (tag :T, start :Int, end :Int) extends Tag[T] {
-    var next :Node[_] = _
+  private def node (idx :Int) :Node[_] = {
+    var node = _nodes(idx)
+    if (node == null) {
+      node = Node(_tags(idx), _starts(idx), _ends(idx))
+      _nodes(idx) = node
+    }
+    node
+  }
 
-    def isEmpty = (next == null)
-    def toList :List[Tag[_]] = this :: toListTail
-    def toListTail :List[Tag[_]] = if (next == null) Nil else next.toList
+  private def set (idx :Int, tag :Any, start :Int, end :Int) :Unit = {
+    _tags(idx) = tag ; _starts(idx) = start ; _ends(idx) = end ; _nodes(idx) = null
+  }
 
-    def insert (node :Node[_]) :Unit = {
-      if (next == null || node.start < next.start) next = node.setNext(next)
-      else next.insert(node)
+  private def move (from :Int, to :Int) :Unit = {
+    _tags(to) = _tags(from) ; _starts(to) = _starts(from) ; _ends(to) = _ends(from)
+    _nodes(to) = _nodes(from)
+  }
+
+  // inserts `count` unset tags at `idx`
+  private def openGap (idx :Int, count :Int) :Unit = if (count > 0) {
+    val size = _size ; val need = size + count
+    if (need > _starts.length) {
+      var ncap = math.max(4, _starts.length*2) ; while (ncap < need) ncap *= 2
+      _tags = Arrays.copyOf(_tags.asInstanceOf[Array[Object]], ncap).asInstanceOf[Array[Any]]
+      _starts = Arrays.copyOf(_starts, ncap)
+      _ends = Arrays.copyOf(_ends, ncap)
+      _nodes = Arrays.copyOf(_nodes.asInstanceOf[Array[Object]], ncap).asInstanceOf[Array[Node[_]]]
+    }
+    if (idx < size) {
+      System.arraycopy(_tags, idx, _tags, idx+count, size-idx)
+      System.arraycopy(_starts, idx, _starts, idx+count, size-idx)
+      System.arraycopy(_ends, idx, _ends, idx+count, size-idx)
+      System.arraycopy(_nodes, idx, _nodes, idx+count, size-idx)
     }
+    _size = need
+    _indexed = false
+  }
 
-    def setNext (node :Node[_]) :this.type = { next = node ; this }
-    def replaceNext (node :Node[_]) :node.type = { node.next = next.next ; next = node ; node }
+  // removes the `count` tags at `idx`
+  private def closeGap (idx :Int, count :Int) :Unit = {
+    val size = _size ; val from = idx+count
+    if (from < size) {
+      System.arraycopy(_tags, from, _tags, idx, size-from)
+      System.arraycopy(_starts, from, _starts, idx, size-from)
+      System.arraycopy(_ends, from, _ends, idx, size-from)
+      System.arraycopy(_nodes, from, _nodes, idx, size-from)
+    }
+    Arrays.fill(_tags.asInstanceOf[Array[Object]], size-count, size, null)
+    Arrays.fill(_nodes.asInstanceOf[Array[Object]], size-count, size, null)
+    _size = size - count
+    _indexed = false
   }
 
-  private def chaineq (a :Node[_], b :Node[_]) :Boolean = a match {
-    case null => b == null
-    case a    => (a == b) && chaineq(a.next, b.next)
+  // restores our order by start (stably) using an insertion sort, as we'll be at most a few tags
+  // out of order
+  private def sort () :Unit = {
+    var ii = 1 ; while (ii < _size) {
+      val start = _starts(ii)
+      if (start < _starts(ii-1)) {
+        val tag = _tags(ii) ; val end = _ends(ii) ; val node = _nodes(ii)
+        var jj = ii ; while (jj > 0 && _starts(jj-1) > start) { move(jj-1, jj) ; jj -= 1 }
+        _tags(jj) = tag ; _starts(jj) = start ; _ends(jj) = end ; _nodes(jj) = node
+      }
+      ii += 1
+    }
   }
 }
+
+object Tags {
+
+  /** Lines with at most this many tags are queried by a linear scan rather than via an index. */
+  private final val IndexMin = 16
+
+  private val NoTags = new Array[Any](0)
+  private val NoInts = new Array[Int](0)
+  private val NoNodes = new Array[Node[_]](0)
+
+  private case class Node[T] (tag :T, start :Int, end :Int) extends Tag[T]
+
+  // matches the semantics of `Tag.overlaps`
+  private def overlaps (tstart :Int, tend :Int, start :Int, end :Int) =
+    (tstart <= start && start < tend) || (tstart <= end-1 && end-1 < tend) ||
+      (start < tstart && end >= tend)
+}
@@ -39,14 +39,19 @@ trait Window {
       * @return the view for the buffer. */
     def visitFile (store :Store) = visit(window.workspace.openBuffer(store))
 
+    /** Opens a read-only buffer for `store` (see [[Workspace.viewBuffer]]) and visits it.
+      * @return the view for the buffer. */
+    def viewFile (store :Store) = visit(window.workspace.viewBuffer(store))
+
     /** Closes and reloads the current buffer, preserving the scroll position and point.
       * Note: any modifications to the current buffer will be lost. Be careful.
       * @return the view for the buffer. */
     def revisitFile () :BufferView = {
       val file = view.buffer.store ; val p = view.point()
       val top = view.scrollTop() ; val left = view.scrollLeft()
+      val paged = view.buffer.isPaged
       view.buffer.kill()
-      val nv = visitFile(file)
+      val nv = if (paged) viewFile(file) else visitFile(file)
       nv.scrollTop() = top
       nv.scrollLeft() = left
       nv.point() = p
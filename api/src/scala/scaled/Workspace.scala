@@ -87,6 +87,12 @@ abstract class Workspace {
     * be returned instead. */
   def openBuffer (file :Store) :Buffer
 
+  /** Opens a read-only buffer for viewing `file` in this workspace. If `file` is large, its lines
+    * are paged in as needed rather than read into memory, and lines appended to it are added to
+    * the buffer (which is useful for following a large log). If a buffer is already open for
+    * `file` it will be returned instead. */
+  def viewBuffer (file :Store) :Buffer
+
   /** Opens a new window in this workspace. The window will not become visible until the caller
     * instructs it to visit a buffer.
     * @param geom optional gemoetry for the window. If none is provided, the geometry will be
@@ -110,6 +116,9 @@ abstract class Workspace {
   /** Removes `path` from this workspace's list of hint paths. */
   def removeHintPath (path :Path) :Unit
 
+  /** Returns this workspace's hint paths. */
+  def hintPaths :Seq[Path]
+
   /** An executor which reports errors by appending to `*messages*` buffer. */
   def exec :Executor
 
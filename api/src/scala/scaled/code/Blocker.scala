@@ -19,8 +19,20 @@ case class Block (start :Loc, end :Loc, isValid :Boolean) extends Region {
 }
 
 /** Handles identifying code [[Block]]s.
+  *
+  * The brackets on each line of the buffer are summarized (their positions, and for each syntax
+  * class and bracket type, their net count and the deepest point reached when scanning over the
+  * line in either direction). When searching for an unmatched bracket, lines that cannot contain
+  * it are skipped using their summaries, and only the bracket positions of the remaining lines
+  * are visited. The summaries are cached in (ephemeral) line tags, so an edited line is
+  * summarized anew the next time it is needed.
   */
 class Blocker (buffer :BufferV, openers :String, closers :String) {
+  import Blocker._
+
+  private val brackets = openers + closers
+  private val types = openers.length
+  private val noBrackets = new Brackets(brackets, Array(), Array(), new Array[Int](4*types*3))
 
   /** Returns the inner-most block that encloses `loc`. The block will be restricted to characters
     * that have syntax that matches the character at `loc`. */
@@ -28,26 +40,24 @@ class Blocker (buffer :BufferV, openers :String, closers :String) {
 
   /** Returns the inner-most block that encloses `loc` and which has the specified syntax. */
   def apply (loc :Loc, syntax :Syntax) :Option[Block] = {
-    val srow = loc.row ; val scol = loc.col
-    findOpener.reset(syntax)
-    findCloser.reset(syntax)
+    val srow = loc.row ; val scol = loc.col ; val sclass = syntaxClass(syntax)
     // if the character immediately prior to `loc` is a close bracket; return that block
     val pcidx = if (scol == 0 || !(buffer.syntaxAt(Loc(srow, scol-1)) matches syntax)) -1
                 else closers.indexOf(buffer.charAt(loc.prevC))
     if (pcidx >= 0) {
-      val start = buffer.scanBackward(findOpener, loc.prevC)
+      val start = findOpener(loc.prevC, sclass)
       val sbidx = openers.indexOf(buffer.charAt(start))
       if (sbidx == pcidx) Some(Block(start, loc.prevC, true))
       else None
     }
     // otherwise scan backwards for the first opener (skipping matched pairs along the way)
     else {
-      val start = buffer.scanBackward(findOpener, loc)
+      val start = findOpener(loc, sclass)
       val sbidx = openers.indexOf(buffer.charAt(start))
       // we may have hit the start of the buffer and seen no opener
       if (sbidx == -1) None
       else {
-        val end = buffer.scanForward(findCloser, loc)
+        val end = findCloser(loc, sclass)
         val ebidx = closers.indexOf(buffer.charAt(end))
         Some(Block(start, end, sbidx == ebidx))
       }
@@ -59,38 +69,160 @@ class Blocker (buffer :BufferV, openers :String, closers :String) {
   def require (loc :Loc, syntax :Syntax) =
     apply(loc, syntax) getOrElse Block(buffer.start, buffer.end, false)
 
-  // scans backwards, looking for an unmatched opener
-  class Scanner (starts :String, ends :String) extends Function2[Char,Syntax,Boolean] {
-    val counts = new Array[Int](starts.length)
-    val zeros = counts.clone()
-    private[this] var syntax = Syntax.Default
+  // pending (unmatched) brackets of each type, used by our scans
+  private val counts = new Array[Int](types)
 
-    def apply (c :Char, cs :Syntax) :Boolean = {
-      // if we see a block starter, tick up a counter for that bracket
-      val sidx = starts.indexOf(c)
-      if (sidx >= 0 && (cs matches syntax)) counts(sidx) += 1
-      else {
-        // if we see a block ender, tick down the counter for that bracket
-        val eidx = ends.indexOf(c)
-        if (eidx >= 0 && (cs matches syntax)) {
-          val cur = counts(eidx)
-          // if we haven't seen a starter for this opener, it's what we're looking for
-          if (cur == 0) return true
-          else counts(eidx) = cur-1
+  // scans backward from just before `from` for an opener (of syntax class `sclass`) which is not
+  // matched by a closer (of the same type and class) between it and `from`; returns the start of
+  // the buffer if no such opener is found
+  private def findOpener (from :Loc, sclass :Int) :Loc = {
+    java.util.Arrays.fill(counts, 0)
+    var row = from.row ; var col = from.col
+    while (row >= 0) {
+      val bs = bracketsAt(row)
+      if (col < Int.MaxValue || !bs.skipBackward(counts, sclass, types)) {
+        var ii = bs.count-1 ; while (ii >= 0) {
+          val code = bs.codes(ii)
+          if (bs.cols(ii) < col && (code >>> ClassShift) == sclass) {
+            val tt = (code & TypeMask) >>> 1
+            if ((code & OpenBit) == 0) counts(tt) += 1
+            else if (counts(tt) == 0) return Loc(row, bs.cols(ii))
+            else counts(tt) -= 1
+          }
+          ii -= 1
         }
       }
-      false
+      row -= 1 ; col = Int.MaxValue
     }
+    buffer.start
+  }
 
-    // resets this scanner and prepares it for operation
-    def reset (syntax :Syntax) :Unit = {
-      this.syntax = syntax
-      Arrays.fill(counts, 0)
+  // scans forward from `from` for a closer (of syntax class `sclass`) which is not matched by an
+  // opener (of the same type and class) between `from` and it; returns the end of the buffer if
+  // no such closer is found
+  private def findCloser (from :Loc, sclass :Int) :Loc = {
+    java.util.Arrays.fill(counts, 0)
+    var row = from.row ; var col = from.col ; val rows = buffer.lines.size
+    while (row < rows) {
+      val bs = bracketsAt(row)
+      if (col > 0 || !bs.skipForward(counts, sclass, types)) {
+        var ii = 0 ; while (ii < bs.count) {
+          val code = bs.codes(ii)
+          if (bs.cols(ii) >= col && (code >>> ClassShift) == sclass) {
+            val tt = (code & TypeMask) >>> 1
+            if ((code & OpenBit) != 0) counts(tt) += 1
+            else if (counts(tt) == 0) return Loc(row, bs.cols(ii))
+            else counts(tt) -= 1
+          }
+          ii += 1
+        }
+      }
+      row += 1 ; col = 0
     }
+    buffer.end
+  }
 
-    // we're valid if we find an unmatched opener and have no pending closers
-    def isValid () = Arrays.equals(counts, zeros)
+  private def bracketsAt (row :Int) :Brackets = {
+    val line = buffer.line(row)
+    val cached = line.lineTag(Unknown)
+    if (cached.brackets == brackets) cached
+    else {
+      val bs = summarize(line)
+      buffer match {
+        case buf :Buffer => buf.setLineTag(row, bs)
+        case _ => // can't cache summaries for a read-only buffer view
+      }
+      bs
+    }
   }
-  private val findOpener = new Scanner(closers, openers)
-  private val findCloser = new Scanner(openers, closers)
+
+  private def summarize (line :LineV) :Brackets = {
+    var cols :Array[Int] = null ; var codes :Array[Int] = null ; var count = 0
+    var cc = 0 ; val ll = line.length ; while (cc < ll) {
+      val bidx = brackets.indexOf(line.charAt(cc))
+      if (bidx >= 0) {
+        if (cols == null) { cols = new Array[Int](4) ; codes = new Array[Int](4) }
+        else if (count == cols.length) {
+          cols = java.util.Arrays.copyOf(cols, count*2)
+          codes = java.util.Arrays.copyOf(codes, count*2)
+        }
+        val open = bidx < types ; val tt = if (open) bidx else bidx-types
+        cols(count) = cc
+        codes(count) = (syntaxClass(line.syntaxAt(cc)) << ClassShift) | (tt << 1) |
+          (if (open) OpenBit else 0)
+        count += 1
+      }
+      cc += 1
+    }
+    if (count == 0) noBrackets
+    else {
+      // for each class and type: the net count of opens less closes, the lowest running count
+      // when scanning backward (closes count up, opens down) and when scanning forward (opens
+      // count up, closes down)
+      val summary = new Array[Int](4*types*3)
+      var ii = 0 ; while (ii < count) {
+        val code = codes(ii)
+        val base = ((code >>> ClassShift)*types + ((code & TypeMask) >>> 1))*3
+        val delta = if ((code & OpenBit) != 0) 1 else -1
+        summary(base) += delta
+        summary(base+2) = math.min(summary(base+2), summary(base))
+        ii += 1
+      }
+      ii = count-1 ; val back = new Array[Int](4*types) ; while (ii >= 0) {
+        val code = codes(ii) ; val bidx = (code >>> ClassShift)*types + ((code & TypeMask) >>> 1)
+        back(bidx) += (if ((code & OpenBit) != 0) -1 else 1)
+        summary(bidx*3+1) = math.min(summary(bidx*3+1), back(bidx))
+        ii -= 1
+      }
+      new Brackets(brackets, java.util.Arrays.copyOf(cols, count),
+                   java.util.Arrays.copyOf(codes, count), summary)
+    }
+  }
+}
+
+object Blocker {
+
+  /** Summarizes the brackets on a line. Bracket `i` is at column `cols(i)` and its code contains
+    * its syntax class, its type (index into the openers or closers) and whether it opens. */
+  private class Brackets (val brackets :String, val cols :Array[Int], val codes :Array[Int],
+                          summary :Array[Int]) extends Line.Tag {
+    def count = cols.length
+
+    /** Returns true if a backward scan entering this line with `counts` pending closers would not
+      * find an unmatched opener of class `sclass`, and adjusts `counts` to account for the line. */
+    def skipBackward (counts :Array[Int], sclass :Int, types :Int) :Boolean = {
+      val base = sclass*types
+      var tt = 0 ; while (tt < types) {
+        if (counts(tt) + summary((base+tt)*3+1) < 0) return false
+        tt += 1
+      }
+      tt = 0 ; while (tt < types) { counts(tt) -= summary((base+tt)*3) ; tt += 1 }
+      true
+    }
+
+    /** Returns true if a forward scan entering this line with `counts` pending openers would not
+      * find an unmatched closer of class `sclass`, and adjusts `counts` to account for the line. */
+    def skipForward (counts :Array[Int], sclass :Int, types :Int) :Boolean = {
+      val base = sclass*types
+      var tt = 0 ; while (tt < types) {
+        if (counts(tt) + summary((base+tt)*3+2) < 0) return false
+        tt += 1
+      }
+      tt = 0 ; while (tt < types) { counts(tt) += summary((base+tt)*3) ; tt += 1 }
+      true
+    }
+
+    override def ephemeral = true
+  }
+
+  private val Unknown = new Brackets("", Array(), Array(), Array())
+
+  private final val OpenBit = 1
+  private final val TypeMask = 0xFF
+  private final val ClassShift = 8
+
+  // brackets only match brackets with matching syntax (see Syntax.matches), so we partition them
+  // into four classes: code, comments, literals and (odd as it would be) both
+  private def syntaxClass (syntax :Syntax) =
+    (if (syntax.isComment) 1 else 0) | (if (syntax.isLiteral) 2 else 0)
 }
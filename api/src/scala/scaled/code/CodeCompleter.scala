@@ -4,8 +4,7 @@
 
 package scaled.code
 
-import com.google.common.collect.TreeMultimap
-import java.util.{HashMap, LinkedHashSet}
+import java.util.{HashMap, LinkedHashSet, Set => JSet, TreeMap}
 import scaled._
 import scaled.util.Chars
 
@@ -66,66 +65,119 @@ object CodeCompleter {
   }
 }
 
+/** Completes tokens (runs of word characters) found in the buffers of a workspace. Tokens in the
+  * buffer being completed are offered first, followed by those in the workspace's other
+  * (non-scratch) buffers.
+  *
+  * Each buffer's tokens are tracked per row and kept up to date as the buffer is edited (only the
+  * edited rows are retokenized). They are indexed (with reference counts) in a sorted index for
+  * the buffer and in a shared index for the workspace, so a completion visits only the tokens that
+  * match its prefix. A buffer is first tokenized in the background, from a snapshot, so its tokens
+  * are offered once that completes. Paged buffers (see [[Buffer.isPaged]]) are not tokenized.
+  */
 class TokenCompleter (val wspace :Workspace) extends CodeCompleter {
   import CodeCompleter._
-  final val MinRefreshInterval = 3000L
+  import TokenCompleter._
 
   class Tokener (val buffer :RBuffer) {
-    val tokens = TreeMultimap.create[String,String]()
-    var needsRefresh = true
-    var lastRefresh = 0L
-
-    buffer.edited.onEmit { needsRefresh = true }
-
-    def addCompletions (prefix :String, sb :LinkedHashSet[String]) :Unit = {
-      if (needsRefresh) {
-        val now = System.currentTimeMillis
-        if (now - lastRefresh > MinRefreshInterval) {
-          refresh()
-          lastRefresh = now
-          needsRefresh = false
+    /** The tokens in this buffer. */
+    val index = new Index()
+    // scratch buffer tokens are only offered when completing in the scratch buffer itself
+    private val global = !Buffer.isScratch(buffer.name)
+    // the tokens on each row of the buffer, null for rows whose tokens are not (yet) indexed
+    private val rows = SeqBuffer.withCapacity[Array[String]](buffer.lines.size)
+    // the edits made while our initial tokens are computed, null once they have been added
+    private var pending = SeqBuffer[Buffer.Edit]()
+    private var cleared = false
+
+    // visiting every line of a paged buffer would page in the entire file, so we don't
+    if (!buffer.isPaged) {
+      buffer.edited.onValue { edit =>
+        if (pending != null) pending += edit
+        else {
+          note(edit)
+          tokenizeRows(edit.start.row, edit match {
+            case _ :Buffer.Delete => edit.start.row
+            case _                => edit.end.row
+          })
         }
       }
+      val lines = buffer.snapshot().lines
+      exec.runAsync(lines.map(tokenize)).onSuccess(init)
+    }
 
-      val iter = tokens.keySet.tailSet(prefix, true).iterator
-      def loop () :Unit = {
-        val word = iter.next()
-        if (word.startsWith(prefix)) {
-          tokens.get(word) foreach sb.add
-          if (iter.hasNext()) loop()
-        }
+    /** Removes this buffer's tokens from the shared index. */
+    def clear () :Unit = {
+      cleared = true
+      pending = null
+      rows foreach remove
+    }
+
+    private def init (tokens :Seq[Array[String]]) :Unit = if (!cleared) {
+      tokens foreach { ts => rows += ts ; add(ts) }
+      val edits = pending ; pending = null
+      if (!edits.isEmpty) {
+        // catch up with the edits made since our snapshot, then tokenize the rows they changed
+        edits foreach note
+        tokenizeRows(0, rows.size-1)
       }
-      if (iter.hasNext()) loop()
     }
 
-    private def refresh () :Unit = {
-      tokens.clear()
-      buffer.lines foreach { line =>
-        val IsWord = Chars.isWord
-        val sb = new java.lang.StringBuilder() // don't use Scala's retarded SB
-        def flush () :Unit = {
-          if (sb.length > 0) {
-            // ignore short tokens, not much point in completing a three letter word
-            if (sb.length > 3) {
-              val word = sb.toString
-              val key = word.toLowerCase
-              tokens.put(key, word)
-            }
-            sb.setLength(0)
+    // updates our rows to reflect `edit`, unindexing the tokens of the rows it changed
+    private def note (edit :Buffer.Edit) :Unit = {
+      val srow = edit.start.row ; val erow = edit.end.row
+      edit match {
+        case _ :Buffer.Insert =>
+          if (erow > srow) rows.insert(srow+1, Seq.from(new Array[Array[String]](erow-srow)))
+          unindex(srow, srow)
+        case _ :Buffer.Delete =>
+          if (erow > srow) {
+            var ii = srow+1 ; while (ii <= erow) { remove(rows(ii)) ; ii += 1 }
+            rows.remove(srow+1, erow-srow)
           }
+          unindex(srow, srow)
+        case _ :Buffer.Transform =>
+          unindex(srow, erow)
+      }
+    }
+
+    private def unindex (from :Int, to :Int) :Unit = {
+      var ii = from ; while (ii <= to) { remove(rows(ii)) ; rows(ii) = null ; ii += 1 }
+    }
+
+    // tokenizes and indexes the rows in `[from, to]` whose tokens are not indexed
+    private def tokenizeRows (from :Int, to :Int) :Unit = {
+      var ii = from ; while (ii <= to) {
+        if (rows(ii) == null) {
+          val tokens = tokenize(buffer.line(ii))
+          rows(ii) = tokens
+          add(tokens)
         }
-        var ii = 0 ; val ll = line.length ; while (ii < ll) {
-          val c = line.charAt(ii)
-          val isToken = IsWord(c) || c == '_' // TODO: pluggable tokenizers?
-          if (isToken) sb.append(c)
-          else flush()
-          ii += 1
-        }
-        flush()
+        ii += 1
+      }
+    }
+
+    private def add (tokens :Array[String]) :Unit = {
+      var ii = 0 ; while (ii < tokens.length) {
+        index.add(tokens(ii))
+        if (global) shared.add(tokens(ii))
+        ii += 1
+      }
+    }
+    private def remove (tokens :Array[String]) :Unit = if (tokens != null) {
+      var ii = 0 ; while (ii < tokens.length) {
+        index.remove(tokens(ii))
+        if (global) shared.remove(tokens(ii))
+        ii += 1
       }
     }
   }
 
+  /** The executor on whose background threads buffers are first tokenized. */
+  protected def exec :Executor = wspace.exec
+
+  // the tokens in all non-scratch buffers
+  private val shared = new Index()
   private val tokeners = new HashMap[Buffer,Tokener]()
   private def tokener (buffer :Buffer) = tokeners.get(buffer) match {
     case null =>
@@ -133,7 +185,7 @@ class TokenCompleter (val wspace :Workspace) extends CodeCompleter {
       val rbuffer = buffer.asInstanceOf[RBuffer]
       val ntok = new Tokener(rbuffer)
       tokeners.put(buffer, ntok)
-      rbuffer.killed.onEmit { tokeners.remove(buffer) }
+      rbuffer.killed.onEmit { tokeners.remove(buffer).clear() }
       ntok
     case tok => tok
   }
@@ -145,13 +197,12 @@ class TokenCompleter (val wspace :Workspace) extends CodeCompleter {
     val comps = if (prefix.length < 2) Seq() else {
       val matches = new LinkedHashSet[String]()
       // first add completions from the same buffer
-      tokener(buffer).addCompletions(prefix, matches)
-      // then add completions from all other (non-ephmeral) open buffers
-      for (obuffer <- wspace.buffers) {
-        if (obuffer != buffer && !Buffer.isScratch(obuffer.name)) {
-          tokener(obuffer).addCompletions(prefix, matches)
-        }
-      }
+      tokener(buffer).index.addCompletions(prefix, matches)
+      // then add completions from all other (non-ephmeral) open buffers (making sure that we're
+      // tracking the tokens of any buffers opened since our last completion; those are tokenized
+      // in the background, so their tokens are offered by later completions)
+      wspace.buffers foreach tokener
+      shared.addCompletions(prefix, matches)
       // if the token is mixed case, filter out all matches that don't match case exactly
       if (Chars.mixedCase(token)) matches.removeIf(word => !word.startsWith(token))
       // remove the exact token on which we matched
@@ -163,3 +214,70 @@ class TokenCompleter (val wspace :Workspace) extends CodeCompleter {
     Future.success(Completion(pos, comps.map(t => new Choice(t)), 0))
   }
 }
+
+object TokenCompleter {
+
+  /** Tokens shorter than this are not indexed; there's not much point in completing them. */
+  final val MinTokenLength = 4
+
+  /** A sorted index of tokens, with a reference count for each. A token is keyed by its lower
+    * case text followed by a NUL and its actual text, so that the tokens that match a (lower case)
+    * prefix are adjacent, and each distinct token is counted separately. */
+  class Index {
+    private val counts = new TreeMap[String,Array[Int]]()
+
+    /** The number of distinct tokens in this index. */
+    def size :Int = counts.size
+
+    /** Adds a reference to `token`. */
+    def add (token :String) :Unit = {
+      val key = toKey(token)
+      val count = counts.get(key)
+      if (count == null) counts.put(key, Array(1))
+      else count(0) += 1
+    }
+
+    /** Removes a reference to `token`, removing it from the index if it has no more references. */
+    def remove (token :String) :Unit = {
+      val key = toKey(token)
+      val count = counts.get(key)
+      if (count != null) {
+        count(0) -= 1
+        if (count(0) == 0) counts.remove(key)
+      }
+    }
+
+    /** Adds all tokens that start with `prefix` (ignoring case) to `into`. `prefix` must be lower
+      * case. */
+    def addCompletions (prefix :String, into :JSet[String]) :Unit = {
+      val iter = counts.navigableKeySet.tailSet(prefix, true).iterator
+      var done = false ; while (!done && iter.hasNext) {
+        val key = iter.next
+        if (key.startsWith(prefix)) into.add(key.substring(key.indexOf(Sep)+1))
+        else done = true
+      }
+    }
+
+    private def toKey (token :String) = token.toLowerCase + Sep + token
+  }
+
+  /** Returns the tokens in `line`. */
+  def tokenize (line :LineV) :Array[String] = {
+    val IsWord = Chars.isWord
+    def isToken (c :Char) = IsWord(c) || c == '_' // TODO: pluggable tokenizers?
+    var tokens = NoTokens ; var count = 0
+    var ii = 0 ; val ll = line.length ; while (ii <= ll) {
+      val start = ii ; while (ii < ll && isToken(line.charAt(ii))) ii += 1
+      if (ii - start >= MinTokenLength) {
+        if (count == tokens.length) tokens = java.util.Arrays.copyOf(tokens, math.max(4, count*2))
+        tokens(count) = line.sliceString(start, ii)
+        count += 1
+      }
+      ii += 1
+    }
+    if (count == tokens.length) tokens else java.util.Arrays.copyOf(tokens, count)
+  }
+
+  private final val Sep = '\u0000'
+  private val NoTokens = new Array[String](0)
+}
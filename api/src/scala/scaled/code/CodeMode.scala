@@ -599,9 +599,11 @@ abstract class CodeMode (env :Env) extends EditingMode(env) {
   @Fn("Indents each non-blank line in the region.")
   def indentRegion () :Unit = {
     withRegion { (start, end) =>
-      var pos = start ; while (pos < end) {
-        reindent(pos, false)
-        pos = pos.nextL
+      indenter.reindent(buffer, start.row, if (end.col > start.col) end.row+1 else end.row, false)
+      // if the point is now in the whitespace preceding an indent, move it to the indent
+      val p = view.point() ; val indent = Indenter.readIndent(buffer, p)
+      if (p >= start && p < end && p.col < indent && buffer.line(p).length > 0) {
+        view.point() = p.atCol(indent)
       }
     }
   }
@@ -610,7 +612,7 @@ abstract class CodeMode (env :Env) extends EditingMode(env) {
          and line comments are supported by the mode, line comments are used, otherwise the region
          is wrapped in a block comment.""")
   def commentRegion () :Unit = {
-    withRegion { (start, end) =>
+    withRegion { (start, end) => buffer.transaction {
       if (start.col == 0 && end.col == 0 && commenter.linePrefix != "") {
         buffer.replace(start, end, commenter.lineCommented(buffer, start, end))
       }
@@ -618,18 +620,18 @@ abstract class CodeMode (env :Env) extends EditingMode(env) {
         commenter.blockComment(buffer, start, end)
       }
       else window.popStatus("This code mode does not define block comment delimiters.")
-    }
+    }}
   }
 
   @Fn("""Removes comments from the active region, assuming they were uniformly applied. If the
          region starts and ends with the block comment delimiters, they will be removed. Otherwise
          the line comment delimiters will be sought and removed from the start of each line.""")
   def uncommentRegion () :Unit = {
-    withRegion { (start, end) =>
+    withRegion { (start, end) => buffer.transaction {
       if (!commenter.unBlockComment(buffer, start, end)) {
         commenter.unLineComment(buffer, start, end)
       }
-    }
+    }}
   }
 
   @Fn("""Places quotes around the region. If the start and end of the region are in column zero,
@@ -24,6 +24,27 @@ class Indenter (val config :Config) {
   /** Computes the indentation for the line identified by `info`. */
   def apply (info :Info)  = 0
 
+  /** Reindents the rows `from` until `until` of `buffer`. The rows are processed in a single
+    * forward pass: each row's indentation state is computed from that of the (just reindented)
+    * row before it, rather than by rescanning the buffer for each row.
+    * @param indentBlanks whether blank lines have whitespace added to their start.
+    * @return the number of rows whose indentation was changed. */
+  def reindent (buffer :Buffer, from :Int, until :Int, indentBlanks :Boolean) :Int =
+    buffer.transaction {
+      var changed = 0
+      var row = from ; while (row < until) {
+        val indent = apply(buffer, row)
+        if (indent >= 0 && (indentBlanks || buffer.line(row).length > 0)) {
+          val delta = indent - readIndent(buffer.line(row))
+          if (delta > 0) buffer.insert(Loc(row, 0), Line(" " * delta))
+          else if (delta < 0) buffer.delete(Loc(row, 0), -delta)
+          if (delta != 0) changed += 1
+        }
+        row += 1
+      }
+      changed
+    }
+
   /** Returns an indentation `steps` steps inset from `base`.
     * @param base the default indentation of the line (in characters, not steps). */
   protected def indentFrom (base :Int, steps :Int) :Int = base + steps * indentWidth
@@ -117,6 +138,13 @@ object Indenter {
     /** Pops state off the stack until it pops off a block, or reaches the empty state. */
     def popBlock (close :Char) :State = next.popBlock(close)
 
+    /** Returns true if `other` is structurally the same stack as this state. The default
+      * implementation compares the classes and `show` strings of each element of the stacks, so
+      * states with data that is not reflected by `show` should override this method. */
+    def sameAs (other :State) :Boolean = (this eq other) || (
+      other != null && getClass == other.getClass && show == other.show &&
+      next != null && next.sameAs(other.next))
+
     override def key = classOf[State]
     override def ephemeral :Boolean = true
 
@@ -173,26 +201,94 @@ object Indenter {
   }
 
   /** Computes the state for a line given the supplied `stater` function. Any unstated lines prior
-    * to the target line will also have their state computed and stored in line state as
-    * indentation state is computed incrementally from the start of the buffer, reusing the state
-    * from the previous line for each successive line. */
-  def state (info :Info, stater :(LineV, State) => State) :State = {
-    // scan backwards until we reach the start of the buffer or a line with known state
-    val buffer = info.buffer
-    var ss = 0 ; var sstate = EmptyS ; var ll = info.row-1 ; while (ll > 0) {
-      val lstate = buffer.line(ll).lineTag(UnknownS)
-      if (lstate == UnknownS) ll -= 1
-      else { ss = ll ; sstate = lstate ; ll = 0 /*break*/ }
+    * to the target line will also have their state computed (and cached in the buffer's
+    * [[StateCache]]) as indentation state is computed incrementally from the start of the buffer,
+    * reusing the state from the previous line for each successive line. */
+  def state (info :Info, stater :(LineV, State) => State) :State =
+    StateCache(info.buffer)(info.row, stater)
+
+  /** Caches the indentation state at the start of each row of a buffer. The cache follows the
+    * buffer's edits: an edit invalidates the states of the rows that follow it, but keeps them
+    * around so that when states are next recomputed, the recomputation stops as soon as it
+    * reaches an unedited row whose recomputed state is the same as its old state (as the states of
+    * all following rows are then unchanged as well).
+    *
+    * The state of each row is also applied to the row as a line tag (so that it may be inspected),
+    * but as those are ephemeral they are not relied upon.
+    */
+  class StateCache (buffer :RBuffer) {
+    // the state at the start of each row; null for rows whose state has never been computed
+    private val _states = SeqBuffer.withCapacity[State](buffer.lines.size)
+    // the states of rows [0, _valid) are known to be correct
+    private var _valid = 1
+    // states have been computed for rows [0, _known), but those of rows >= _valid may be stale
+    private var _known = 1
+    // all edits since the (possibly stale) states of rows >= _valid were computed touched only
+    // rows <= _editEnd, so a stale state may only be compared to a new one after that row
+    private var _editEnd = -1
+
+    _states += EmptyS
+    var ii = 1 ; while (ii < buffer.lines.size) { _states += null ; ii += 1 }
+
+    buffer.edited.onValue { edit =>
+      val srow = edit.start.row ; val erow = edit.end.row
+      val (added, removed) = edit match {
+        case _ :Buffer.Insert    => (erow-srow, 0)
+        case _ :Buffer.Delete    => (0, erow-srow)
+        case _ :Buffer.Transform => (0, 0)
+      }
+      if (added > 0) {
+        _states.insert(srow+1, Seq.from(new Array[State](added)))
+        if (_known > srow+1) _known += added
+        if (_editEnd > srow) _editEnd += added
+      }
+      if (removed > 0) {
+        _states.remove(srow+1, removed)
+        if (_known > srow+1) _known = math.max(srow+1, _known-removed)
+        if (_editEnd > srow) _editEnd = math.max(srow, _editEnd-removed)
+      }
+      // the state at the start of the first edited row is unaffected by the edit
+      _valid = math.min(_valid, srow+1)
+      _editEnd = math.max(_editEnd, if (removed > 0) srow else erow)
+    }
+
+    /** Returns the state at the start of `row`, computing it (and the states of any earlier rows
+      * as needed) via `stater`. */
+    def apply (row :Int, stater :(LineV, State) => State) :State = {
+      if (row >= _valid) {
+        var ss = _valid-1 ; var st = _states(ss)
+        while (ss < row) {
+          st = stater(buffer.line(ss), st)
+          ss += 1
+          val old = if (ss < _known) _states(ss) else null
+          _states(ss) = st
+          buffer.setLineTag(ss, st)
+          if (ss > _editEnd && old != null && old.sameAs(st)) {
+            // the remaining known states are unaffected by the edits, and are thus valid again
+            _valid = _known ; _editEnd = -1
+            if (row < _known) ss = row
+            else { ss = _known-1 ; st = _states(ss) }
+          }
+        }
+        if (row+1 >= _known) { _known = row+1 ; _valid = row+1 ; _editEnd = -1 }
+        else if (row+1 > _valid) { _valid = row+1 ; _editEnd = math.max(_editEnd, row) }
+      }
+      val state = _states(row)
+      buffer.setLineTag(row, state)
+      state
     }
+  }
 
-    // now proceed forward, computing and storing line state
-    buffer.setLineTag(ss, sstate)
-    while (ss < info.row) {
-      sstate = stater(buffer.line(ss), sstate)
-      buffer.setLineTag(ss+1, sstate)
-      ss += 1
+  object StateCache {
+    /** Returns the state cache for `buffer`, creating it if needed. */
+    def apply (buffer :Buffer) :StateCache = buffer.state.get[StateCache] match {
+      case Some(cache) => cache
+      case None =>
+        // note: fix naughtiness (have Workspace give out RBuffer?)
+        val cache = new StateCache(buffer.asInstanceOf[RBuffer])
+        buffer.state.set[StateCache](cache)
+        cache
     }
-    sstate
   }
 
   // /** Indents based on the innermost block that contains pos.
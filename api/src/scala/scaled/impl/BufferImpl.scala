@@ -5,7 +5,6 @@
 package scaled.impl
 
 import java.io.File
-import java.util.Arrays
 import scala.collection.mutable.{Map => MMap}
 import scaled._
 import scaled.util.Errors
@@ -22,29 +21,135 @@ object BufferImpl {
 
   def scratch (name :String) :BufferImpl = apply(Store.scratch(name))
 
+  /** Creates a buffer with the contents of `store`. */
   def apply (store :Store) :BufferImpl = {
-    val buf = new BufferImpl(store)
-    store.read(Store.reader { (data, start, end, off) =>
-      buf.addLine(Arrays.copyOfRange(data, start, end))
-    })
+    val buf = new BufferImpl(store, null)
+    store.readLines { (data, start, end, off) => buf.addLine(data, start, end) }
     // TEMP: tack a blank line on the end to simulate a trailing line sep
-    buf.addLine(MutableLine.NoChars)
+    buf.addLine(MutableLine.NoChars, 0, 0)
+    buf._lines.trimStored()
+    buf
+  }
+
+  /** Creates a read-only buffer for viewing the contents of `store`. If `store` is a large file,
+    * its lines are paged in from the file as needed rather than read into memory (see
+    * [[PagedText]]), and the buffer starts out with only the lines in the first part of the file.
+    * See [[BufferImpl.startPaging]]. */
+  def view (store :Store) :BufferImpl = PagedText(store) match {
+    case null =>
+      val buf = apply(store)
+      buf.editable = false
+      buf
+    case text => paged(store, text)
+  }
+
+  /** Creates a buffer for `store` with lines paged in from `text`. */
+  def paged (store :Store, text :PagedText) :BufferImpl = {
+    val buf = new BufferImpl(store, text)
+    val batch = text.scan()
+    buf._lines.insertPaged(0, text.add(batch), batch.rows)
+    // TEMP: tack a blank line on the end to simulate a trailing line sep
+    buf._lines += new MutableLine(buf, MutableLine.NoChars)
+    buf.editable = false
     buf
   }
 
   /** An empty line sequence used for edits that delete no lines. */
   private final val NoLines = Seq[Line]()
+
+  /** Tracks the rows changed during a transaction as a sorted list of disjoint, non-adjacent
+    * `[start, end)` ranges, which are kept in the buffer's current coordinates as edits insert and
+    * remove rows. */
+  private class RowRanges {
+    private var _rs = new Array[Int](16) // start0, end0, start1, end1, ...
+    private var _size = 0                // the number of ranges
+
+    def isEmpty = _size == 0
+    def clear () :Unit = _size = 0
+    def toSeq :Seq[(Int, Int)] = {
+      val sb = Seq.builder[(Int, Int)](_size)
+      var ii = 0 ; while (ii < _size) { sb += ((_rs(2*ii), _rs(2*ii+1))) ; ii += 1 }
+      sb.build()
+    }
+
+    def note (edit :Buffer.Edit) :Unit = {
+      val srow = edit.start.row ; val erow = edit.end.row
+      edit match {
+        case _ :Buffer.Insert if (erow > srow) =>
+          // rows after the start row move down, a range containing the start row grows
+          remap(srow, r => if (r > srow) r + erow - srow else r)
+        case _ :Buffer.Delete if (erow > srow) =>
+          // rows after the end row move up, rows in (srow, erow] collapse onto srow
+          remap(srow, r => if (r > erow) r - erow + srow else if (r > srow) srow else r)
+        case _ =>
+      }
+      // finally note the changed rows themselves
+      edit match {
+        case _ :Buffer.Delete => add(srow, srow+1)
+        case _                => add(srow, erow+1)
+      }
+    }
+
+    // returns the index of the first range that ends after `row`, or `_size` if none does
+    private def firstEndingAfter (row :Int) :Int = {
+      var lo = 0 ; var hi = _size ; while (lo < hi) {
+        val mid = (lo+hi) >>> 1
+        if (_rs(2*mid+1) <= row) lo = mid+1 else hi = mid
+      }
+      lo
+    }
+
+    // remaps (in place) the ranges containing rows after `row` via `fn`, which must not map any
+    // row after `row` to a row before it; ranges that now touch are merged
+    private def remap (row :Int, fn :Int => Int) :Unit = {
+      val from = firstEndingAfter(row+1) // ranges that end at or before row+1 don't change
+      var ww = from ; var ii = from ; while (ii < _size) {
+        val start = fn(_rs(2*ii)) ; val end = fn(_rs(2*ii+1)-1)+1
+        if (ww > 0 && start <= _rs(2*ww-1)) _rs(2*ww-1) = math.max(end, _rs(2*ww-1))
+        else { _rs(2*ww) = start ; _rs(2*ww+1) = end ; ww += 1 }
+        ii += 1
+      }
+      _size = ww
+    }
+
+    private def add (start :Int, end :Int) :Unit = {
+      // edits often proceed down the buffer, so appending a range is the fast path
+      if (_size == 0 || _rs(2*_size-1) < start) {
+        if (2*_size+2 > _rs.length) _rs = java.util.Arrays.copyOf(_rs, _rs.length*2)
+        _rs(2*_size) = start ; _rs(2*_size+1) = end
+        _size += 1
+        return
+      }
+      // find the first range that ends at or after start (ranges touching start are merged)
+      val lo = firstEndingAfter(start-1)
+      // find the first range that starts after end
+      var hi = lo ; while (hi < _size && _rs(2*hi) <= end) hi += 1
+      if (lo == hi) {
+        // no overlap, insert a new range at lo
+        if (2*_size+2 > _rs.length) _rs = java.util.Arrays.copyOf(_rs, _rs.length*2)
+        System.arraycopy(_rs, 2*lo, _rs, 2*lo+2, 2*(_size-lo))
+        _rs(2*lo) = start ; _rs(2*lo+1) = end
+        _size += 1
+      } else {
+        // merge [lo, hi) into a single range stored at lo
+        _rs(2*lo) = math.min(start, _rs(2*lo))
+        _rs(2*lo+1) = math.max(end, _rs(2*hi-1))
+        System.arraycopy(_rs, 2*hi, _rs, 2*lo+2, 2*(_size-hi))
+        _size -= hi-lo-1
+      }
+    }
+  }
 }
 
 /** Implements [Buffer] and [RBuffer]. This is where all the excitement happens. */
-class BufferImpl private (initStore :Store) extends RBuffer {
+class BufferImpl private (initStore :Store, paged :PagedText) extends RBuffer {
   import Buffer._
   import BufferImpl._
 
   // TODO: character encoding
   // TODO: line endings
 
-  private[this] val _lines = SeqBuffer[MutableLine]()
+  private val _lines = new LineBuffer(this, paged)
   private[this] val _name = Value(initStore.name)
   private[this] val _store = Value(initStore)
   private[this] val _mark = Value(None :Option[Loc])
@@ -60,6 +165,23 @@ class BufferImpl private (initStore :Store) extends RBuffer {
     * Used to detect files changed by external programs. */
   private[this] var _lastModified :Long = initStore.lastModified
 
+  // incremented on every edit, see `version`
+  private[this] var _version = 0L
+  // the depth of nested transactions, the number of edits and changed rows in the current
+  // transaction, and the earliest styled column of each row styled during it
+  private[this] var _txDepth = 0
+  private[this] var _txEdits = 0
+  private[this] val _txRows = new RowRanges()
+  private[this] val _txStyled = MMap[Int,Int]()
+  private[this] val _committed = Signal[Commit]()
+  // the most recently initiated background save, on which the next background save waits
+  private[this] var _saving :Future[Unit] = Future.success(())
+  // held while our lines are written to a store, so that a synchronous save cannot overlap a
+  // background save; also guards the store and version most recently written
+  private[this] val _writeLock = new Object
+  private[this] var _writtenStore :Store = null
+  private[this] var _writtenVersion = -1L
+
   val undoStack = new UndoStack(this)
 
   /** Contains the state of the most recent view of this buffer. When a view goes away, it writes
@@ -70,13 +192,24 @@ class BufferImpl private (initStore :Store) extends RBuffer {
   /** Checks whether this buffer has become stale (i.e. the file it is editing has been modified
     * more recently than it was loaded into this buffer). Emits [[stale]] if so. */
   def checkStale () :Unit = {
-    if (store.lastModified > _lastModified) {
+    // if we page our lines in from our store, it having grown just means we have more lines
+    if (paged != null && !paged.shrunk) pageMore()
+    else if (store.lastModified > _lastModified) {
       // TEMP: if no one is listening for us to become stale then just go away
       // TODO: maybe just reload the contents of this buffer from our store?
       if (_stale.hasConnections) _stale.emit(this) else kill()
     }
   }
 
+  /** If this buffer pages its lines in from its store, indexes the rest of the store in the
+    * background (via `exec`) and adds its lines to this buffer as they are indexed. Thereafter any
+    * lines appended to the store are added to this buffer when [[checkStale]] is called (i.e. when
+    * the store is modified). This is a NOOP for normal buffers. */
+  def startPaging (exec :Executor) :Unit = if (paged != null) {
+    _pagingExec = exec
+    pageMore()
+  }
+
   //
   // from Buffer and RBuffer API
 
@@ -90,7 +223,13 @@ class BufferImpl private (initStore :Store) extends RBuffer {
   override def undoer = undoStack
   override def edited = _edited
   override def lineStyled = _lineStyled
+  override def committed = _committed
+  override def inTransaction = _txDepth > 0
+  override def isPaged = paged != null
   override def lines = _lines
+  override def version = _version
+  override def snapshot () = new Snapshot(name, store, mark, editable, dirty, _version,
+                                          _lines.frozen())
   // refine `dirtyV` return type to ease life for internal friends
   override def dirtyV :Value[Boolean] = _dirty
   override def editableV = _editable
@@ -99,24 +238,107 @@ class BufferImpl private (initStore :Store) extends RBuffer {
   override def line (idx :Int) :MutableLine = _lines(idx)
   override def line (loc :Loc) :MutableLine = _lines(loc.row)
 
+  // use our line index to map between offsets and locations in O(log n) rather than O(n)
+  override def loc (offset :Int) = {
+    assert(offset >= 0)
+    val row = _lines.rowAt(offset)
+    if (row >= _lines.size) end else Loc(row, offset - _lines.rowStart(row))
+  }
+  override def offset (loc :Loc) = _lines.rowStart(loc.row) + loc.col
+  override def locs (offsets :SeqV[Int]) = {
+    val size = _lines.size ; val lb = Seq.builder[Loc](offsets.size)
+    // `[start, next)` are the offsets in `row`; we only consult the index when we leave it
+    var row = 0 ; var start = 0 ; var next = 0 ; var prev = 0
+    var ii = 0 ; while (ii < offsets.size) {
+      val off = offsets(ii)
+      if (off < prev) throw new IllegalArgumentException(s"Offsets not sorted: $offsets")
+      if (off >= next) {
+        row = _lines.rowAt(off)
+        if (row < size) { start = _lines.rowStart(row) ; next = _lines.rowStart(row+1) }
+        else next = Int.MaxValue
+      }
+      lb += (if (row >= size) end else Loc(row, off-start))
+      prev = off
+      ii += 1
+    }
+    lb.build()
+  }
+
+  // these mirror BufferV.findForward/Backward but search our lines without materializing them
+  override def findForward (m :Matcher, start :Loc, stop :Loc) :Loc = {
+    val stopr = stop.row ; val stopc = stop.col
+    @inline @tailrec def seek (row :Int, col :Int) :Loc = _lines.indexOf(row, m, col) match {
+      case -1 => if (row == stopr) Loc.None else seek(row+1, 0)
+      case ii => if (row == stopr && ii + m.matchLength > stopc) Loc.None else Loc(row, ii)
+    }
+    if (start < stop) seek(start.row, start.col) else Loc.None
+  }
+  override def findBackward (m :Matcher, start :Loc, stop :Loc) :Loc = {
+    val stopr = stop.row ; val stopc = stop.col
+    @inline @tailrec def seek (row :Int, col :Int) :Loc = _lines.lastIndexOf(row, m, col) match {
+      case -1 => if (row == stopr) Loc.None else seek(row-1, _lines.lineLength(row-1))
+      case ii => if (row == stopr && ii < stopc) Loc.None else Loc(row, ii)
+    }
+    if (start > stop) seek(start.row, start.col-1) else Loc.None
+  }
+
   // TODO: run buffer kill hooks
-  override def kill () = killed.emit(this)
+  override def kill () = {
+    killed.emit(this)
+    if (paged != null) paged.close()
+  }
 
   override def saveTo (store :Store) :Unit = {
+    val exn = willSave(store)
+    // write our contents to the store, waiting for any background write in progress
+    write(store, lines, false, _version)
+    didSave(store, exn, _version)
+  }
+
+  override def saveToAsync (store :Store, exec :Executor, sync :Boolean) :Future[Unit] = {
+    val exn = willSave(store)
+    // snapshot our contents now, and note our version so that we know if we're still clean
+    val snap = _lines.snapshot() ; val version = _version
+    val result = exec.uiPromise[Unit]
+    // wait for any save already in progress so that our writes cannot be reordered
+    _saving.onComplete { _ =>
+      exec.runAsync(write(store, snap, sync, version)).onComplete(
+        _ => try { didSave(store, exn, version) ; result.succeed(()) }
+             catch { case t :Throwable => result.fail(t) },
+        result.fail)
+    }
+    _saving = result
+    result
+  }
+
+  // writes `lines` (our contents as of `version`) to `store`, unless a later version has already
+  // been written there (by a synchronous save made while this write was queued)
+  private def write (store :Store, lines :Iterable[Store.Writable], sync :Boolean,
+                     version :Long) :Unit = _writeLock.synchronized {
+    if (store != _writtenStore || version >= _writtenVersion) {
+      store.write(lines, sync)
+      _writtenStore = store
+      _writtenVersion = version
+    }
+  }
+
+  private def willSave (store :Store) :Exception = {
     if (store.readOnly) throw Errors.feedback(s"Cannot save to read-only file: $store")
     // run our on-save hooks, but don't let them abort the save if they choke
-    val exn = try {
+    try {
       _willSave.emit(this) ; null
     } catch {
       case e :Exception => e
     }
-    // write our contents to the store
-    store.write(lines)
+  }
+
+  private def didSave (store :Store, exn :Exception, version :Long) :Unit = {
     // update our last modified time
     _lastModified = store.lastModified
     // if the store changed, update our name to the new store's name
     if (this.store != store) _name() = store.name
-    _dirty() = false
+    // if we were edited while being saved, we're still dirty
+    if (_version == version) _dirty() = false
     // now run our post-save hooks, and if they also fail, then tack any on-save hooks thereon
     try _store.updateForce(store)
     catch {
@@ -128,6 +350,15 @@ class BufferImpl private (initStore :Store) extends RBuffer {
 
   override def markClean () :Unit = _dirty() = false
 
+  override def transaction[T] (op : => T) :T = {
+    _txDepth += 1
+    try op
+    finally {
+      _txDepth -= 1
+      if (_txDepth == 0) commit()
+    }
+  }
+
   override def insert (loc :Loc, c :Char, syntax :Syntax) = {
     _lines(loc.row).insert(loc, c, syntax)
     noteInsert(loc, loc.nextC)
@@ -254,7 +485,54 @@ class BufferImpl private (initStore :Store) extends RBuffer {
   // impl details
 
   // called by BufferImpl.apply when building a buffer
-  private def addLine (line :Array[Char]) = _lines += new MutableLine(this, line)
+  private def addLine (data :Array[Char], start :Int, end :Int) =
+    _lines.appendStored(data, start, end)
+
+  // the executor used to scan our paged text, and whether a scan is in progress or needed
+  private[this] var _pagingExec :Executor = null
+  private[this] var _scanning = false
+  private[this] var _rescan = false
+
+  private def pageMore () :Unit = if (_pagingExec != null) {
+    if (_scanning) _rescan = true
+    else {
+      _scanning = true
+      _rescan = false
+      val exec = _pagingExec
+      exec.runInBG {
+        try {
+          val batch = paged.scan()
+          exec.runOnUI {
+            _scanning = false
+            pageIn(batch)
+            if (batch.more || _rescan) pageMore()
+          }
+        } catch {
+          case t :Throwable => exec.runOnUI { _scanning = false } ; exec.handleError(t)
+        }
+      }
+    }
+  }
+
+  // adds the lines in `batch` to the end of this buffer (just before our trailing blank line)
+  private def pageIn (batch :PagedText.Batch) :Unit = if (batch.rows > 0) {
+    val srow = paged.add(batch) ; val count = batch.rows ; val last = _lines.size-1
+    val wasDirty = _dirty()
+    if (last == 0) {
+      // if we're empty, the blank line becomes our first line, and we add a new blank line
+      val first = paged.line(this, srow)
+      _lines(0).insert(Loc.Zero, first, 0, first.length)
+      _lines.insertPaged(1, srow+1, count-1)
+      _lines.insert(count, new MutableLine(this, MutableLine.NoChars))
+      noteInsert(Loc.Zero, Loc(count, 0))
+    } else {
+      val start = Loc(last-1, _lines(last-1).length)
+      _lines.insertPaged(last, srow, count)
+      noteInsert(start, Loc(last-1+count, paged.length(srow+count-1)))
+    }
+    // we're not modified, we're just showing more of our store
+    _dirty() = wasDirty
+  }
 
   /** Applies op to all rows from `start` up to (not including) `until`. `op` is passed `(line,
     * start, endCol)` which is adjusted properly for the first and last line. */
@@ -281,6 +559,17 @@ class BufferImpl private (initStore :Store) extends RBuffer {
   private def emit (edit :Edit) :Loc = {
     // println(edit)
     _dirty() = true
+    _version += 1
+    if (_txDepth > 0) {
+      // if rows are being added or removed, send out any deferred style notifications first, so
+      // that they are delivered in terms of the rows to which they apply
+      if (edit.end.row > edit.start.row && !_txStyled.isEmpty) flushStyled()
+      _txRows.note(edit)
+      _txEdits += 1
+    }
+    // update our line index before anyone hears about the edit (inserted or removed lines will
+    // already have invalidated it, so this only matters for edits that change lines in place)
+    _lines.noteLengths(edit.start.row, edit.end.row)
     _edited.emit(edit)
     edit.end
   }
@@ -304,7 +593,25 @@ class BufferImpl private (initStore :Store) extends RBuffer {
 
   private[impl] def noteLineStyled (loc :Loc) :Unit = {
     // println(s"Styles @$loc")
-    _lineStyled.emit(loc)
+    // during a transaction, we note only the earliest styled column of each row
+    if (_txDepth == 0) _lineStyled.emit(loc)
+    else if (loc.col < _txStyled.getOrElse(loc.row, Int.MaxValue)) _txStyled(loc.row) = loc.col
+  }
+
+  private def flushStyled () :Unit = {
+    val styled = _txStyled.toSeq.sortBy(_._1)
+    _txStyled.clear()
+    styled foreach { case (row, col) => _lineStyled.emit(Loc(row, col)) }
+  }
+
+  private def commit () :Unit = {
+    if (!_txStyled.isEmpty) flushStyled()
+    if (_txEdits > 0) {
+      val commit = Commit(_txRows.toSeq, _txEdits)
+      _txRows.clear()
+      _txEdits = 0
+      _committed.emit(commit)
+    }
   }
 
   override def toString () = s"[name=$name, store=$store, lines=${lines.size}]"
@@ -0,0 +1,438 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import java.io.Writer
+import java.util.Arrays
+import scaled._
+
+/** [LineBuffer] related types and utilities. */
+object LineBuffer {
+
+  /** The size (in chars) of the first block of stored text. */
+  final val MinBlockSize = 1024
+
+  /** The maximum size (in chars) of a block of stored text. Lines longer than this get a block to
+    * themselves. */
+  final val MaxBlockSize = 1024*1024
+
+  /** The lines of a [[LineBuffer]] as of a call to [[LineBuffer.frozen]]. Paged lines which had not
+    * been materialized are read from their file when requested, rather than retained, so that a
+    * snapshot of a large file does not read it all into memory. */
+  private class Frozen (lines :Array[Line], text :PagedText#Rows, srows :Array[Int])
+      extends SeqV[Line] {
+    override def get (index :Int) :Line = {
+      val line = lines(index)
+      if (line != null) line
+      else { val cs = text.text(srows(index)) ; MutableLine.frozen(cs, 0, cs.length) }
+    }
+    override def size = lines.length
+    override def copyInto (start :Int, end :Int, target :Array[Any], offset :Int) :Unit = {
+      Seq.checkBounds(start, end, size)
+      var ii = start ; while (ii < end) { target(offset+ii-start) = get(ii) ; ii += 1 }
+    }
+    override def iterator () :JIterator[Line] = new JIterator[Line]() {
+      private var _index = 0
+      override def hasNext :Boolean = _index < size
+      override def next :Line = {
+        if (_index < size) try { get(_index) } finally { _index += 1 }
+        else throw new NoSuchElementException()
+      }
+    }
+    override protected def toStringType = "FrozenLines"
+  }
+}
+
+/** Maintains the lines of a [[BufferImpl]].
+  *
+  * Rather than copying every line read from the buffer's store into its own arrays, the stored
+  * text is packed into a handful of large blocks, and a [[MutableLine]] is only created for a line
+  * when something first asks for it. That line views its characters in the block until it is
+  * first edited, at which point it copies them (see [[MutableLine.shared]]). This is essentially a
+  * piece table at the granularity of lines: the stored text is the read-only original, edited
+  * lines are the additions. A freshly loaded buffer thus costs little more than its text plus a
+  * few bytes per line, and memory grows with the lines that are actually used and edited.
+  *
+  * Alternatively, the stored text may be a [[PagedText]], in which case lines are paged in from
+  * the file when they are materialized, rather than copied from blocks in memory.
+  *
+  * It also maintains an index of the (cumulative) line lengths which allows character offsets to
+  * be mapped to rows and vice versa in `O(log n)` time (see [[rowStart]] and [[rowAt]]). After lines
+  * are inserted or removed, the index is lazily rebuilt from the first affected row onward (so
+  * appending a line costs `O(log n)`), and it must be told via [[noteLengths]] when lines change
+  * length in place.
+  */
+class LineBuffer (buffer :BufferImpl, paged :PagedText) extends SeqV[MutableLine] {
+  import LineBuffer._
+
+  // the lines in this buffer; null for lines which have not yet been materialized
+  private[this] var _lines = new Array[MutableLine](16)
+  // the stored row for each line that has not yet been materialized
+  private[this] var _srows = new Array[Int](16)
+  private[this] var _size = 0
+
+  // the text read from our store, stored row `r` is `[_sstarts(r), _sends(r))` of block `b` where
+  // `b` is the last block whose first row (in `_bfirsts`) is <= `r`
+  private[this] var _blocks = new Array[Array[Char]](4)
+  private[this] var _bfirsts = new Array[Int](4)
+  private[this] var _bcount = 0
+  private[this] var _bfill = 0
+  private[this] var _sstarts = new Array[Int](16)
+  private[this] var _sends = new Array[Int](16)
+  private[this] var _scount = 0
+  // the frozen view of each stored row, created when first needed (see [[frozen]])
+  private[this] var _sfrozen :Array[Line] = null
+
+  // a Fenwick tree over `length+1` of each line (`_lens`), used to map between offsets and rows;
+  // only the first `_indexed` lines (and tree nodes) are valid, those from the first line inserted
+  // or removed onward are rebuilt when next needed
+  private[this] var _tree :Array[Int] = null
+  private[this] var _lens :Array[Int] = null
+  private[this] var _indexed = 0
+
+  /** Appends a line read from our store to the end of this buffer. `[start, end)` of `data` is
+    * copied into our stored text, so `data` may be reused by the caller. */
+  def appendStored (data :Array[Char], start :Int, end :Int) :Unit = {
+    val length = end - start
+    if (_bcount == 0 || _bfill + length > _blocks(_bcount-1).length) addBlock(length)
+    System.arraycopy(data, start, _blocks(_bcount-1), _bfill, length)
+
+    val srow = _scount
+    if (srow == _sstarts.length) {
+      val ncap = math.max(16, srow*2)
+      _sstarts = Arrays.copyOf(_sstarts, ncap)
+      _sends = Arrays.copyOf(_sends, ncap)
+    }
+    _sstarts(srow) = _bfill
+    _sends(srow) = _bfill + length
+    _bfill += length
+    _scount = srow + 1
+
+    val size = _size
+    expectAt(size, 1, size)
+    _lines(size) = null
+    _srows(size) = srow
+    _size = size + 1
+    invalidate(size)
+  }
+
+  /** Inserts `count` lines at `index` which are the stored rows `[srow, srow+count)` of our paged
+    * text. These lines are materialized when first requested. */
+  def insertPaged (index :Int, srow :Int, count :Int) :Unit = {
+    val size = _size
+    expectAt(index, count, size)
+    var ii = 0 ; while (ii < count) {
+      _lines(index+ii) = null
+      _srows(index+ii) = srow+ii
+      ii += 1
+    }
+    _size = size + count
+    invalidate(index)
+  }
+
+  /** Trims any unused space from the last block of our stored text. Called when the buffer has
+    * finished reading its store. */
+  def trimStored () :Unit = if (_bcount > 0) {
+    val last = _bcount-1
+    if (_bfill < _blocks(last).length) _blocks(last) = Arrays.copyOf(_blocks(last), _bfill)
+    _sstarts = Arrays.copyOf(_sstarts, _scount)
+    _sends = Arrays.copyOf(_sends, _scount)
+    if (_sfrozen != null) _sfrozen = Arrays.copyOf(_sfrozen, _scount)
+  }
+
+  /** Appends `line` to the end of this buffer. */
+  def append (line :MutableLine) :Unit = insert(_size, line)
+  /** An alias for [[append]]. */
+  def += (line :MutableLine) :Unit = append(line)
+
+  /** Inserts `line` at `index`, shifting all lines at or after `index` down by one. */
+  def insert (index :Int, line :MutableLine) :Unit = {
+    val size = _size
+    expectAt(index, 1, size)
+    _lines(index) = line
+    _size = size + 1
+    invalidate(index)
+  }
+
+  /** Inserts `lines` at `index`, shifting all lines at or after `index` down by `lines.size`. */
+  def insert (index :Int, lines :Unordered[MutableLine]) :Unit = {
+    val size = _size ; val count = lines.size
+    expectAt(index, count, size)
+    val iter = lines.iterator() ; var ii = index
+    while (iter.hasNext) { _lines(ii) = iter.next ; ii += 1 }
+    _size = size + count
+    invalidate(index)
+  }
+
+  /** Removes `count` lines starting at `index`, shifting any later lines up by `count`.
+    * @throws IndexOutOfBoundsException if `[index,index+count)` is not in `[0,size)`. */
+  def remove (index :Int, count :Int) :Unit = if (count > 0) {
+    val size = _size ; val off = index+count
+    Seq.checkBounds(index, off, size)
+    if (off < size) {
+      System.arraycopy(_lines, off, _lines, index, size-off)
+      System.arraycopy(_srows, off, _srows, index, size-off)
+    }
+    Arrays.fill(_lines.asInstanceOf[Array[Object]], size-count, size, null)
+    _size = size - count
+    invalidate(index)
+  }
+
+  /** Returns the offset of the start of line `row`: the sum of the lengths of all preceding lines,
+    * plus one for each preceding line separator. `row` may be [[size]] in which case the offset
+    * just past the end of the last line separator is returned. */
+  def rowStart (row :Int) :Int = {
+    Seq.checkBounds(row, row, _size)
+    val tree = index() ; var sum = 0
+    var ii = row ; while (ii > 0) { sum += tree(ii) ; ii &= ii-1 }
+    sum
+  }
+
+  /** Returns the row which contains `offset`. An offset is contained by a row if it is between the
+    * row's start and its line separator, inclusive. If `offset` is beyond the end of the last line,
+    * [[size]] is returned. */
+  def rowAt (offset :Int) :Int = {
+    // find the largest count of leading rows whose lengths (and separators) sum to <= offset
+    val tree = index() ; val size = _size
+    var row = 0 ; var remain = offset
+    var step = Integer.highestOneBit(size) ; while (step > 0) {
+      val next = row + step
+      if (next <= size && tree(next) <= remain) { row = next ; remain -= tree(next) }
+      step >>>= 1
+    }
+    row
+  }
+
+  /** Notes that the lines in `[start, end]` may have changed length. This must be called after any
+    * in-place edit to a line's contents, before anything asks for offsets. */
+  def noteLengths (start :Int, end :Int) :Unit = {
+    // lines past the valid part of the index will have their lengths read when it is rebuilt
+    val tree = _tree ; val lens = _lens ; val valid = _indexed
+    var row = start ; val last = math.min(end, valid-1) ; while (row <= last) {
+      val len = lineLength(row) + 1 ; val delta = len - lens(row)
+      if (delta != 0) {
+        lens(row) = len
+        var ii = row+1 ; while (ii <= valid) { tree(ii) += delta ; ii += ii & -ii }
+      }
+      row += 1
+    }
+  }
+
+  /** Returns the first offset into line `index` at which `m` matches, starting from `from`, or -1.
+    * Unlike `get(index).indexOf(m, from)` this searches stored text in place rather than
+    * materializing the line, so that searching a large buffer does not materialize every line. */
+  def indexOf (index :Int, m :Matcher, from :Int) :Int = {
+    Seq.checkIndex(index, _size)
+    val line = _lines(index)
+    if (line != null) line.indexOf(m, from)
+    else if (paged != null) {
+      val cs = paged.text(_srows(index)) ; m.search(cs, 0, cs.length, from)
+    }
+    else {
+      val srow = _srows(index) ; val start = _sstarts(srow)
+      val n = m.search(_blocks(block(srow)), start, _sends(srow), start+from)
+      if (n == -1) n else n - start
+    }
+  }
+
+  /** Returns the last offset into line `index` at which `m` matches, starting from `from`, or -1.
+    * Like [[indexOf]], this does not materialize the line. */
+  def lastIndexOf (index :Int, m :Matcher, from :Int) :Int = {
+    Seq.checkIndex(index, _size)
+    val line = _lines(index)
+    if (line != null) line.lastIndexOf(m, from)
+    else if (paged != null) {
+      val cs = paged.text(_srows(index)) ; m.searchBackward(cs, 0, cs.length, from)
+    }
+    else {
+      val srow = _srows(index) ; val start = _sstarts(srow)
+      val n = m.searchBackward(_blocks(block(srow)), start, _sends(srow), start+from)
+      if (n == -1) n else n - start
+    }
+  }
+
+  /** Returns the length of line `index`, without materializing it if it has not been. */
+  def lineLength (index :Int) :Int = {
+    val line = _lines(index)
+    if (line != null) line.length
+    else if (paged != null) paged.length(_srows(index))
+    else { val srow = _srows(index) ; _sends(srow) - _sstarts(srow) }
+  }
+
+  /** Returns a snapshot of the text of every line in this buffer, which may be written from another
+    * thread while this buffer continues to be edited. Unmaterialized lines view our stored text (or
+    * are read from our paged text as they are written) and materialized lines share their
+    * characters copy-on-write, so nothing is copied here. */
+  def snapshot () :Seq[Store.Writable] = {
+    val sb = Seq.builder[Store.Writable](_size) ; var rows :PagedText#Rows = null
+    var ii = 0 ; while (ii < _size) {
+      val line = _lines(ii)
+      sb += (if (line != null) line.snapshot
+             else if (paged != null) {
+               if (rows == null) rows = paged.rowsView
+               val srow = _srows(ii) ; val text = rows
+               new Store.Writable() { def write (out :Writer) = out.write(text.text(srow)) }
+             }
+             else {
+               val srow = _srows(ii) ; val start = _sstarts(srow)
+               new MutableLine.Chars(_blocks(block(srow)), start, _sends(srow)-start)
+             })
+      ii += 1
+    }
+    sb.build()
+  }
+
+  /** Returns an immutable copy of every line in this buffer (see [[MutableLine.frozen]]). Lines
+    * which have not changed since the last call are shared with its result. Paged lines which have
+    * not been materialized are not paged in by this call, but rather each time they are requested
+    * from the result (which may be done on any thread). */
+  def frozen () :SeqV[Line] = {
+    val size = _size ; val lines = new Array[Line](size) ; var srows :Array[Int] = null
+    var ii = 0 ; while (ii < size) {
+      val line = _lines(ii)
+      if (line != null) lines(ii) = line.frozen
+      else if (paged != null) {
+        if (srows == null) srows = new Array[Int](size)
+        srows(ii) = _srows(ii)
+      }
+      else lines(ii) = storedFrozen(_srows(ii))
+      ii += 1
+    }
+    if (srows == null) Seq.from(lines) else new Frozen(lines, paged.rowsView, srows)
+  }
+
+  override def get (index :Int) :MutableLine = {
+    Seq.checkIndex(index, _size)
+    val line = _lines(index)
+    if (line != null) line else materialize(index)
+  }
+
+  override def size = _size
+
+  override def copyInto (start :Int, end :Int, target :Array[Any], offset :Int) :Unit = {
+    Seq.checkBounds(start, end, _size)
+    var ii = start ; while (ii < end) { target(offset+ii-start) = get(ii) ; ii += 1 }
+  }
+
+  override def iterator () :JIterator[MutableLine] = new JIterator[MutableLine]() {
+    private var _index = 0
+    override def hasNext :Boolean = _index < size
+    override def next :MutableLine = {
+      if (_index < size) try { get(_index) } finally { _index += 1 }
+      else throw new NoSuchElementException()
+    }
+  }
+
+  override protected def toStringType = "LineBuffer"
+
+  // returns the (shared) frozen view of stored row `srow`
+  private def storedFrozen (srow :Int) :Line = {
+    if (_sfrozen == null || _sfrozen.length <= srow) {
+      val ncap = math.max(_sstarts.length, srow+1)
+      _sfrozen = if (_sfrozen == null) new Array[Line](ncap) else Arrays.copyOf(_sfrozen, ncap)
+    }
+    val line = _sfrozen(srow)
+    if (line != null) line else {
+      val start = _sstarts(srow)
+      val nline = MutableLine.frozen(_blocks(block(srow)), start, _sends(srow)-start)
+      _sfrozen(srow) = nline
+      nline
+    }
+  }
+
+  private def materialize (index :Int) :MutableLine = {
+    val srow = _srows(index)
+    val line = if (paged != null) paged.line(buffer, srow) else {
+      val start = _sstarts(srow)
+      MutableLine.shared(buffer, _blocks(block(srow)), start, _sends(srow)-start)
+    }
+    _lines(index) = line
+    line
+  }
+
+  // notes that the lines from `row` onward have been inserted or removed (or shifted thereby)
+  private def invalidate (row :Int) :Unit = if (row < _indexed) _indexed = row
+
+  private def index () :Array[Int] = {
+    val valid = _indexed ; val size = _size
+    if (valid < size || _tree == null) {
+      // node `n` sums the lines in `(n - lowbit(n), n]`, so nodes up to `valid` are intact; rebuild
+      // the rest in time linear in their number by adding each node's sum into its parent
+      if (_tree == null || _tree.length <= size) {
+        val ncap = size*3/2+1
+        _tree = if (_tree == null) new Array[Int](ncap) else Arrays.copyOf(_tree, ncap)
+        _lens = if (_lens == null) new Array[Int](ncap) else Arrays.copyOf(_lens, ncap)
+      }
+      val tree = _tree ; val lens = _lens
+      var ii = valid+1 ; while (ii <= size) {
+        val len = lineLength(ii-1) + 1
+        lens(ii-1) = len
+        tree(ii) = len
+        ii += 1
+      }
+      // the intact nodes whose parents are being rebuilt are exactly those that sum to `valid`
+      ii = valid ; while (ii > 0) {
+        val parent = ii + (ii & -ii)
+        if (parent <= size) tree(parent) += tree(ii)
+        ii &= ii-1
+      }
+      ii = valid+1 ; while (ii <= size) {
+        val parent = ii + (ii & -ii)
+        if (parent <= size) tree(parent) += tree(ii)
+        ii += 1
+      }
+      _indexed = size
+    }
+    _tree
+  }
+
+  private def block (srow :Int) :Int = {
+    // binary search for the last block whose first row is <= srow
+    var low = 0 ; var high = _bcount-1
+    while (low < high) {
+      val mid = (low + high + 1) >>> 1
+      if (_bfirsts(mid) <= srow) low = mid else high = mid-1
+    }
+    low
+  }
+
+  private def addBlock (minLength :Int) :Unit = {
+    // grow our blocks along with the text read so far, which keeps the number of blocks small for
+    // large files without wasting a lot of space on small ones
+    val last = if (_bcount == 0) 0 else _blocks(_bcount-1).length
+    val size = math.max(minLength, math.min(MaxBlockSize, math.max(MinBlockSize, last*2)))
+    if (_bcount > 0 && _bfill < _blocks(_bcount-1).length) {
+      _blocks(_bcount-1) = Arrays.copyOf(_blocks(_bcount-1), _bfill) // trim the full block
+    }
+    if (_bcount == _blocks.length) {
+      _blocks = Arrays.copyOf(_blocks, _bcount*2)
+      _bfirsts = Arrays.copyOf(_bfirsts, _bcount*2)
+    }
+    _blocks(_bcount) = new Array[Char](size)
+    _bfirsts(_bcount) = _scount
+    _bcount += 1
+    _bfill = 0
+  }
+
+  private def expectAt (index :Int, count :Int, size :Int) :Unit = {
+    val remain = size-index ; val need = size + count
+    if (need > _lines.length) {
+      var ncap = _lines.length*2 ; while (ncap < need) ncap *= 2
+      val nlines = new Array[MutableLine](ncap) ; val nsrows = new Array[Int](ncap)
+      System.arraycopy(_lines, 0, nlines, 0, index)
+      System.arraycopy(_srows, 0, nsrows, 0, index)
+      if (remain > 0) {
+        System.arraycopy(_lines, index, nlines, index+count, remain)
+        System.arraycopy(_srows, index, nsrows, index+count, remain)
+      }
+      _lines = nlines
+      _srows = nsrows
+    } else if (remain > 0) {
+      System.arraycopy(_lines, index, _lines, index+count, remain)
+      System.arraycopy(_srows, index, _srows, index+count, remain)
+      Arrays.fill(_lines.asInstanceOf[Array[Object]], index, index+count, null)
+    }
+  }
+}
@@ -5,6 +5,7 @@
 package scaled.impl
 
 import java.io.Writer
+import java.util.Arrays
 import scaled._
 
 /** [MutableLine] related types and utilities. */
@@ -19,12 +20,42 @@ object MutableLine {
   /** Creates a mutable line with a copy of the contents of `line`. */
   def apply (buffer :BufferImpl, line :LineV) = {
     val cs = new Array[Char](line.length)
-    val xs = new Array[Syntax](line.length)
+    val xs = new Array[Short](line.length)
     val ts = new Tags()
     val lts = new Line.TagSet()
     line.sliceInto(0, line.length, cs, xs, ts, lts, 0)
     new MutableLine(buffer, cs, xs, ts, lts)
   }
+
+  /** Creates a mutable line which views `[offset, offset+length)` of `cs`. The characters are not
+    * copied until the line is first edited, so `cs` may be shared with other lines (it is never
+    * mutated by this line). The line starts with default syntax and no tags. */
+  def shared (buffer :BufferImpl, cs :Array[Char], offset :Int, length :Int) =
+    new MutableLine(buffer, cs, null, offset, length, null, null, true)
+
+  /** Creates a shared line for `row` of `text`, with chars `cs` (which were paged in from `text`).
+    * Until the line is edited, its chars may be dropped via [[MutableLine.evict]], in which case
+    * they are paged back in from `text` when next needed. */
+  def paged (buffer :BufferImpl, text :PagedText, row :Int, cs :Array[Char]) = {
+    val line = shared(buffer, cs, 0, cs.length)
+    line._text = text
+    line._row = row
+    line
+  }
+
+  /** Creates an immutable line which views `[offset, offset+length)` of `cs` (which must never be
+    * mutated). The line has default syntax and no tags. */
+  def frozen (cs :Array[Char], offset :Int, length :Int) :Line =
+    new Line(cs, null, NoTags, NoLineTags, offset, length)
+
+  /** An immutable view of `[offset, offset+length)` of `cs`, used to snapshot lines for writing. */
+  final class Chars (cs :Array[Char], offset :Int, length :Int) extends Store.Writable {
+    override def write (out :Writer) = out.write(cs, offset, length)
+  }
+
+  // used by lines that have not yet needed tags or line tags; these are never mutated
+  private val NoTags = new Tags()
+  private val NoLineTags = new Line.TagSet(1)
 }
 
 /** [LineV] with mutable internals so that `BufferImpl` can efficiently edit it.
@@ -39,57 +70,127 @@ object MutableLine {
   * that the line emit this event rather than the buffer, so that the caller can't "forget" to emit
   * an event along with a line edit.
   *
-  * @param cs The initial characters in this line. Ownership of this array is taken by this line
-  * instance and the array may subsequently be mutated thereby.
+  * A line may start out ''shared'', in which case its characters are a view into an array that
+  * is shared with other lines (generally the text read from the buffer's store, see
+  * [[LineBuffer]]). A shared line copies its data into arrays of its own the first time it is
+  * edited. A line also becomes shared when its text is [[snapshot]]ted. Its syntax array, tags
+  * and line tags are also only created when first needed.
+  *
+  * @param cs The initial characters in this line. Unless `shared` is true, ownership of this array
+  * is taken by this line instance and the array may subsequently be mutated thereby.
   */
-class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
-                   tags :Tags, ltags :Line.TagSet) extends LineV with Store.Writable {
+class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Short], offset :Int,
+                   length0 :Int, tags :Tags, ltags :Line.TagSet, shared :Boolean)
+    extends LineV with Store.Writable {
+  import MutableLine._
+
+  def this (buffer :BufferImpl, cs :Array[Char], xs :Array[Short],
+            tags :Tags, ltags :Line.TagSet) = this(
+    buffer, cs, xs, 0, cs.length, tags, ltags, false)
   def this (buffer :BufferImpl, cs :Array[Char]) = this(
-    buffer, cs, Syntax.mkArray(cs.length, Syntax.Default), new Tags(), new Line.TagSet())
+    buffer, cs, Syntax.mkIds(cs.length, Syntax.Default), new Tags(), new Line.TagSet())
 
-  require(cs != null && xs != null && tags != null)
+  require(cs != null && (shared || xs != null))
 
-  protected var _chars = cs
+  private[this] var _cs = cs
+  protected def _chars = if (_cs != null) _cs else reload()
   protected var _syns = xs
-  protected def _tags = tags
-  protected def _ltags = ltags
-  private[this] var _end = cs.length
+  protected var _offset = offset
+  private[this] var _end = length0
+  private[this] var _shared = shared
+  private[this] var _ts = tags
+  private[this] var _lts = ltags
+  // an immutable copy of this line, reused until we are next changed
+  private[this] var _frozen :Line = null
+  // if we were paged in from a paged text, the text and our row therein
+  private var _text :PagedText = null
+  private var _row = 0
+
+  protected def _tags = if (_ts == null) NoTags else _ts
+  protected def _ltags = if (_lts == null) NoLineTags else _lts
 
   override def length = _end
   override def view (start :Int, until :Int) = new Line(
-    _chars, _syns, tags, ltags, start, until-start)
+    _chars, _syns, _tags, _ltags, _offset+start, until-start)
   override def slice (start :Int, until :Int) = new Line(
-    _chars.slice(start, until), _syns.slice(start, until), tags.slice(start, until), ltags.copy())
-  override protected def _offset = 0
+    Arrays.copyOfRange(_chars, _offset+start, _offset+until),
+    if (_syns == null) Syntax.mkIds(until-start, Syntax.Default)
+    else Arrays.copyOfRange(_syns, _offset+start, _offset+until),
+    _tags.slice(start, until), _ltags.copy())
+
+  override def write (out :Writer) = out.write(_chars, _offset, _end)
+
+  /** Returns true if this line's characters are shared (i.e. it has not been edited since it was
+    * created or last snapshotted). */
+  def isShared :Boolean = _shared
+
+  /** Returns a snapshot of this line's text which may be read from another thread. The snapshot
+    * shares this line's characters rather than copying them; this line thereafter treats them as
+    * shared and copies them if it is edited. */
+  def snapshot :Store.Writable = {
+    val snap = new Chars(_chars, _offset, _end)
+    _shared = true
+    snap
+  }
+
+  /** Returns an immutable copy of this line, which may be read from another thread. Like
+    * [[snapshot]], the copy shares this line's characters and syntax (and this line copies them if
+    * it is later edited). Its tags and non-ephemeral line tags are copied. The same copy is
+    * returned until this line is next changed. */
+  def frozen :Line = {
+    if (_frozen == null) {
+      val tags = if (_ts == null || _ts.isEmpty) NoTags else _ts.slice(0, _end)
+      val ltags = if (_lts == null) NoLineTags else _lts.copy()
+      _frozen = new Line(_chars, _syns, tags, ltags, _offset, _end)
+      _shared = true
+    }
+    _frozen
+  }
 
-  override def write (out :Writer) = out.write(_chars, 0, _end)
+  /** Drops this line's characters (to be paged back in when next needed) if it was paged in, has
+    * not been edited, and its chars are still `cs`. This is called by [[PagedText]] to limit the
+    * memory used by lines paged in from large files. */
+  def evict (cs :Array[Char]) :Unit = if (_shared && _text != null && (_cs eq cs)) _cs = null
 
   /** Provides access to our tag set for adding/clearing tags. */
-  def lineTagSet = ltags
+  def lineTagSet = mltags
 
   /** Splits this line at `loc`. Deletes the data from `loc.col` onward from this line.
     * @return a new line which contains the data from `loc.col` onward. */
   def split (loc :Loc) :MutableLine = {
+    val col = loc.col
+    // if our data is shared, the tail can just view the shared data and we can truncate
+    // ourselves without copying anything; we just have to split up our tags
+    if (_shared) {
+      require(col >= 0 && col <= _end, s"0 <= $col <= ${_end}")
+      val tail = new MutableLine(buffer, _chars, _syns, _offset+col, _end-col,
+                                 if (_ts == null) null else _ts.slice(col, _end),
+                                 if (_lts == null) null else _lts.copy(), true)
+      if (_ts != null) _ts.delete(col, _end)
+      _end = col
+      clearEphemeral()
+      tail
+    }
     // TODO: if loc.col is close to zero, just give our internals to the new line and create new
     // internals for ourselves?
-    MutableLine(buffer, delete(loc, _end-loc.col))
+    else MutableLine(buffer, delete(loc, _end-loc.col))
   }
 
   /** Inserts `c` into this line at `loc` with syntax `syntax`. */
   def insert (loc :Loc, c :Char, syntax :Syntax) :Unit = {
     prepInsert(loc.col, 1)
     _chars(loc.col) = c
-    _syns(loc.col) = syntax
+    _syns(loc.col) = syntax.id
     _end += 1
-    _ltags.clearEphemeral()
+    clearEphemeral()
   }
 
   /** Inserts `[offset, offset+count)` slice of `line` into this line at `loc`. */
   def insert (loc :Loc, line :LineV, offset :Int, count :Int) :Loc = if (count == 0) loc else {
     prepInsert(loc.col, count)
-    line.sliceInto(offset, offset+count, _chars, _syns, tags, ltags, loc.col)
+    line.sliceInto(offset, offset+count, _chars, _syns, mtags, mltags, loc.col)
     _end += count
-    _ltags.clearEphemeral()
+    clearEphemeral()
     loc + (0, count)
   }
 
@@ -108,11 +209,15 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
       val last = pos + length
       require(pos >= 0 && last <= _end, s"$pos >= 0 && $last <= ${_end}")
       val deleted = slice(pos, pos+length)
-      System.arraycopy(_chars , last, _chars , pos, _end-last)
-      System.arraycopy(_syns  , last, _syns  , pos, _end-last)
-      tags.delete(pos, last)
+      // deleting from the end of a shared line requires no copying, we just truncate our view
+      if (!_shared || last < _end) {
+        own()
+        System.arraycopy(_chars , last, _chars , pos, _end-last)
+        System.arraycopy(_syns  , last, _syns  , pos, _end-last)
+      }
+      if (_ts != null) _ts.delete(pos, last)
       _end -= length
-      _ltags.clearEphemeral()
+      clearEphemeral()
       deleted
     }
   }
@@ -131,16 +236,18 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
     if (deltaLength > 0) prepInsert(pos, deltaLength)
     // if we have a net decrease, shift tail left to close gap
     else if (deltaLength < 0) {
+      own()
       val toShift = _end-lastDeleted
       System.arraycopy(_chars , lastDeleted, _chars , lastAdded, toShift)
       System.arraycopy(_syns  , lastDeleted, _syns  , lastAdded, toShift)
     }
     // otherwise, we've got a perfect match, no shifting needed
+    else own()
 
-    if (delete > 0) tags.clear(pos, lastDeleted)
-    line.sliceInto(0, added, _chars, _syns, tags, ltags, pos)
+    if (delete > 0 && _ts != null) _ts.clear(pos, lastDeleted)
+    line.sliceInto(0, added, _chars, _syns, mtags, mltags, pos)
     _end += deltaLength
-    _ltags.clearEphemeral()
+    clearEphemeral()
     replaced
   }
 
@@ -149,8 +256,10 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
     * whether `fn` actually changed them.
     * @return the location after the last transformed char. */
   def transform (fn :Char => Char, loc :Loc, last :Int = length) :Loc = {
+    own()
     var p = loc.col
     while (p < last) { _chars(p) = fn(_chars(p)) ; p += 1 }
+    clearEphemeral()
     loc.atCol(last)
   }
 
@@ -162,7 +271,7 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
       length
     }
     if (ecol > scol) {
-      tags.add(tag, scol, ecol)
+      mtags.add(tag, scol, ecol)
       if (tag.isInstanceOf[String]) buffer.noteLineStyled(start)
     } // else NOOP!
   }
@@ -171,22 +280,34 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
     * `noteLineStyled` is emitted. */
   def removeTag[T] (tag :T, start :Loc, until :Int) :Unit = {
     val scol = start.col
-    if (until > scol && tags.remove(tag, scol, until) && tag.isInstanceOf[String]) {
-      buffer.noteLineStyled(start)
+    if (until > scol && _ts != null && _ts.remove(tag, scol, until)) {
+      _frozen = null
+      if (tag.isInstanceOf[String]) buffer.noteLineStyled(start)
     }
   }
 
   /** Removes matching tags from this line. If `class` is `String` and at least one tag is removed,
     * then `noteLineStyled` is emitted. */
   def removeTags[T] (tclass :Class[T], pred :T => Boolean, start :Loc, until :Int) :Unit = {
-    if (tags.removeAll(tclass, pred, start.col, until) && tclass == classOf[String]) {
-      buffer.noteLineStyled(start)
+    if (_ts != null && _ts.removeAll(tclass, pred, start.col, until)) {
+      _frozen = null
+      if (tclass == classOf[String]) buffer.noteLineStyled(start)
     }
   }
 
   /** Sets the syntax of chars in `[loc,last)` to `syntax`. */
   def setSyntax (syntax :Syntax, loc :Loc, last :Int = length) :Unit = {
-    var p = loc.col ; while (p < last) { _syns(p) = syntax ; p += 1 }
+    // lines without syntax have default syntax, so there's no need to copy if that's unchanged
+    if ((_syns ne null) || (syntax ne Syntax.Default)) {
+      own()
+      // line tags may be derived from syntax, so a change in syntax clears the ephemeral ones
+      val id = syntax.id ; var changed = false
+      var ii = loc.col ; while (ii < last) {
+        if (_syns(ii) != id) { _syns(ii) = id ; changed = true }
+        ii += 1
+      }
+      if (changed) clearEphemeral()
+    }
   }
 
   override def toString () = s"$asString/${_end}/${_chars.length}"
@@ -194,23 +315,53 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
   //
   // impl details
 
+  // these are used to mutate our tags (and all text edits clear our ephemeral line tags), so they
+  // also discard our frozen copy
+  private def mtags = { _frozen = null ; if (_ts == null) _ts = new Tags() ; _ts }
+  private def mltags = { _frozen = null ; if (_lts == null) _lts = new Line.TagSet() ; _lts }
+  private def clearEphemeral () :Unit = {
+    _frozen = null
+    if (_lts != null) _lts.clearEphemeral()
+  }
+
+  /** Ensures that this line's data is not shared, copying it if needed. After this call
+    * `_offset` is zero, and `_chars` and `_syns` are owned by this line. */
+  private def own () :Unit = if (_shared) {
+    val start = _offset ; val end = start + _end
+    _cs = Arrays.copyOfRange(_chars, start, end)
+    _syns = if (_syns == null) Syntax.mkIds(_end, Syntax.Default)
+            else Arrays.copyOfRange(_syns, start, end)
+    _offset = 0
+    _shared = false
+  }
+
+  private def reload () :Array[Char] = {
+    _cs = _text.reload(this, _row)
+    _cs
+  }
+
   private def prepInsert (pos :Int, length :Int) :Unit = {
     require(pos >= 0 && pos <= _end, s"0 <= $pos <= ${_end} ($length)")
     val curlen = _chars.length
     val curend = _end
     val tailpos = pos+length
     val taillen = curend-pos
-    // if we need to expand our arrays...
-    if (curend + length > curlen) {
+    // if we need to expand our arrays (or our arrays are shared)...
+    if (_shared || curend + length > curlen) {
       // ...tack on an extra N characters in expectation of future expansions
-      val nchars = new Array[Char](_chars.length+length + MutableLine.ExpandN)
-      System.arraycopy(_chars, 0, nchars, 0, pos)
-      System.arraycopy(_chars, pos, nchars, tailpos, taillen)
-      val nsyns = new Array[Syntax](nchars.length)
-      System.arraycopy(_syns, 0, nsyns, 0, pos)
-      System.arraycopy(_syns, pos, nsyns, tailpos, taillen)
-      _chars = nchars
+      val src = _offset
+      val nchars = new Array[Char](curend+length + MutableLine.ExpandN)
+      System.arraycopy(_chars, src, nchars, 0, pos)
+      System.arraycopy(_chars, src+pos, nchars, tailpos, taillen)
+      val nsyns = new Array[Short](nchars.length) // zeros are Syntax.Default
+      if (_syns != null) {
+        System.arraycopy(_syns, src, nsyns, 0, pos)
+        System.arraycopy(_syns, src+pos, nsyns, tailpos, taillen)
+      }
+      _cs = nchars
       _syns = nsyns
+      _offset = 0
+      _shared = false
     }
     // otherwise shift characters down, if necessary
     else if (pos < curend) {
@@ -218,6 +369,6 @@ class MutableLine (buffer :BufferImpl, cs :Array[Char], xs :Array[Syntax],
       System.arraycopy(_syns  , pos, _syns  , tailpos, taillen)
     }
     // we always shift our tags
-    _tags.expand(pos, length)
+    if (_ts != null) _ts.expand(pos, length)
   }
 }
@@ -0,0 +1,324 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import java.nio.channels.FileChannel
+import java.nio.charset.{Charset, CharsetDecoder, CodingErrorAction}
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.nio.{ByteBuffer, CharBuffer, MappedByteBuffer}
+import java.util.{ArrayDeque, Arrays}
+import scaled._
+import scaled.util.MappedReader
+
+/** [PagedText] related types and utilities. */
+object PagedText {
+
+  /** Files at least this large are paged rather than read into memory when they are viewed (see
+    * [[BufferImpl.view]]). */
+  final val PagedSize = 64L*1024*1024
+
+  /** The size of the regions in which a paged file is mapped. */
+  final val PageSize = 1024*1024
+
+  /** The maximum number of file pages that are kept mapped. */
+  final val MaxPages = 64
+
+  /** The maximum number of bytes indexed by a single call to [[PagedText.scan]]. */
+  final val MaxScan = 16*1024*1024
+
+  /** The (approximate) maximum number of chars of paged in lines which are kept in memory. */
+  final val MaxResident = 16*1024*1024
+
+  /** A batch of lines indexed by [[PagedText.scan]].
+    * @param from the file offset at which the scan started.
+    * @param starts the file offsets of the start of each line, and the end of the last line's
+    * separator.
+    * @param lengths the length (in chars) of each line.
+    * @param more true if there is more to be indexed. */
+  class Batch (val from :Long, val starts :Array[Long], val lengths :Array[Int],
+               val more :Boolean) {
+    def rows = lengths.length
+    override def toString = s"Batch(from=$from, rows=$rows, more=$more)"
+  }
+
+  /** Returns a paged text for `store` if it should be paged, `null` otherwise. A store is paged if
+    * it is a file of at least [[PagedSize]] bytes whose encoding can be paged (i.e. UTF-8 or a
+    * single byte encoding). */
+  def apply (store :Store) :PagedText = store match {
+    case FileStore(path) if (Files.isRegularFile(path) && Files.size(path) >= PagedSize) =>
+      val chan = FileChannel.open(path, StandardOpenOption.READ)
+      val enc = try MappedReader.detect(chan, chan.size) finally chan.close()
+      if (enc.bom || (enc.charset != UTF_8 && enc.charset.newEncoder.maxBytesPerChar > 1)) null
+      else new PagedText(path, enc.charset)
+    case _ => null
+  }
+}
+
+/** Provides the lines of a large read-only file, paging them in from the file as needed.
+  *
+  * The file is indexed (by [[scan]]) to determine where each line starts and its length, and only
+  * those pages of the file that contain lines which are actually used are mapped and decoded.
+  * Lines that are paged in are remembered and their characters are dropped (to be paged in again
+  * if needed) once more than `maxResident` chars have been paged in (see
+  * [[MutableLine.paged]]).
+  *
+  * Only complete lines (those ending with a line separator) are indexed; any trailing partial
+  * line is indexed when its separator is appended to the file. Thus the file may be indexed
+  * incrementally as it grows.
+  *
+  * This text pages lines in through a cache of mapped pages and must only be used on the UI
+  * thread. Lines may be read from other threads via [[rows]], which reads them directly from the
+  * file.
+  */
+class PagedText (val path :Path, val charset :Charset, maxResident :Int = PagedText.MaxResident) {
+  import PagedText._
+
+  private[this] val _chan = FileChannel.open(path, StandardOpenOption.READ)
+
+  // the file offset of the start of each line, and the end of the last indexed line
+  private[this] var _starts = new Array[Long](1024)
+  // the length in chars of each line
+  private[this] var _lengths = new Array[Int](1024)
+  private[this] var _rows = 0
+  @volatile private[this] var _indexed = 0L
+
+  // our mapped pages, most recently used last
+  private[this] val _pages = new Array[MappedByteBuffer](MaxPages)
+  private[this] val _pageIdxs = new Array[Long](MaxPages)
+  private[this] var _pageCount = 0
+
+  // the lines whose chars we have paged in, and the chars in question
+  private[this] val _resLines = new ArrayDeque[MutableLine]()
+  private[this] val _resChars = new ArrayDeque[Array[Char]]()
+  private[this] var _resident = 0
+
+  private[this] val _decoder = newDecoder()
+  private[this] var _bytes = new Array[Byte](256)
+
+  /** A view of the lines indexed as of its creation, which may be read from any thread (e.g. by
+    * a buffer snapshot). Lines are read directly from the file, and are not retained. */
+  final class Rows private[PagedText] (starts :Array[Long], lengths :Array[Int]) {
+    /** Returns the characters of `row`. */
+    def text (row :Int) :Array[Char] = {
+      val start = starts(row) ; val bytes = new Array[Byte]((starts(row+1)-start).toInt)
+      val buf = ByteBuffer.wrap(bytes)
+      while (buf.hasRemaining && _chan.read(buf, start + buf.position()) >= 0) {}
+      toChars(newDecoder(), bytes, trimmed(bytes, 0, bytes.length), lengths(row))
+    }
+  }
+
+  /** The number of lines indexed so far. */
+  def rows :Int = _rows
+
+  /** Returns a view of the lines indexed so far, which may be read from any thread. Only rows
+    * indexed when this is called may be read from the view. Indexed rows are never changed (only
+    * appended to) by [[add]], so the view shares our index rather than copying it. */
+  def rowsView :Rows = new Rows(_starts, _lengths)
+
+  /** The number of bytes of the file indexed so far. */
+  def indexed :Long = _indexed
+
+  /** Returns the length in chars of line `row`. */
+  def length (row :Int) :Int = _lengths(row)
+
+  /** Returns true if the file has become shorter than the text we have indexed, which generally
+    * means it has been truncated or replaced. */
+  def shrunk :Boolean = _chan.size < _indexed
+
+  /** Indexes the lines that follow the last indexed line, up to (about) [[MaxScan]] bytes worth.
+    * This does not modify this text (the batch is added via [[add]]), and may be called on any
+    * thread, but only one scan may be in progress at a time. */
+  def scan () :Batch = {
+    val from = _indexed ; val size = _chan.size
+    var window = MaxScan.toLong ; var batch :Batch = null
+    // if a single line is longer than our window, keep doubling the window until it fits
+    while (batch == null) {
+      batch = scan(from, size, window)
+      window *= 2
+    }
+    batch
+  }
+
+  /** Adds the lines indexed by `batch` to this text. Returns the index of the first added row. */
+  def add (batch :Batch) :Int = {
+    require(batch.from == _indexed, s"Batch does not start at end of index (${_indexed}): $batch")
+    val first = _rows ; val count = batch.rows
+    if (first + count + 1 > _starts.length) {
+      var ncap = _starts.length*2 ; while (ncap < first + count + 1) ncap *= 2
+      _starts = Arrays.copyOf(_starts, ncap)
+      _lengths = Arrays.copyOf(_lengths, ncap)
+    }
+    System.arraycopy(batch.starts, 0, _starts, first, count+1)
+    System.arraycopy(batch.lengths, 0, _lengths, first, count)
+    _rows = first + count
+    _indexed = batch.starts(count)
+    first
+  }
+
+  /** Returns the characters of `row`, paging them in. Unlike [[line]] this does not retain them. */
+  def text (row :Int) :Array[Char] = chars(row)
+
+  /** Creates a line for `row`, paging in its characters. */
+  def line (buffer :BufferImpl, row :Int) :MutableLine = {
+    val cs = chars(row)
+    val line = MutableLine.paged(buffer, this, row, cs)
+    noteResident(line, cs)
+    line
+  }
+
+  /** Pages in the characters of `row` for `line` which previously had them evicted. */
+  def reload (line :MutableLine, row :Int) :Array[Char] = {
+    val cs = chars(row)
+    noteResident(line, cs)
+    cs
+  }
+
+  /** Releases the resources used by this text. */
+  def close () :Unit = {
+    _chan.close()
+    Arrays.fill(_pages.asInstanceOf[Array[Object]], null)
+    _pageCount = 0
+  }
+
+  override def toString = s"PagedText($path, $charset, rows=${_rows}, indexed=${_indexed})"
+
+  private def newDecoder () = charset.newDecoder.onMalformedInput(CodingErrorAction.REPLACE).
+    onUnmappableCharacter(CodingErrorAction.REPLACE)
+
+  private def scan (from :Long, size :Long, window :Long) :Batch = {
+    // we don't start lines at or beyond limit, but we look one byte past it so that we can tell
+    // whether a \r at the limit is followed by a \n
+    val limit = math.min(size, from + window)
+    val n = (math.min(size, limit + 1) - from).toInt
+    val bytes = if (n == 0) ByteBuffer.allocate(0)
+                else _chan.map(FileChannel.MapMode.READ_ONLY, from, n)
+    val utf8 = charset == UTF_8 ; val decoder = newDecoder()
+    var chars = CharBuffer.allocate(256)
+    var starts = new Array[Long](1024) ; var lengths = new Array[Int](1024) ; var rows = 0
+    var start = 0 ; var pos = 0 ; var ascii = true ; var done = false
+    while (!done && pos < n) {
+      val b = bytes.get(pos)
+      if (b == '\n' || b == '\r') {
+        var next = pos + 1
+        if (b == '\r') {
+          if (next == n) done = true // we can't yet tell if this \r is followed by a \n
+          else if (bytes.get(next) == '\n') next += 1
+        }
+        if (!done) {
+          if (rows == lengths.length) {
+            starts = Arrays.copyOf(starts, rows*2)
+            lengths = Arrays.copyOf(lengths, rows*2)
+          }
+          starts(rows) = from + start
+          lengths(rows) = if (ascii || !utf8) pos-start else {
+            chars = decode(decoder, bytes, start, pos, chars)
+            chars.position()
+          }
+          rows += 1
+          start = next ; pos = next ; ascii = true
+          if (from + start >= limit) done = true
+        }
+      } else {
+        if (b < 0) ascii = false
+        pos += 1
+      }
+    }
+    // if we found no complete lines, but there's more file beyond our window, try again
+    if (rows == 0 && limit < size) null
+    else {
+      starts = Arrays.copyOf(starts, rows+1)
+      starts(rows) = from + start // the start of the next (not yet indexed) line
+      new Batch(from, starts, Arrays.copyOf(lengths, rows), limit < size)
+    }
+  }
+
+  private def decode (decoder :CharsetDecoder, bytes :ByteBuffer, start :Int, end :Int,
+                      into :CharBuffer) :CharBuffer = {
+    var out = into
+    val in = bytes.duplicate() ; in.limit(end).position(start)
+    if (out.capacity < end-start) out = CharBuffer.allocate(end-start)
+    out.clear()
+    decoder.reset()
+    decoder.decode(in, out, true)
+    decoder.flush(out)
+    out
+  }
+
+  private def chars (row :Int) :Array[Char] = {
+    val start = _starts(row) ; val length = (_starts(row+1)-start).toInt
+    if (_bytes.length < length) _bytes = new Array[Byte](math.max(length, _bytes.length*2))
+    val bytes = _bytes
+    var pos = 0 ; while (pos < length) {
+      val page = this.page(start + pos) ; val poff = ((start + pos) % PageSize).toInt
+      val count = math.min(length - pos, page.limit() - poff)
+      page.duplicate().position(poff).asInstanceOf[ByteBuffer].get(bytes, pos, count)
+      pos += count
+    }
+    toChars(_decoder, bytes, trimmed(bytes, 0, length), _lengths(row))
+  }
+
+  // returns the end of the line in `[start, end)` of `bytes` with its separator trimmed
+  private def trimmed (bytes :Array[Byte], start :Int, end :Int) :Int = {
+    var tend = end-1
+    if (tend > start && bytes(tend) == '\n' && bytes(tend-1) == '\r') tend -= 1
+    tend
+  }
+
+  // decodes the first `length` bytes of `bytes` (a line of `chars` chars)
+  private def toChars (decoder :CharsetDecoder, bytes :Array[Byte], length :Int,
+                       chars :Int) :Array[Char] = {
+    val out = decode(decoder, ByteBuffer.wrap(bytes, 0, length), 0, length,
+                     CharBuffer.allocate(chars))
+    val cs = if (out.position() == out.capacity) out.array
+             else Arrays.copyOf(out.array, out.position())
+    // TEMP: hackery to remove tabs; TODO: remove when we support tabs
+    var ii = 0 ; while (ii < cs.length) { if (cs(ii) == '\t') cs(ii) = ' ' ; ii += 1 }
+    cs
+  }
+
+  private def page (pos :Long) :MappedByteBuffer = {
+    val idx = pos / PageSize ; val start = idx * PageSize
+    var ii = _pageCount-1 ; while (ii >= 0 && _pageIdxs(ii) != idx) ii -= 1
+    // if we mapped the last page of the file before it grew, we may need to map it again
+    if (ii >= 0 && pos - start >= _pages(ii).limit()) {
+      System.arraycopy(_pages, ii+1, _pages, ii, _pageCount-ii-1)
+      System.arraycopy(_pageIdxs, ii+1, _pageIdxs, ii, _pageCount-ii-1)
+      _pageCount -= 1
+      ii = -1
+    }
+    val page = if (ii >= 0) {
+      val page = _pages(ii)
+      // move this page to the end of the list (if it's not already there)
+      System.arraycopy(_pages, ii+1, _pages, ii, _pageCount-ii-1)
+      System.arraycopy(_pageIdxs, ii+1, _pageIdxs, ii, _pageCount-ii-1)
+      page
+    } else {
+      // drop the least recently used page if we're full
+      if (_pageCount == MaxPages) {
+        System.arraycopy(_pages, 1, _pages, 0, MaxPages-1)
+        System.arraycopy(_pageIdxs, 1, _pageIdxs, 0, MaxPages-1)
+        _pageCount -= 1
+      }
+      _pageCount += 1
+      _chan.map(FileChannel.MapMode.READ_ONLY, start, math.min(PageSize, _indexed - start))
+    }
+    _pages(_pageCount-1) = page
+    _pageIdxs(_pageCount-1) = idx
+    page
+  }
+
+  private def noteResident (line :MutableLine, cs :Array[Char]) :Unit = {
+    _resLines.add(line) ; _resChars.add(cs)
+    _resident += cs.length
+    // if we've exceeded our budget, evict the lines we paged in least recently; if a line has
+    // been edited, or evicted and reloaded since we noted it, evict() will decline
+    while (_resident > maxResident && !_resLines.isEmpty) {
+      val ocs = _resChars.poll()
+      _resLines.poll().evict(ocs)
+      _resident -= ocs.length
+    }
+  }
+}
@@ -4,20 +4,41 @@
 
 package scaled.impl
 
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream}
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.{Files, Path, StandardOpenOption}
 import scaled._
 
 /** Tracks changes to a buffer, aggregating sequences of individual changes into single undoable
   * actions. Then handles reversing said actions, on request.
+  *
+  * Edits are encoded compactly as they arrive: an insert is recorded as just its bounds, and the
+  * text removed by a delete or transform is stored as a single string with run-length encoded
+  * syntax (and any tags). Adjacent inserts and adjacent deletes within an action are coalesced.
+  * Once the history held in memory exceeds [[memoryBudget]], the oldest actions are spilled to a
+  * temporary file, from which they are read back if they are ever undone. Only the style tags of
+  * spilled text are retained, other (char and line) tags are dropped.
   */
 class UndoStack (buffer :BufferImpl) extends Undoer {
   import UndoStack._
 
+  /** The number of bytes of undo (and redo) history that is kept in memory. */
+  var memoryBudget :Long = DefaultBudget
+
+  /** Returns the (approximate) number of bytes of undo history currently kept in memory. */
+  def memoryUsed :Long = _bytes
+
   // don't accumulate undo information for uneditable buffers
   buffer.edited.onValue { edit =>
-    if (buffer.editable) accum += edit
+    if (buffer.editable) {
+      val edits = accum ; val delta = Delta(edit)
+      if (edits.isEmpty || !edits.last.coalesce(delta)) edits += delta
+    }
   }
+  buffer.killed.onEmit { if (_spill != null) { _spill.close() ; _spill = null } }
 
-  def delimitAction (point :Loc) :Unit = {
+  def delimitAction (point :Loc) :Unit = if (!buffer.inTransaction) {
     // first commit any edits that came in since our last delimiting
     if (!_edits.isEmpty) {
       accumTo(_edits, _actions)
@@ -41,9 +62,9 @@ class UndoStack (buffer :BufferImpl) extends Undoer {
       // if the buffer is clean prior this undo, move the redo clean pointer here
       if (!buffer.dirty) _cleanRedoIdx = _redoActions.size
       // pop the most recent action from the undo stack and undo it
-      val action = pop(_actions)
+      val action = _actions.pop()
       _undoing = true
-      try action.undo()
+      try action.undo(buffer)
       catch {
         case t :Throwable => println(s"Undo choke: $action") ; t.printStackTrace(System.err)
       }
@@ -63,8 +84,8 @@ class UndoStack (buffer :BufferImpl) extends Undoer {
     if (_redoActions.isEmpty) None
     else {
       // pop the most recent action from the redo stack and undo it (undoing and undo)
-      val action = pop(_redoActions)
-      action.undo()
+      val action = _redoActions.pop()
+      action.undo(buffer)
       // accumulate the redone edits immediately so that the actionDidComplete (that naturally
       // follows a redo) does not see uncommitted edits and think that the user just made a normal
       // edit (which would clear the redo list)
@@ -80,68 +101,374 @@ class UndoStack (buffer :BufferImpl) extends Undoer {
     _accumNextEdit = true
   }
 
-  private def pop (actions :SeqBuffer[Action]) = {
-    val action = actions.last ; actions.trimEnd(1) ; action
-  }
-
   // returns the buffer onto which to accumulate buffer edits; normally we accumulate to the edits
   // buffer, but when we're undoing, we accumulate edits to the redo buffer because the edits that
   // come in during that time are triggered by our undoing, not by user actions
   private def accum = if (_undoing) _redoEdits else _edits
 
-  private def accumTo (edits :SeqBuffer[Buffer.Edit], actions :SeqBuffer[Action]) :Unit = {
+  private def accumTo (edits :SeqBuffer[Delta], actions :History) :Unit = {
     if (!edits.isEmpty) {
       // if we can't accumulate these edits with the most recent action, add a new action
-      if (!_accumNextEdit || actions.isEmpty || !actions.last.accum(edits)) {
-        actions += toAction(_point, edits)
+      if (!_accumNextEdit || actions.isEmpty || !actions.accumLast(edits)) {
+        actions += new Action(_point, edits.toSeq)
       }
       edits.clear()
       _accumNextEdit = false
+      if (_bytes > memoryBudget) spill()
+    }
+  }
+
+  // spills the oldest undo (and then redo) actions to our spill file until our in-memory history
+  // is comfortably back under budget
+  private def spill () :Unit = {
+    val target = memoryBudget/2
+    if (_spill == null) _spill = new Spill()
+    while (_bytes > target && _actions.spillOldest(_spill)) {}
+    while (_bytes > target && _redoActions.spillOldest(_spill)) {}
+  }
+
+  /** A stack of actions, the oldest of which may have been spilled to our spill file. */
+  private class History {
+    private val _stack = SeqBuffer[Actionish]()
+    private var _spilled = 0 // the spilled actions are always a prefix of the stack
+
+    def size = _stack.size
+    def isEmpty = _stack.isEmpty
+
+    def += (action :Action) :Unit = { _stack += action ; _bytes += action.bytes }
+
+    def accumLast (edits :SeqV[Delta]) :Boolean = _stack.last match {
+      case action :Action =>
+        val obytes = action.bytes
+        action.accum(edits) && { _bytes += action.bytes - obytes ; true }
+      case _ => false
+    }
+
+    def pop () :Action = {
+      val top = _stack.last ; _stack.trimEnd(1)
+      top match {
+        case action :Action => _bytes -= action.bytes ; action
+        case spilled :Spilled =>
+          _spilled -= 1
+          val action = _spill.read(spilled)
+          noteUnspilled()
+          action
+      }
     }
+
+    def clear () :Unit = {
+      _stack foreach { case action :Action => _bytes -= action.bytes ; case _ => }
+      _stack.clear()
+      _spilled = 0
+      noteUnspilled()
+    }
+
+    def spillOldest (spill :Spill) :Boolean =
+      if (_spilled == _stack.size) false
+      else {
+        val action = _stack(_spilled).asInstanceOf[Action]
+        _stack(_spilled) = spill.write(action)
+        _bytes -= action.bytes
+        _spilled += 1
+        true
+      }
+
+    def hasSpilled = _spilled > 0
   }
 
-  private def isBreakChar (c :Char) = Character.isWhitespace(c) // TODO: delegate this to the mode
+  // when nothing remains spilled, we can reuse our spill file from the start
+  private def noteUnspilled () :Unit =
+    if (_spill != null && !_actions.hasSpilled && !_redoActions.hasSpilled) _spill.reset()
 
-  private val _edits = SeqBuffer[Buffer.Edit]()
-  private val _actions = SeqBuffer[Action]()
-  private val _redoEdits = SeqBuffer[Buffer.Edit]()
-  private val _redoActions = SeqBuffer[Action]()
+  private val _edits = SeqBuffer[Delta]()
+  private val _actions = new History()
+  private val _redoEdits = SeqBuffer[Delta]()
+  private val _redoActions = new History()
+  private var _bytes = 0L
+  private var _spill :Spill = null
   private var _point = Loc(0, 0)
   private var _accumNextEdit = false
   private var _undoing = false
-  private var _redoing = false
   private var _cleanUndoIdx = 0
   private var _cleanRedoIdx = -1
 }
 
 object UndoStack {
 
+  /** The default memory budget for a buffer's undo history. */
+  final val DefaultBudget = 16L*1024*1024
+
+  private val NoInts = new Array[Int](0)
+
+  private final val Ins = 0
+  private final val Del = 1
+  private final val Xf = 2
+
+  // the approximate memory overhead of an action, delta and chunk
+  private final val ActionBytes = 48
+  private final val DeltaBytes = 40
+  private final val ChunkBytes = 64
+
+  /** An action on an undo stack: in memory, or spilled to disk. */
+  private sealed abstract class Actionish (val point :Loc)
+
   /** Encapsulates an undoable group of buffer edits. */
-  abstract class Action (val point :Loc) {
+  private final class Action (p :Loc, val deltas :Seq[Delta]) extends Actionish(p) {
+    // whether this action consists only of the (coalesced) single inserts of successive edits;
+    // only such actions accumulate further edits
+    private val _simple = deltas.size == 1 && deltas.head.kind == Ins
+
+    def bytes :Long = deltas.foldLeft(ActionBytes.toLong)(_ + _.bytes)
+
     /** Undoes the edits in the reverse of the order they were accumulated. */
-    def undo () :Unit
+    def undo (buffer :Buffer) :Unit = {
+      var ii = deltas.size-1 ; while (ii >= 0) { deltas(ii).undo(buffer) ; ii -= 1 }
+    }
+
     /** Requests to merge `edits` into this action. Returns true on success, false otherwise. */
-    def accum (edits :SeqV[Buffer.Edit]) :Boolean
+    def accum (edits :SeqV[Delta]) :Boolean =
+      _simple && edits.size == 1 && edits.head.kind == Ins && deltas.head.coalesce(edits.head)
+
+    override def toString = s"Action($point, ${deltas})"
   }
 
-  /** Creates the appropriate action for `edits`. */
-  def toAction (point :Loc, edits :SeqV[Buffer.Edit]) :Action = edits.head match {
-    case ins :Buffer.Insert if (edits.size == 1) => new SimpleInsert(point, ins)
-    case _                                       => new General(point, edits.toSeq)
+  /** An action that has been spilled to disk at `[offset, offset+length)` of the spill file. */
+  private final class Spilled (p :Loc, val offset :Long, val length :Int) extends Actionish(p) {
+    override def toString = s"Spilled($point, $offset, $length)"
   }
 
-  private class SimpleInsert (p :Loc, private[this] var edit :Buffer.Insert) extends Action(p) {
-    def undo () = edit.undo()
-    def accum (edits :SeqV[Buffer.Edit]) :Boolean = (edits.size == 1) && (edits.head match {
-      case ins :Buffer.Insert if (ins.start == edit.end) => edit = edit.merge(ins) ; true
+  /** A compact encoding of a buffer edit. Inserts retain only their bounds, deletes and
+    * transforms also retain the text that they deleted or replaced. */
+  private final class Delta (val kind :Int, var start :Loc, var end :Loc, var chunk :Chunk) {
+
+    def bytes :Long = DeltaBytes + (if (chunk == null) 0 else chunk.bytes)
+
+    def undo (buffer :Buffer) :Unit = kind match {
+      case Ins => buffer.delete(start, end)
+      case Del => buffer.insert(start, chunk.lines)
+      case Xf  => buffer.replace(start, end, chunk.lines)
+    }
+
+    /** Merges `next` (which immediately followed this delta) into this delta, if they are
+      * adjacent edits of the same kind. Returns true if so, false if they could not be merged. */
+    def coalesce (next :Delta) :Boolean = (kind, next.kind) match {
+      case (Ins, Ins) if (next.start == end) => end = next.end ; true
+      // a forward delete of the text following our deleted text
+      case (Del, Del) if (next.start == start) =>
+        chunk = Chunk.concat(chunk, next.chunk) ; end = chunk.endFrom(start) ; true
+      // a backward delete of the text preceding our deleted text
+      case (Del, Del) if (next.end == start) =>
+        chunk = Chunk.concat(next.chunk, chunk) ; start = next.start ; end = chunk.endFrom(start)
+        true
       case _ => false
-    })
-    override def toString = s"SimpleInsert($p, $edit)"
+    }
+
+    override def toString = kind match {
+      case Ins => s"+${Region.toString(start, end)}"
+      case Del => s"-${Region.toString(start, end)}"
+      case _   => s"!${Region.toString(start, end)}"
+    }
   }
 
-  private class General (p :Loc, edits :Seq[Buffer.Edit]) extends Action(p) {
-    def undo () = edits.reverse.foreach { _.undo() }
-    def accum (edits :SeqV[Buffer.Edit]) = false
-    override def toString = s"General($p, $edits)"
+  private object Delta {
+    def apply (edit :Buffer.Edit) :Delta = edit match {
+      case ins :Buffer.Insert    => new Delta(Ins, ins.start, ins.end, null)
+      case del :Buffer.Delete    => new Delta(Del, del.start, del.end, Chunk(del.deletedRegion))
+      case xf  :Buffer.Transform => new Delta(Xf, xf.start, xf.end, Chunk(xf.original))
+    }
+  }
+
+  /** A sequence of lines, stored as a single string (with `\n` separating the lines). Syntax is
+    * stored as `(offset, id)` runs (`null` if the text has default syntax throughout). Char tags
+    * are stored as `tags(ii)` spanning `tagPos(3*ii+1)` to `tagPos(3*ii+2)` of line
+    * `tagPos(3*ii)`, and line tags as `ltags(ii)` on line `ltagRows(ii)`. */
+  private final class Chunk (val text :String, val syntax :Array[Int],
+                             val tags :Array[AnyRef], val tagPos :Array[Int],
+                             val ltags :Array[Line.Tag], val ltagRows :Array[Int]) {
+
+    def bytes :Long = ChunkBytes + 2L*text.length + 4L*syntax.length + 24L*tags.length +
+      12L*tagPos.length/3 + 12L*ltags.length
+
+    def lineCount :Int = {
+      var count = 1 ; var ii = text.indexOf('\n') ; while (ii >= 0) {
+        count += 1 ; ii = text.indexOf('\n', ii+1)
+      }
+      count
+    }
+    def lastLength :Int = text.length - text.lastIndexOf('\n') - 1
+
+    /** Returns the end of this chunk were it to start at `start`. */
+    def endFrom (start :Loc) :Loc = {
+      val rows = lineCount-1
+      if (rows == 0) start + (0, lastLength) else Loc(start.row + rows, lastLength)
+    }
+
+    /** Decodes this chunk into lines. */
+    def lines :Seq[Line] = {
+      val lines = Seq.builder[Line]()
+      var row = 0 ; var base = 0 ; var run = 0 ; var tt = 0 ; var lt = 0
+      while (base <= text.length) {
+        val nl = text.indexOf('\n', base) ; val end = if (nl < 0) text.length else nl
+        val lb = Line.builder(text.substring(base, end))
+        // apply the syntax runs that overlap this line
+        while (run+2 < syntax.length && syntax(run+2) <= base) run += 2
+        var rr = run ; while (rr < syntax.length && syntax(rr) < end) {
+          val rend = if (rr+2 < syntax.length) math.min(end, syntax(rr+2)) else end
+          val rstart = math.max(base, syntax(rr))
+          if (syntax(rr+1) != 0 && rend > rstart) {
+            lb.withSyntax(Syntax.byId(syntax(rr+1).toShort), rstart-base, rend-base)
+          }
+          rr += 2
+        }
+        while (tt < tags.length && tagPos(3*tt) == row) {
+          lb.withTag(tags(tt), tagPos(3*tt+1), tagPos(3*tt+2)) ; tt += 1
+        }
+        while (lt < ltags.length && ltagRows(lt) == row) { lb.withLineTag(ltags(lt)) ; lt += 1 }
+        lines += lb.build()
+        row += 1 ; base = end+1
+      }
+      lines.build()
+    }
+
+    /** Writes this chunk to `out`. Only style tags (those with `String` values) are written. */
+    def write (out :DataOutputStream) :Unit = {
+      out.writeInt(text.length) ; out.writeChars(text)
+      out.writeInt(syntax.length) ; syntax foreach out.writeInt
+      val styles = tags.indices.filter(tags(_).isInstanceOf[String])
+      out.writeInt(styles.size)
+      for (ii <- styles) {
+        out.writeUTF(tags(ii).asInstanceOf[String])
+        out.writeInt(tagPos(3*ii)) ; out.writeInt(tagPos(3*ii+1)) ; out.writeInt(tagPos(3*ii+2))
+      }
+    }
+  }
+
+  private object Chunk {
+    private val NoTags = new Array[AnyRef](0)
+    private val NoLineTags = new Array[Line.Tag](0)
+
+    /** Encodes `lines` into a chunk. */
+    def apply (lines :SeqV[_ <: LineV]) :Chunk = {
+      val text = new java.lang.StringBuilder()
+      val syntax = new IntBuf() ; var curId = 0
+      val tags = SeqBuffer[AnyRef]() ; val tagPos = new IntBuf()
+      val ltags = SeqBuffer[Line.Tag]() ; val ltagRows = new IntBuf()
+      var row = 0 ; while (row < lines.size) {
+        val line = lines(row)
+        if (row > 0) text.append('\n')
+        val base = text.length
+        var ii = 0 ; val ll = line.length ; while (ii < ll) {
+          val id = line.syntaxAt(ii).id & 0xFFFF
+          if (id != curId) { syntax += base+ii ; syntax += id ; curId = id }
+          ii += 1
+        }
+        text.append(line, 0, ll)
+        line.tags foreach { tag =>
+          tags += tag.tag.asInstanceOf[AnyRef]
+          tagPos += row ; tagPos += tag.start ; tagPos += tag.end
+        }
+        line.lineTags foreach { lt => if (!lt.ephemeral) { ltags += lt ; ltagRows += row } }
+        row += 1
+      }
+      new Chunk(text.toString, syntax.toArray, if (tags.isEmpty) NoTags else tags.toArray,
+                tagPos.toArray, if (ltags.isEmpty) NoLineTags else ltags.toArray,
+                ltagRows.toArray)
+    }
+
+    /** Returns the chunk that results from joining `b` onto the end of `a`. */
+    def concat (a :Chunk, b :Chunk) :Chunk = {
+      val shift = a.text.length ; val rows = a.lineCount-1 ; val cols = a.lastLength
+      val syntax = new IntBuf()
+      syntax ++= a.syntax
+      // b's text starts out with default syntax (if its first run doesn't say otherwise)
+      val aend = if (a.syntax.length == 0) 0 else a.syntax(a.syntax.length-1)
+      if (aend != 0 && (b.syntax.length == 0 || b.syntax(0) > 0)) { syntax += shift ; syntax += 0 }
+      var ii = 0 ; while (ii < b.syntax.length) {
+        syntax += b.syntax(ii)+shift ; syntax += b.syntax(ii+1) ; ii += 2
+      }
+      val tagPos = new IntBuf()
+      tagPos ++= a.tagPos
+      ii = 0 ; while (ii < b.tagPos.length) {
+        val row = b.tagPos(ii) ; val off = if (row == 0) cols else 0
+        tagPos += row+rows ; tagPos += b.tagPos(ii+1)+off ; tagPos += b.tagPos(ii+2)+off
+        ii += 3
+      }
+      val ltagRows = new IntBuf()
+      ltagRows ++= a.ltagRows
+      ii = 0 ; while (ii < b.ltagRows.length) { ltagRows += b.ltagRows(ii)+rows ; ii += 1 }
+      new Chunk(a.text + b.text, syntax.toArray, a.tags ++ b.tags, tagPos.toArray,
+                a.ltags ++ b.ltags, ltagRows.toArray)
+    }
+
+    /** Reads a chunk written by [[Chunk.write]]. */
+    def read (in :DataInputStream) :Chunk = {
+      val chars = new Array[Char](in.readInt())
+      var ii = 0 ; while (ii < chars.length) { chars(ii) = in.readChar() ; ii += 1 }
+      val syntax = new Array[Int](in.readInt())
+      ii = 0 ; while (ii < syntax.length) { syntax(ii) = in.readInt() ; ii += 1 }
+      val tags = new Array[AnyRef](in.readInt()) ; val tagPos = new Array[Int](3*tags.length)
+      ii = 0 ; while (ii < tags.length) {
+        tags(ii) = in.readUTF().intern
+        tagPos(3*ii) = in.readInt() ; tagPos(3*ii+1) = in.readInt() ; tagPos(3*ii+2) = in.readInt()
+        ii += 1
+      }
+      new Chunk(new String(chars), syntax, tags, tagPos, NoLineTags, NoInts)
+    }
+  }
+
+  /** A growable array of ints. */
+  private final class IntBuf {
+    private var _elems = new Array[Int](8)
+    private var _size = 0
+    def += (elem :Int) :Unit = {
+      if (_size == _elems.length) _elems = java.util.Arrays.copyOf(_elems, _size*2)
+      _elems(_size) = elem
+      _size += 1
+    }
+    def ++= (elems :Array[Int]) :Unit = {
+      var ii = 0 ; while (ii < elems.length) { this += elems(ii) ; ii += 1 }
+    }
+    def toArray :Array[Int] = if (_size == 0) NoInts else java.util.Arrays.copyOf(_elems, _size)
+  }
+
+  /** A temporary file to which old actions are spilled. */
+  private final class Spill {
+    private val _path :Path = Files.createTempFile("scaled-undo", ".bin")
+    private val _chan = FileChannel.open(_path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                                         StandardOpenOption.DELETE_ON_CLOSE)
+    private var _end = 0L
+
+    def write (action :Action) :Spilled = {
+      val bytes = new ByteArrayOutputStream() ; val out = new DataOutputStream(bytes)
+      out.writeInt(action.deltas.size)
+      action.deltas foreach { delta =>
+        out.writeByte(delta.kind)
+        out.writeInt(delta.start.row) ; out.writeInt(delta.start.col)
+        out.writeInt(delta.end.row) ; out.writeInt(delta.end.col)
+        if (delta.chunk != null) delta.chunk.write(out)
+      }
+      out.flush()
+      val spilled = new Spilled(action.point, _end, bytes.size)
+      val buf = ByteBuffer.wrap(bytes.toByteArray)
+      while (buf.hasRemaining) _end += _chan.write(buf, _end)
+      spilled
+    }
+
+    def read (spilled :Spilled) :Action = {
+      val buf = ByteBuffer.allocate(spilled.length)
+      while (buf.hasRemaining && _chan.read(buf, spilled.offset + buf.position()) >= 0) {}
+      val in = new DataInputStream(new ByteArrayInputStream(buf.array))
+      val deltas = Seq.builder[Delta]()
+      var ii = in.readInt() ; while (ii > 0) {
+        val kind = in.readByte().toInt
+        val start = Loc(in.readInt(), in.readInt()) ; val end = Loc(in.readInt(), in.readInt())
+        deltas += new Delta(kind, start, end, if (kind == Ins) null else Chunk.read(in))
+        ii -= 1
+      }
+      new Action(spilled.point, deltas.build())
+    }
+
+    def reset () :Unit = { _chan.truncate(0) ; _end = 0 }
+    def close () :Unit = _chan.close()
   }
 }
@@ -333,7 +333,7 @@ abstract class EditingMode (env :Env) extends ReadingMode(env) {
     else {
       val swap = tp.prevC
       buffer.replace(swap, 2, new Line(Array(buffer charAt tp, buffer charAt swap),
-                                       Array(buffer syntaxAt tp, buffer syntaxAt swap)))
+                                       Array((buffer syntaxAt tp).id, (buffer syntaxAt swap).id)))
       view.point() = tp.nextC
     }
   }
@@ -625,7 +625,7 @@ abstract class EditingMode (env :Env) extends ReadingMode(env) {
       if (next != Loc.None) loop(search.replace(buffer, next, to), count+1)
       else count
     }
-    val total = loop(start, preCount)
+    val total = buffer.transaction { loop(start, preCount) }
     window.emitStatus(s"Replaced $total occurrence(s).")
   }
 
@@ -715,8 +715,10 @@ abstract class EditingMode (env :Env) extends ReadingMode(env) {
     else {
       // TODO: all sorts of checks; has the file changed (out from under us) since we loaded it?
       // what else does emacs do?
-      buffer.save()
-      window.emitStatus(s"Wrote: ${buffer.name}")
+      val name = buffer.name
+      buffer.saveAsync(editor.exec, wspace.config(syncOnSave)).
+        onSuccess(_ => window.emitStatus(s"Wrote: $name")).
+        onFailure(window.emitError)
     }
   }
 
@@ -725,7 +727,7 @@ abstract class EditingMode (env :Env) extends ReadingMode(env) {
          in the specified directory.""")
   def writeFile () :Unit = {
     val bufwd = buffer.store.parent
-    val fcomp = Completer.file(editor.exec)
+    val fcomp = Completer.file(editor.exec, env.msvc.service[WatchService])
     window.mini.read("Write file:", bufwd, fileHistory(wspace), fcomp) onSuccess { store =>
       // require confirmation if another buffer is visiting the specified file; if they proceed,
       // the buffer will automatically be renamed (by internals) after it is saved
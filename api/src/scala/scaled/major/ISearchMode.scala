@@ -21,18 +21,47 @@ class ISearchMode (
 
   @inline protected final def mainBuffer = mainView.buffer
 
-  case class IState (sought :Seq[LineV], matchesF :Future[Seq[Loc]], start :Loc, end :Loc,
-                     fwd :Boolean, fail :Boolean, wrap :Boolean) extends Region {
-
-    private var matches :Option[Seq[Loc]] = None
-    private def setMatches (matches :Seq[Loc]) :Unit = {
-      this.matches = Some(matches)
-      if (curstate eq this) {
-        miniui.setPrompt(prompt)
-        showMatches(matches, sought)
+  /** Finds the matches for `sought` in the background, the visible part of the buffer first.
+    * This is shared by all states that seek the same text. The search is stopped when a state
+    * seeking different text becomes current, and started anew if a state seeking this text
+    * becomes current again before all of the matches were found. */
+  class Matches (sought :Seq[LineV]) {
+    private var _finding :Search.Finding = null
+    private var _all :Option[Seq[Loc]] = None
+
+    /** All of the matches, in order, once they have all been found. */
+    def all :Option[Seq[Loc]] = _all
+
+    /** Shows our matches in the main buffer, starting the search for them if they have not
+      * already been found. Matches are shown as they are found. */
+    def start () :Unit = _all match {
+      case Some(all) => showMatches(all, sought)
+      case None => if (_finding == null) {
+        val finding = mkSearch(sought).findAllAsync(window.exec, visible)
+        finding.found.onValue { batch => showMatches(batch, sought) }
+        finding.all.onSuccess { all =>
+          _all = Some(all)
+          _finding = null
+          miniui.setPrompt(curstate.prompt)
+        }
+        _finding = finding
       }
     }
-    matchesF.onSuccess(setMatches)
+
+    /** Stops finding our matches if we've not yet found them all. */
+    def stop () :Unit = if (_finding != null) {
+      _finding.close()
+      _finding = null
+    }
+
+    private def visible = {
+      val top = mainView.scrollTop()
+      Region(Loc(top, 0), Loc(top + mainView.height(), 0))
+    }
+  }
+
+  case class IState (sought :Seq[LineV], matches :Matches, start :Loc, end :Loc,
+                     fwd :Boolean, fail :Boolean, wrap :Boolean) extends Region {
 
     /** The location to place the point when this state is active. */
     def point :Loc = if (fwd) end else start
@@ -44,7 +73,7 @@ class ISearchMode (
       if (wrap) buf.append("wrapped ")
       buf.append("I-search")
       if (!fwd) buf.append(" backward")
-      matches.foreach { _.size match {
+      matches.all.foreach { _.size match {
         case 0 => // nada
         case 1 => buf.append(" (1 match)")
         case n => buf.append(" (").append(n).append(" matches)")
@@ -60,10 +89,13 @@ class ISearchMode (
       * this state and the previous have the same configuration, no change is made).
       */
     def apply (prev :IState) :Unit = {
-      if (prev.sought ne sought) {
-        if (matches.isDefined) showMatches(matches.get, sought)
-        setContents(sought)
+      if (prev.matches ne matches) {
+        // stop any search for the matches of the previous state, and start ours
+        prev.matches.stop()
+        clearMatches()
+        matches.start()
       }
+      if (prev.sought ne sought) setContents(sought)
       if (prev.start != start || prev.end != end) {
         mainBuffer.removeStyle(activeMatchStyle, prev)
         mainBuffer.addStyle(activeMatchStyle, this)
@@ -76,11 +108,10 @@ class ISearchMode (
     def clear () :Unit = mainBuffer.removeStyle(activeMatchStyle, this)
 
     def extend (esought :Seq[LineV]) = {
-      val search = mkSearch(esought)
-      val allMatches = window.exec.runAsync(search.findAll())
+      val search = mkSearch(esought) ; val ematches = new Matches(esought)
       (if (fwd) search.findForward(start) else search.findBackward(end)) match {
-        case Loc.None => IState(esought, allMatches, start, end,  fwd, true,  wrap)
-        case s        => IState(esought, allMatches, s, s+esought, fwd, false, wrap)
+        case Loc.None => IState(esought, ematches, start, end,  fwd, true,  wrap)
+        case s        => IState(esought, ematches, s, s+esought, fwd, false, wrap)
       }
     }
 
@@ -88,8 +119,10 @@ class ISearchMode (
       val newwrap = fwd && fail
       val from = if (newwrap) mainBuffer.start else point
       // if our matches are not yet available, we need to search the buffer
-      val next = if (!matches.isDefined) mkSearch(sought).findForward(from)
-                 else matches.get.find(_ >= from) getOrElse Loc.None
+      val next = matches.all match {
+        case None     => mkSearch(sought).findForward(from)
+        case Some(ms) => val ii = firstAtOrAfter(ms, from) ; if (ii < ms.size) ms(ii) else Loc.None
+      }
       advance(next, true, wrap || newwrap)
     }
 
@@ -97,53 +130,72 @@ class ISearchMode (
       val newwrap = !fwd && fail
       val from = if (newwrap) mainBuffer.end else point
       // if our matches are not yet available, we need to search the buffer
-      val next = if (!matches.isDefined) mkSearch(sought).findBackward(from)
-                 else matches.get.takeWhile(_ < from).lastOption getOrElse Loc.None
+      val next = matches.all match {
+        case None     => mkSearch(sought).findBackward(from)
+        case Some(ms) => val ii = firstAtOrAfter(ms, from) ; if (ii > 0) ms(ii-1) else Loc.None
+      }
       advance(next, false, wrap || newwrap)
     }
 
     override def toString = {
-      val ms = matches.map(_.size).getOrElse(-1) ; val d = if (fwd) "fwd" else "rev"
+      val ms = matches.all.map(_.size).getOrElse(-1) ; val d = if (fwd) "fwd" else "rev"
       val f = if (fail) "fail" else "succ" ; val w = if (wrap) "wrap" else "nowrap"
       s"IState($sought, $ms, [$start, $end), $d, $f, $w)"
     }
 
-    protected def mkSearch (sought :Seq[LineV]) = Search(
-      mainBuffer, mainBuffer.start, mainBuffer.end, sought)
-
     protected def advance (next :Loc, fwd :Boolean, wrap :Boolean) =
-      if (next == Loc.None) IState(sought, matchesF, start, end,        fwd, true,  wrap)
-      else                  IState(sought, matchesF, next, next+sought, fwd, false, wrap)
+      if (next == Loc.None) IState(sought, matches, start, end,        fwd, true,  wrap)
+      else                  IState(sought, matches, next, next+sought, fwd, false, wrap)
   }
 
-  // tracks the styles added for a complete set of matches
-  private var _clearMatches = () => ()
+  protected def mkSearch (sought :Seq[LineV]) = Search(
+    mainBuffer, mainBuffer.start, mainBuffer.end, sought)
+
+  // returns the index of the first of `ms` (which are sorted) that is at or after `loc`
+  private def firstAtOrAfter (ms :Seq[Loc], loc :Loc) :Int = {
+    var low = 0 ; var high = ms.size
+    while (low < high) {
+      val mid = (low + high) >>> 1
+      if (ms(mid) < loc) low = mid+1 else high = mid
+    }
+    low
+  }
+
+  // tracks the matches highlighted in the main buffer (and those waiting to be highlighted)
+  private val _shown = SeqBuffer[Loc]()
+  private val _toShow = SeqBuffer[Loc]()
+  private var _shownSought :Seq[LineV] = Seq()
   private var _pendingShow = Closeable.Noop
-  private def showMatches (matches :Seq[Loc], sought :Seq[LineV]) :Unit = {
-    clearMatches()
-    // defer actually showing these matches for 250ms
-    _pendingShow = env.msvc.exec.ui.schedule(250, () => {
+  private def showMatches (matches :SeqV[Loc], sought :Seq[LineV]) :Unit = if (!matches.isEmpty) {
+    _shownSought = sought
+    _toShow ++= matches
+    // defer actually showing matches for 250ms, so that we don't highlight the matches for every
+    // step of a quickly typed search only to clear them again
+    if (_pendingShow eq Closeable.Noop) _pendingShow = env.msvc.exec.ui.schedule(250, () => {
       _pendingShow = Closeable.Noop
-      matches foreach { l => mainBuffer.addStyle(matchStyle, l, l + sought) }
-      _clearMatches = { () =>
-        matches foreach { l => mainBuffer.removeStyle(matchStyle, l, l + sought) }
-        _clearMatches = () => ()
+      mainBuffer.transaction {
+        _toShow foreach { l => mainBuffer.addStyle(matchStyle, l, l + _shownSought) }
       }
+      _shown ++= _toShow
+      _toShow.clear()
     })
   }
   private def clearMatches () :Unit = {
     _pendingShow.close() // cancel any pending show
-    _clearMatches()      // clear any currently highlighted matches
+    _pendingShow = Closeable.Noop
+    _toShow.clear()
+    mainBuffer.transaction {
+      _shown foreach { l => mainBuffer.removeStyle(matchStyle, l, l + _shownSought) }
+    }
+    _shown.clear()
   }
 
   // we track the state of our isearch as a stack of states
   private val initState = {
     val p = mainView.point()
-    // we never "complete" the initial state's search future; we can't provide a future that
-    // completes immediately because that would cause State to check whether it's the curstate, but
-    // we haven't initialized _states yet so curstate can't be called; we could complete the initial
-    // state asynchronously but there's no particular benefit to doing so
-    IState(Seq(Line.Empty), Promise(), p, p, direction == "forward", false, false)
+    // we never start the initial state's search; there's nothing to find
+    IState(Seq(Line.Empty), new Matches(Seq(Line.Empty)), p, p, direction == "forward", false,
+           false)
   }
   miniui.setPrompt(initState.prompt)
   private var _states = List(initState)
@@ -194,6 +246,7 @@ class ISearchMode (
 
   override def dispose () :Unit = {
     super.dispose()
+    curstate.matches.stop()
     clearMatches()
     curstate.clear() // clear active match highlight
   }
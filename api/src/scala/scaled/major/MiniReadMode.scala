@@ -110,8 +110,10 @@ class MiniReadMode[T] (
         // completing things like long file system paths
         val pre = comp.glob
         val preLen = completer.pathSeparator map(sep => pre.lastIndexOf(sep)+1) getOrElse 0
-        val stripped = if (preLen > 0) comps.map(_.substring(preLen)) else comps
-        miniui.showCompletions(stripped)
+        // only the best completions are displayed (and put in order), see Completion.Displayed
+        val shown = comps.take(Completion.Displayed)
+        val stripped = if (preLen > 0) shown.map(_.substring(preLen)) else shown
+        miniui.showCompletions(stripped, comps.size)
       }
     }
   })
@@ -19,6 +19,9 @@ abstract class MiniUI {
 
   /** Displays the supplied completion strings. */
   def showCompletions (comps :SeqV[String]) :Unit
+
+  /** Displays the supplied completion strings, which are the first of `total` completions. */
+  def showCompletions (comps :SeqV[String], total :Int) :Unit = showCompletions(comps)
 }
 
 /** The base class for modes which operate in the minibuffer. These modes generally manage the
@@ -30,6 +30,7 @@ class MetaMode (env :Env) extends MinorMode(env) {
     bind("switch-to-buffer", "C-x b").
     bind("kill-buffer",      "C-x k").
     bind("find-file",        "C-x C-f").
+    bind("view-file",        "C-x C-r").
     bind("create-file",      "C-x C-n").
 
     // editor commands
@@ -97,20 +98,30 @@ class MetaMode (env :Env) extends MinorMode(env) {
   @Fn("Reads a filename from the minibuffer and visits it in a buffer.")
   def findFile () :Unit = {
     val excludeRe = config(fileCompleteExclude)
-    val comp = if (excludeRe == "") Completer.file(editor.exec) else try {
-      new Completer.File(editor.exec) {
+    val watchSvc = env.msvc.service[WatchService]
+    val comp = if (excludeRe == "") Completer.file(editor.exec, watchSvc) else try {
+      new Completer.File(editor.exec, Some(watchSvc)) {
         private val p = Pattern.compile(excludeRe)
         override protected def shouldExtend (comp :String) = !p.matcher(comp).matches()
       }
     } catch {
       case e :Throwable =>
         window.popStatus("Invalid file-complete-exclude regexp:", e.getMessage)
-        Completer.file(editor.exec)
+        Completer.file(editor.exec, watchSvc)
     }
     window.mini.read("Find file:", buffer.store.parent, fileHistory(wspace),
                      comp) onSuccess frame.visitFile
   }
 
+  @Fn("""Reads a filename from the minibuffer and visits it in a read-only buffer. If the file is
+         large, its lines are paged in as they are needed rather than read into memory, and lines
+         appended to the file are added to the buffer as they are written.""")
+  def viewFile () :Unit = {
+    val comp = Completer.file(editor.exec, env.msvc.service[WatchService])
+    window.mini.read("View file:", buffer.store.parent, fileHistory(wspace),
+                     comp) onSuccess frame.viewFile
+  }
+
   @Fn("Reads a filename from the minibuffer and visits it in a buffer. The file need not exist.")
   def createFile () :Unit = {
     window.mini.read("File path:", buffer.store.parent, createFileHistory,
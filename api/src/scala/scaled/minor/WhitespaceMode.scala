@@ -43,7 +43,7 @@ class WhitespaceMode (env :Env) extends MinorMode(env) {
       // may no longer need highlighting
       note(view.point onChange { (p, op) => queueRethink(op.row, p.row) })
       // note existing trailing whitespace
-      0 until buffer.lines.size foreach tagTrailingWhitespace
+      buffer.transaction { 0 until buffer.lines.size foreach tagTrailingWhitespace }
       // TODO: defer marking trailing whitespace on non-visible lines until they're scrolled into
       // view, we can probably do this entirely in client code using RBufferView.scrollTop and
       // RBufferView.heightV; encapsulate it in a Colorizer helper class?
@@ -60,7 +60,7 @@ class WhitespaceMode (env :Env) extends MinorMode(env) {
     }
 
     private def rethink () :Unit = {
-      _rethinkLines foreach tagTrailingWhitespace
+      buffer.transaction { _rethinkLines foreach tagTrailingWhitespace }
       _rethinkLines.clear()
     }
 
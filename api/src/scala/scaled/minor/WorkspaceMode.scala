@@ -4,8 +4,9 @@
 
 package scaled.minor
 
+import java.nio.file.{Path, Paths}
 import scaled._
-import scaled.util.BufferBuilder
+import scaled.util.{BufferBuilder, Grep}
 
 @Minor(name="workspace", tags=Array("*"),
        desc="""A minor mode that provides workspace-related functionality.""")
@@ -45,8 +46,87 @@ class WorkspaceMode (env :Env) extends MinorMode(env) {
   @Fn("Opens the config file for the workspace's info window specifications in a buffer.")
   def editWindowConfig () :Unit = wspace.visitWindowConfig(window)
 
+  @Fn("""Searches the files in the workspace's hint paths (or the current buffer's directory if the
+         workspace has no hint paths) for a string. Matches are listed in a buffer as they are
+         found and are made the window's visit list. Files ignored by .gitignore files and binary
+         files are not searched.""")
+  def grepWorkspace () :Unit = window.mini.read(
+    "Grep workspace for:", "", grepHistory, Completer.none) onSuccess { sought =>
+    if (sought.length > 0) grep(sought, Matcher.on(sought))
+  }
+
+  @Fn("""Searches the files in the workspace's hint paths (or the current buffer's directory if the
+         workspace has no hint paths) for a regular expression. See grep-workspace.""")
+  def grepWorkspaceRegexp () :Unit = window.mini.read(
+    "Grep workspace for regexp:", "", grepHistory, Completer.none) onSuccess { sought =>
+    if (sought.length > 0) grep(sought, Matcher.regexp(sought))
+  }
+
+  @Fn("Cancels the grep of the workspace that is in progress, if any.")
+  def cancelGrep () :Unit = wspace.state.get[Grep.Run] match {
+    case Some(run) if (!run.isClosed) =>
+      run.close()
+      window.emitStatus(s"Grep canceled: ${run.stats}")
+    case _ => window.popStatus("No grep in progress.")
+  }
+
   /** The history ring for workspace names. */
   protected def nameHistory = wspace.historyRing("workspace-name")
 
+  /** The history ring for workspace greps. */
+  protected def grepHistory = wspace.historyRing("grep")
+
+  /** Returns the directories searched by [[grepWorkspace]]. */
+  protected def grepRoots :Seq[Path] = wspace.hintPaths match {
+    case Seq() => Seq(Paths.get(buffer.store.parent))
+    case paths => paths
+  }
+
+  private def grep (sought :String, matcher :Matcher) :Unit = {
+    // only one grep runs per workspace, so cancel any grep already in progress
+    wspace.state.get[Grep.Run] foreach { _.close() }
+    val roots = grepRoots
+    val gstore = Store.scratch(s"*grep:${wspace.name}*", buffer.store)
+    val gbuf = wspace.createBuffer(gstore, reuse=true, state=State.inits(Mode.Hint("help")))
+    gbuf.replace(gbuf.start, gbuf.end, Seq(Line(s"Grep for '$sought' in:")) ++
+                 roots.map(r => Line(s"  $r")) :+ Line.Empty)
+    frame.visit(gbuf)
+
+    val run = Grep(roots, matcher, wspace.exec)
+    wspace.state.set[Grep.Run](run)
+    val visits = SeqBuffer[Visit]()
+    var publishing = false
+    run.hits.onValue { hits =>
+      // append each batch of hits to the grep buffer in a single edit
+      val lines = Seq.builder[Line](hits.size+1) ; val tags = Seq.builder[Visit.Tag](hits.size)
+      for (hit <- hits) {
+        val visit = Visit(Store(hit.path), hit.loc)
+        val path = roots.find(hit.path.startsWith).fold(hit.path)(_.relativize(hit.path))
+        lines.append(Line.fromText(s"$path:${hit.loc.row+1}: ${hit.line}"))
+        tags += Visit.Tag(visit)
+        visits += visit
+      }
+      lines += Line.Empty
+      val row = gbuf.end.row
+      gbuf.append(lines.build())
+      val ts = tags.build()
+      var ii = 0 ; while (ii < ts.size) { gbuf.setLineTag(row+ii, ts(ii)) ; ii += 1 }
+      // publishing the visit list copies it, so do so at most once per UI tick rather than once
+      // per batch
+      if (!publishing) {
+        publishing = true
+        wspace.exec.runOnUI {
+          publishing = false
+          window.visits() = window.visits().update("match", visits.toSeq)
+        }
+      }
+    }
+    run.done.onSuccess { stats =>
+      gbuf.append(Line.fromTextNL(s"Grep finished: $stats"))
+      gbuf.markClean()
+      window.emitStatus(s"Grep finished: $stats")
+    }
+  }
+
   private val wsvc = env.msvc.service[WorkspaceService]
 }
@@ -21,14 +21,13 @@ abstract class Expecter (exec :Executor, config :SubProcess.Config) {
 
   private val events = Signal[SubProcess.Event](exec.ui)
   events.onValue { _ match {
-    case Output(text, isErr) =>
-      if (_responder == null) onUnexpected(text, isErr)
-      else if (_responder(text, isErr)) _responder = null
+    case OutputBatch(lines, isErr) => lines foreach { text => onOutput(text, isErr) }
+    case Output(text, isErr) => onOutput(text, isErr)
     case Failure(cause, isErr) =>
       onFailure(cause, isErr)
     case Complete(_) => // nada
   }}
-  private val proc = new SubProcess(config, events)
+  private val proc = new SubProcess(config, events, true)
 
   /** Initiates an interaction with the subprocess. An interaction consists of sending one or more
     * lines of text to the subprocess and then piping subprocess output to a supplied responder
@@ -62,5 +61,9 @@ abstract class Expecter (exec :Executor, config :SubProcess.Config) {
   def kill () :Unit = proc.kill()
   def waitFor () :Int = proc.waitFor()
 
+  private def onOutput (text :String, isErr :Boolean) :Unit =
+    if (_responder == null) onUnexpected(text, isErr)
+    else if (_responder(text, isErr)) _responder = null
+
   private var _responder :(String, Boolean) => Boolean = _
 }
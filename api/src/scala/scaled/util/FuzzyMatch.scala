@@ -4,44 +4,97 @@
 
 package scaled.util
 
+import java.util.Arrays
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveAction}
 import scaled._
 
 /** Handles fuzzy matching of strings. A fuzzy match means that each character of `glob` appears in
   * the matched string, in order, with zero or more intervening characters. For example: `pnts`
-  * fuzzy matches `peanuts`. */
+  * fuzzy matches `peanuts`.
+  *
+  * Large candidate sets are scored in parallel (on the common fork/join pool). Matches are ranked
+  * by heap selection, so asking for only the best few (via `limit`) avoids sorting them all.
+  */
 class FuzzyMatch (glob :String) {
+  import FuzzyMatch._
+
+  // the glob with its case adjusted, computed once rather than per candidate (and lazily, as
+  // `adjustCase` is overridden by subclasses, whose state is not yet initialized when ours is)
+  private[this] lazy val _glob :Array[Char] = {
+    val cs = glob.toCharArray
+    var ii = 0 ; while (ii < cs.length) { cs(ii) = adjustCase(cs(ii)) ; ii += 1 }
+    cs
+  }
 
   /** Returns the subset of `strs` which fuzzy match `glob`, in order of match quality. */
   def filter (strs :Iterable[String]) :Seq[String] = filterBy(strs)(identity)
 
-  /** Returns the subset of `as` which fuzzy match `glob` after being converted to strings via
-    * `fn`, in order of match quality. */
-  def filterBy[A] (as :Iterable[A])(fn :A => String) :Seq[A] = {
-    case class Score[A] (a :A, astr :String, score :Int) extends Comparable[Score[A]] {
-      def compareTo (other :Score[A]) = {
-        val r0 = Integer.compare(score, other.score)
-        if (r0 != 0) r0
-        else compare(astr, other.astr)
+  /** Returns the subset of `cands` which fuzzy match `glob`, in order of match quality. The
+    * returned candidates share the case-folded strings of `cands`. */
+  def filter (cands :Candidates) :Candidates = filter(cands, -1)
+
+  /** Returns the subset of `cands` which fuzzy match `glob`, like [[filter]], but only the (at
+    * most) `limit` best matches are put in order up front. The rest follow them, and are put in
+    * order when one of them is first read via [[Candidates.toSeq]]. Thus a completion can order
+    * just the matches it displays. A negative `limit` puts all matches in order. */
+  def filter (cands :Candidates, limit :Int) :Candidates = {
+    val strs = cands.strs ; val hits = scoreAll(strs, cands.folded) ; val count = hits.length
+    val k = if (limit < 0) count else math.min(limit, count)
+    val best = select(strs, hits, count, k)
+    if (k == count) cands.select(best)
+    else {
+      // select leaves the rest of the hits after the best, which we re-index to their positions
+      // in the selected candidates, to be put in order later
+      val idxs = Arrays.copyOf(best, count) ; val rest = new Array[Long](count-k)
+      var ii = k ; while (ii < count) {
+        idxs(ii) = hits(ii).toInt
+        rest(ii-k) = (hits(ii) & ScoreMask) | ii
+        ii += 1
       }
+      val sel = cands.select(idxs)
+      sel.orderLater(k, () => select(sel.strs, rest, rest.length, rest.length))
+      sel
     }
-    val sb = Seq.builder[Score[A]](as.sizeHint)
-    val iter = as.iterator() ; while (iter.hasNext()) {
-      val a = iter.next() ; val astr = fn(a) ; val ascore = score(astr)
-      if (ascore > 0) sb += Score(a, astr, -ascore)
-    }
-    sb.build().sorted.map(_.a)
+  }
+
+  /** Returns the subset of `as` which fuzzy match `glob` after being converted to strings via
+    * `fn`, in order of match quality. */
+  def filterBy[A] (as :Iterable[A])(fn :A => String) :Seq[A] = filterBy(as, -1)(fn)
+
+  /** Returns the (at most) `limit` elements of `as` which best fuzzy match `glob` after being
+    * converted to strings via `fn`, in order of match quality. A negative `limit` returns all
+    * matching elements. */
+  def filterBy[A] (as :Iterable[A], limit :Int)(fn :A => String) :Seq[A] = {
+    val elems = Seq.builder[A](as.sizeHint).append(as).build()
+    val strs = new Array[String](elems.size)
+    var ii = 0 ; while (ii < strs.length) { strs(ii) = fn(elems(ii)) ; ii += 1 }
+    val idxs = rank(strs, null, limit)
+    val sb = Seq.builder[A](idxs.length)
+    ii = 0 ; while (ii < idxs.length) { sb += elems(idxs(ii)) ; ii += 1 }
+    sb.build()
   }
 
   /** Returns a match score `> 0` if `glob` fuzzy matches `full`, `0` if it does not match. */
-  def score (full :String) :Int = {
-    val glen = glob.length ; val flen = full.length
+  def score (full :String) :Int = score(full, false)
+
+  /** Returns true if this matcher ignores case, in which case it scores candidates in their
+    * [[FuzzyMatch.fold]]ed form. */
+  def foldsCase :Boolean = false
+
+  protected def compare (astr :String, bstr :String) :Int = astr.compareTo(bstr)
+
+  protected def adjustCase (c :Char) :Char = c
+
+  // scores `full`; if `folded` then `full` has already had its case adjusted
+  private def score (full :String, folded :Boolean) :Int = {
+    val glob = _glob ; val glen = glob.length ; val flen = full.length
     if (glen == 0) 1
     else if (glen > flen) 0
     else {
       var score = 0 ; var consec = 0
-      var gg = 0 ; var lg = adjustCase(glob.charAt(gg))
+      var gg = 0 ; var lg = glob(gg)
       var ff = 0 ; while (gg < glen && ff < flen) {
-        val lf = adjustCase(full.charAt(ff))
+        val lf = if (folded) full.charAt(ff) else adjustCase(full.charAt(ff))
         if (lg == lf) {
           // make consecutive matches that start with the very first character score higher than
           // consecutive matches later in the string
@@ -49,7 +102,7 @@ class FuzzyMatch (glob :String) {
           consec += 1
           score += consec
           gg += 1
-          if (gg < glen) lg = adjustCase(glob.charAt(gg))
+          if (gg < glen) lg = glob(gg)
         } else consec = 0
         ff += 1
       }
@@ -57,18 +110,199 @@ class FuzzyMatch (glob :String) {
     }
   }
 
-  protected def compare (astr :String, bstr :String) :Int = astr.compareTo(bstr)
+  // returns the indices of the (at most `limit`, or all if negative) best matches in `strs`, best
+  // first; scores `folded` (the case-folded forms of `strs`) instead if supplied and we fold
+  private def rank (strs :Array[String], folded :Array[String], limit :Int) :Array[Int] = {
+    val hits = scoreAll(strs, folded) ; val nhits = hits.length
+    select(strs, hits, nhits, if (limit < 0) nhits else math.min(limit, nhits))
+  }
 
-  protected def adjustCase (c :Char) :Char = c
+  // scores `strs` (or `folded`, see `rank`), returning the hits; each hit is a match's score and
+  // index packed into a long
+  private def scoreAll (strs :Array[String], folded :Array[String]) :Array[Long] = {
+    val scored = if (folded != null && foldsCase) folded else strs
+    val isFolded = scored ne strs
+    // chunks fill disjoint ranges of the hits
+    val count = strs.length ; val hits = new Array[Long](count)
+    def scoreRange (start :Int, end :Int) :Int = {
+      var nn = start ; var ii = start ; while (ii < end) {
+        val s = score(scored(ii), isFolded)
+        if (s > 0) { hits(nn) = (s.toLong << 32) | ii ; nn += 1 }
+        ii += 1
+      }
+      nn - start
+    }
+
+    val chunks = math.min(Runtime.getRuntime.availableProcessors, count / ChunkSize)
+    val nhits = if (chunks <= 1) scoreRange(0, count) else {
+      val bounds = Array.tabulate(chunks+1)(cc => (count.toLong * cc / chunks).toInt)
+      val counts = new Array[Int](chunks)
+      val tasks = Array.tabulate[RecursiveAction](chunks)(cc => new RecursiveAction() {
+        override def compute () = counts(cc) = scoreRange(bounds(cc), bounds(cc+1))
+      })
+      ForkJoinPool.commonPool.invoke(new RecursiveAction() {
+        override def compute () = ForkJoinTask.invokeAll(tasks :_*)
+      })
+      // compact the chunks' hits into a single run at the start of the array
+      var nn = counts(0) ; var cc = 1 ; while (cc < chunks) {
+        System.arraycopy(hits, bounds(cc), hits, nn, counts(cc))
+        nn += counts(cc)
+        cc += 1
+      }
+      nn
+    }
+    if (nhits == count) hits else Arrays.copyOf(hits, nhits)
+  }
+
+  // selects the best `k` of `hits(0 until count)`, best first, using a k element heap whose root
+  // is the worst of the hits kept so far (when `k == count`, this is a heapsort in place); the
+  // hits which are not selected are left in `hits(k until count)`, in no particular order
+  private def select (strs :Array[String], hits :Array[Long], count :Int, k :Int) :Array[Int] = {
+    // true if hit `a` ranks above hit `b`: higher score, then lesser string, then lesser index
+    def better (a :Long, b :Long) :Boolean = {
+      val sa = (a >>> 32).toInt ; val sb = (b >>> 32).toInt
+      if (sa != sb) sa > sb
+      else {
+        val ia = a.toInt ; val ib = b.toInt
+        val c = compare(strs(ia), strs(ib))
+        if (c != 0) c < 0 else ia < ib
+      }
+    }
+    def siftDown (pos :Int, size :Int) :Unit = {
+      val hit = hits(pos)
+      var ii = pos ; var child = 2*ii+1 ; while (child < size) {
+        if (child+1 < size && better(hits(child), hits(child+1))) child += 1
+        if (better(hit, hits(child))) { hits(ii) = hits(child) ; ii = child ; child = 2*ii+1 }
+        else child = size
+      }
+      hits(ii) = hit
+    }
+
+    var ii = k/2-1 ; while (ii >= 0) { siftDown(ii, k) ; ii -= 1 }
+    ii = k ; while (k > 0 && ii < count) {
+      if (better(hits(ii), hits(0))) {
+        val worst = hits(0) ; hits(0) = hits(ii) ; hits(ii) = worst
+        siftDown(0, k)
+      }
+      ii += 1
+    }
+    // pop the worst remaining hit into each slot, from the end
+    val idxs = new Array[Int](k)
+    ii = k-1 ; while (ii >= 0) {
+      idxs(ii) = hits(0).toInt
+      hits(0) = hits(ii)
+      siftDown(0, ii)
+      ii -= 1
+    }
+    idxs
+  }
 }
 
 /** A case-insensitive [[FuzzyMatch]]. */
 class IFuzzyMatch (glob :String) extends FuzzyMatch(glob) {
+  override def foldsCase = true
   override def adjustCase (c :Char) = Character.toLowerCase(c)
 }
 
 object FuzzyMatch {
 
+  /** Candidate sets smaller than twice this size are scored on the calling thread. */
+  final val ChunkSize = 8*1024
+
+  // masks the score of a hit (see `FuzzyMatch.scoreAll`)
+  private final val ScoreMask = 0xFFFFFFFF00000000L
+
+  /** A set of candidate strings prepared for repeated fuzzy matching. The case-folded form of each
+    * candidate is computed once, when the set is created, and is shared by the sets filtered from
+    * it, so refining a completion with a longer glob neither folds nor rescans discarded strings.
+    *
+    * Candidates filtered with a limit (see [[FuzzyMatch.filter]]) put the rest of their strings in
+    * order when first needed, so they must only be used by one thread at a time.
+    */
+  class Candidates private[util] (
+    private[util] val strs :Array[String], private[util] val folded :Array[String]) {
+
+    // the number of our leading strings which are in order, and the function which returns the
+    // order of the rest (as indices into `strs`), if they are not yet in order
+    private[this] var _ordered = strs.length
+    private[this] var _order :() => Array[Int] = null
+
+    /** The candidate strings, in order. */
+    val toSeq :SeqV[String] = new SeqV[String]() {
+      override def get (index :Int) = {
+        if (index >= _ordered) order()
+        strs(index)
+      }
+      override def size = strs.length
+      override def copyInto (start :Int, end :Int, target :Array[Any], offset :Int) :Unit = {
+        Seq.checkBounds(start, end, size)
+        if (end > _ordered) order()
+        System.arraycopy(strs, start, target, offset, end-start)
+      }
+      override def iterator () :JIterator[String] = new JIterator[String]() {
+        private var _index = 0
+        override def hasNext :Boolean = _index < size
+        override def next :String = {
+          if (_index < size) try { get(_index) } finally { _index += 1 }
+          else throw new NoSuchElementException()
+        }
+      }
+      override protected def toStringType = "Candidates"
+    }
+
+    /** Returns the number of candidates. */
+    def size :Int = strs.length
+
+    private[util] def orderLater (ordered :Int, order :() => Array[Int]) :Unit = {
+      _ordered = ordered ; _order = order
+    }
+
+    private def order () :Unit = if (_order != null) {
+      val idxs = _order() ; val ostrs = strs.clone ; val ofolded = folded.clone
+      var ii = 0 ; while (ii < idxs.length) {
+        strs(_ordered+ii) = ostrs(idxs(ii)) ; folded(_ordered+ii) = ofolded(idxs(ii))
+        ii += 1
+      }
+      _ordered = strs.length ; _order = null
+    }
+
+    private[util] def select (idxs :Array[Int]) :Candidates = {
+      val nstrs = new Array[String](idxs.length) ; val nfolded = new Array[String](idxs.length)
+      var ii = 0 ; while (ii < idxs.length) {
+        nstrs(ii) = strs(idxs(ii)) ; nfolded(ii) = folded(idxs(ii))
+        ii += 1
+      }
+      new Candidates(nstrs, nfolded)
+    }
+
+    override def toString = s"Candidates($size)"
+  }
+
+  object Candidates {
+    /** Prepares `strs` for fuzzy matching. */
+    def apply (strs :Iterable[String]) :Candidates = {
+      val ss = Seq.builder[String](strs.sizeHint).append(strs).build()
+      val cs = new Array[String](ss.size) ; val fs = new Array[String](ss.size)
+      var ii = 0 ; while (ii < cs.length) { cs(ii) = ss(ii) ; fs(ii) = fold(cs(ii)) ; ii += 1 }
+      new Candidates(cs, fs)
+    }
+  }
+
+  /** Returns `str` with each char lower cased, as a case-insensitive matcher sees it. Unlike
+    * `String.toLowerCase`, this never changes the length of `str`. */
+  def fold (str :String) :String = {
+    var ii = 0 ; val ll = str.length ; while (ii < ll) {
+      val c = str.charAt(ii)
+      if (Character.toLowerCase(c) != c) {
+        val cs = str.toCharArray
+        while (ii < ll) { cs(ii) = Character.toLowerCase(cs(ii)) ; ii += 1 }
+        return new String(cs)
+      }
+      ii += 1
+    }
+    str
+  }
+
   /** Returns a fuzzy matcher on `glob`. If `glob` contains any upper case characters, the match
     * will be case sensitive, otherwise it will be case insensitive. */
   def create (glob :String) :FuzzyMatch = {
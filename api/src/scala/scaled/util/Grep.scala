@@ -0,0 +1,267 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.util
+
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.charset.CodingErrorAction
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.nio.{ByteBuffer, CharBuffer}
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveAction}
+import java.util.regex.Pattern
+import scaled._
+
+/** Searches the files beneath a set of directories for matches of a [[Matcher]], without loading
+  * them into buffers.
+  *
+  * Directories are walked in parallel (on the common fork/join pool) and files are read directly,
+  * large files via a memory mapping. Files and directories matched by `.gitignore` files are
+  * skipped, as are version control directories and binary files (those that contain a NUL in
+  * their first few kilobytes). Files are decoded as UTF-8 (malformed input is replaced).
+  */
+object Grep {
+
+  /** Files at least this large are mapped rather than read. */
+  final val MapSize = 64*1024
+
+  /** If a NUL byte appears in this many bytes at the start of a file, it is deemed binary. */
+  final val SniffSize = 8*1024
+
+  /** Directories which are never searched. */
+  val SkipDirs = Set(".git", ".hg", ".svn")
+
+  /** A single match.
+    * @param path the file in which the match occurred.
+    * @param loc the location of the match in the file.
+    * @param line the text of the line on which the match occurred. */
+  case class Hit (path :Path, loc :Loc, line :String)
+
+  /** Summarizes a grep run. */
+  case class Stats (files :Int, bytes :Long, hits :Int, millis :Long) {
+    override def toString = s"$hits matches in $files files ($bytes bytes) in ${millis}ms"
+  }
+
+  /** A grep in progress. Hits are reported on the UI thread as they are found, and the run's
+    * stats once it is complete. A run that is no longer needed should be closed, which stops it;
+    * nothing further is reported by a closed run. */
+  class Run (exec :Executor) extends Closeable {
+    @volatile private var _closed = false
+    private val _hits = Signal[Seq[Hit]]()
+    private val _done = Promise[Stats]()
+    private val _started = System.currentTimeMillis
+    private[Grep] val files = new AtomicInteger()
+    private[Grep] val bytes = new AtomicLong()
+    private[Grep] val hitCount = new AtomicInteger()
+
+    /** Emits the hits in each file as that file is searched. */
+    def hits :SignalV[Seq[Hit]] = _hits
+
+    /** Completes with the stats for this run once it is complete. */
+    def done :Future[Stats] = _done
+
+    /** Returns the stats for this run so far. */
+    def stats = Stats(files.get, bytes.get, hitCount.get, System.currentTimeMillis - _started)
+
+    /** Returns true if this run has been closed. */
+    def isClosed :Boolean = _closed
+
+    /** Stops this run. */
+    override def close () :Unit = _closed = true
+
+    private[Grep] def report (hits :Seq[Hit]) :Unit = if (!hits.isEmpty) {
+      hitCount.addAndGet(hits.size)
+      exec.runOnUI { if (!_closed) _hits.emit(hits) }
+    }
+    private[Grep] def complete () :Unit = {
+      val stats = this.stats
+      exec.runOnUI { if (!_closed) _done.succeed(stats) }
+    }
+    private[Grep] def fail (cause :Throwable) :Unit = exec.runOnUI {
+      if (!_closed) _done.fail(cause)
+    }
+  }
+
+  /** Searches the files beneath `roots` for matches of `matcher`. The search is started on one of
+    * `exec`'s background threads and the results are reported on its UI thread. */
+  def apply (roots :Seq[Path], matcher :Matcher, exec :Executor) :Run = {
+    val run = new Run(exec)
+    // each fork/join worker searches with its own matcher (and buffers)
+    val searchers = new ThreadLocal[Searcher]() {
+      override def initialValue = new Searcher(matcher.fork(), run)
+    }
+    exec.runInBG {
+      try {
+        val tasks = roots.filter(Files.isDirectory(_)).map(
+          root => new DirTask(root, Ignore.root(root), searchers, run))
+        ForkJoinPool.commonPool.invoke(new RecursiveAction() {
+          override def compute () = ForkJoinTask.invokeAll(tasks.toArray :_*)
+        })
+        run.complete()
+      } catch {
+        case t :Throwable => run.fail(t)
+      }
+    }
+    run
+  }
+
+  /** Gitignore-style filters. The rules of a directory's `.gitignore` apply to the files beneath
+    * it, and take precedence over those of its ancestors. Within a file the last matching rule
+    * wins, and a rule that starts with `!` reinstates a path ignored by an earlier rule. */
+  class Ignore private (parent :Ignore, dir :Path, rules :Array[Ignore.Rule]) {
+
+    /** Returns true if `path` (which is beneath this filter's directory) should be skipped. */
+    def ignored (path :Path, isDir :Boolean) :Boolean = {
+      val rel = dir.relativize(path).toString.replace('\\', '/')
+      val name = path.getFileName.toString
+      var ii = rules.length-1 ; while (ii >= 0) {
+        val rule = rules(ii)
+        if ((isDir || !rule.dirOnly) && rule.pattern.matcher(
+          if (rule.anchored) rel else name).matches) return !rule.negated
+        ii -= 1
+      }
+      (parent != null) && parent.ignored(path, isDir)
+    }
+
+    /** Returns the filter to use for the contents of `subdir` (a directory beneath this filter's
+      * directory). */
+    def enter (subdir :Path) :Ignore = {
+      val gitignore = subdir.resolve(".gitignore")
+      if (!Files.isRegularFile(gitignore)) this
+      else try {
+        val rules = Seq.view(Files.readAllLines(gitignore)).flatMap(Ignore.parse).toArray
+        if (rules.isEmpty) this else new Ignore(this, subdir, rules)
+      } catch {
+        case e :IOException => this
+      }
+    }
+  }
+
+  object Ignore {
+    /** A parsed `.gitignore` line. */
+    case class Rule (pattern :Pattern, negated :Boolean, dirOnly :Boolean, anchored :Boolean)
+
+    /** Returns the filter for `root` (which includes `root`'s `.gitignore`, if any). */
+    def root (root :Path) :Ignore = new Ignore(null, root, Array()).enter(root)
+
+    /** Parses a `.gitignore` line into a rule, if it contains one. */
+    def parse (line :String) :Option[Rule] = {
+      var text = line.trim
+      if (text.isEmpty || text.startsWith("#")) None
+      else {
+        val negated = text.startsWith("!")
+        if (negated) text = text.substring(1)
+        val dirOnly = text.endsWith("/")
+        if (dirOnly) text = text.substring(0, text.length-1)
+        // a pattern with a slash (other than a trailing one) matches relative to its directory,
+        // otherwise it matches the name of a file or directory at any depth
+        val anchored = text.contains("/")
+        if (text.startsWith("/")) text = text.substring(1)
+        if (text.isEmpty) None
+        else Some(Rule(Pattern.compile(toRegex(text)), negated, dirOnly, anchored))
+      }
+    }
+
+    private def toRegex (glob :String) :String = {
+      val sb = new java.lang.StringBuilder()
+      var ii = 0 ; while (ii < glob.length) {
+        glob.charAt(ii) match {
+          case '*' if (glob.startsWith("**/", ii)) => sb.append("(?:.*/)?") ; ii += 2
+          case '*' if (glob.startsWith("**", ii))  => sb.append(".*") ; ii += 1
+          case '*' => sb.append("[^/]*")
+          case '?' => sb.append("[^/]")
+          case '[' =>
+            val close = glob.indexOf(']', ii+1)
+            if (close < 0) sb.append("\\[")
+            else { sb.append(glob, ii, close+1) ; ii = close }
+          case '\\' if (ii+1 < glob.length) =>
+            sb.append(Pattern.quote(glob.substring(ii+1, ii+2))) ; ii += 1
+          case c => sb.append(Pattern.quote(String.valueOf(c)))
+        }
+        ii += 1
+      }
+      sb.toString
+    }
+  }
+
+  private class DirTask (dir :Path, ignore :Ignore, searchers :ThreadLocal[Searcher], run :Run)
+      extends RecursiveAction {
+    override def compute () :Unit = if (!run.isClosed) {
+      val subdirs = SeqBuffer[DirTask]()
+      val stream = try Files.newDirectoryStream(dir) catch { case e :IOException => null }
+      if (stream != null) try {
+        val iter = stream.iterator ; while (iter.hasNext && !run.isClosed) {
+          val path = iter.next
+          val attrs = try Files.readAttributes(path, classOf[BasicFileAttributes])
+                      catch { case e :IOException => null }
+          if (attrs == null) {} // vanished or unreadable
+          else if (attrs.isDirectory) {
+            if (!SkipDirs(path.getFileName.toString) && !ignore.ignored(path, true)) {
+              subdirs += new DirTask(path, ignore.enter(path), searchers, run)
+            }
+          }
+          else if (attrs.isRegularFile && !ignore.ignored(path, false)) {
+            searchers.get.search(path, attrs.size)
+          }
+        }
+      } finally stream.close()
+      if (!subdirs.isEmpty) ForkJoinTask.invokeAll(subdirs.toArray :_*)
+    }
+  }
+
+  private class Searcher (m :Matcher, run :Run) {
+    private val decoder = UTF_8.newDecoder.onMalformedInput(CodingErrorAction.REPLACE).
+      onUnmappableCharacter(CodingErrorAction.REPLACE)
+    private val bytes = ByteBuffer.allocate(MapSize)
+    // searchers live as long as the pool threads that use them, so this is not grown to fit large
+    // files; they are decoded into a buffer of their own, which is dropped once searched
+    private val chars = CharBuffer.allocate(MapSize)
+
+    def search (path :Path, size :Long) :Unit = if (size > 0 && size <= Int.MaxValue) try {
+      val chan = FileChannel.open(path, StandardOpenOption.READ)
+      try {
+        val in = if (size >= MapSize) chan.map(FileChannel.MapMode.READ_ONLY, 0, size) else {
+          bytes.clear()
+          while (bytes.hasRemaining && chan.read(bytes) >= 0) {}
+          bytes.flip()
+          bytes
+        }
+        run.files.incrementAndGet()
+        run.bytes.addAndGet(in.limit())
+        if (!isBinary(in)) {
+          val chars = if (in.limit() > this.chars.capacity) CharBuffer.allocate(in.limit())
+                      else { this.chars.clear() ; this.chars }
+          decoder.reset()
+          decoder.decode(in, chars, true)
+          decoder.flush(chars)
+          searchChars(path, chars.array, chars.position())
+        }
+      } finally chan.close()
+    } catch {
+      case e :IOException => // skip files we can't read
+    }
+
+    private def isBinary (in :ByteBuffer) :Boolean = {
+      val end = math.min(in.limit(), SniffSize)
+      var ii = 0 ; while (ii < end) { if (in.get(ii) == 0) return true ; ii += 1 }
+      false
+    }
+
+    private def searchChars (path :Path, cs :Array[Char], length :Int) :Unit = {
+      val hits = Seq.builder[Hit]()
+      // rows are separated by \n, \r\n or \r (as when a store is read into a buffer)
+      var row = 0 ; var start = 0 ; while (start < length) {
+        var end = start ; while (end < length && cs(end) != '\n' && cs(end) != '\r') end += 1
+        val col = m.search(cs, start, end, start)
+        if (col >= 0) hits += Hit(path, Loc(row, col-start), new String(cs, start, end-start))
+        row += 1
+        start = if (end+1 < length && cs(end) == '\r' && cs(end+1) == '\n') end+2 else end+1
+      }
+      run.report(hits.build())
+    }
+  }
+}
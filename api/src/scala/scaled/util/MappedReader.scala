@@ -0,0 +1,271 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.util
+
+import java.io.{InputStreamReader, Reader}
+import java.nio.channels.{Channels, FileChannel}
+import java.nio.charset.{Charset, CodingErrorAction}
+import java.nio.charset.StandardCharsets.{ISO_8859_1, UTF_16BE, UTF_16LE, UTF_8}
+import java.nio.file.{Path, StandardOpenOption}
+import java.nio.{ByteBuffer, ByteOrder, CharBuffer}
+import java.util.concurrent.{Callable, ExecutionException, ForkJoinPool, Future}
+import scaled._
+
+/** Reads the lines of a file directly from its bytes.
+  *
+  * The encoding of the file is determined by its byte order mark, if it has one. Otherwise the
+  * start of the file is checked to see whether it is valid UTF-8; if not, the platform default
+  * encoding is used (or ISO-8859-1 if that is UTF-8). UTF-8 files (which include ASCII files) are
+  * decoded directly from their bytes, eight bytes at a time where possible. Large files are split
+  * into chunks at line boundaries and the chunks are read and decoded in parallel. Chunks are read
+  * via positional channel reads into reused buffers, rather than mapped, so that reading a file
+  * leaves no mappings of it behind. Other encodings, and files which report their size as zero
+  * (like those in `/proc`), are decoded via a `Reader` and [[Store.reader]].
+  *
+  * Line separators and tab replacement are handled just as [[Store.reader]] handles them. As
+  * buffer offsets are `Int`s, files larger than [[MaxSize]] cannot be read.
+  */
+object MappedReader {
+
+  /** Describes the encoding of a file.
+    * @param charset the charset used to decode the file.
+    * @param bom true if the file started with a byte order mark. */
+  case class Encoding (charset :Charset, bom :Boolean)
+
+  /** Files larger than this are split into chunks of (about) this size, which are decoded in
+    * parallel. */
+  final val ChunkSize = 4*1024*1024
+
+  /** The largest file that can be read. Lines are delivered with their (`Int`) char offset in the
+    * file, and a file never has more chars than bytes. */
+  final val MaxSize = Int.MaxValue.toLong
+
+  /** The number of bytes at the start of a file that are checked to detect its encoding. */
+  final val SniffSize = 64*1024
+
+  /** The encoding used for files that turn out not to be UTF-8. */
+  val FallbackCharset = Charset.defaultCharset match {
+    case UTF_8 => ISO_8859_1
+    case cs    => cs
+  }
+
+  /** Reads the lines of the file at `path` and passes them to `lr`.
+    * @param chunkSize the size of the chunks into which the file is split for decoding.
+    * @return the encoding with which the file was decoded.
+    * @throws Errors.FeedbackException if the file is larger than [[MaxSize]]. */
+  def readLines (path :Path, lr :Store.LineReader, chunkSize :Int = ChunkSize) :Encoding = {
+    val chan = FileChannel.open(path, StandardOpenOption.READ)
+    try {
+      val size = chan.size
+      if (size > MaxSize) throw Errors.feedback(
+        s"$path is too large to edit (${size/(1024*1024)}MB), view it instead.")
+      val enc = detect(chan, size)
+      if (enc.charset == UTF_8 && size > 0)
+        readUTF8(chan, if (enc.bom) 3 else 0, size, lr, chunkSize)
+      else Store.reader(lr)(reader(chan, enc))
+      enc
+    } finally chan.close()
+  }
+
+  /** Returns a reader that decodes the file open on `chan` (which has encoding `enc`), skipping
+    * its byte order mark, if any. Malformed input is replaced rather than reported. */
+  def reader (chan :FileChannel, enc :Encoding) :Reader = {
+    chan.position(if (!enc.bom) 0 else if (enc.charset == UTF_8) 3 else 2)
+    val dec = enc.charset.newDecoder.onMalformedInput(CodingErrorAction.REPLACE).
+      onUnmappableCharacter(CodingErrorAction.REPLACE)
+    new InputStreamReader(Channels.newInputStream(chan), dec)
+  }
+
+  /** Determines the encoding of the `size` byte file open on `chan`. */
+  def detect (chan :FileChannel, size :Long) :Encoding = {
+    val bytes = ByteBuffer.allocate(math.min(size, SniffSize).toInt)
+    while (bytes.hasRemaining && chan.read(bytes, bytes.position()) >= 0) {}
+    bytes.flip()
+    def at (idx :Int) = if (idx < bytes.limit()) bytes.get(idx) & 0xFF else -1
+    if (at(0) == 0xEF && at(1) == 0xBB && at(2) == 0xBF) Encoding(UTF_8, true)
+    else if (at(0) == 0xFE && at(1) == 0xFF) Encoding(UTF_16BE, true)
+    else if (at(0) == 0xFF && at(1) == 0xFE) Encoding(UTF_16LE, true)
+    else {
+      // if the sniffed bytes decode as UTF-8, we assume the file is UTF-8; note that we don't
+      // signal end of input, so a sequence that is truncated by the end of our buffer is fine
+      val dec = UTF_8.newDecoder.onMalformedInput(CodingErrorAction.REPORT).
+        onUnmappableCharacter(CodingErrorAction.REPORT)
+      val isUTF8 = !dec.decode(bytes, CharBuffer.allocate(bytes.limit()), false).isError
+      Encoding(if (isUTF8) UTF_8 else FallbackCharset, false)
+    }
+  }
+
+  private def readUTF8 (chan :FileChannel, start :Long, size :Long, lr :Store.LineReader,
+                        chunkSize :Int) :Unit = {
+    // split the file into chunks, each of which ends just after a newline (or at the end of the
+    // file), so that no line separator or multibyte character spans chunks
+    val bounds = Seq.builder[Long]()
+    var pos = start ; while (pos < size) {
+      bounds += pos
+      pos = if (size - pos <= chunkSize) size else nextLine(chan, pos + chunkSize, size)
+    }
+    bounds += size
+    val bs = bounds.build()
+
+    // read and decode a wave of chunks in parallel, pass their lines to `lr`, then move on to the
+    // next; this limits the decoded (but not yet consumed) text to a few chunks' worth, and we
+    // reuse the chunks' buffers from wave to wave
+    val wave = math.max(1, math.min(bs.size-1, Runtime.getRuntime.availableProcessors))
+    val chunks = Array.fill(wave)(new Chunk())
+    val futures = new Array[Future[Chunk]](wave)
+    var fileOffset = 0 ; var ii = 0 ; val count = bs.size-1
+    while (ii < count) {
+      val nn = math.min(wave, count-ii)
+      var cc = 0 ; while (cc < nn) {
+        val cstart = bs(ii+cc) ; val cend = bs(ii+cc+1)
+        chunks(cc).reset(chan, cstart, (cend-cstart).toInt)
+        cc += 1
+      }
+      if (nn == 1) chunks(0).decode()
+      else {
+        val pool = ForkJoinPool.commonPool
+        cc = 0 ; while (cc < nn) { futures(cc) = pool.submit(chunks(cc)) ; cc += 1 }
+        cc = 0 ; while (cc < nn) {
+          try futures(cc).get()
+          catch { case ee :ExecutionException => throw ee.getCause }
+          cc += 1
+        }
+      }
+      cc = 0 ; while (cc < nn) {
+        fileOffset = chunks(cc).deliver(lr, fileOffset)
+        cc += 1
+      }
+      ii += nn
+    }
+  }
+
+  private def nextLine (chan :FileChannel, from :Long, size :Long) :Long = {
+    val buf = ByteBuffer.allocate(8192)
+    var pos = from ; while (pos < size) {
+      buf.clear()
+      val read = chan.read(buf, pos)
+      if (read < 0) return size
+      var ii = 0 ; while (ii < read) {
+        if (buf.get(ii) == '\n') return pos + ii + 1
+        ii += 1
+      }
+      pos += read
+    }
+    size
+  }
+
+  // for our eight-bytes-at-a-time scan: a byte is plain ASCII text if it is >= 0x20 and < 0x80
+  private final val Spaces = 0x2020202020202020L
+  private final val Highs = 0x8080808080808080L
+
+  /** A chunk of a file, decoded into chars. The separator-less lines are stored contiguously in
+    * `chars`, line `i` ending at `ends(i)` and starting where line `i-1` ended. */
+  private final class Chunk extends Callable[Chunk] {
+    private var chan :FileChannel = null
+    private var start = 0L
+    private var bytes = ByteBuffer.allocate(0)
+    private var chars = new Array[Char](0)
+    private var ends = new Array[Int](16)
+    private var offs = new Array[Int](16) // the (chunk relative) file offset of each line
+    private var lines = 0
+    private var fill = 0
+    private var tailOff = 0
+
+    def reset (chan :FileChannel, start :Long, size :Int) :Unit = {
+      this.chan = chan ; this.start = start
+      if (bytes.capacity < size) bytes = ByteBuffer.allocate(size)
+      bytes.clear().limit(size)
+      // UTF-8 never decodes to more chars than bytes
+      if (chars.length < size) chars = new Array[Char](size)
+      lines = 0
+    }
+
+    def call () = decode()
+
+    def decode () :Chunk = {
+      // read our bytes (positional reads may be made by many threads at once)
+      val bs = bytes
+      while (bs.hasRemaining && chan.read(bs, start + bs.position()) >= 0) {}
+      bs.limit(bs.position()).position(0)
+      bs.order(ByteOrder.LITTLE_ENDIAN) ; val n = bs.limit() ; val cs = chars
+      var bp = 0 ; var cp = 0 ; var seps = 0 ; var lineOff = 0
+      while (bp < n) {
+        val w = if (bp + 8 <= n) bs.getLong(bp) else Highs
+        // if the next eight bytes are all printable ASCII, copy them straight over
+        if (((((w - Spaces) & ~w) | w) & Highs) == 0) {
+          var v = w ; val end = cp + 8
+          while (cp < end) { cs(cp) = (v & 0xFF).toChar ; v >>>= 8 ; cp += 1 }
+          bp += 8
+        } else {
+          val b = bs.get(bp)
+          if (b == '\n' || b == '\r') {
+            bp += 1
+            val sep = if (b == '\r' && bp < n && bs.get(bp) == '\n') { bp += 1 ; 2 } else 1
+            addLine(cp, lineOff)
+            seps += sep
+            lineOff = cp + seps
+          } else if (b >= 0) {
+            // TEMP: hackery to remove tabs; TODO: remove when we support tabs
+            cs(cp) = if (b == '\t') ' ' else b.toChar
+            cp += 1 ; bp += 1
+          } else {
+            val b0 = b & 0xFF ; var code = -1 ; var len = 1
+            def cont (idx :Int) = idx < n && (bs.get(idx) & 0xC0) == 0x80
+            def bits (idx :Int) = bs.get(idx) & 0x3F
+            if (b0 >= 0xC2 && b0 <= 0xDF) {
+              if (cont(bp+1)) { code = ((b0 & 0x1F) << 6) | bits(bp+1) ; len = 2 }
+            } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+              if (cont(bp+1) && cont(bp+2)) {
+                val c = ((b0 & 0x0F) << 12) | (bits(bp+1) << 6) | bits(bp+2)
+                if (c >= 0x800 && !Character.isSurrogate(c.toChar)) { code = c ; len = 3 }
+              }
+            } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+              if (cont(bp+1) && cont(bp+2) && cont(bp+3)) {
+                val c = ((b0 & 0x07) << 18) | (bits(bp+1) << 12) | (bits(bp+2) << 6) | bits(bp+3)
+                if (c >= 0x10000 && c <= Character.MAX_CODE_POINT) { code = c ; len = 4 }
+              }
+            }
+            // malformed input is replaced (a byte at a time), as a decoding Reader would do
+            if (code < 0) { cs(cp) = '\uFFFD' ; cp += 1 }
+            else if (code < 0x10000) { cs(cp) = code.toChar ; cp += 1 }
+            else {
+              cs(cp) = Character.highSurrogate(code) ; cs(cp+1) = Character.lowSurrogate(code)
+              cp += 2
+            }
+            bp += len
+          }
+        }
+      }
+      fill = cp
+      tailOff = lineOff
+      chan = null
+      this
+    }
+
+    /** Passes our lines to `lr`, given that this chunk starts at `fileOffset`. Returns the file
+      * offset of the end of this chunk. */
+    def deliver (lr :Store.LineReader, fileOffset :Int) :Int = {
+      val cs = chars ; var start = 0
+      var ii = 0 ; while (ii < lines) {
+        lr(cs, start, ends(ii), fileOffset + offs(ii))
+        start = ends(ii)
+        ii += 1
+      }
+      // a trailing line with no separator (only possible in the last chunk)
+      if (fill > start) lr(cs, start, fill, fileOffset + tailOff)
+      fileOffset + tailOff + (fill - start)
+    }
+
+    private def addLine (end :Int, off :Int) :Unit = {
+      if (lines == ends.length) {
+        ends = java.util.Arrays.copyOf(ends, lines*2)
+        offs = java.util.Arrays.copyOf(offs, lines*2)
+      }
+      ends(lines) = end
+      offs(lines) = off
+      lines += 1
+    }
+  }
+}
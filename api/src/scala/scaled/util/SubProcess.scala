@@ -4,10 +4,12 @@
 
 package scaled.util
 
-import java.io.{BufferedReader, Reader, PrintWriter}
-import java.io.{InputStream, InputStreamReader, OutputStreamWriter}
+import java.io.{InputStream, OutputStreamWriter, PrintWriter}
+import java.nio.charset.{CodingErrorAction, StandardCharsets}
 import java.nio.file.{Path, Paths}
-import java.util.concurrent.{Executor => JExecutor}
+import java.nio.{ByteBuffer, CharBuffer}
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.{Executors, ThreadFactory}
 import java.util.function.Consumer
 import scaled._
 
@@ -29,6 +31,10 @@ object SubProcess {
   /** An event generated when a line of output is received from the sub-process.
     * @param isErr true if the output came from stderr, false if it came from stdout. */
   case class Output (text :String, isErr :Boolean) extends Event
+  /** An event generated when a batch of lines of output is received from the sub-process. These
+    * are generated instead of [[Output]] events by sub-processes created with `batched = true`.
+    * @param isErr true if the output came from stderr, false if it came from stdout. */
+  case class OutputBatch (lines :Seq[String], isErr :Boolean) extends Event
   /** An event generated if the sub-process fails to start, or if an error occurrs reading from
     * stdout or stderr. */
   case class Failure (cause :Throwable, isErr :Boolean) extends Event
@@ -36,46 +42,103 @@ object SubProcess {
     * @param isErr whether EOF came on stderr (true) or stdout (false). */
   case class Complete (isErr :Boolean) extends Event
 
+  /** The maximum number of bytes read from a sub-process output stream at a time. All complete
+    * lines read in a single chunk are delivered as a single batch. */
+  final val ChunkSize = 32*1024
+
   /** Starts a subprocess with the specified configuration. Output will be directed to `buffer`. If
     * the subprocess fails to start, the starting exception will be captured, recorded to `buffer`
     * and then rethrown.
     * @param onExit a function that will be called with `false` if stdout is closed due to
-    * failure, `true` if it's closed normally. */
+    * failure, `true` if it's closed normally.
+    * @param maxLines if positive, the maximum number of lines of output to retain in `buffer`.
+    * When this is exceeded, the oldest lines are trimmed from the start of the buffer. */
   def apply (config :Config, exec :Executor, buffer :Buffer,
-             onExit :Consumer[Boolean] = noopOnExit) :SubProcess = {
+             onExit :Consumer[Boolean] = noopOnExit, maxLines :Int = 0) :SubProcess = {
     val events = Signal[Event](exec.ui)
     events.onValue { _ match {
-      case Output(text, _) => buffer.append(Line.fromTextNL(text))
+      case OutputBatch(lines, _) => append(buffer, lines, maxLines)
+      case Output(text, _) => append(buffer, Seq(text), maxLines)
       case Complete(isErr) => if (!isErr) onExit.accept(true)
       case Failure(cause, isErr) =>
         buffer.append(Line.fromTextNL(Errors.stackTraceToString(cause)))
         if (!isErr) onExit.accept(false)
     }}
-    new SubProcess(config, events)
+    new SubProcess(config, events, true)
   }
 
-  // filter out CR to avoid wonkiness on Windows: TODO: make this optional?
-  private class FilterCRReader (source :Reader) extends Reader {
-    override def read :Int = source.read match {
-      case '\r' => this.read
-      case c    => c
-    }
-    override def read (cbuf :Array[Char], offset :Int, length :Int) = {
-      var read = source.read(cbuf, offset, length)
-      var filtered = 0
-      var ii = 0; while (ii < read) {
-        val pos = offset+ii
-        if (cbuf(pos) == '\r') {
-          System.arraycopy(cbuf, pos+1, cbuf, pos, read-ii-1)
-          ii -= 1
-          read -= 1
-          filtered += 1
+  /** Appends `lines` to `buffer` in a single edit, each followed by a newline. If `maxLines` is
+    * positive, lines are then deleted from the start of the buffer such that at most `maxLines`
+    * lines (not counting the empty line at the end of the buffer) are retained. */
+  def append (buffer :Buffer, lines :Seq[String], maxLines :Int) :Unit = {
+    val region = Seq.builder[Line](lines.size+1)
+    // TODO: remove tab hackery when we support tabs (see Line.fromText)
+    lines foreach { line => region += Line(line.replace('\t', ' ')) }
+    region += Line.Empty
+    buffer.append(region.build())
+    val excess = buffer.lines.size - 1 - maxLines
+    if (maxLines > 0 && excess > 0) buffer.delete(buffer.start, Loc(excess, 0))
+  }
+
+  /** Decodes UTF-8 encoded bytes into lines, filtering out CR to avoid wonkiness on Windows. Bytes
+    * are decoded a chunk at a time and partial lines (and partial characters) are retained until
+    * the remainder of the line (or character) arrives in a subsequent chunk. */
+  private[util] class LineDecoder {
+    private val decoder = StandardCharsets.UTF_8.newDecoder.
+      onMalformedInput(CodingErrorAction.REPLACE).
+      onUnmappableCharacter(CodingErrorAction.REPLACE)
+    // UTF-8 never decodes to more chars than there are bytes, so a chunk always fits
+    private val chars = CharBuffer.allocate(ChunkSize)
+    private val partial = new java.lang.StringBuilder()
+
+    /** Decodes the bytes in `bytes` (which must be flipped for reading) and adds any complete
+      * lines to `lines`. Bytes that form an incomplete character are left in `bytes`.
+      * @param eof if true, no more bytes will follow, so any incomplete line is also added. */
+    def decode (bytes :ByteBuffer, eof :Boolean, lines :Seq.Builder[String]) :Unit = {
+      decoder.decode(bytes, chars, eof)
+      if (eof) decoder.flush(chars)
+      chars.flip()
+      val cs = chars.array ; val end = chars.limit()
+      var start = 0 ; var ii = 0 ; while (ii < end) {
+        val c = cs(ii)
+        if (c == '\n' || c == '\r') {
+          partial.append(cs, start, ii-start)
+          if (c == '\n') { lines += partial.toString ; partial.setLength(0) }
+          start = ii+1
         }
         ii += 1
       }
-      read
+      partial.append(cs, start, end-start)
+      chars.clear()
+      if (eof && partial.length > 0) { lines += partial.toString ; partial.setLength(0) }
     }
-    override def close () = source.close()
+  }
+
+  /**
+   * Reads all lines from `in`, blocking the calling thread until end of stream. Bytes are read in
+   * chunks of up to [[ChunkSize]] and all complete lines decoded from a chunk are passed to
+   * `onLines` in one batch. When the input reaches end of stream, any unterminated final line is
+   * passed to `onLines` and then `onEnd` is called. `onError` will be called if an error occurs
+   * reading the stream, in which case no additional calls will be made.
+   */
+  def readLines (in :InputStream, onLines :Seq[String] => Unit, onEnd :() => Unit,
+                 onError :Throwable => Unit) :Unit = try {
+    val decoder = new LineDecoder()
+    val bytes = ByteBuffer.allocate(ChunkSize)
+    var eof = false ; while (!eof) {
+      val read = in.read(bytes.array, bytes.position(), bytes.remaining)
+      eof = read < 0
+      if (!eof) bytes.position(bytes.position() + read)
+      bytes.flip()
+      val lines = Seq.builder[String]()
+      decoder.decode(bytes, eof, lines)
+      bytes.compact()
+      val batch = lines.build()
+      if (batch.size > 0) onLines(batch)
+    }
+    onEnd()
+  } catch {
+    case err :Throwable => onError(err)
   }
 
   /**
@@ -86,22 +149,24 @@ object SubProcess {
    * and the thread will exit.
    */
   def reader (in :InputStream, onLine :String => Unit, onError :Throwable => Unit) :Thread = {
-    val reader = new BufferedReader(new FilterCRReader(new InputStreamReader(in, "UTF-8")))
     val thread = new Thread("Subproc: stdin") {
       setDaemon(true)
-      override def run () :Unit = try {
-        var line :String = null
-        do {
-          line = reader.readLine
-          onLine(line)
-        } while (line != null)
-      } catch {
-        case err :Throwable => onError(err)
-      }
+      override def run () :Unit = readLines(in, _ foreach onLine, () => onLine(null), onError)
     }
     thread
   }
 
+  // the threads on which we block reading sub-process output; these are pooled so that we don't
+  // start (and tear down) two new threads for every sub-process
+  private val readers = Executors.newCachedThreadPool(new ThreadFactory() {
+    private val count = new AtomicInteger()
+    override def newThread (op :Runnable) = {
+      val thread = new Thread(op, s"Subproc reader ${count.incrementAndGet}")
+      thread.setDaemon(true)
+      thread
+    }
+  })
+
   private def noopOnExit (success :Boolean) :Unit = {}
 }
 
@@ -111,8 +176,12 @@ object SubProcess {
   * are emitted from background worker threads, so this signal should generally be created with the
   * UI executor. Note also that events may be emitted *during* the construction of this SubProcess,
   * so any listeners should already be in place before the signal is passed into this constructor.
+  * @param batched if true, output is emitted as [[SubProcess.OutputBatch]] events, each of which
+  * contains all of the lines read from a stream in one chunk. Otherwise a [[SubProcess.Output]]
+  * event is emitted for each line. Processes that generate lots of output should use batching.
   */
-class SubProcess (config :SubProcess.Config, events :Signal[SubProcess.Event]) extends Closeable {
+class SubProcess (config :SubProcess.Config, events :Signal[SubProcess.Event],
+                  batched :Boolean = false) extends Closeable {
   import SubProcess._
 
   /** Sends `line` to the subprocess's stdin. A newline is automatically appended. */
@@ -175,13 +244,15 @@ class SubProcess (config :SubProcess.Config, events :Signal[SubProcess.Event]) e
     new PrintWriter(new OutputStreamWriter(process.getOutputStream, "UTF-8"))
 
   // kick things off immediately; if the process fails to start, an exception will be thrown before
-  // these threads are started; otherwise they'll run until the process's streams are closed
+  // these readers are started; otherwise they'll run until the process's streams are closed
   try {
-    def startReader (isErr :Boolean, in :InputStream) :Unit = reader(
+    def startReader (isErr :Boolean, in :InputStream) :Unit = readers.execute(() => readLines(
       in,
-      line  => events.emit(if (line == null) Complete(isErr) else Output(line, isErr)),
+      lines => if (batched) events.emit(OutputBatch(lines, isErr))
+               else lines foreach { line => events.emit(Output(line, isErr)) },
+      ()    => events.emit(Complete(isErr)),
       error => events.emit(Failure(error, isErr))
-    ).start()
+    ))
     startReader(false, process.getInputStream)
     startReader(true , process.getErrorStream)
   } catch {
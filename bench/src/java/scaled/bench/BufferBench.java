@@ -0,0 +1,66 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.Buffer;
+import scaled.Line;
+import scaled.Loc;
+import scaled.Seq;
+import scaled.TextStore;
+import scaled.impl.BufferImpl;
+
+/**
+ * Measures the basic buffer edits. Each benchmark makes an edit and then undoes it (by making the
+ * inverse edit), so that the buffer stays the same size however many times it is invoked. Edits
+ * visit rows throughout the buffer.
+ *
+ * <p>Note: {@link Loc} is a value class, so from Java it appears as a {@code long}.</p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class BufferBench {
+
+  /** The number of lines in the benchmark buffer. */
+  public static final int LINES = 10000;
+
+  @Param({"16", "80", "1000"}) public int lineLength;
+
+  private Buffer buffer;
+  private int row;
+  private final Line word = Line.apply("scaled");
+  private final Seq<Line> region = Line.fromText("one\ntwo\nthree");
+
+  @Setup public void setup () {
+    buffer = BufferImpl.apply(new TextStore("bench", "", Corpus.text(LINES, lineLength)));
+  }
+
+  // advances to a new row (in a stride that visits all rows), returns a loc in its middle
+  private long nextLoc () {
+    row = (row + 7919) % LINES;
+    return Loc.apply(row, lineLength/2);
+  }
+
+  @Benchmark public Object insertDelete () {
+    long loc = nextLoc();
+    return buffer.delete(loc, buffer.insert(loc, word));
+  }
+
+  @Benchmark public Object insertDeleteLines () {
+    long loc = nextLoc();
+    return buffer.delete(loc, buffer.insert(loc, region));
+  }
+
+  @Benchmark public Object replace () {
+    return buffer.replace(nextLoc(), word.length(), word);
+  }
+
+  @Benchmark public Object splitJoin () {
+    long loc = nextLoc();
+    return buffer.delete(loc, buffer.split(loc));
+  }
+}
@@ -0,0 +1,99 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.IntSeqBuffer;
+import scaled.Map;
+import scaled.SeqBuffer;
+
+/**
+ * Compares the {@code std} collections with their JDK counterparts: appending to and iterating
+ * over {@link SeqBuffer} (and {@link IntSeqBuffer}) versus {@link ArrayList}, and building and
+ * querying {@link scaled.OpenHashMap} versus {@link HashMap}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class CollectionsBench {
+
+  @Param({"100", "10000"}) public int size;
+
+  private String[] keys;
+  private SeqBuffer<Integer> seqBuffer;
+  private ArrayList<Integer> arrayList;
+  private IntSeqBuffer intSeqBuffer;
+  private Map<String,Integer> openHashMap;
+  private HashMap<String,Integer> hashMap;
+  private int idx;
+
+  @Setup public void setup () {
+    keys = Corpus.paths(size);
+    seqBuffer = seqBufferAppend();
+    arrayList = arrayListAppend();
+    intSeqBuffer = intSeqBufferAppend();
+    openHashMap = openHashMapBuild();
+    hashMap = hashMapBuild();
+  }
+
+  @Benchmark public SeqBuffer<Integer> seqBufferAppend () {
+    SeqBuffer<Integer> buf = SeqBuffer.withCapacity(16);
+    for (int ii = 0; ii < size; ii++) buf.append(ii);
+    return buf;
+  }
+
+  @Benchmark public ArrayList<Integer> arrayListAppend () {
+    ArrayList<Integer> list = new ArrayList<>(16);
+    for (int ii = 0; ii < size; ii++) list.add(ii);
+    return list;
+  }
+
+  @Benchmark public IntSeqBuffer intSeqBufferAppend () {
+    IntSeqBuffer buf = IntSeqBuffer.withCapacity(16);
+    for (int ii = 0; ii < size; ii++) buf.append(ii);
+    return buf;
+  }
+
+  @Benchmark public long seqBufferSum () {
+    long sum = 0;
+    for (int ii = 0, ll = seqBuffer.size(); ii < ll; ii++) sum += seqBuffer.get(ii);
+    return sum;
+  }
+
+  @Benchmark public long arrayListSum () {
+    long sum = 0;
+    for (int ii = 0, ll = arrayList.size(); ii < ll; ii++) sum += arrayList.get(ii);
+    return sum;
+  }
+
+  @Benchmark public long intSeqBufferSum () {
+    return intSeqBuffer.sum();
+  }
+
+  @Benchmark public Map<String,Integer> openHashMapBuild () {
+    Map.Builder<String,Integer> mb = Map.builder(size);
+    for (int ii = 0; ii < size; ii++) mb.put(keys[ii], ii);
+    return mb.build();
+  }
+
+  @Benchmark public HashMap<String,Integer> hashMapBuild () {
+    HashMap<String,Integer> map = new HashMap<>(size);
+    for (int ii = 0; ii < size; ii++) map.put(keys[ii], ii);
+    return map;
+  }
+
+  @Benchmark public Integer openHashMapGet () {
+    idx = (idx + 1) % size;
+    return openHashMap.apply(keys[idx]);
+  }
+
+  @Benchmark public Integer hashMapGet () {
+    idx = (idx + 1) % size;
+    return hashMap.get(keys[idx]);
+  }
+}
@@ -0,0 +1,113 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.SplittableRandom;
+
+/**
+ * Generates the synthetic text on which the benchmarks operate. Everything is derived from a fixed
+ * seed, so a given corpus is identical on every run, which keeps results comparable across
+ * commits.
+ */
+public class Corpus {
+
+  /** The seed from which all corpora are generated. */
+  public static final long SEED = 0x5CA1EDL;
+
+  /** The words from which lines are assembled; roughly the vocabulary of a source file. */
+  public static final String[] WORDS = {
+    "def", "val", "var", "class", "object", "trait", "extends", "with", "if", "else", "while",
+    "match", "case", "return", "import", "package", "new", "this", "null", "true", "false",
+    "buffer", "line", "view", "loc", "row", "col", "start", "end", "tags", "style", "syntax",
+    "mode", "window", "frame", "editor", "store", "search", "matcher", "region", "point", "mark",
+    "foo", "bar", "baz", "size", "length", "index", "count", "value", "result", "=", "{", "}",
+    "(", ")", "+=", "//", "Scaled", "BufferImpl", "LineView", "SeqBuffer", "OpenHashMap",
+  };
+
+  /** Returns a line of exactly {@code length} chars, made of space-separated words. */
+  public static String line (SplittableRandom rand, int length) {
+    StringBuilder sb = new StringBuilder(length + 16);
+    while (sb.length() < length) {
+      if (sb.length() > 0) sb.append(' ');
+      sb.append(WORDS[rand.nextInt(WORDS.length)]);
+    }
+    sb.setLength(length);
+    return sb.toString();
+  }
+
+  /** Returns {@code count} lines of {@code length} chars each. */
+  public static String[] lines (int count, int length) {
+    SplittableRandom rand = new SplittableRandom(SEED);
+    String[] lines = new String[count];
+    for (int ii = 0; ii < count; ii++) lines[ii] = line(rand, length);
+    return lines;
+  }
+
+  /** Returns {@code count} lines of {@code length} chars each, joined by newlines. */
+  public static String text (int count, int length) {
+    return String.join("\n", lines(count, length));
+  }
+
+  /** Returns a file containing at least {@code megabytes} MB of {@code length} char lines. The
+    * file is generated in the {@code scaled-bench} directory of the system temp directory when it
+    * is first requested, and reused thereafter, as the larger files take a while to generate. */
+  public static Path file (int megabytes, int length) throws IOException {
+    Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "scaled-bench");
+    Path file = dir.resolve("corpus-" + megabytes + "m-" + length + ".txt");
+    if (!Files.exists(file)) {
+      Files.createDirectories(dir);
+      // generate into a temp file which is moved into place, so a partial file is never reused
+      Path temp = Files.createTempFile(dir, "corpus", ".tmp");
+      try {
+        SplittableRandom rand = new SplittableRandom(SEED);
+        long size = megabytes * 1024L * 1024L;
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+          for (long written = 0; written < size; written += length + 1) {
+            out.write(line(rand, length));
+            out.write('\n');
+          }
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+    }
+    return file;
+  }
+
+  /** Returns {@code count} file paths like those found in a large source tree, e.g.
+    * {@code src/main/scala/buffer/view/MatcherStore.scala}. */
+  public static String[] paths (int count) {
+    SplittableRandom rand = new SplittableRandom(SEED);
+    String[] exts = { ".scala", ".java", ".md", ".xml", ".properties" };
+    String[] paths = new String[count];
+    for (int ii = 0; ii < count; ii++) {
+      StringBuilder sb = new StringBuilder("src/main");
+      for (int dd = 1 + rand.nextInt(4); dd > 0; dd--) sb.append('/').append(word(rand));
+      sb.append('/').append(capital(word(rand))).append(capital(word(rand)));
+      paths[ii] = sb.append(exts[rand.nextInt(exts.length)]).toString();
+    }
+    return paths;
+  }
+
+  // returns a random alphabetic word (lower case)
+  private static String word (SplittableRandom rand) {
+    String word;
+    do word = WORDS[rand.nextInt(WORDS.length)].toLowerCase();
+    while (!Character.isLetter(word.charAt(0)));
+    return word;
+  }
+
+  private static String capital (String word) {
+    return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+  }
+}
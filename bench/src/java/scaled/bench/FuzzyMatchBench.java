@@ -0,0 +1,52 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.Seq;
+import scaled.Std;
+import scaled.util.FuzzyMatch;
+
+/**
+ * Measures fuzzy matching a glob against a large set of file paths, as is done when completing
+ * file and project names in the minibuffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class FuzzyMatchBench {
+
+  /** Converts a path to the string that is matched. */
+  public static final scala.Function1<String,String> IDENTITY = Std.fn(path -> path);
+
+  @Param({"1000", "100000"}) public int count;
+  // a selective glob (few matches) and a sparse one (many matches)
+  @Param({"bufview", "smsc"}) public String glob;
+
+  private Seq<String> paths;
+  private FuzzyMatch.Candidates cands;
+  private FuzzyMatch matcher;
+
+  @Setup public void setup () {
+    paths = Std.seq(Corpus.paths(count));
+    cands = FuzzyMatch.Candidates$.MODULE$.apply(paths);
+    matcher = FuzzyMatch.create(glob);
+  }
+
+  @Benchmark public Object filterBy () {
+    return matcher.filterBy(paths, IDENTITY);
+  }
+
+  // only the best few matches are displayed in the minibuffer
+  @Benchmark public Object filterTop () {
+    return matcher.filterBy(paths, 20, IDENTITY);
+  }
+
+  // filters candidates whose case-folded forms are precomputed, as completions do
+  @Benchmark public Object filterCandidates () {
+    return matcher.filter(cands);
+  }
+}
@@ -0,0 +1,33 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures key-to-fn latency: replays a recorded keystroke stream (typing, motion, deletion and a
+ * prefixed binding) through the key trie and invokes the bound fns. The buffer is cleared after
+ * each replay, so every invocation does the same work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class KeyDispatchBench {
+
+  /** The replayed keystrokes: 26 presses, some typed, some bound, one a two key sequence. */
+  public static final String KEYS =
+    "d e f SPACE s c a l e d C-a C-f C-f C-e M-b M-f BS C-b C-d ENTER f o o C-x C-u C-p";
+
+  private KeyReplay replay;
+
+  @Setup public void setup () {
+    replay = new KeyReplay(KEYS);
+  }
+
+  @Benchmark public int replay () {
+    return replay.replay();
+  }
+}
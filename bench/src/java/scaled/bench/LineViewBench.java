@@ -0,0 +1,75 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.Buffer;
+import scaled.Line;
+import scaled.Loc;
+import scaled.TextStore;
+import scaled.impl.BufferImpl;
+import scaled.impl.LineViewImpl;
+
+/**
+ * Measures {@link LineViewImpl#validate} on a heavily styled line: revalidating after a one char
+ * edit (as when typing), after a restyle (as when highlighting), and validating a fresh view (as
+ * when a line scrolls into view). Run with {@code -prof gc} to see allocation per validation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class LineViewBench {
+
+  @Param({"80", "1000"}) public int lineLength;
+
+  private static final String[] STYLES = { "keyword", "function", "variable", "constant" };
+
+  private Buffer buffer;
+  private LineViewImpl view;
+  private boolean toggle;
+  private final Line[] edits = { Line.apply("x"), Line.apply("y") };
+
+  @Setup public void setup () {
+    buffer = BufferImpl.apply(new TextStore("bench", "", Corpus.text(1, lineLength)));
+    // style every other word, so the line has many style runs
+    String text = buffer.line(0).asString();
+    int start = 0, ss = 0;
+    for (int end = text.indexOf(' '); end >= 0; end = text.indexOf(' ', start)) {
+      if (end > start && (ss++ % 2) == 0) {
+        buffer.addStyle(STYLES[ss % STYLES.length], Loc.apply(0, start), Loc.apply(0, end));
+      }
+      start = end + 1;
+    }
+    view = new LineViewImpl(buffer.line(0));
+    view.validate();
+  }
+
+  // replaces the last char of the line, alternating between two chars so the text changes
+  @Benchmark public LineViewImpl editValidate () {
+    toggle = !toggle;
+    buffer.replace(Loc.apply(0, lineLength-1), 1, edits[toggle ? 0 : 1]);
+    view.invalidate();
+    view.validate();
+    return view;
+  }
+
+  // toggles a style on the first word of the line
+  @Benchmark public LineViewImpl restyleValidate () {
+    toggle = !toggle;
+    long start = Loc.apply(0, 0), end = Loc.apply(0, 3);
+    if (toggle) buffer.addStyle("comment", start, end);
+    else buffer.removeStyle("comment", start, end);
+    view.invalidate();
+    view.validate();
+    return view;
+  }
+
+  @Benchmark public LineViewImpl freshValidate () {
+    LineViewImpl view = new LineViewImpl(buffer.line(0));
+    view.validate();
+    return view;
+  }
+}
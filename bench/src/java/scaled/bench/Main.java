@@ -0,0 +1,49 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks. Accepts the standard JMH command line (benchmark regexps, {@code -p},
+ * {@code -f}, etc.) but defaults to profiling allocation with the GC profiler and to writing JSON
+ * results to {@code bench-results/<git revision>.json}, so that runs can be compared across
+ * commits.
+ */
+public class Main {
+
+  public static void main (String[] args) throws Exception {
+    CommandLineOptions cmd = new CommandLineOptions(args);
+    ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmd);
+    if (cmd.getProfilers().isEmpty()) opts.addProfiler(GCProfiler.class);
+    if (!cmd.getResult().hasValue()) {
+      File dir = new File("bench-results");
+      dir.mkdirs();
+      opts.resultFormat(ResultFormatType.JSON).
+        result(new File(dir, revision() + ".json").getPath());
+    }
+    new Runner(opts.build()).run();
+  }
+
+  // returns the current git revision, or a timestamp if we're not running in a git checkout
+  private static String revision () {
+    try {
+      Process proc = new ProcessBuilder("git", "rev-parse", "--short", "HEAD").start();
+      String rev = new String(proc.getInputStream().readAllBytes()).trim();
+      if (proc.waitFor() == 0 && !rev.isEmpty()) return rev;
+    } catch (Exception e) {
+      // fall through to the timestamp
+    }
+    return new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+  }
+}
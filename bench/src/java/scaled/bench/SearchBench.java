@@ -0,0 +1,63 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.Buffer;
+import scaled.Loc;
+import scaled.Matcher;
+import scaled.Search;
+import scaled.TextStore;
+import scaled.impl.BufferImpl;
+
+/**
+ * Measures searching with each kind of {@link Matcher}: over raw text, from a location in a
+ * buffer, and for all matches in a buffer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class SearchBench {
+
+  /** The number of lines in the benchmark buffer. */
+  public static final int LINES = 10000;
+
+  @Param({"exact", "loose", "regexp"}) public String kind;
+
+  private Buffer buffer;
+  private char[] text;
+  private Matcher matcher;
+  private int row;
+
+  @Setup public void setup () {
+    buffer = BufferImpl.apply(new TextStore("bench", "", Corpus.text(LINES, 80)));
+    text = Corpus.text(1, 64*1024).toCharArray();
+    switch (kind) {
+    case "exact":  matcher = Matcher.exact("SeqBuffer"); break;
+    case "loose":  matcher = Matcher.loose("seqbuffer"); break;
+    case "regexp": matcher = Matcher.regexp("Seq[A-Z][a-z]+"); break;
+    default: throw new IllegalArgumentException(kind);
+    }
+  }
+
+  @Benchmark public int search () {
+    int count = 0, from = 0;
+    while ((from = matcher.search(text, 0, text.length, from)) >= 0) {
+      count += 1;
+      from += Math.max(1, matcher.matchLength());
+    }
+    return count;
+  }
+
+  @Benchmark public long findForward () {
+    row = (row + 7919) % LINES;
+    return buffer.findForward(matcher, Loc.apply(row, 0), buffer.end());
+  }
+
+  @Benchmark public Object findAll () {
+    return Search.apply(buffer, buffer.start(), buffer.end(), matcher).findAll();
+  }
+}
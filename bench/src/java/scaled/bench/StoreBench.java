@@ -0,0 +1,72 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.Buffer;
+import scaled.FileStore;
+import scaled.Store;
+import scaled.impl.BufferImpl;
+import scaled.impl.TestData;
+
+/**
+ * Measures reading and writing large files: reading raw lines from a {@link FileStore}, loading
+ * a file into a buffer, viewing a file (which pages files of 64MB or more into their buffer, see
+ * {@code PagedText}) and saving a buffer to a file. The source files are generated (once) by
+ * {@link Corpus#file}; the largest needs a heap of several gigabytes, e.g.
+ * {@code -jvmArgsAppend -Xmx8g}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class StoreBench {
+
+  @Param({"10", "100", "1024"}) public int megabytes;
+
+  private Path dir, source, target;
+  private Buffer buffer;
+
+  @Setup public void setup () throws IOException {
+    source = Corpus.file(megabytes, 80);
+    dir = Files.createTempDirectory("scaled-bench");
+    target = dir.resolve("target.txt");
+    buffer = load();
+  }
+
+  @TearDown public void tearDown () throws IOException {
+    buffer = null;
+    Files.deleteIfExists(target);
+    Files.deleteIfExists(dir);
+  }
+
+  @Benchmark public int readLines () {
+    int[] count = { 0 };
+    FileStore.apply(source).readLines(new Store.LineReader() {
+      public void apply (char[] data, int start, int end, int fileOffset) { count[0] += 1; }
+    });
+    return count[0];
+  }
+
+  @Benchmark public Buffer load () {
+    return BufferImpl.apply(FileStore.apply(source));
+  }
+
+  @Benchmark public int view () {
+    BufferImpl buffer = BufferImpl.view(FileStore.apply(source));
+    // the test executor runs everything immediately, so this indexes the whole of a paged file
+    buffer.startPaging(TestData.exec());
+    int rows = buffer.lines().size();
+    buffer.kill(); // closes the paged file
+    return rows;
+  }
+
+  @Benchmark public void write () {
+    buffer.saveTo(FileStore.apply(target));
+  }
+}
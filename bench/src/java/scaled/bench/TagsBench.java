@@ -0,0 +1,75 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import scaled.Tags;
+
+/**
+ * Measures adding and querying tags on a line with many (overlapping) tags, as when styling a
+ * long line of minified or generated code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime) @OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1) @Measurement(iterations = 5, time = 1) @Fork(1)
+public class TagsBench {
+
+  /** The styles with which tags are tagged. */
+  public static final String[] STYLES = {
+    "keyword", "string", "comment", "function", "variable", "type", "constant", "preprocessor"
+  };
+
+  @Param({"100", "10000"}) public int tagCount;
+
+  private int length;
+  private int[] starts, ends;
+  private Tags tags;
+  private int idx;
+
+  @Setup public void setup () {
+    // the line is long enough that each char is covered by a few tags on average
+    length = tagCount * 8;
+    starts = new int[tagCount];
+    ends = new int[tagCount];
+    SplittableRandom rand = new SplittableRandom(Corpus.SEED);
+    for (int ii = 0; ii < tagCount; ii++) {
+      starts[ii] = rand.nextInt(length-1);
+      ends[ii] = Math.min(length, starts[ii] + 1 + rand.nextInt(32));
+    }
+    tags = build();
+  }
+
+  // adds all of our tags, in random order, to a new tags instance
+  private Tags build () {
+    Tags tags = new Tags();
+    for (int ii = 0; ii < tagCount; ii++) {
+      tags.add(STYLES[ii % STYLES.length], starts[ii], ends[ii]);
+    }
+    return tags;
+  }
+
+  // advances to a new index (in a stride that visits the whole line)
+  private int nextIdx () {
+    idx = (idx + 7919) % length;
+    return idx;
+  }
+
+  @Benchmark public Tags add () {
+    return build();
+  }
+
+  @Benchmark public Object tagsAt () {
+    return tags.tagsAt(String.class, nextIdx());
+  }
+
+  @Benchmark public Tags expandDelete () {
+    int at = nextIdx();
+    tags.expand(at, 5);
+    tags.delete(at, at+5);
+    return tags;
+  }
+}
@@ -0,0 +1,60 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.bench
+
+import scaled._
+import scaled.impl._
+import scaled.major.TextMode
+
+/** Replays a recorded keystroke stream against a [[TextMode]] buffer. Each key press is resolved
+  * by walking a [[KeyTrie]] built from the mode's keymap and the bound fn is invoked, as
+  * [[DispatcherImpl]] does for key events (minus the JavaFX event plumbing).
+  *
+  * @param keys the keystrokes, in trigger syntax, e.g. `"a b C-a C-f M-b BS"`.
+  */
+class KeyReplay (keys :String) {
+
+  val view = new BufferViewImpl(null, TestData.buffer("replay", ""), 80, 24)
+  val mode = new TextMode(TestData.env(view))
+
+  private val fns = new FnBindings(mode, System.err.println)
+  private val trie = {
+    val mb = Map.builder[Seq[KeyPress],FnBinding]()
+    for (kb <- mode.keymap.bindings) KeyPress.toKeyPresses(kb.trigger) match {
+      case Right(kps) => fns.binding(kb.fn) foreach { fb => mb.put(kps, fb) }
+      case Left(errs) => // skip invalid bindings, as the dispatcher does
+    }
+    KeyTrie(List(mb.build()))
+  }
+  private val defaultFn = mode.defaultFn.flatMap(fns.binding)
+  private val presses = KeyPress.toKeyPresses(keys) match {
+    case Right(kps) => kps
+    case Left(errs) => throw new IllegalArgumentException(errs.mkString(", "))
+  }
+
+  /** Replays our keystrokes, then clears the buffer. The mark is set at the start of the buffer
+    * before replaying, so region fns have a region. Returns the number of fns invoked. */
+  def replay () :Int = {
+    view.buffer.mark = Loc.Zero
+    var node = trie ; var count = 0
+    var ii = 0 ; while (ii < presses.size) {
+      val key = presses(ii)
+      val next = node.next(key)
+      if (next != null && next.isPrefix) node = next
+      else {
+        val bound = if (next == null) Nil else next.values
+        if (!bound.isEmpty) { bound.head.invoke(key.text) ; count += 1 }
+        else if ((node eq trie) && key.isPrintable && defaultFn.isDefined) {
+          defaultFn.get.invoke(key.text) ; count += 1
+        }
+        node = trie
+      }
+      ii += 1
+    }
+    view.buffer.delete(view.buffer.start, view.buffer.end)
+    view.point() = Loc.Zero
+    count
+  }
+}
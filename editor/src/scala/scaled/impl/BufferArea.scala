@@ -80,8 +80,10 @@ class BufferArea (val bview :BufferViewImpl, val disp :DispatcherImpl) extends R
   /** Tells this buffer area that it's going into the background. This frees up some resources that
     * are easy enough to recreate if/when the buffer area is made active again. */
   def hibernate () :Unit = {
-    // remove all of our lines, we'll add them back in on reactivation
-    contentNode.removeLines(0, lineNodes.getChildren.size)
+    // remove all of our lines (returning their views to the pool), we'll add them back in on
+    // reactivation
+    lineNodes.getChildren.clear()
+    bview.visualize(0, 0)
   }
 
   private var charWidth  = 0d
@@ -169,9 +171,9 @@ class BufferArea (val bview :BufferViewImpl, val disp :DispatcherImpl) extends R
         bview.window, pbuffer, pbuffer.lines.map(_.length).max, pbuffer.lines.size)
       getChildren.add(new BufferArea(pview, disp))
 
-      val line = bview.lines(math.min(pop.pos.y, bview.lines.size-1))
-      _ax = line.charX(pop.pos.x, charWidth)
-      _ay = line.getLayoutY
+      val row = math.min(pop.pos.y, bview.buffer.lines.size-1)
+      _ax = contentNode.colX(pop.pos.x)
+      _ay = contentNode.rowY(row)
       _pos = pop.pos
     }
 
@@ -239,7 +241,6 @@ class BufferArea (val bview :BufferViewImpl, val disp :DispatcherImpl) extends R
 
   // contains our line nodes and other decorative nodes (cursor, selection, etc.)
   class ContentNode extends Region {
-    private var vizTop = 0
 
     getStyleClass.add("content")
 
@@ -268,23 +269,7 @@ class BufferArea (val bview :BufferViewImpl, val disp :DispatcherImpl) extends R
     bview.scrollLeft onValue { left => contentNode.setLayoutX(-left*charWidth) }
 
     // listen for addition and removal of lines
-    bview.changed onValue { change =>
-      // println(s"Lines @${change.row} ${change.delta}")
-      val top = bview.scrollTop() ; val bot = top+bview.height()+1
-      val tstart = math.max(top, change.row)
-      if (change.delta < 0) {
-        // if the change overlaps the visible area, remove the visible lines
-        val tend = math.min(change.row-change.delta, bot)
-        if (tend > tstart) removeLines(tstart-top, tend-top)
-      } else if (change.delta > 0) {
-        // if the change overlaps the visible area, add the visible lines
-        val tend = math.min(change.row+change.delta, bot)
-        if (tend > tstart) addLines(tstart-top, bview.lines.slice(tstart, tend))
-      }
-      // if the change happened before the vizTop, it must be adjusted
-      if (change.row < vizTop) vizTop += change.delta
-      updateVizLines()
-    }
+    bview.changed onValue { change => updateVizLines() }
 
     // if the buffer view height changes, update our viz lines as well
     bview.height onValue { height => updateVizLines() }
@@ -293,9 +278,9 @@ class BufferArea (val bview :BufferViewImpl, val disp :DispatcherImpl) extends R
       val line = bview.buffer.line(point)
       val lineCount = bview.buffer.lines.length
 
-      // use the line to determine the layout coordinates of the cursor
-      val linev = bview.lines(point.row)
-      val cx = linev.charX(point.col, charWidth) ; val cy = linev.getLayoutY
+      // lines are laid out on a fixed grid, so we can compute the coordinates of the cursor
+      // without needing a view for its line
+      val cx = colX(point.col) ; val cy = rowY(point.row)
       cursor.setLayoutX(cx) ; cursor.setLayoutY(cy)
       uncursor.setLayoutX(cx) ; uncursor.setLayoutY(cy)
 
@@ -351,43 +336,24 @@ class BufferArea (val bview :BufferViewImpl, val disp :DispatcherImpl) extends R
       checkPopup(true)(bview.popup.getOption)
     }
 
-    def updateVizLines () :Unit = {
-      val viewLines = bview.height()+1 ; val top = bview.scrollTop()
-      val lines = bview.lines ; val bot = math.min(top + viewLines, lines.size)
-      val preChildCount = lineNodes.getChildren.size
-      val otop = vizTop
-
-      try {
-        // trim or add lines at the top, as needed
-        if (otop < top) removeLines(0, top-otop)
-        else if (otop > top) addLines(0, lines.slice(top, math.min(otop, bot)))
-
-        val childCount = lineNodes.getChildren.size
-        if (childCount > viewLines) removeLines(viewLines, childCount)
-        else if (childCount < viewLines) addLines(childCount, lines.slice(top+childCount, bot))
-
-        vizTop = top
-        requestLayout()
-
-      } catch {
-        case e :Throwable =>
-          throw new RuntimeException(
-            s"updateVizLines otop=$otop top=$top bot=$bot lines=${lines.size} " +
-              s"vlines=$viewLines ccount=$preChildCount", e)
-      }
+    /** Returns the x position of the character at `col`. */
+    def colX (col :Int) :Double = {
+      // TODO: handle tabs, other funny business?
+      snappedLeftInset + col*charWidth
     }
+    /** Returns the y position of the line at `row`, given our current scroll position. */
+    def rowY (row :Int) :Double = snappedTopInset + (row - bview.scrollTop())*lineHeight
 
-    def addLines (index :Int, lines :SeqV[LineViewImpl]) :Unit = {
-      // println(s"addLines @$index +${lines.size}")
+    def updateVizLines () :Unit = {
+      val top = bview.scrollTop()
+      val lines = bview.visualize(top, top + bview.height()+1)
       lines.foreach { _.validate() }
-      lineNodes.getChildren.addAll(index, lines.asJList)
-    }
-    def removeLines (from :Int, to :Int) :Unit = {
-      val capped = math.min(to, lineNodes.getChildren.size)
-      // println(s"removeLines [$from, $to/$capped)")
-      lineNodes.getChildren.subList(from, capped).foreach {
-        _.asInstanceOf[LineViewImpl].invalidate() }
-      lineNodes.getChildren.remove(from, capped)
+      // only rebuild our line nodes if the visible line views actually changed
+      val kids = lineNodes.getChildren
+      var same = kids.size == lines.size
+      var ii = 0 ; while (same && ii < lines.size) { same = kids.get(ii) eq lines(ii) ; ii += 1 }
+      if (!same) kids.setAll(lines.asJList)
+      requestLayout()
     }
   }
   private val contentNode = new ContentNode()
@@ -13,8 +13,12 @@ import scaled.util.Close
 class BufferViewImpl (val window :WindowImpl, _buffer :BufferImpl, initWidth :Int, initHeight :Int)
     extends RBufferView(initWidth, initHeight) {
 
-  private val _lines = new SeqBuffer[LineViewImpl](_buffer.lines.size)
-  _buffer.lines foreach { _lines += new LineViewImpl(_) }
+  // we only maintain views for the lines in `[_vizTop, _vizTop+_views.size)`, which is the visible
+  // area of the buffer plus a small margin; views that leave that window are returned to the pool
+  // and rebound to newly visible lines, so the number of views is bounded by the view's height
+  private var _vizTop = 0
+  private val _views = SeqBuffer[LineViewImpl]()
+  private val _pool = SeqBuffer[LineViewImpl]()
 
   private val _changed = Signal[BufferView.Change]()
   override def changed = _changed
@@ -41,7 +45,56 @@ class BufferViewImpl (val window :WindowImpl, _buffer :BufferImpl, initWidth :In
 
   // narrow the return types of these guys for our internal friends
   override def buffer :BufferImpl = _buffer
-  override def lines :SeqV[LineViewImpl] = _lines
+  override def lineView (row :Int) :Option[LineViewImpl] = {
+    val idx = row - _vizTop
+    if (idx >= 0 && idx < _views.size) Some(_views(idx)) else None
+  }
+
+  /** Returns views for the lines `[top, bot)` (bounded to the lines in the buffer). Views are
+    * retained for a margin of lines around that range; views for all other lines are recycled.
+    * An empty range releases all views. */
+  def visualize (top :Int, bot :Int) :SeqV[LineViewImpl] = {
+    val size = _buffer.lines.size
+    val vtop = math.min(top, size) ; val vbot = math.max(vtop, math.min(bot, size))
+    val ntop = if (vbot > vtop) math.max(0, vtop-BufferViewImpl.Margin) else vtop
+    val nend = if (vbot > vtop) math.min(size, vbot+BufferViewImpl.Margin) else vtop
+    val oend = _vizTop + _views.size
+    // release the views that fall outside the new window, then add views for exposed lines
+    if (ntop >= oend || nend <= _vizTop) releaseViews(0, _views.size)
+    else {
+      if (oend > nend) releaseViews(nend-_vizTop, _views.size)
+      if (ntop > _vizTop) releaseViews(0, ntop-_vizTop)
+      else if (ntop < _vizTop) _views.insert(0, acquireViews(ntop, _vizTop))
+    }
+    _vizTop = ntop
+    val cend = _vizTop + _views.size
+    if (nend > cend) _views.append(acquireViews(cend, nend))
+    _views.slice(vtop-_vizTop, vbot-_vizTop)
+  }
+
+  private def acquireViews (from :Int, to :Int) :Seq[LineViewImpl] = {
+    val views = Seq.builder[LineViewImpl](to-from)
+    var row = from ; while (row < to) {
+      val line = _buffer.lines(row)
+      views += (if (_pool.isEmpty) new LineViewImpl(line) else {
+        val view = _pool.removeAt(_pool.size-1) ; view.bind(line) ; view })
+      row += 1
+    }
+    views.build()
+  }
+
+  private def releaseViews (from :Int, to :Int) :Unit = if (to > from) {
+    var ii = from ; while (ii < to) {
+      val view = _views(ii) ; view.bind(null) ; _pool += view
+      ii += 1
+    }
+    _views.remove(from, to-from)
+  }
+
+  private def invalidateViews (from :Int, to :Int) :Unit = {
+    var row = math.max(from, _vizTop) ; val end = math.min(to, _vizTop + _views.size)
+    while (row < end) { _views(row-_vizTop).invalidate() ; row += 1 }
+  }
 
   // configure this view based on the buffer's latest view state
   { val vs = _buffer.viewState
@@ -53,12 +106,19 @@ class BufferViewImpl (val window :WindowImpl, _buffer :BufferImpl, initWidth :In
   _toClose += _buffer.edited.onValue { _ match {
     case Buffer.Insert(start, end) =>
       // the first line changed, the rest are new
-      _lines(start.row).invalidate()
+      invalidateViews(start.row, start.row+1)
       if (end.row > start.row) {
-        val row = start.row+1
-        val added = _buffer.lines.slice(row, end.row+1)
-        _lines.insert(row, added map(new LineViewImpl(_)))
-        _changed.emit(BufferView.Change(row, added.length, this))
+        val row = start.row+1 ; val added = end.row-start.row
+        val vend = _vizTop + _views.size
+        // if the lines were added above our views, shift them down; if they were added among our
+        // views, recycle the views pushed off the end and bind views for the new lines
+        if (row <= _vizTop) _vizTop += added
+        else if (row < vend) {
+          val bound = math.min(added, vend-row)
+          releaseViews(_views.size-bound, _views.size)
+          _views.insert(row-_vizTop, acquireViews(row, row+bound))
+        }
+        _changed.emit(BufferView.Change(row, added, this))
       }
       // now update the point based on the insert
       point() = Loc.adjustForInsert(point(), start, end)
@@ -67,33 +127,54 @@ class BufferViewImpl (val window :WindowImpl, _buffer :BufferImpl, initWidth :In
       // update the point based on the delete before deleting the lines
       point() = Loc.adjustForDelete(point(), start, end)
       // the first line changed, the rest are gone
-      _lines(start.row).invalidate()
       if (end.row > start.row) {
         val row = start.row+1 ; val deleted = end.row-row+1
-        _lines.remove(row, deleted)
+        val vend = _vizTop + _views.size
+        val dstart = math.max(row, _vizTop) ; val dend = math.min(row+deleted, vend)
+        if (dend > dstart) releaseViews(dstart-_vizTop, dend-_vizTop)
+        if (row < _vizTop) _vizTop -= math.min(_vizTop, row+deleted) - row
         _changed.emit(BufferView.Change(row, -deleted, this))
       }
+      invalidateViews(start.row, start.row+1)
 
     case Buffer.Transform(start, end, _) =>
-      start.row to end.row foreach { row => _lines(row).invalidate() }
+      invalidateViews(start.row, end.row+1)
   }}
 
   // pass style changes onto the line views
   _toClose += _buffer.lineStyled.onValue { loc => {
-    if (loc.row >= _lines.length) {
-      println(s"Bogus style notification $loc ([0..${_lines.length}))")
+    if (loc.row >= _buffer.lines.length) {
+      println(s"Bogus style notification $loc ([0..${_buffer.lines.length}))")
       Thread.dumpStack()
     }
-    else _lines(loc.row).onStyle(loc)
+    else lineView(loc.row) foreach { _.onStyle(loc) }
   }}
 
   // force a refresh of the point whenever a buffer edit "intersects" the point
   // (TODO: this seems error prone, is there a better way?)
+  private var _refreshPoint = false
   _toClose += _buffer.edited.onValue { edit =>
     // the point may be temporarily invalid while edits are being undone, so NOOP in that case
     // because the correct point will be restored after the undo is completed
     val cp = point()
-    val pointValid = cp.row < _lines.size
-    if (pointValid && edit.contains(cp)) point.updateForce(cp)
+    val pointValid = cp.row < _buffer.lines.size
+    if (pointValid && edit.contains(cp)) {
+      // during a transaction, refresh the point once when it commits
+      if (_buffer.inTransaction) _refreshPoint = true
+      else point.updateForce(cp)
+    }
   }
+  _toClose += _buffer.committed.onValue { _ =>
+    if (_refreshPoint) {
+      _refreshPoint = false
+      point.updateForce(point())
+    }
+  }
+}
+
+object BufferViewImpl {
+
+  /** The number of lines above and below the visible area for which we retain views, so that small
+    * scrolls reuse already visualized lines. */
+  val Margin = 8
 }
@@ -4,7 +4,6 @@
 
 package scaled.impl
 
-import java.lang.reflect.InvocationTargetException
 import javafx.scene.input.{KeyCode, KeyEvent}
 import scaled._
 
@@ -32,9 +31,11 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
   private var _majorMeta :MajorModeMeta = _
   private val _minors = Value[Seq[MinorMode]](Seq.empty)
   private var _metas = List[ModeMeta]() // the stack of active modes (major last)
-  private var _prefixes = Set[Seq[KeyPress]]() // union of cmd prefixes from active modes' keymaps
+  private var _keys = new KeyTrie[FnBinding]() // the merged keymaps of the active modes
 
-  private var _trigger = Seq[KeyPress]()
+  // the keys pressed so far in the current trigger sequence, and the trie node they reach
+  private val _trigger = SeqBuffer[KeyPress]()
+  private var _node = _keys
   private var _dispatchTyped = false
   private var _escapeNext = false
 
@@ -113,18 +114,23 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
           val key = KeyPress.fromPressed(kev).metafy(_escapeNext)
           // we handle ESC specially; it causes the next key press to be modified with meta
           if (key.id == "ESC" && !key.isModified) {
-            deferDisplayPrefix(_trigger :+ key)
+            deferDisplayPrefix(if (_trigger.isEmpty) key.toString
+                               else s"${_trigger.mkString(" ")} $key")
             _escapeNext = true
           }
           else {
             // tack this key onto our currently accumulating trigger
-            _trigger :+= key
+            _trigger += key
+            val next = _node.next(key)
             // if it matches a known command prefix, wait for the rest of the command to come in
-            if (_prefixes(_trigger)) deferDisplayPrefix(_trigger)
+            if (next != null && next.isPrefix) {
+              _node = next
+              deferDisplayPrefix(_trigger.mkString(" "))
+            }
             else {
               // otherwise resolve the fn(s) bound to this trigger (if any)
-              val fns = resolve(_trigger, _metas)
-              if (!fns.isEmpty && !fns.head.wantsTyped) invoke("pressed", fns, _trigger.last.text)
+              val fns = if (next == null) Nil else next.values
+              if (!fns.isEmpty && !fns.head.wantsTyped) invoke("pressed", fns, key.text)
               // if we don't find one (or if the fn we found wants the typed character),
               // wait until the associated key typed event comes in
               else _dispatchTyped = true
@@ -142,13 +148,16 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
           if (typed.length > 0 && !Character.isISOControl(typed.charAt(0))) {
             val key = new KeyPress(typed, typed, shift=false, ctrl=false, alt=false,
                                    meta=kev.isMetaDown).metafy(_escapeNext)
-            _trigger = _trigger.dropRight(1) :+ key
+            _trigger(_trigger.size-1) = key
           }
-          val defFn = if (_trigger.size > 1 || !_trigger.last.isPrintable) None
+          val last = _trigger.last
+          val defFn = if (_trigger.size > 1 || !last.isPrintable) None
                       else _majorMeta.defaultFn
-          val fns = resolve(_trigger, _metas)
-          if (!fns.isEmpty) invoke("typed", fns, _trigger.last.text)
-          else if (defFn.isDefined) invoke("typed", defFn.toList, _trigger.last.text)
+          // our trie node has not yet advanced past the last key, so resolve that key from there
+          val next = _node.next(last)
+          val fns = if (next == null) Nil else next.values
+          if (!fns.isEmpty) invoke("typed", fns, last.text)
+          else if (defFn.isDefined) invoke("typed", defFn.toList, last.text)
           else invokeMissed()
         }
 
@@ -167,7 +176,8 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
     view.dispose()
     _metas foreach(_.dispose(true, bufferDisposing))
     _metas = Nil // render ourselves useless
-    _prefixes = Set()
+    _keys = new KeyTrie[FnBinding]()
+    _node = _keys
     _minorStateResolver.close()
   }
 
@@ -202,7 +212,7 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
   override def press (trigger :String) :Unit = {
     KeyPress.toKeyPresses(trigger) match {
       case Right(kps) =>
-        val fns = resolve(kps, _metas)
+        val fns = _keys.resolve(kps)
         if (fns.isEmpty) invokeMissed(trigger)
         else invoke("press", fns, kps.last.text)
       case Left(errs) => window.popStatus(
@@ -242,15 +252,19 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
   }
 
   private def modesChanged () :Unit = {
-    // rebuild our command prefixes
-    _prefixes = _metas.map(_.prefixes).reduce(_ ++ _)
+    // rebuild our key trie and re-walk any partially entered trigger (excluding the last key if
+    // we're awaiting its typed event, as our trie node has not yet advanced past it)
+    _keys = KeyTrie(_metas.map(_.map))
+    _node = _keys
+    val walked = if (_dispatchTyped) _trigger.size-1 else _trigger.size
+    var ii = 0 ; while (_node != null && ii < walked) { _node = _node.next(_trigger(ii)) ; ii += 1 }
+    // if the trigger is no longer a valid prefix, it will resolve to nothing
+    if (_node == null) _node = new KeyTrie[FnBinding]()
     // rebuild and emit our list of active minor modes
     _minors() = _metas.map(_.mode).toSeq.collect { case mode :MinorMode => mode }
   }
 
   private def findFn (fn :String) :List[FnBinding] = _metas.flatMap(_.fns.binding(fn))
-  private def resolve (trigger :Seq[KeyPress], modes :List[ModeMeta]) :List[FnBinding] =
-    modes.flatMap(_.map.get(trigger))
 
   private def invoke (from :String, fns :List[FnBinding], typed :String) :Boolean = {
     var ll = fns ; while (!ll.isEmpty) {
@@ -265,7 +279,7 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
 
       val res = try fn.invoke(typed)
       catch {
-        case e :InvocationTargetException => window.emitError(e.getCause) ; false
+        case t :Throwable => window.emitError(t) ; false
       }
 
       // finish up after invoking our fn
@@ -300,7 +314,8 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
   }
 
   private def didInvokeFn () :Unit = {
-    _trigger = Seq()
+    _trigger.clear()
+    _node = _keys
     _dispatchTyped = false
     _escapeNext = false
   }
@@ -308,8 +323,8 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
   /** Sets a timer that displays the current command prefix in the minibuffer after a short delay.
     * Thus if a user types a command prefix, we wait for the rest of the command, but we also
     * eventually provide some feedback as to what's going on in case they did it unwittingly. */
-  private def deferDisplayPrefix (trigger :Seq[KeyPress]) :Unit = {
-    window.emitStatus(trigger.mkString(" "), true)
+  private def deferDisplayPrefix (trigger :String) :Unit = {
+    window.emitStatus(trigger, true)
   }
 
   private class ModeMeta (val mode :Mode) {
@@ -340,8 +355,6 @@ class DispatcherImpl (window :WindowImpl, resolver :ModeResolver, view :BufferVi
       mb.build()
     }
 
-    // enumerate all prefix sequences (we use these when processing key input)
-    val prefixes :Set[Seq[KeyPress]] = map.keySet.map(_.dropRight(1)).filter(!_.isEmpty)
     // TODO: report an error if a key prefix is bound to an fn? WDED?
 
     // add this mode's stylesheet (if any) to the window
@@ -4,17 +4,16 @@
 
 package scaled.impl
 
+import java.lang.invoke.{MethodHandle, MethodHandles, MethodType}
 import java.lang.reflect.Method
-import scala.collection.mutable.{Map => MMap}
 import scaled._
 
-/** A single fn-binding.
-  * @param mode the mode instance from whence this binding came.
-  * @param name the de-camel-cased name of this binding.
-  * @param meth the method to which the name is bound.
-  * @param wantsTyped whether the fn binding wants to be passed the typed character.
+/** The mode-independent metadata for an fn method. This is extracted and compiled once per mode
+  * class and shared by all instances of that mode.
+  * @param meth the method to which the fn is bound.
+  * @param wantsTyped whether the fn wants to be passed the typed character.
   */
-case class FnBinding (mode :Mode, meth :Method, wantsTyped :Boolean) {
+class FnMethod (val meth :Method, val wantsTyped :Boolean) {
 
   /** Returns the de-camel-cased name of the fn. */
   val name :String = Config.deCamelCase(meth.getName)
@@ -22,7 +21,31 @@ case class FnBinding (mode :Mode, meth :Method, wantsTyped :Boolean) {
   /** Returns a description of the fn. */
   val descrip :String = meth.getAnnotation(classOf[Fn]).value.replaceAll("\\n\\s+", " ")
 
-  /** Invokes this fn binding in response to a key press.
+  /** A handle to the fn method, adapted to take `(Mode)` or `(Mode, String)` and return `Object`
+    * so that it can be invoked exactly, without reflection or boxing of arguments. */
+  val handle :MethodHandle = FnBindings.Lookup.unreflect(meth).asType(
+    if (wantsTyped) FnBindings.TypedFn else FnBindings.UntypedFn)
+
+  override def toString = meth.toString
+}
+
+/** A single fn-binding.
+  * @param mode the mode instance from whence this binding came.
+  * @param fn the metadata for the method to which the fn is bound.
+  */
+case class FnBinding (mode :Mode, fn :FnMethod) {
+
+  /** Returns the de-camel-cased name of the fn. */
+  def name :String = fn.name
+
+  /** Returns a description of the fn. */
+  def descrip :String = fn.descrip
+
+  /** Whether the fn binding wants to be passed the typed character. */
+  def wantsTyped :Boolean = fn.wantsTyped
+
+  /** Invokes this fn binding in response to a key press. Any exception thrown by the fn is
+    * propagated directly (i.e. it is not wrapped in an `InvocationTargetException`).
     *
     * @param typed the typed character(s) if this fn is being invoked as a result of a key typed
     * event because no fn binding was found for the key pressed event that preceded it, or null if
@@ -31,7 +54,11 @@ case class FnBinding (mode :Mode, meth :Method, wantsTyped :Boolean) {
     * `false` to indicate that they did not handle the key and any other fns bound to that key
     * should be given a chance to run.
     */
-  def invoke (typed :String) :Any = if (wantsTyped) meth.invoke(mode, typed) else meth.invoke(mode)
+  def invoke (typed :String) :Any = {
+    val res :AnyRef = if (wantsTyped) fn.handle.invokeExact(mode, typed)
+                      else fn.handle.invokeExact(mode)
+    res
+  }
 
   override def toString = s"[mode=${mode.name}, name=$name]"
 }
@@ -39,15 +66,46 @@ case class FnBinding (mode :Mode, meth :Method, wantsTyped :Boolean) {
 /** [[FnBindings]] helper methods. */
 object FnBindings {
 
-  /** Creates an `FnBinding` for `mode`'s method `meth`. Reports an error and returns `None` if the
-    * method does not conform to a valid fn method signature (i.e. `()` or `(String)`). */
-  def toFnBinding (mode :Mode, errFn :(String => Unit))(meth :Method) :Option[FnBinding] = {
+  private[impl] val Lookup = MethodHandles.lookup()
+  private[impl] val UntypedFn = MethodType.methodType(classOf[Object], classOf[Mode])
+  private[impl] val TypedFn = MethodType.methodType(classOf[Object], classOf[Mode], classOf[String])
+
+  /** The fn methods of a mode class (and its superclasses), along with errors for any methods
+    * that are annotated as fns but which don't conform to a valid fn method signature. */
+  case class Fns (methods :Seq[FnMethod], errors :Seq[String])
+
+  /** Returns the (cached) fns of `clazz`. The class hierarchy is only scanned and the fn methods
+    * only compiled the first time a mode class is instantiated. */
+  def fns (clazz :Class[_]) :Fns = _fns.get(clazz)
+
+  private val _fns = new ClassValue[Fns]() {
+    override protected def computeValue (clazz :Class[_]) = {
+      val methods = Seq.builder[FnMethod]() ; val errors = Seq.builder[String]()
+      if (clazz.getSuperclass != null) {
+        val sfns = fns(clazz.getSuperclass)
+        methods ++= sfns.methods ; errors ++= sfns.errors
+      }
+      for (meth <- clazz.getDeclaredMethods ; if (meth.getAnnotation(classOf[Fn]) != null)) {
+        toFnMethod(meth) match {
+          case Left(err) => errors += err
+          case Right(fm) => methods += fm
+        }
+      }
+      Fns(methods.build(), errors.build())
+    }
+  }
+
+  /** Creates an `FnMethod` for `meth`. Returns an error if the method does not conform to a valid
+    * fn method signature (i.e. `()` or `(String)`) or cannot be accessed. */
+  def toFnMethod (meth :Method) :Either[String,FnMethod] = {
     val pcount = meth.getParameterCount
     val wantsTyped = pcount == 1 && meth.getParameterTypes.apply(0) == classOf[String]
-    if (!wantsTyped && pcount != 0) {
-      errFn(s"Invalid fn method definition $meth. Must take () or (String).")
-      None
-    } else Some(FnBinding(mode, meth, wantsTyped))
+    if (!wantsTyped && pcount != 0) Left(
+      s"Invalid fn method definition $meth. Must take () or (String).")
+    else try Right(new FnMethod(meth, wantsTyped))
+    catch {
+      case e :IllegalAccessException => Left(s"Inaccessible fn method $meth: ${e.getMessage}")
+    }
   }
 }
 
@@ -55,17 +113,14 @@ object FnBindings {
 class FnBindings (mode :Mode, errFn :(String => Unit)) {
 
   /** Bindings to the fns exported by this mode. */
-  val bindings :Seq[FnBinding] = extractBindings(mode.getClass)
+  val bindings :Seq[FnBinding] = {
+    val fns = FnBindings.fns(mode.getClass)
+    fns.errors foreach errFn
+    fns.methods.map(FnBinding(mode, _))
+  }
 
   /** Returns the binding with the specified name, or `None`. */
   def binding (name :String) :Option[FnBinding] = _bindmap.get(name)
 
   private[this] val _bindmap = bindings.mapBy(_.name)
-
-  private def extractBindings (clazz :Class[_]) :Seq[FnBinding] = {
-    val bs = clazz.getDeclaredMethods.mkSeq.filter(_.getAnnotation(classOf[Fn]) != null).flatMap(
-      FnBindings.toFnBinding(mode, errFn))
-    if (clazz.getSuperclass != null) extractBindings(clazz.getSuperclass) ++ bs
-    else bs
-  }
 }
@@ -0,0 +1,67 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import java.util.HashMap
+import scaled._
+
+/** A trie that maps [[KeyPress]] sequences to the values (fns) bound to them by a stack of modes.
+  * The trie is built when the active modes change and is then walked one key press at a time as
+  * key events arrive, so dispatching a key requires neither building nor hashing a trigger
+  * sequence.
+  */
+class KeyTrie[V] {
+
+  private val _kids = new HashMap[KeyPress,KeyTrie[V]]()
+  private var _values :List[V] = Nil
+
+  /** The values bound to the key sequence that leads to this node, in mode stack order. */
+  def values :List[V] = _values
+
+  /** Returns true if the key sequence that leads to this node is a proper prefix of one or more
+    * bound key sequences. */
+  def isPrefix :Boolean = !_kids.isEmpty
+
+  /** Returns the node reached by pressing `key` at this node, or `null` if no bound key sequence
+    * starts with that sequence. */
+  def next (key :KeyPress) :KeyTrie[V] = _kids.get(key)
+
+  /** Returns the values bound to `keys` (relative to this node), or `Nil`. */
+  def resolve (keys :Seq[KeyPress]) :List[V] = {
+    var node = this ; var ii = 0 ; while (node != null && ii < keys.size) {
+      node = node.next(keys(ii))
+      ii += 1
+    }
+    if (node == null) Nil else node.values
+  }
+
+  /** Binds `value` to `keys` (relative to this node). The value is added after any values already
+    * bound to that sequence. */
+  def add (keys :Seq[KeyPress], value :V) :Unit = {
+    var node = this ; var ii = 0 ; while (ii < keys.size) {
+      val key = keys(ii)
+      var next = node._kids.get(key)
+      if (next == null) {
+        next = new KeyTrie[V]()
+        node._kids.put(key, next)
+      }
+      node = next
+      ii += 1
+    }
+    node._values = node._values concat List(value)
+  }
+}
+
+/** [[KeyTrie]] helper methods. */
+object KeyTrie {
+
+  /** Builds a trie from the key maps of a stack of modes. Values bound to the same key sequence by
+    * multiple modes are resolved in the order of `maps`. */
+  def apply[V] (maps :Iterable[Map[Seq[KeyPress],V]]) :KeyTrie[V] = {
+    val root = new KeyTrie[V]()
+    maps foreach { _ foreach { (keys, value) => root.add(keys, value) }}
+    root
+  }
+}
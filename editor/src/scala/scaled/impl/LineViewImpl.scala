@@ -11,11 +11,23 @@ import javafx.scene.text.{TextFlow, FontSmoothingType}
 import scala.collection.mutable.ArrayBuffer
 import scaled._
 
-class LineViewImpl (_line :LineV) extends TextFlow with LineView {
+class LineViewImpl (private var _line :LineV) extends TextFlow with LineView {
 
   override def line = _line
   private var _valid = false
 
+  // the text fragments displaying each style run of our line; these are updated in place when
+  // the line is revalidated, so unchanged fragments (and their computed CSS) are reused
+  private val _frags = SeqBuffer[FillableText]()
+
+  /** Rebinds this view to `line`. Line views are pooled and rebound to new lines as the buffer
+    * view scrolls; our existing fragments are reused for the new line when it is validated. A
+    * `null` line unbinds the view while it sits in the pool. */
+  def bind (line :LineV) :Unit = {
+    _line = line
+    _valid = false
+  }
+
   // fontProperty.bind(ctrl.fontProperty)
   // fillProperty.bind(textFill)
   // impl_selectionFillProperty().bind(highlightTextFill)
@@ -24,71 +36,107 @@ class LineViewImpl (_line :LineV) extends TextFlow with LineView {
   // line differently due to changing style runs, but it doesn't... sigh
   // setSnapToPixel(false)
 
-  /** Returns the x position of character at the specified column.
-    * @param charWidth the current width of the (fixed) view font.
-    */
-  def charX (col :Int, charWidth :Double) :Double = {
-    // TODO: handle tabs, other funny business?
-    getLayoutX + col*charWidth
-  }
-
   /** Updates this line to reflect the supplied style change. */
   def onStyle (loc :Loc) :Unit = invalidate()
 
-  /** Marks this line view as invalid, clearing its children. */
+  /** Marks this line view as invalid. If we're displayed, we revalidate on the next UI tick,
+    * otherwise we revalidate when we are next displayed. */
   def invalidate () :Unit = if (_valid) {
     _valid = false
-    // if we're not visible, remove our children now to free up memory
-    if (!isVisible) getChildren.clear()
-    else Platform.runLater(new Runnable() {
+    if (isVisible && getParent != null) Platform.runLater(new Runnable() {
       override def run () = validate()
     })
   }
 
-  /** Validates this line, rebuilding its visualization. This is called when the line becomes
-    * visible. Non-visible lines defer visualization rebuilds until they become visible. */
-  def validate () :Unit = if (!_valid) {
-    // go through the line and add all of the styled line fragments
-    class Adder extends Function3[Seq[Tag[String]],Int,Int,Unit]() {
-      private val kids = ArrayBuffer[Node]()
+  /** Validates this line, updating its visualization. This is called when the line becomes
+    * visible. Non-visible lines defer visualization updates until they become visible. */
+  def validate () :Unit = if (!_valid && (_line ne null)) {
+    // go through the line and update our fragments to match its style runs
+    class Updater extends Function3[Seq[Tag[String]],Int,Int,Unit]() {
+      private var count = 0
       private var last :Int = 0
 
-      def add (start :Int, end :Int, styles :Seq[Tag[String]]) :Unit = {
-        var text = _line.sliceString(start, end)
+      def update (start :Int, end :Int, styles :Seq[Tag[String]]) :Unit = {
         assert(end > start)
-        val nlidx = text.indexOf('\n')
-        if (nlidx != -1) {
-          new Exception(s"Text cannot have newlines: $text").printStackTrace(System.err);
-          text = text.substring(0, nlidx)
+        val nlidx = indexOfNewline(start, end)
+        val tend = if (nlidx == -1) end else {
+          new Exception(s"Text cannot have newlines: ${_line.sliceString(start, end)}").
+            printStackTrace(System.err);
+          nlidx
+        }
+        if (count < _frags.size) {
+          val frag = _frags(count)
+          if (!textMatches(frag.getText, start, tend)) frag.setText(_line.sliceString(start, tend))
+          if (!classesMatch(frag, styles)) setClasses(frag, styles)
+        } else {
+          val frag = new FillableText(_line.sliceString(start, tend))
+          frag.setFontSmoothingType(FontSmoothingType.LCD)
+          frag.setTextOrigin(VPos.TOP)
+          setClasses(frag, styles)
+          _frags += frag
         }
-        val tnode = new FillableText(text)
-        tnode.setFontSmoothingType(FontSmoothingType.LCD)
-        val sc = tnode.getStyleClass
-        sc.add("textFace")
-        styles.foreach(t => sc.add(t.tag))
-        tnode.setTextOrigin(VPos.TOP)
-        kids += tnode.fillRect
-        kids += tnode
+        count += 1
       }
 
       def apply (cls :Seq[Tag[String]], start :Int, end :Int) :Unit = {
         // if we skipped over any unstyled text, add it now
-        if (start > last) add(last, start, Seq.empty)
-        add(start, end, cls)
+        if (start > last) update(last, start, Seq.empty)
+        update(start, end, cls)
         last = end
       }
 
       def finish () :Unit = {
         // if there's trailing unstyled text, add that
-        if (last < _line.length) add(last, _line.length, Seq.empty)
-        if (!kids.isEmpty) getChildren.addAll(kids.toArray :_*)
+        if (last < _line.length) update(last, _line.length, Seq.empty)
+        // our leading fragments are already in place, so we need only add or remove at the end
+        val kids = getChildren
+        if (count < _frags.size) {
+          _frags.remove(count, _frags.size-count)
+          kids.remove(2*count, kids.size)
+        } else if (kids.size < 2*count) {
+          val added = ArrayBuffer[Node]()
+          var ii = kids.size/2 ; while (ii < count) {
+            added += _frags(ii).fillRect
+            added += _frags(ii)
+            ii += 1
+          }
+          kids.addAll(added.toArray :_*)
+        }
       }
     }
     _valid = true // mark ourselves valid now to avoid looping if freakoutery
-    getChildren.clear()
-    val adder = new Adder()
-    _line.visitTags(classOf[String])(adder)
-    adder.finish()
+    val updater = new Updater()
+    _line.visitTags(classOf[String])(updater)
+    updater.finish()
+  }
+
+  private def indexOfNewline (start :Int, end :Int) :Int = {
+    var ii = start ; while (ii < end) {
+      if (_line.charAt(ii) == '\n') return ii
+      ii += 1
+    }
+    -1
+  }
+
+  private def textMatches (text :String, start :Int, end :Int) :Boolean =
+    (text.length == end-start) && {
+      var ii = 0 ; while (ii < text.length && text.charAt(ii) == _line.charAt(start+ii)) ii += 1
+      ii == text.length
+    }
+
+  private def classesMatch (frag :FillableText, styles :Seq[Tag[String]]) :Boolean = {
+    val sc = frag.getStyleClass
+    (sc.size == styles.size+1) && {
+      var ii = 0 ; while (ii < styles.size && sc.get(ii+1) == styles(ii).tag) ii += 1
+      ii == styles.size
+    }
+  }
+
+  private def setClasses (frag :FillableText, styles :Seq[Tag[String]]) :Unit = {
+    val classes = new Array[String](styles.size+1)
+    classes(0) = "textFace"
+    var ii = 0 ; while (ii < styles.size) { classes(ii+1) = styles(ii).tag ; ii += 1 }
+    frag.getStyleClass.setAll(classes :_*)
   }
 
   override def layoutChildren () :Unit = {
@@ -41,7 +41,8 @@ abstract class MiniOverlay (window :WindowImpl) extends BorderPane with Minibuff
   val ui = new MiniUI() {
     override def setPrompt (prompt :String) = plabel.setText(prompt)
     override def getPrompt = plabel.getText
-    override def showCompletions (comps :SeqV[String]) :Unit = {
+    override def showCompletions (comps :SeqV[String]) :Unit = showCompletions(comps, comps.size)
+    override def showCompletions (comps :SeqV[String], total :Int) :Unit = {
       if (comps.isEmpty) setBottom(null)
       else {
         // we have approximately the bottom two thirds of the window for completions
@@ -50,9 +51,9 @@ abstract class MiniOverlay (window :WindowImpl) extends BorderPane with Minibuff
         val tcomps = if (fcomps.size <= maxComps) fcomps else fcomps.take(maxComps-1)
         val buffer = cview.buffer
         buffer.replace(buffer.start, buffer.end, tcomps.map(Line.apply))
-        if (tcomps.size < fcomps.size) {
+        if (tcomps.size < fcomps.size || comps.size < total) {
           buffer.split(buffer.end)
-          buffer.insert(buffer.end, Line(s"...(${comps.size} total matches)..."))
+          buffer.insert(buffer.end, Line(s"...($total total matches)..."))
         }
         cview.point() = Loc(0, 0)
         cview.width() = tcomps.map(_.length).max
@@ -0,0 +1,160 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import com.google.common.collect.Sets
+import java.io.{DataInputStream, DataOutputStream, BufferedInputStream, BufferedOutputStream}
+import java.nio.file.attribute.BasicFileAttributes
+import java.nio.file.{Files, FileVisitOption, FileVisitResult, SimpleFileVisitor, Path}
+import java.nio.file.{NoSuchFileException, StandardCopyOption}
+import java.util.{HashMap, LinkedHashMap}
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import scaled._
+import scaled.pacman._
+
+/** A persistent index of the metadata extracted from the classes of package modules. The index
+  * records the metadata found in each class file along with that file's size and modification
+  * time, so that on subsequent launches only class files that have changed need to be read and
+  * parsed. The index may be used to scan multiple modules in parallel.
+  *
+  * @param file the file in which the index is stored.
+  */
+class ModuleIndex (log :Logger, file :Path) {
+  import ModuleIndex._
+  import ModuleMeta.Fact
+
+  // the index read from disk, and the index we've built this session (module key -> entry)
+  private val _loaded = load()
+  private val _current = new ConcurrentHashMap[String,ModuleEntry]()
+
+  private val _hits = new AtomicInteger()
+  private val _misses = new AtomicInteger()
+
+  /** The number of class files whose metadata was obtained from the index. */
+  def hits :Int = _hits.get
+  /** The number of class files that were (re)parsed because they were new or had changed. */
+  def misses :Int = _misses.get
+
+  /** Returns the metadata for `mod`, reading only those class files that have changed since the
+    * module was last indexed. */
+  def facts (mod :Module) :Seq[Fact] =
+    // we only index modules with class directories; jar modules are scanned directly
+    if (!Files.isDirectory(mod.root)) ModuleMeta.scan(log, mod)
+    else facts(mod.source.toString, mod.classesDir)
+
+  /** Returns the metadata for the module identified by `key` whose classes are in `classesDir`,
+    * reading only those class files that have changed since the module was last indexed. */
+  def facts (key :String, classesDir :Path) :Seq[Fact] = {
+    val root = classesDir.toString
+    val old = _loaded.get(key) match {
+      case null => null
+      case entry => if (entry.root == root) entry.files else null
+    }
+    // note: we preserve the order in which class files are visited
+    val files = new LinkedHashMap[String,FileEntry]()
+    if (Files.exists(classesDir)) {
+      val opts = Sets.newHashSet(FileVisitOption.FOLLOW_LINKS)
+      Files.walkFileTree(classesDir, opts, 32, new SimpleFileVisitor[Path]() {
+        override def visitFile (path :Path, attrs :BasicFileAttributes) = {
+          if (attrs.isRegularFile && ModuleMeta.isMetaClass(path.getFileName.toString)) {
+            val rpath = classesDir.relativize(path).toString
+            val mtime = attrs.lastModifiedTime.toMillis ; val size = attrs.size
+            val cached = if (old == null) null else old.get(rpath)
+            val entry = if (cached != null && cached.mtime == mtime && cached.size == size) {
+              _hits.incrementAndGet()
+              cached
+            } else {
+              _misses.incrementAndGet()
+              FileEntry(mtime, size, ModuleMeta.parse(log, path))
+            }
+            files.put(rpath, entry)
+          }
+          FileVisitResult.CONTINUE
+        }
+      })
+    }
+    _current.put(key, ModuleEntry(root, files))
+
+    val facts = Seq.builder[Fact]()
+    files.values foreach { facts ++= _.facts }
+    facts.build()
+  }
+
+  /** Writes the metadata for all modules indexed during this session back to our index file. The
+    * metadata for modules that were not indexed (because they have been uninstalled) is dropped.
+    * Nothing is written if no class files changed. */
+  def save () :Unit = if (misses > 0 || _current.size != _loaded.size) {
+    try {
+      Files.createDirectories(file.getParent)
+      val temp = file.resolveSibling(s"${file.getFileName}.tmp")
+      val out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))
+      try {
+        out.writeInt(Magic)
+        out.writeInt(_current.size)
+        _current.entrySet foreach { ment =>
+          out.writeUTF(ment.getKey)
+          out.writeUTF(ment.getValue.root)
+          out.writeInt(ment.getValue.files.size)
+          ment.getValue.files.entrySet foreach { fent =>
+            val entry = fent.getValue
+            out.writeUTF(fent.getKey)
+            out.writeLong(entry.mtime)
+            out.writeLong(entry.size)
+            out.writeInt(entry.facts.size)
+            entry.facts foreach { fact =>
+              out.writeUTF(fact.kind) ; out.writeUTF(fact.key) ; out.writeUTF(fact.value)
+            }
+          }
+        }
+      } finally out.close()
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING)
+    } catch {
+      case e :Exception => log.log(s"Failed to write module index: $file", e)
+    }
+  }
+
+  private def load () :HashMap[String,ModuleEntry] = {
+    val modules = new HashMap[String,ModuleEntry]()
+    try {
+      val in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))
+      try {
+        if (in.readInt() == Magic) {
+          var mm = in.readInt() ; while (mm > 0) {
+            val key = in.readUTF() ; val root = in.readUTF()
+            val files = new LinkedHashMap[String,FileEntry]()
+            var ff = in.readInt() ; while (ff > 0) {
+              val rpath = in.readUTF() ; val mtime = in.readLong() ; val size = in.readLong()
+              val facts = Seq.builder[Fact]()
+              var ii = in.readInt() ; while (ii > 0) {
+                facts += Fact(in.readUTF(), in.readUTF(), in.readUTF())
+                ii -= 1
+              }
+              files.put(rpath, FileEntry(mtime, size, facts.build()))
+              ff -= 1
+            }
+            modules.put(key, ModuleEntry(root, files))
+            mm -= 1
+          }
+        }
+      } finally in.close()
+    } catch {
+      case e :NoSuchFileException => // no index yet, no problem
+      case e :Exception =>
+        log.log(s"Failed to read module index, rebuilding: $file ($e)")
+        modules.clear()
+    }
+    modules
+  }
+}
+
+object ModuleIndex {
+
+  // identifies our file format, change this if the format (or the metadata we extract) changes
+  private final val Magic = 0x53434d31 // SCM1
+
+  private case class FileEntry (mtime :Long, size :Long, facts :Seq[ModuleMeta.Fact])
+  private case class ModuleEntry (root :String, files :LinkedHashMap[String,FileEntry])
+}
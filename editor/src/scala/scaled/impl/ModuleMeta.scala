@@ -14,8 +14,10 @@ import scaled._
 import scaled.pacman._
 
 /** Contains additional metadata for a Scaled package module. This metadata is extracted from
-  * annotations on the Java bytecode found in the module code. */
-class ModuleMeta (log :Logger, repo :PackageRepo, val mod :Module) {
+  * annotations on the Java bytecode found in the module code (see [[ModuleMeta.scan]]), usually by
+  * way of a [[ModuleIndex]]. */
+class ModuleMeta (log :Logger, repo :PackageRepo, val mod :Module, facts :Seq[ModuleMeta.Fact]) {
+  import ModuleMeta._
 
   /** Returns the class loader for our module. */
   def loader :ModuleLoader = mod.loader(repo.resolver)
@@ -50,37 +52,81 @@ class ModuleMeta (log :Logger, repo :PackageRepo, val mod :Module) {
     "%s [majors=%s, minors=%s, svcs=%s, deps=%s]",
     mod.name, majors.keySet, minors.keySet, services, mod.depends)
 
-  // our root may be a directory or a jar file, in either case we scan it for class files
-  if (Files.isDirectory(mod.root)) {
-    val opts = Sets.newHashSet(FileVisitOption.FOLLOW_LINKS)
-    if (Files.exists(mod.classesDir)) {
-      Files.walkFileTree(mod.classesDir, opts, 32, new SimpleFileVisitor[Path]() {
-        override def visitFile (file :Path, attrs :BasicFileAttributes) = {
-          if (attrs.isRegularFile) {
-            val name = file.getFileName.toString ; val fn = apply(name)
-            if (fn != null) fn(name, new ClassReader(Files.readAllBytes(file)))
+  facts foreach { fact => fact.kind match {
+    case MajorFact    => majors.put(fact.key, fact.value)
+    case PatternFact  => patterns.put(fact.key, fact.value)
+    case InterpFact   => interps.put(fact.key, fact.value)
+    case MinorFact    => minors.put(fact.key, fact.value)
+    case TagFact      => minorTags.put(fact.key, fact.value)
+    case ServiceFact  => services.put(fact.key, fact.value)
+    case AutoSvcFact  => autoSvcs += fact.key
+    case PluginFact   => plugins.put(fact.key, fact.value)
+    case kind         => log.log(s"Unknown module metadata: $kind in ${mod.name}")
+  }}
+}
+
+/** Extracts metadata from the classes of a package module. */
+object ModuleMeta {
+
+  /** A single bit of metadata extracted from a module class. The meaning of `key` and `value`
+    * depend on `kind`, which is one of the `*Fact` constants. */
+  case class Fact (kind :String, key :String, value :String)
+
+  final val MajorFact   = "major"   // mode -> classname
+  final val PatternFact = "pattern" // major mode -> file pattern
+  final val InterpFact  = "interp"  // major mode -> interpreter
+  final val MinorFact   = "minor"   // mode -> classname
+  final val TagFact     = "tag"     // tag -> minor mode
+  final val ServiceFact = "service" // svc classname -> impl classname
+  final val AutoSvcFact = "autosvc" // svc classname -> ""
+  final val PluginFact  = "plugin"  // plugin tag -> classname
+
+  /** Returns true if the class file named `name` may contain module metadata. */
+  def isMetaClass (name :String) :Boolean = parser(name) != null
+
+  /** Scans all of the classes in `mod` and returns the metadata found therein. This does not make
+    * use of any [[ModuleIndex]], it always reads and parses every relevant class file. */
+  def scan (log :Logger, mod :Module) :Seq[Fact] = {
+    val facts = Seq.builder[Fact]()
+    // our root may be a directory or a jar file, in either case we scan it for class files
+    if (Files.isDirectory(mod.root)) {
+      val opts = Sets.newHashSet(FileVisitOption.FOLLOW_LINKS)
+      if (Files.exists(mod.classesDir)) {
+        Files.walkFileTree(mod.classesDir, opts, 32, new SimpleFileVisitor[Path]() {
+          override def visitFile (file :Path, attrs :BasicFileAttributes) = {
+            if (attrs.isRegularFile && isMetaClass(file.getFileName.toString))
+              facts ++= parse(log, file)
+            FileVisitResult.CONTINUE
           }
-          FileVisitResult.CONTINUE
-        }
-      })
+        })
+      }
     }
-  }
-  // TODO: this code path is no longer used; nix it?
-  else if (mod.root.getFileName.toString endsWith ".jar") {
-    val jfile = new JarFile(mod.root.toFile)
-    val enum = jfile.entries()
-    while (enum.hasMoreElements()) {
-      val jentry = enum.nextElement() ; val fn = apply(jentry.getName)
-      if (fn != null) {
-        val in = jfile.getInputStream(jentry)
-        fn(jentry.getName, new ClassReader(in))
-        in.close
+    // TODO: this code path is no longer used; nix it?
+    else if (mod.root.getFileName.toString endsWith ".jar") {
+      val jfile = new JarFile(mod.root.toFile)
+      val enum = jfile.entries()
+      while (enum.hasMoreElements()) {
+        val jentry = enum.nextElement() ; val fn = parser(jentry.getName)
+        if (fn != null) {
+          val in = jfile.getInputStream(jentry)
+          facts ++= fn(log, jentry.getName, new ClassReader(in))
+          in.close
+        }
       }
     }
+    else throw new IllegalArgumentException("Unsupported package root ${mod.root}")
+    facts.build()
   }
-  else throw new IllegalArgumentException("Unsupported package root ${mod.root}")
 
-  private def apply (name :String) = {
+  /** Reads and parses the class file `file`, returning the metadata it contains. */
+  def parse (log :Logger, file :Path) :Seq[Fact] = {
+    val name = file.getFileName.toString ; val fn = parser(name)
+    if (fn == null) Seq.empty else fn(log, name, new ClassReader(Files.readAllBytes(file)))
+  }
+
+  private type Parser = (Logger, String, ClassReader) => Seq[Fact]
+
+  private def parser (name :String) :Parser = {
     if (name endsWith "Mode.class") parseMode
     else if (name endsWith "Service.class") parseService
     else if (name endsWith "Plugin.class") parsePlugin
@@ -90,6 +136,10 @@ class ModuleMeta (log :Logger, repo :PackageRepo, val mod :Module) {
   private abstract class Visitor extends ClassVisitor(Opcodes.ASM5) {
     protected var _cname :String = _
     protected val _anns = MMap[String,HashMultimap[String,String]]()
+    val facts = Seq.builder[Fact]()
+
+    protected def fact (kind :String, key :String, value :String) :Unit =
+      facts += Fact(kind, key, value)
 
     override def visit (version :Int, access :Int, name :String, signature :String,
                         superName :String, ifcs :Array[String]) :Unit = {
@@ -116,51 +166,50 @@ class ModuleMeta (log :Logger, repo :PackageRepo, val mod :Module) {
     }
   }
 
-  private def parse (viz :Visitor) = (name :String, reader :ClassReader) => try {
-    reader.accept(viz, ClassReader.SKIP_CODE|ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES)
-  } catch {
-    case e :Exception => log.log(s"Error parsing package class: $name", e)
+  private def visiting (mkViz : => Visitor) :Parser = (log, name, reader) => {
+    val viz = mkViz
+    try {
+      reader.accept(viz, ClassReader.SKIP_CODE|ClassReader.SKIP_DEBUG|ClassReader.SKIP_FRAMES)
+      viz.facts.build()
+    } catch {
+      case e :Exception => log.log(s"Error parsing package class: $name", e) ; Seq.empty
+    }
   }
 
-  private def parseMode = parse(new Visitor() {
+  private val parseMode = visiting(new Visitor() {
     override def visitEnd () :Unit = {
       _anns.get("Lscaled/Major;") foreach { attrs =>
         val mode = attrs.get("name").iterator.next
-        majors.put(mode, _cname)
-        attrs.get("pats") foreach { patterns.put(mode, _) }
-        attrs.get("ints") foreach { interps.put(mode, _) }
+        fact(MajorFact, mode, _cname)
+        attrs.get("pats") foreach { fact(PatternFact, mode, _) }
+        attrs.get("ints") foreach { fact(InterpFact, mode, _) }
       }
       _anns.get("Lscaled/Minor;") foreach { attrs =>
         val mode = attrs.get("name").iterator.next
-        minors.put(mode, _cname)
-        attrs.get("tags") foreach { minorTags.put(_, mode) }
+        fact(MinorFact, mode, _cname)
+        attrs.get("tags") foreach { fact(TagFact, _, mode) }
       }
     }
   })
 
-  private def parseService = parse(new Visitor() {
+  private val parseService = visiting(new Visitor() {
     override def visitEnd () :Unit = {
       _anns.get("Lscaled/Service;") foreach { attrs =>
         val impl = attrs.get("impl")
         val pre = _cname.substring(0, _cname.lastIndexOf(".")+1)
-        services.put(_cname, if (impl.isEmpty) _cname else pre+impl.iterator.next)
+        fact(ServiceFact, _cname, if (impl.isEmpty) _cname else pre+impl.iterator.next)
         val autoLoad = attrs.get("autoLoad")
-        if (!autoLoad.isEmpty && autoLoad.iterator.next == "true") autoSvcs += _cname
+        if (!autoLoad.isEmpty && autoLoad.iterator.next == "true") fact(AutoSvcFact, _cname, "")
       }
     }
   })
 
-  private def parsePlugin = parse(new Visitor() {
+  private val parsePlugin = visiting(new Visitor() {
     override def visitEnd () :Unit = {
       _anns.get("Lscaled/Plugin;") foreach { attrs =>
         val tag = attrs.get("tag").iterator.next
-        plugins.put(tag, _cname)
+        fact(PluginFact, tag, _cname)
       }
     }
   })
-
-  /** Turns `Lfoo/bar/Baz;` into `foo.bar.Baz`. */
-  private def jvmToJava (cn :String) =
-    if (cn.startsWith("L") && cn.endsWith(";")) cn.substring(1, cn.length-1).replace('/', '.')
-    else cn
 }
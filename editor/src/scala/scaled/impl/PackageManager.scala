@@ -7,7 +7,8 @@ package scaled.impl
 import com.google.common.collect.HashMultimap
 import java.nio.file.attribute.BasicFileAttributes
 import java.nio.file.{Files, FileVisitResult, Path, Paths, SimpleFileVisitor}
-import java.util.HashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.{ArrayList, HashMap}
 import java.util.regex.Pattern
 import scaled._
 import scaled.pacman._
@@ -112,8 +113,12 @@ class PackageManager (log :Logger) extends AbstractService with PackageService {
   private def moduleAdded (mod :Module) :Unit = {
     // create a package metadata ; there's some special hackery to handle the fact that services
     // are defined in scaled-api and implemented in scaled-editor, which is not normally allowed
-    val meta = if (mod.source != ScaledAPI) new ModuleMeta(log, pkgRepo, mod)
-               else new ModuleMeta(log, pkgRepo, mod) {
+    val facts = prescanned.remove(mod.source) match {
+      case null  => index.facts(mod)
+      case facts => facts
+    }
+    val meta = if (mod.source != ScaledAPI) new ModuleMeta(log, pkgRepo, mod, facts)
+               else new ModuleMeta(log, pkgRepo, mod, facts) {
                  override def service (name :String) =
                    metas.get(ScaledEditor).loadClass(services(name))
                }
@@ -143,6 +148,11 @@ class PackageManager (log :Logger) extends AbstractService with PackageService {
 
   private val metas = new HashMap[Source,ModuleMeta]()
 
+  // metadata for the modules installed at startup, which are scanned in parallel before being
+  // added; modules installed later are scanned when they are added
+  private val index = new ModuleIndex(log, metaDir.resolve("Cache").resolve("modules.index"))
+  private val prescanned = new ConcurrentHashMap[Source,Seq[ModuleMeta.Fact]]()
+
   private type Finder = String => Class[_]
   private val serviceMap = new HashMap[String,Finder]()
   private val majorMap = new HashMap[String,Finder]()
@@ -167,5 +177,17 @@ class PackageManager (log :Logger) extends AbstractService with PackageService {
     def packageAdded (pkg :Package) :Unit = pkg.modules.foreach(moduleAdded)
     def packageRemoved (pkg :Package) :Unit = pkg.modules.foreach(moduleRemoved)
   }
-  pkgRepo.packages foreach pkgRepo.observer.packageAdded
+
+  { val start = System.nanoTime
+    val mods = new ArrayList[Module]()
+    pkgRepo.packages foreach { _.modules foreach { mods.add(_) }}
+    mods.parallelStream.forEach(mod => try prescanned.put(mod.source, index.facts(mod)) catch {
+      case e :Exception => log.log(s"Failed to scan module ${mod.source}", e)
+    })
+    pkgRepo.packages foreach pkgRepo.observer.packageAdded
+    index.save()
+    val elapsed = (System.nanoTime - start) / 1000000
+    log.log(s"Loaded ${mods.size} modules in ${elapsed}ms (${index.hits} indexed classes, " +
+            s"${index.misses} classes parsed).")
+  }
 }
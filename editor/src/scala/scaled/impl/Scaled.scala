@@ -53,7 +53,10 @@ class Scaled extends Application with Editor {
   }
 
   val uiScheduler = new Scheduler {
-    override def execute (op :Runnable) = Platform.runLater(op)
+    // ops submitted from background threads are batched so that a flood of them (process output,
+    // file system events, completed futures) results in one UI thread dispatch per batch
+    private val batcher = Scheduler.batching(op => Platform.runLater(op))
+    override def execute (op :Runnable) = batcher.execute(op)
     override def schedule (delay :Long, op :Runnable) = {
       var canceled = false
       new Timeline(new KeyFrame(Duration.millis(delay), new EventHandler[ActionEvent]() {
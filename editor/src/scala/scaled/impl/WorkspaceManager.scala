@@ -89,6 +89,8 @@ class WorkspaceManager (app :Scaled) extends AbstractService with WorkspaceServi
     wshints.update(m => { m.put(wsname, path.toString) ; m })
   def removeHintPath (wsname :String, path :Path) :Unit =
     wshints.update(m => { m.remove(wsname, path.toString) ; m })
+  def hintPaths (wsname :String) :Seq[Path] =
+    Seq.copyOf(wshints().get(wsname)).map(Paths.get(_))
 
   override def list = try {
     Files.list(wsdir).collect(Collectors.toList[Path]).filter(Files.isDirectory(_)).
@@ -215,6 +217,8 @@ class WorkspaceImpl (val app  :Scaled, val mgr  :WorkspaceManager,
   }
   override def openBuffer (store :Store) =
     buffers.find(_.store == store) || addBuffer(BufferImpl(store))
+  override def viewBuffer (store :Store) =
+    buffers.find(_.store == store) || addBuffer(BufferImpl.view(store))
 
   override def openWindow (geom :Option[Geometry]) = {
     val wg = Geom(geom.map(g => (g.width, g.height)), geom.map(g => (g.x, g.y)))
@@ -278,6 +282,7 @@ class WorkspaceImpl (val app  :Scaled, val mgr  :WorkspaceManager,
 
   override def addHintPath (path :Path) :Unit = mgr.addHintPath(name, path)
   override def removeHintPath (path :Path) :Unit = mgr.removeHintPath(name, path)
+  override def hintPaths = mgr.hintPaths(name)
 
   override val exec = app.exec.handleErrors(err => {
     if (!Errors.isFeedback(err)) {
@@ -314,6 +319,7 @@ class WorkspaceImpl (val app  :Scaled, val mgr  :WorkspaceManager,
   private def addBuffer (buf :BufferImpl) :BufferImpl = {
     buffers += buf
     checkNameConflict(buf.name)
+    buf.undoStack.memoryBudget = config(EditorConfig.undoMemory)*1024L*1024
     // when a buffer's name changes, trigger a name conflict check on the next UI tick; we can't do
     // it immediately because we may end up trying to re-change the name while the current name
     // change was being dispatched
@@ -335,6 +341,9 @@ class WorkspaceImpl (val app  :Scaled, val mgr  :WorkspaceManager,
         watch = null
       }
     }
+    // if this buffer pages its lines in from a large file, index the rest of it in the background
+    // (the above watch will then cause it to pick up any lines appended to its file)
+    buf.startPaging(exec)
     // let interested parties know that we have a new buffer
     bufferOpened.emit(buf)
     buf
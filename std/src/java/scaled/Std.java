@@ -74,6 +74,26 @@ public class Std {
     return Set.from(elems);
   }
 
+  /** Returns an {@link IntSeqBuffer} containing {@code elems}. */
+  public static IntSeqBuffer ints (int... elems) {
+    return IntSeqBuffer.withCapacity(elems.length).append(elems);
+  }
+
+  /** Returns an {@link IntSet} containing {@code elems}. */
+  public static IntSet intSet (int... elems) {
+    return new IntSet(elems.length).addAll(elems);
+  }
+
+  /** Returns a {@link LongSet} containing {@code elems}. */
+  public static LongSet longSet (long... elems) {
+    return new LongSet(elems.length).addAll(elems);
+  }
+
+  /** Returns a {@link CharSet} containing the chars in {@code chars}. */
+  public static CharSet charSet (CharSequence chars) {
+    return new CharSet().addAll(chars);
+  }
+
   /**
    * Returns the concatenation of {@code as} and {@code bs} as a {@link Seq}.
    */
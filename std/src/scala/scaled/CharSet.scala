@@ -0,0 +1,158 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled
+
+import java.util.Arrays
+
+/** A mutable set of `Char`s, stored as a bitset which grows to accommodate the largest member.
+  * Sets of ASCII characters (word characters, delimiters, etc.) need only 128 bits.
+  *
+  * Members are visited without boxing via [[next]]:
+  * {{{
+  * var c = set.next(0) ; while (c >= 0) { ... ; c = set.next(c+1) }
+  * }}}
+  */
+class CharSet private (private var _words :Array[Long]) {
+
+  /** Creates an empty set. */
+  def this () = this(new Array[Long](2))
+
+  /** Returns the number of members of this set. */
+  def size :Int = {
+    var count = 0 ; var ii = 0 ; while (ii < _words.length) {
+      count += java.lang.Long.bitCount(_words(ii))
+      ii += 1
+    }
+    count
+  }
+  /** Returns true if this set contains no members. */
+  def isEmpty :Boolean = next(0) < 0
+  /** Returns true if this set contains at least one member. */
+  def nonEmpty :Boolean = !isEmpty
+
+  /** An alias for [[contains]]. */
+  def apply (c :Char) :Boolean = contains(c)
+
+  /** Returns true if this set contains `c`. */
+  def contains (c :Char) :Boolean = {
+    val word = c >>> 6
+    word < _words.length && (_words(word) & (1L << c)) != 0
+  }
+
+  /** Adds `c` to this set. Returns true if it was added, false if it was already present. */
+  def add (c :Char) :Boolean = {
+    val word = c >>> 6
+    if (word >= _words.length) _words = Arrays.copyOf(_words, word+1)
+    val old = _words(word)
+    _words(word) = old | (1L << c)
+    _words(word) != old
+  }
+  /** Adds `c` to this set. */
+  def += (c :Char) :Unit = add(c)
+
+  /** Adds all chars in `[from,to]` to this set. */
+  def addRange (from :Char, to :Char) :this.type = {
+    var c = from.toInt ; while (c <= to) { add(c.toChar) ; c += 1 }
+    this
+  }
+
+  /** Adds all chars in `cs` to this set. */
+  def addAll (cs :CharSequence) :this.type = {
+    var ii = 0 ; while (ii < cs.length) { add(cs.charAt(ii)) ; ii += 1 }
+    this
+  }
+
+  /** Adds all members of `set` to this set. */
+  def addAll (set :CharSet) :this.type = {
+    val owords = set._words
+    if (owords.length > _words.length) _words = Arrays.copyOf(_words, owords.length)
+    var ii = 0 ; while (ii < owords.length) { _words(ii) |= owords(ii) ; ii += 1 }
+    this
+  }
+
+  /** Removes `c` from this set. Returns true if it was removed, false if it was not present. */
+  def remove (c :Char) :Boolean = {
+    val had = contains(c)
+    if (had) _words(c >>> 6) &= ~(1L << c)
+    had
+  }
+  /** Removes `c` from this set. */
+  def -= (c :Char) :Unit = remove(c)
+
+  /** Removes all members from this set. */
+  def clear () :Unit = Arrays.fill(_words, 0L)
+
+  /** Returns the smallest member of this set that is `>= from`, or -1 if there is none. */
+  def next (from :Int) :Int = {
+    var word = from >>> 6
+    if (from < 0 || word >= _words.length) -1
+    else {
+      var bits = _words(word) & (-1L << from)
+      while (bits == 0) {
+        word += 1
+        if (word >= _words.length) return -1
+        bits = _words(word)
+      }
+      (word << 6) + java.lang.Long.numberOfTrailingZeros(bits)
+    }
+  }
+
+  /** Returns the index of the first char in `cs` at or after `from` which is a member of this
+    * set, or -1 if no such char exists. */
+  def indexIn (cs :CharSequence, from :Int) :Int = {
+    var ii = math.max(from, 0) ; val ll = cs.length ; while (ii < ll) {
+      if (contains(cs.charAt(ii))) return ii
+      ii += 1
+    }
+    -1
+  }
+
+  /** Returns a new array containing the members of this set, in ascending order. */
+  def toArray :Array[Char] = {
+    val chars = new Array[Char](size) ; var nn = 0
+    var c = next(0) ; while (c >= 0) { chars(nn) = c.toChar ; nn += 1 ; c = next(c+1) }
+    chars
+  }
+
+  /** Returns the members of this set as a (boxed) [[Set]]. */
+  def toSet :Set[Char] = {
+    val sb = Set.builder[Char](size)
+    var c = next(0) ; while (c >= 0) { sb += c.toChar ; c = next(c+1) }
+    sb.build()
+  }
+
+  override def clone :CharSet = new CharSet(_words.clone())
+
+  override def equals (other :Any) :Boolean = other match {
+    case os :CharSet =>
+      val (short, long) = if (_words.length <= os._words.length) (_words, os._words)
+                          else (os._words, _words)
+      var ii = 0 ; while (ii < long.length) {
+        if ((if (ii < short.length) short(ii) else 0L) != long(ii)) return false
+        ii += 1
+      }
+      true
+    case _ => false
+  }
+
+  override def hashCode = {
+    var code = 0L ; var ii = 0 ; while (ii < _words.length) {
+      code ^= _words(ii) * (ii+1)
+      ii += 1
+    }
+    (code ^ (code >>> 32)).toInt
+  }
+
+  override def toString = new JStringBuilder("CharSet(").append(toArray).append(")").toString
+}
+
+object CharSet {
+
+  /** Creates a new set containing the chars in `cs`. */
+  def apply (cs :CharSequence) :CharSet = new CharSet().addAll(cs)
+
+  /** Creates a new set containing the chars in `[from,to]`. */
+  def range (from :Char, to :Char) :CharSet = new CharSet().addRange(from, to)
+}
@@ -10,19 +10,15 @@ package scaled
   */
 object Impl {
 
-  /** Implements [[Connection]] and a cons list for [[Reactor]]s. */
+  /** Implements [[Connection]] for [[Reactor]]s. */
   class Link (
-    /** The reactor that owns this cons cell. */
+    /** The reactor that owns this connection. */
     val owner :Reactor,
     /** The priority of this connection. */
     val priority :Int
   ) extends Connection {
-    /** The next connection in our chain. */
-    var next :Link = _
     /** Indicates whether this connection is one-shot or persistent. */
-    var oneShot :Boolean = false
-
-    def setNext (next :Link) :Link = { this.next = next; this }
+    @volatile var oneShot :Boolean = false
 
     // plumbing used (or not) by reactors; dangerous but simple and reasonably fast
     def notify (arg0 :Any) :Unit = {}
@@ -30,33 +26,32 @@ object Impl {
 
     override def once () = { oneShot = true; this }
     override def close () = owner.disconnect(this)
-    override def toString =
-      s"[owner=$owner, prio=$priority, hasNext=${ next != null }, oneShot=$oneShot]"
-  }
-
-  abstract class Runs extends Runnable {
-    var next :Runs = _
-  }
-
-  final val DISPATCHING = new Link(null, 0)
-
-  def insert (head :Link, cons :Link) :Link = {
-    if (head == null) cons
-    else if (head.priority < cons.priority) cons.setNext(head)
-    else head.setNext(insert(head.next, cons))
+    override def toString = s"[owner=$owner, prio=$priority, oneShot=$oneShot]"
   }
 
-  def remove (head :Link, cons :Link) :Link = {
-    if (head == null) head
-    else if (head == cons) head.next
-    else head.setNext(remove(head.next, cons))
+  /** The (shared) empty listener array. */
+  final val NoLinks = new Array[Link](0)
+
+  /** Returns a copy of `links` with `cons` inserted after all links of equal or higher priority. */
+  def insert (links :Array[Link], cons :Link) :Array[Link] = {
+    var idx = 0 ; while (idx < links.length && links(idx).priority >= cons.priority) idx += 1
+    val nlinks = new Array[Link](links.length+1)
+    System.arraycopy(links, 0, nlinks, 0, idx)
+    nlinks(idx) = cons
+    System.arraycopy(links, idx, nlinks, idx+1, links.length-idx)
+    nlinks
   }
 
-  def insert (head :Runs, action :Runs) :Runs = {
-    if (head == null) action
+  /** Returns a copy of `links` with `cons` removed, or `links` if it does not contain `cons`. */
+  def remove (links :Array[Link], cons :Link) :Array[Link] = {
+    var idx = 0 ; while (idx < links.length && (links(idx) ne cons)) idx += 1
+    if (idx == links.length) links
+    else if (links.length == 1) NoLinks
     else {
-      head.next = insert(head.next, action)
-      head
+      val nlinks = new Array[Link](links.length-1)
+      System.arraycopy(links, 0, nlinks, 0, idx)
+      System.arraycopy(links, idx+1, nlinks, idx, links.length-idx-1)
+      nlinks
     }
   }
 }
@@ -0,0 +1,197 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled
+
+import java.util.Arrays
+
+/** A mutable map from `Int` to `Int`, stored unboxed in an open-addressing hash table (see
+  * [[IntSet]]). Iteration order is unspecified. Iteration via [[foreach]] does not box.
+  */
+class IntIntMap (expectedSize :Int) {
+  import IntSet.{mix, tableSize, maxFill, shiftKeys}
+
+  // zero marks an empty slot in the table, so the zero key is tracked separately
+  private[this] var _keys = new Array[Int](tableSize(expectedSize))
+  private[this] var _values = new Array[Int](_keys.length)
+  private[this] var _hasZero = false
+  private[this] var _zeroValue = 0
+  private[this] var _count = 0
+  private[this] val _moveValue = (from :Int, to :Int) => _values(to) = _values(from)
+
+  /** Creates a map with the default expected size (16). */
+  def this () = this(16)
+
+  /** Returns the number of mappings in this map. */
+  def size :Int = if (_hasZero) _count+1 else _count
+  /** Returns true if this map contains no mappings. */
+  def isEmpty :Boolean = size == 0
+  /** Returns true if this map contains at least one mapping. */
+  def nonEmpty :Boolean = size != 0
+
+  /** Returns true if this map contains a mapping for `key`. */
+  def contains (key :Int) :Boolean = if (key == 0) _hasZero else find(key) >= 0
+
+  /** Returns the value mapped to `key`.
+    * @throws NoSuchElementException if no mapping exists for `key`. */
+  def apply (key :Int) :Int = if (key == 0) {
+    if (_hasZero) _zeroValue else throw new NoSuchElementException("0")
+  } else find(key) match {
+    case -1 => throw new NoSuchElementException(String.valueOf(key))
+    case ii => _values(ii)
+  }
+
+  /** Returns the value mapped to `key`, or `default` if no mapping exists. */
+  def getOrElse (key :Int, default :Int) :Int = if (key == 0) {
+    if (_hasZero) _zeroValue else default
+  } else find(key) match {
+    case -1 => default
+    case ii => _values(ii)
+  }
+
+  /** Maps `key` to `value`, replacing any existing mapping. */
+  def update (key :Int, value :Int) :Unit = if (key == 0) {
+    _hasZero = true
+    _zeroValue = value
+  } else {
+    val ii = insert(key) // note: this may reallocate _values
+    _values(ii) = value
+  }
+
+  /** Adds `delta` to the value mapped to `key` (treating a missing mapping as zero).
+    * @return the new value mapped to `key`. */
+  def increment (key :Int, delta :Int) :Int = if (key == 0) {
+    _zeroValue = (if (_hasZero) _zeroValue else 0) + delta
+    _hasZero = true
+    _zeroValue
+  } else {
+    val ii = insert(key) ; val values = _values
+    values(ii) += delta
+    values(ii)
+  }
+
+  /** Removes the mapping for `key`. Returns true if a mapping was removed. */
+  def remove (key :Int) :Boolean = if (key == 0) {
+    val had = _hasZero ; _hasZero = false ; had
+  } else find(key) match {
+    case -1 => false
+    case ii =>
+      shiftKeys(_keys, ii, _moveValue)
+      _count -= 1
+      true
+  }
+  /** Removes the mapping for `key`. */
+  def -= (key :Int) :Unit = remove(key)
+
+  /** Removes all mappings from this map. */
+  def clear () :Unit = {
+    Arrays.fill(_keys, 0)
+    _hasZero = false
+    _count = 0
+  }
+
+  /** Applies `op` to each `(key, value)` mapping in this map. */
+  def foreach (op :(Int, Int) => Unit) :Unit = {
+    if (_hasZero) op(0, _zeroValue)
+    val keys = _keys ; val values = _values
+    var ii = 0 ; while (ii < keys.length) {
+      val key = keys(ii)
+      if (key != 0) op(key, values(ii))
+      ii += 1
+    }
+  }
+
+  /** Returns the keys of this map, in unspecified order. */
+  def keys :IntSeqBuffer = {
+    val keys = IntSeqBuffer.withCapacity(size)
+    foreach { (k, v) => keys += k }
+    keys
+  }
+
+  /** Returns the mappings in this map as a (boxed) [[Map]]. */
+  def toMap :Map[Int,Int] = {
+    val mb = Map.builder[Int,Int](size)
+    foreach { (k, v) => mb += (k, v) }
+    mb.build()
+  }
+
+  override def equals (other :Any) :Boolean = other match {
+    case om :IntIntMap =>
+      if (om.size != size) false
+      else {
+        foreach { (k, v) => if (!om.contains(k) || om(k) != v) return false }
+        true
+      }
+    case _ => false
+  }
+
+  // sum of mapping hashes, so that it is independent of the order of the table
+  override def hashCode = { var code = 0 ; foreach { (k, v) => code += mix(k) ^ v } ; code }
+
+  override def toString = {
+    val sb = new JStringBuilder("IntIntMap(")
+    var first = true
+    foreach { (k, v) =>
+      if (first) first = false else sb.append(", ")
+      sb.append(k).append(" -> ").append(v)
+    }
+    sb.append(")").toString
+  }
+
+  private def find (key :Int) :Int = {
+    val keys = _keys ; val mask = keys.length-1
+    var pos = mix(key) & mask ; while (true) {
+      val okey = keys(pos)
+      if (okey == key) return pos
+      if (okey == 0) return -1
+      pos = (pos+1) & mask
+    }
+    -1
+  }
+
+  // returns the index of `key`'s slot, claiming an empty slot (with value zero) if needed
+  private def insert (key :Int) :Int = {
+    val keys = _keys ; val mask = keys.length-1
+    var pos = mix(key) & mask ; while (true) {
+      val okey = keys(pos)
+      if (okey == key) return pos
+      if (okey == 0) {
+        keys(pos) = key
+        _values(pos) = 0
+        _count += 1
+        return if (_count > maxFill(keys.length)) { rehash(keys.length*2) ; find(key) } else pos
+      }
+      pos = (pos+1) & mask
+    }
+    -1
+  }
+
+  private def rehash (capacity :Int) :Unit = {
+    val okeys = _keys ; val ovalues = _values
+    val keys = new Array[Int](capacity) ; val values = new Array[Int](capacity)
+    val mask = capacity-1
+    var ii = 0 ; while (ii < okeys.length) {
+      val key = okeys(ii)
+      if (key != 0) {
+        var pos = mix(key) & mask
+        while (keys(pos) != 0) pos = (pos+1) & mask
+        keys(pos) = key
+        values(pos) = ovalues(ii)
+      }
+      ii += 1
+    }
+    _keys = keys
+    _values = values
+  }
+}
+
+object IntIntMap {
+
+  /** Creates a new map containing `pairs`. */
+  def apply (pairs :(Int, Int)*) :IntIntMap = {
+    val map = new IntIntMap(pairs.size)
+    pairs foreach { case (k, v) => map(k) = v }
+    map
+  }
+}
@@ -0,0 +1,269 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled
+
+import java.util.Arrays
+
+/** A mutable ordered sequence of `Int`s, stored unboxed. This mirrors the API of [[SeqBuffer]]
+  * (sans the parts that are inherently generic) and is intended for hot paths that accumulate
+  * many ints: row indices, offsets, match positions, etc. Iteration via [[foreach]] and the other
+  * higher-order methods does not box (Scala specializes `Int => Unit`, `Int => Boolean`, etc.).
+  */
+class IntSeqBuffer (initElems :Array[Int], initSize :Int) extends Cloneable {
+  if (initElems.length == 0) throw new IllegalArgumentException(
+    "IntSeqBuffer must have initial capacity of at least one element.")
+
+  private var _elems = initElems
+  private var _size = initSize
+
+  private def expectAt (index :Int, count :Int, size :Int) :Array[Int] = {
+    val els = _elems ; val remain = size-index ; val need = size + count
+    if (need <= els.length) {
+      if (remain > 0) System.arraycopy(els, index, els, index+count, remain)
+      els
+    } else {
+      var ncap = els.length*2 ; while (ncap < need) ncap *= 2
+      val nelems = new Array[Int](ncap)
+      System.arraycopy(els, 0, nelems, 0, index)
+      if (remain > 0) System.arraycopy(els, index, nelems, index+count, remain)
+      _elems = nelems
+      nelems
+    }
+  }
+
+  /** Creates a buffer with the specified initial capacity (which must be >= 2). */
+  def this (initCapacity :Int) = this(new Array[Int](math.max(2, initCapacity)), 0)
+
+  /** Returns the number of elements in this buffer. */
+  def size :Int = _size
+  /** Returns true if this buffer contains no elements. */
+  def isEmpty :Boolean = _size == 0
+  /** Returns true if this buffer contains at least one element. */
+  def nonEmpty :Boolean = _size != 0
+
+  /** Returns the `index`th element of this buffer.
+    * @throws IndexOutOfBoundsException if `index` is not in `[0,size)`. */
+  def apply (index :Int) :Int = get(index)
+  /** Returns the `index`th element of this buffer.
+    * @throws IndexOutOfBoundsException if `index` is not in `[0,size)`. */
+  def get (index :Int) :Int = {
+    Seq.checkIndex(index, _size)
+    _elems(index)
+  }
+
+  /** Returns the first element of this buffer.
+    * @throws NoSuchElementException if the buffer is empty. */
+  def head :Int = if (_size > 0) _elems(0) else throw new NoSuchElementException("head")
+  /** Returns the last element of this buffer.
+    * @throws NoSuchElementException if the buffer is empty. */
+  def last :Int = if (_size > 0) _elems(_size-1) else throw new NoSuchElementException("last")
+
+  /** Clears out the contents of this buffer, resetting its size to zero. */
+  def clear () :Unit = _size = 0
+
+  /** Sets the `index`th element of this buffer to `elem`.
+    * @throws IndexOutOfBoundsException if `index` is not in `[0,size)`. */
+  def update (index :Int, elem :Int) :Unit = {
+    Seq.checkIndex(index, _size)
+    _elems(index) = elem
+  }
+
+  /** Appends `elem` to this buffer, expanding the buffer as necessary. */
+  def append (elem :Int) :this.type = {
+    val size = _size
+    expectAt(size, 1, size)(size) = elem
+    _size = size+1
+    this
+  }
+  /** Appends `elem` to this buffer, expanding the buffer as necessary. */
+  def += (elem :Int) :Unit = append(elem)
+
+  /** Appends the elements `[start,end)` of `elems` to this buffer. */
+  def append (elems :Array[Int], start :Int, end :Int) :this.type = {
+    Seq.checkBounds(start, end, elems.length)
+    val size = _size ; val count = end-start
+    System.arraycopy(elems, start, expectAt(size, count, size), size, count)
+    _size = size + count
+    this
+  }
+  /** Appends all of `elems` to this buffer. */
+  def append (elems :Array[Int]) :this.type = append(elems, 0, elems.length)
+  /** Appends all of `elems` to this buffer. */
+  def append (elems :IntSeqBuffer) :this.type = append(elems._elems, 0, elems._size)
+  /** See [[append]]. */
+  def ++= (elems :IntSeqBuffer) :Unit = append(elems)
+
+  /** Inserts `elem` at `index`, shifting all elements after `index` down by one. */
+  def insert (index :Int, elem :Int) :Unit = {
+    val size = _size
+    Seq.checkBounds(index, index, size)
+    expectAt(index, 1, size)(index) = elem
+    _size = size + 1
+  }
+
+  /** Inserts all of `elems` at `index`, shifting all elements after `index` down by
+    * `elems.size`. */
+  def insert (index :Int, elems :IntSeqBuffer) :Unit = {
+    val size = _size ; val esize = elems._size
+    Seq.checkBounds(index, index, size)
+    System.arraycopy(elems._elems, 0, expectAt(index, esize, size), index, esize)
+    _size = size + esize
+  }
+
+  /** Removes `count` elements starting at `index`, shifting any later elements up by `count`.
+    * @throws IndexOutOfBoundsException if `[index,index+count)` is not in `[0,size)`. */
+  def remove (index :Int, count :Int) :Unit = if (count > 0) {
+    val size = _size ; val off = index+count
+    Seq.checkBounds(index, off, size)
+    if (off < size) System.arraycopy(_elems, off, _elems, index, size-off)
+    _size -= count
+  }
+
+  /** Removes and returns the single element at `index`.
+    * @throws IndexOutOfBoundsException if `[index,index+1)` is not in `[0,size)`. */
+  def removeAt (index :Int) :Int = {
+    val elem = get(index)
+    remove(index, 1)
+    elem
+  }
+
+  /** Removes the first `count` elements from this buffer. If `count` exceeds [[size]], the buffer
+    * is cleared. */
+  def trimStart (count :Int) :Unit = if (count > size) clear() else remove(0, count)
+
+  /** Removes the last `count` elements from this buffer. If `count` exceeds [[size]], the buffer
+    * is cleared. */
+  def trimEnd (count :Int) :Unit = if (count > size) clear() else remove(size-count, count)
+
+  /** Adds `delta` to all elements in `[start,end)`. This is useful for adjusting row or offset
+    * indices after an edit. */
+  def shift (start :Int, end :Int, delta :Int) :Unit = {
+    Seq.checkBounds(start, end, _size)
+    val els = _elems ; var ii = start ; while (ii < end) { els(ii) += delta ; ii += 1 }
+  }
+
+  /** Returns the index of the first element equal to `elem`, or -1. */
+  def indexOf (elem :Int) :Int = {
+    val els = _elems ; val size = _size
+    var ii = 0 ; while (ii < size) { if (els(ii) == elem) return ii ; ii += 1 }
+    -1
+  }
+  /** Returns the index of the last element equal to `elem`, or -1. */
+  def lastIndexOf (elem :Int) :Int = {
+    val els = _elems
+    var ii = _size-1 ; while (ii >= 0) { if (els(ii) == elem) return ii ; ii -= 1 }
+    -1
+  }
+  /** Returns true if this buffer contains `elem`. */
+  def contains (elem :Int) :Boolean = indexOf(elem) >= 0
+
+  /** Searches this buffer (which must be sorted) for `elem`. Returns the index of `elem` if it was
+    * found, or `-(insertion point + 1)` if not, per [[Arrays.binarySearch]]. */
+  def binarySearch (elem :Int) :Int = Arrays.binarySearch(_elems, 0, _size, elem)
+
+  /** Sorts the elements of this buffer in ascending order, in place. */
+  def sort () :Unit = Arrays.sort(_elems, 0, _size)
+
+  /** Applies `op` to each element of this buffer, in order. */
+  def foreach (op :Int => Unit) :Unit = {
+    val els = _elems ; val size = _size
+    var ii = 0 ; while (ii < size) { op(els(ii)) ; ii += 1 }
+  }
+
+  /** Returns true if `pred` is true for any element of this buffer. */
+  def exists (pred :Int => Boolean) :Boolean = {
+    val els = _elems ; val size = _size
+    var ii = 0 ; while (ii < size) { if (pred(els(ii))) return true ; ii += 1 }
+    false
+  }
+
+  /** Returns the number of elements for which `pred` is true. */
+  def count (pred :Int => Boolean) :Int = {
+    val els = _elems ; val size = _size
+    var count = 0 ; var ii = 0 ; while (ii < size) { if (pred(els(ii))) count += 1 ; ii += 1 }
+    count
+  }
+
+  /** Folds `op` over the elements of this buffer, in order, starting with `zero`. */
+  def foldLeft (zero :Int)(op :(Int, Int) => Int) :Int = {
+    val els = _elems ; val size = _size
+    var acc = zero ; var ii = 0 ; while (ii < size) { acc = op(acc, els(ii)) ; ii += 1 }
+    acc
+  }
+
+  /** Returns the sum of the elements of this buffer. */
+  def sum :Long = {
+    val els = _elems ; val size = _size
+    var sum = 0L ; var ii = 0 ; while (ii < size) { sum += els(ii) ; ii += 1 }
+    sum
+  }
+
+  /** Removes all elements for which `pred` is false, retaining the order of the remainder. */
+  def retain (pred :Int => Boolean) :Unit = {
+    val els = _elems ; val size = _size
+    var nn = 0 ; var ii = 0 ; while (ii < size) {
+      val elem = els(ii)
+      if (pred(elem)) { els(nn) = elem ; nn += 1 }
+      ii += 1
+    }
+    _size = nn
+  }
+
+  /** Copies the elements `[start,end)` of this buffer into `target` at `offset`. */
+  def copyInto (start :Int, end :Int, target :Array[Int], offset :Int) :Unit = {
+    Seq.checkBounds(start, end, _size)
+    System.arraycopy(_elems, start, target, offset, end-start)
+  }
+
+  /** Returns a new array containing the elements of this buffer. */
+  def toArray :Array[Int] = Arrays.copyOf(_elems, _size)
+
+  /** Returns the elements of this buffer as a (boxed) [[Seq]]. */
+  def toSeq :Seq[Int] = {
+    val sb = Seq.builder[Int](_size)
+    foreach { sb += _ }
+    sb.build()
+  }
+
+  override def clone :IntSeqBuffer = new IntSeqBuffer(_elems.clone(), _size)
+
+  override def equals (other :Any) :Boolean = other match {
+    case ob :IntSeqBuffer => (ob._size == _size) &&
+      Arrays.equals(_elems, 0, _size, ob._elems, 0, _size)
+    case _ => false
+  }
+
+  override def hashCode = {
+    val els = _elems ; val size = _size
+    var code = 1 ; var ii = 0 ; while (ii < size) { code = 31 * code + els(ii) ; ii += 1 }
+    code
+  }
+
+  override def toString = {
+    val sb = new JStringBuilder("IntSeqBuffer(")
+    var ii = 0 ; while (ii < _size) {
+      if (ii > 0) sb.append(", ")
+      sb.append(_elems(ii))
+      ii += 1
+    }
+    sb.append(")").toString
+  }
+}
+
+object IntSeqBuffer {
+
+  /** Creates a new buffer with the specified initial capacity. */
+  def withCapacity (initCapacity :Int) = new IntSeqBuffer(initCapacity)
+
+  /** Creates a new buffer with the default initial capacity (16). */
+  def apply () :IntSeqBuffer = withCapacity(16)
+
+  /** Creates a new buffer with the specified initial elements. */
+  def apply (elems :Int*) :IntSeqBuffer = {
+    val buf = withCapacity(elems.size)
+    elems foreach { buf += _ }
+    buf
+  }
+}
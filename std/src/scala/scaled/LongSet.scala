@@ -0,0 +1,187 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled
+
+import java.util.Arrays
+
+/** A mutable set of `Long`s, stored unboxed in an open-addressing hash table (with linear probing
+  * and backward shift deletion). Iteration order is unspecified. Iteration via [[foreach]] does
+  * not box.
+  */
+class LongSet (expectedSize :Int) {
+  import LongSet._
+  import IntSet.{maxFill, tableSize}
+
+  // zero marks an empty slot in the table, so the zero element is tracked separately
+  private[this] var _keys = new Array[Long](tableSize(expectedSize))
+  private[this] var _hasZero = false
+  private[this] var _count = 0
+
+  /** Creates a set with the default expected size (16). */
+  def this () = this(16)
+
+  /** Returns the number of elements in this set. */
+  def size :Int = if (_hasZero) _count+1 else _count
+  /** Returns true if this set contains no elements. */
+  def isEmpty :Boolean = size == 0
+  /** Returns true if this set contains at least one element. */
+  def nonEmpty :Boolean = size != 0
+
+  /** An alias for [[contains]]. */
+  def apply (elem :Long) :Boolean = contains(elem)
+
+  /** Returns true if this set contains `elem`. */
+  def contains (elem :Long) :Boolean = if (elem == 0) _hasZero else {
+    val keys = _keys ; val mask = keys.length-1
+    var pos = mix(elem) & mask ; while (true) {
+      val key = keys(pos)
+      if (key == elem) return true
+      if (key == 0) return false
+      pos = (pos+1) & mask
+    }
+    false
+  }
+
+  /** Adds `elem` to this set. Returns true if it was added, false if it was already present. */
+  def add (elem :Long) :Boolean = if (elem == 0) { val had = _hasZero ; _hasZero = true ; !had }
+  else {
+    val keys = _keys ; val mask = keys.length-1
+    var pos = mix(elem) & mask ; while (true) {
+      val key = keys(pos)
+      if (key == elem) return false
+      if (key == 0) {
+        keys(pos) = elem
+        _count += 1
+        if (_count > maxFill(keys.length)) rehash(keys.length*2)
+        return true
+      }
+      pos = (pos+1) & mask
+    }
+    false
+  }
+  /** Adds `elem` to this set. */
+  def += (elem :Long) :Unit = add(elem)
+
+  /** Adds all of `elems` to this set. */
+  def addAll (elems :Array[Long]) :this.type = {
+    var ii = 0 ; while (ii < elems.length) { add(elems(ii)) ; ii += 1 }
+    this
+  }
+
+  /** Removes `elem` from this set. Returns true if it was removed, false if it was not present. */
+  def remove (elem :Long) :Boolean = if (elem == 0) { val had = _hasZero ; _hasZero = false ; had }
+  else {
+    val keys = _keys ; val mask = keys.length-1
+    var pos = mix(elem) & mask ; while (true) {
+      val key = keys(pos)
+      if (key == elem) {
+        shiftKeys(keys, pos)
+        _count -= 1
+        return true
+      }
+      if (key == 0) return false
+      pos = (pos+1) & mask
+    }
+    false
+  }
+  /** Removes `elem` from this set. */
+  def -= (elem :Long) :Unit = remove(elem)
+
+  /** Removes all elements from this set. */
+  def clear () :Unit = {
+    Arrays.fill(_keys, 0)
+    _hasZero = false
+    _count = 0
+  }
+
+  /** Applies `op` to each element of this set. */
+  def foreach (op :Long => Unit) :Unit = {
+    if (_hasZero) op(0)
+    val keys = _keys
+    var ii = 0 ; while (ii < keys.length) {
+      val key = keys(ii)
+      if (key != 0) op(key)
+      ii += 1
+    }
+  }
+
+  /** Returns a new array containing the elements of this set, in unspecified order. */
+  def toArray :Array[Long] = {
+    val elems = new Array[Long](size) ; var nn = 0
+    foreach { elem => elems(nn) = elem ; nn += 1 }
+    elems
+  }
+
+  /** Returns the elements of this set as a (boxed) [[Set]]. */
+  def toSet :Set[Long] = {
+    val sb = Set.builder[Long](size)
+    foreach { sb += _ }
+    sb.build()
+  }
+
+  override def equals (other :Any) :Boolean = other match {
+    case os :LongSet =>
+      if (os.size != size) false
+      else { foreach { elem => if (!os.contains(elem)) return false } ; true }
+    case _ => false
+  }
+
+  // sum of element hashes, so that it is independent of the order of the table
+  override def hashCode = { var code = 0 ; foreach { code += mix(_) } ; code }
+
+  override def toString = {
+    val sb = new JStringBuilder("LongSet(")
+    var first = true
+    foreach { elem => if (first) first = false else sb.append(", ") ; sb.append(elem) }
+    sb.append(")").toString
+  }
+
+  private def rehash (capacity :Int) :Unit = {
+    val okeys = _keys ; val keys = new Array[Long](capacity) ; val mask = capacity-1
+    var ii = 0 ; while (ii < okeys.length) {
+      val key = okeys(ii)
+      if (key != 0) {
+        var pos = mix(key) & mask
+        while (keys(pos) != 0) pos = (pos+1) & mask
+        keys(pos) = key
+      }
+      ii += 1
+    }
+    _keys = keys
+  }
+}
+
+object LongSet {
+
+  /** Creates a new set containing `elems`. */
+  def apply (elems :Long*) :LongSet = {
+    val set = new LongSet(elems.size)
+    elems foreach { set += _ }
+    set
+  }
+
+  /** Scrambles the bits of `key` so that sequential keys don't cluster in the table. */
+  private[scaled] def mix (key :Long) :Int = {
+    val hh = key * 0x9E3779B97F4A7C15L
+    (hh ^ (hh >>> 32) ^ (hh >>> 16)).toInt
+  }
+
+  /** Closes the gap at `gap` left by a removed key by moving later keys in its probe chain back. */
+  private def shiftKeys (keys :Array[Long], gap :Int) :Unit = {
+    val mask = keys.length-1
+    var last = gap ; var pos = (gap+1) & mask ; while (true) {
+      val key = keys(pos)
+      if (key == 0) { keys(last) = 0 ; return }
+      val slot = mix(key) & mask
+      // move this key into the gap if its ideal slot is not cyclically in (last,pos]
+      val stays = if (last <= pos) (last < slot && slot <= pos) else (last < slot || slot <= pos)
+      if (!stays) {
+        keys(last) = key
+        last = pos
+      }
+      pos = (pos+1) & mask
+    }
+  }
+}
@@ -41,13 +41,13 @@ abstract class OptValueV[T] extends ValueReactor[Option[T]] {
     new OptValueV[M]() {
       override def get = f(outer.get)
       override def isDefined = outer.isDefined
-      // connectionAdded and connectionRemoved are only ever called with a lock held on this reactor,
-      // so we're safe in checking and mutating _conn
-      override protected def connectionAdded () :Unit = {
+      // connections may be added and removed on any thread, so we synchronize when checking
+      // and mutating _conn
+      override protected def connectionAdded () :Unit = synchronized {
         super.connectionAdded()
         if (_conn == null) _conn = outer.onChange((nv, ov) => notifyEmit(nv.map(f), ov.map(f)))
       }
-      override protected def connectionRemoved () :Unit = {
+      override protected def connectionRemoved () :Unit = synchronized {
         super.connectionRemoved()
         if (!hasConnections && _conn != null) {
           _conn.close()
@@ -61,13 +61,13 @@ abstract class OptValueV[T] extends ValueReactor[Option[T]] {
   /** Returns a signal which emits a value whenever `this` value changes. */
   def asSignal :SignalV[Option[T]] = {
     new SignalV[Option[T]] {
-      // connectionAdded and connectionRemoved are only ever called with a lock held on this
-      // reactor, so we're safe in checking and mutating _conn
-      override protected def connectionAdded () :Unit = {
+      // connections may be added and removed on any thread, so we synchronize when checking
+      // and mutating _conn
+      override protected def connectionAdded () :Unit = synchronized {
         super.connectionAdded()
         if (_conn == null) _conn = OptValueV.this.onValue(notifyEmit)
       }
-      override protected def connectionRemoved () :Unit = {
+      override protected def connectionRemoved () :Unit = synchronized {
         super.connectionRemoved()
         if (!hasConnections && _conn != null) {
           _conn.close()
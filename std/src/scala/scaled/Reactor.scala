@@ -5,6 +5,8 @@
 
 package scaled
 
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
+
 /** A base class for all reactive classes. This is an implementation detail, but is public so that
   * third parties may use it to create their own reactive classes, if desired.
   *
@@ -18,63 +20,46 @@ class Reactor {
   import Impl._
 
   /** Returns true if this reactor has at least one connection. */
-  def hasConnections :Boolean = (_listeners != null)
+  def hasConnections :Boolean = _links.get.length > 0
 
   // protected def addConnection (prio :Int, listener :AnyRef) :Connection = synchronized {
   //   if (listener == null) throw new NullPointerException("Null listener")
   //   addLink(new Link(this, prio, listener))
   // }
 
-  protected def addLink (cons :Link) :Link = synchronized {
-    if (isDispatching) {
-      _pendingRuns = insert(_pendingRuns, new Runs {
-        def run () :Unit = {
-          _listeners = insert(_listeners, cons)
-          connectionAdded()
-        }
-      })
-    } else {
-      _listeners = insert(_listeners, cons)
-      connectionAdded()
-    }
+  protected def addLink (cons :Link) :Link = {
+    // our listener array is copy-on-write, so a notification in progress is unaffected by this
+    // addition; the new listener will be notified starting with the next notification
+    var links = _links.get
+    while (!_links.compareAndSet(links, insert(links, cons))) links = _links.get
+    connectionAdded()
     cons
   }
 
-  protected def prepareNotify () :Link = synchronized {
-    if (isDispatching)
+  protected def prepareNotify () :Array[Link] = {
+    if (!_dispatching.compareAndSet(false, true))
       throw new IllegalStateException("Initiated notify while notifying")
-    val lners = _listeners
-    _listeners = DISPATCHING.asInstanceOf[Link]
-    return lners
+    _links.get
   }
 
-  protected def finishNotify (lners :Link) = synchronized {
+  protected def finishNotify () :Unit = {
     // note that we're no longer dispatching
-    _listeners = lners
-
-    // now remove listeners any queued for removing and add any queued for adding
-    while (_pendingRuns != null) {
-      _pendingRuns.run()
-      _pendingRuns = _pendingRuns.next
-    }
+    _dispatching.set(false)
   }
 
-  protected[scaled] def disconnect (cons :Link) = synchronized {
-    if (isDispatching) {
-      _pendingRuns = insert(_pendingRuns, new Runs {
-        def run () :Unit = {
-          _listeners = remove(_listeners, cons)
-          connectionRemoved()
-        }
-      })
-    } else {
-      _listeners = remove(_listeners, cons)
-      connectionRemoved()
+  protected[scaled] def disconnect (cons :Link) :Unit = {
+    // as with addLink, a notification in progress will still notify a removed listener
+    var links = _links.get
+    var nlinks = remove(links, cons)
+    while ((nlinks ne links) && !_links.compareAndSet(links, nlinks)) {
+      links = _links.get
+      nlinks = remove(links, cons)
     }
+    connectionRemoved()
   }
 
   protected def clearListeners () :Unit = {
-    _listeners = null
+    _links.set(NoLinks)
   }
 
   protected def shortClassName :String = {
@@ -85,15 +70,16 @@ class Reactor {
   /** Called prior to mutating any underlying model allows subclasses to reject mutation. */
   protected def checkMutate () :Unit = {} // noop
 
-  /** Called when a connection has been added to this reactor. */
+  /** Called when a connection has been added to this reactor. This is called on the thread that
+    * added the connection, without any lock held on this reactor. */
   protected def connectionAdded () :Unit = {} // noop
 
-  /** Called when a connection may have been removed from this reactor. */
+  /** Called when a connection may have been removed from this reactor. This is called on the
+    * thread that removed the connection, without any lock held on this reactor. */
   protected def connectionRemoved () :Unit = {} // noop
 
-  // always called while lock is held on this reactor
-  private final def isDispatching :Boolean = (_listeners eq DISPATCHING)
-
-  private[this] var _listeners :Link = _
-  private[this] var _pendingRuns :Runs = _
+  // our listeners (sorted by priority) are replaced wholesale on every change, so notification
+  // needs no lock; the dispatching flag is used only to detect (illegal) reentrant notification
+  private[this] val _links = new AtomicReference[Array[Link]](NoLinks)
+  private[this] val _dispatching = new AtomicBoolean()
 }
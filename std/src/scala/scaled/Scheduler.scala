@@ -5,6 +5,7 @@
 package scaled
 
 import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicReference
 
 /**
  * Extends the [[Executor]] API with delayed scheduling.
@@ -20,3 +21,47 @@ trait Scheduler extends Executor {
 
   // TODO: do we want schedulePeriodically?
 }
+
+/** [[Scheduler]] helpers. */
+object Scheduler {
+
+  /** Returns an executor which runs ops via `target` in batches. When an op is submitted and no
+    * batch is pending, a batch is submitted to `target`, and all ops submitted before that batch
+    * runs are run by it (in the order they were submitted). This is used to avoid flooding a
+    * single threaded target (like the UI thread) with one dispatch per op when many ops are
+    * submitted from background threads. If any ops fail, the remaining ops in the batch are still
+    * run and the first failure is rethrown (with any others suppressed) once the batch completes.
+    */
+  def batching (target :Executor) :Executor = new Executor() {
+    private class Op (val op :Runnable) { var next :Op = _ }
+    private val pending = new AtomicReference[Op]()
+    private val runBatch = new Runnable() {
+      override def run () :Unit = {
+        // the pending ops are in reverse order of submission, so reverse them
+        var ops :Op = null
+        var rev = pending.getAndSet(null) ; while (rev != null) {
+          val next = rev.next
+          rev.next = ops
+          ops = rev
+          rev = next
+        }
+        var err :Throwable = null
+        while (ops != null) {
+          try ops.op.run()
+          catch {
+            case t :Throwable => if (err == null) err = t else err.addSuppressed(t)
+          }
+          ops = ops.next
+        }
+        if (err != null) throw err
+      }
+    }
+    override def execute (op :Runnable) :Unit = {
+      val node = new Op(op)
+      var head = pending.get ; node.next = head
+      while (!pending.compareAndSet(head, node)) { head = pending.get ; node.next = head }
+      // if we were the first op added to the pending batch, we submit the batch
+      if (head == null) target.execute(runBatch)
+    }
+  }
+}
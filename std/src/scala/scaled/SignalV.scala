@@ -5,7 +5,8 @@
 
 package scaled
 
-import java.util.concurrent.Executor
+import java.util.concurrent.{ConcurrentLinkedQueue, Executor}
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicReference}
 
 /** A view of a [[Signal]] on which one may listen but via which one cannot emit value. */
 class SignalV[+T] extends Reactor {
@@ -85,6 +86,45 @@ class SignalV[+T] extends Reactor {
       }
     }
 
+  /** Returns a signal which emits the latest value from `this` via `exec`. Only one dispatch is
+    * outstanding at a time: if values are emitted while a dispatch is pending, only the most recent
+    * of them is emitted when it runs. This is useful for reporting state (like progress) from a
+    * background thread without queueing a UI thread dispatch for every update.
+    */
+  def coalesce (exec :Executor) :SignalV[T] = new DelegateSignalV[T,T](this) {
+    private val pending = new AtomicReference[Any](NoValue)
+    override def onParentValue (value :T) = {
+      if (pending.getAndSet(value) == NoValue) exec.execute(new Runnable() {
+        override def run () = notifyEmit(pending.getAndSet(NoValue).asInstanceOf[T])
+      })
+    }
+  }
+
+  /** Returns a signal which emits batches of values from `this` via `exec`. Only one dispatch is
+    * outstanding at a time: all values emitted while a dispatch is pending are accumulated (in
+    * order) and emitted as a single batch when it runs. This is useful for delivering a stream of
+    * events (like process output) from a background thread without queueing a UI thread dispatch
+    * for every event. Note: `this` signal must not emit `null`.
+    */
+  def coalesceBatched (exec :Executor) :SignalV[Seq[T]] = new DelegateSignalV[T,Seq[T]](this) {
+    private val pending = new ConcurrentLinkedQueue[T]()
+    private val scheduled = new AtomicBoolean()
+    override def onParentValue (value :T) = {
+      pending.add(value)
+      if (scheduled.compareAndSet(false, true)) exec.execute(new Runnable() {
+        override def run () = {
+          // clear our scheduled flag before draining; a value added after that will schedule a
+          // new dispatch (which may find nothing to do if we drain that value in this dispatch)
+          scheduled.set(false)
+          val batch = Seq.builder[T]()
+          var value = pending.poll()
+          while (value != null) { batch += value ; value = pending.poll() }
+          if (batch.size > 0) notifyEmit(batch.build())
+        }
+      })
+    }
+  }
+
   /** Connects the supplied slot (side-effecting function) with priorty zero. When a value is
     * emitted, the slot will be invoked with the value.
     * @return $CONDOC
@@ -120,8 +160,8 @@ class SignalV[+T] extends Reactor {
     val lners = prepareNotify()
     var err :ReactionException = null
     try {
-      var cons = lners
-      while (cons != null) {
+      var ii = 0 ; while (ii < lners.length) {
+        val cons = lners(ii)
         try {
           cons.notify(value)
         } catch {
@@ -130,10 +170,10 @@ class SignalV[+T] extends Reactor {
             err addSuppressed t
         }
         if (cons.oneShot) cons.close()
-        cons = cons.next
+        ii += 1
       }
     } finally {
-      finishNotify(lners)
+      finishNotify()
     }
     if (err != null) throw err
   }
@@ -144,13 +184,13 @@ private abstract class DelegateSignalV[D,T] (parent :SignalV[D]) extends SignalV
   /** Called when a value is emitted from our parent signal. */
   def onParentValue (value :D) :Unit
 
-  // connectionAdded and connectionRemoved are only ever called with a lock held on this reactor,
-  // so we're safe in checking and mutating _conn
-  override protected def connectionAdded () :Unit = {
+  // connections may be added and removed on any thread, so we synchronize when checking
+  // and mutating _conn
+  override protected def connectionAdded () :Unit = synchronized {
     super.connectionAdded()
     if (_conn == null) _conn = parent.onValue(onParentValue)
   }
-  override protected def connectionRemoved () :Unit = {
+  override protected def connectionRemoved () :Unit = synchronized {
     super.connectionRemoved()
     if (!hasConnections && _conn != null) {
       _conn.close()
@@ -159,3 +199,5 @@ private abstract class DelegateSignalV[D,T] (parent :SignalV[D]) extends SignalV
   }
   protected var _conn :Connection = _
 }
+
+private object NoValue
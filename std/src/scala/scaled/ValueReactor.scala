@@ -91,8 +91,8 @@ abstract class ValueReactor[T] extends Reactor {
     val lners = prepareNotify()
     var err :ReactionException = null
     try {
-      var cons = lners
-      while (cons != null) {
+      var ii = 0 ; while (ii < lners.length) {
+        val cons = lners(ii)
         try {
           cons.notify(value, ovalue)
         } catch {
@@ -101,10 +101,10 @@ abstract class ValueReactor[T] extends Reactor {
             err addSuppressed t
         }
         if (cons.oneShot) cons.close()
-        cons = cons.next
+        ii += 1
       }
     } finally {
-      finishNotify(lners)
+      finishNotify()
     }
     if (err != null) throw err
   }
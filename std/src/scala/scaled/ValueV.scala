@@ -48,13 +48,13 @@ abstract class ValueV[T] extends ValueReactor[T] with PropertyV[T] {
   /** Returns a signal which emits a value whenever `this` value changes. */
   def asSignal :SignalV[T] = {
     new SignalV[T] {
-      // connectionAdded and connectionRemoved are only ever called with a lock held on this
-      // reactor, so we're safe in checking and mutating _conn
-      override protected def connectionAdded () :Unit = {
+      // connections may be added and removed on any thread, so we synchronize when checking
+      // and mutating _conn
+      override protected def connectionAdded () :Unit = synchronized {
         super.connectionAdded()
         if (_conn == null) _conn = ValueV.this.onValue(notifyEmit)
       }
-      override protected def connectionRemoved () :Unit = {
+      override protected def connectionRemoved () :Unit = synchronized {
         super.connectionRemoved()
         if (!hasConnections && _conn != null) {
           _conn.close()
@@ -113,13 +113,13 @@ private abstract class DelegateValueV[D,T] (protected val parent :ValueV[D]) ext
   /** Called when our parent's value changes. */
   def onParentChange (value :D, ovalue :D) :Unit
 
-  // connectionAdded and connectionRemoved are only ever called with a lock held on this reactor,
-  // so we're safe in checking and mutating _conn
-  override protected def connectionAdded () :Unit = {
+  // connections may be added and removed on any thread, so we synchronize when checking
+  // and mutating _conn
+  override protected def connectionAdded () :Unit = synchronized {
     super.connectionAdded()
     if (_conn == null) _conn = parent.onChange(onParentChange)
   }
-  override protected def connectionRemoved () :Unit = {
+  override protected def connectionRemoved () :Unit = synchronized {
     super.connectionRemoved()
     if (!hasConnections && _conn != null) {
       _conn.close()
@@ -0,0 +1,66 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled
+
+import java.nio.file.{Files, Path}
+import org.junit.Assert._
+import org.junit._
+import scaled.impl.TestData
+
+class CompleterTest {
+
+  @Test def testFileListingCache () :Unit = {
+    val dir = Files.createTempDirectory("completer")
+    try {
+      Files.createFile(dir.resolve("one.txt"))
+      var watchers = List[Watcher]()
+      var closed = 0
+      val watchSvc = new WatchService() {
+        def watchFile (file :Path, watcher :Path => Unit) = throw new UnsupportedOperationException
+        def watchDir (wdir :Path, watcher :Watcher) = {
+          assertEquals(dir, wdir)
+          watchers = watcher :: watchers
+          Closeable(closed += 1)
+        }
+      }
+      def complete () = {
+        var comps :SeqV[String] = null
+        Completer.file(TestData.exec, watchSvc).apply(s"$dir/") onSuccess { c => comps = c.comps }
+        comps.map(_.substring(dir.toString.length+1))
+      }
+
+      assertEquals(Seq("one.txt"), complete())
+      // the listing is cached, so a new file is not seen until the watch reports it
+      Files.createFile(dir.resolve("two.txt"))
+      assertEquals(Seq("one.txt"), complete())
+      assertEquals(1, watchers.size)
+      watchers.head.onCreate(dir, "two.txt")
+      assertEquals(1, closed)
+      assertEquals(Seq("one.txt", "two.txt"), complete())
+      assertEquals(2, watchers.size)
+    } finally {
+      Files.list(dir).forEach(Files.delete(_))
+      Files.delete(dir)
+    }
+  }
+
+  @Test def testMissingDirectory () :Unit = {
+    val dir = Files.createTempDirectory("completer")
+    try {
+      // like the real watch service, this fails to watch a directory that does not exist
+      val watchSvc = new WatchService() {
+        def watchFile (file :Path, watcher :Path => Unit) = throw new UnsupportedOperationException
+        def watchDir (wdir :Path, watcher :Watcher) =
+          if (Files.isDirectory(wdir)) Closeable.Noop
+          else throw new java.nio.file.NoSuchFileException(wdir.toString)
+      }
+      var comps :SeqV[String] = null ; var error :Throwable = null
+      Completer.file(TestData.exec, watchSvc).apply(s"$dir/missing/fo").onComplete(
+        c => comps = c.comps, e => error = e)
+      assertNull(error)
+      assertEquals(Seq(), comps)
+    } finally Files.delete(dir)
+  }
+}
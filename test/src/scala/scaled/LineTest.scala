@@ -144,6 +144,43 @@ class LineTest {
     assertEquals(Line("Test foo bar! Wow!"), lb.build())
   }
 
+  @Test def testSyntax () :Unit = {
+    val l1 = Line.builder("foo = \"bar\" // baz").
+      withSyntax(Syntax.StringLiteral, 6, 11).
+      withSyntax(Syntax.LineComment, 12, 18).build()
+    assertEquals(Syntax.Default, l1.syntaxAt(0))
+    assertEquals(Syntax.StringLiteral, l1.syntaxAt(8))
+    assertEquals(Syntax.LineComment, l1.syntaxAt(15))
+    assertEquals(Syntax.Default, l1.syntaxAt(l1.length))
+    assertEquals(Syntax.StringLiteral, l1.slice(6, 11).syntaxAt(0))
+    assertTrue(Line("foo") == Line.builder("foo").withSyntax(Syntax.Default, 0, 3).build())
+    assertFalse(Line("foo") == Line.builder("foo").withSyntax(Syntax.DocComment, 0, 3).build())
+
+    val isComment = (c :Char, s :Syntax) => s.isComment
+    assertEquals(12, l1.scanForward(isComment, 0, l1.length))
+    assertEquals(-1, l1.scanForward(isComment, 0, 11))
+    assertEquals(l1.length, l1.scanForward((c, s) => c == '\n', 0, l1.length))
+    assertEquals(10, l1.scanBackward((c, s) => s.isLiteral, l1.length, 0))
+    assertEquals(-1, l1.scanBackward((c, s) => s.isLiteral, 5, 0))
+    assertEquals(3, Line("foo bar").scanBackward((c, s) => c == ' ', 6, 0))
+  }
+
+  @Test def testSyntaxInterning () :Unit = {
+    // equal syntaxes share an id, no matter how many of them are created
+    def mkSyntax = new Syntax { def isComment = true ; def isLiteral = false }
+    val ids = (0 until 1000).map(_ => mkSyntax.id).toSet
+    assertEquals(1, ids.size)
+    assertEquals(mkSyntax, Syntax.byId(ids.head))
+    // more than a byte's worth of distinct syntaxes can be interned
+    case class Numbered (num :Int) extends Syntax { def isComment = false ; def isLiteral = true }
+    val syns = (0 until 1000).map(Numbered)
+    val line = Line.builder("x"*syns.size)
+    for (ii <- 0 until syns.size) line.withSyntax(syns(ii), ii, ii+1)
+    val built = line.build()
+    for (ii <- 0 until syns.size) assertEquals(syns(ii), built.syntaxAt(ii))
+    assertEquals(0, Syntax.Default.id)
+  }
+
   @Test def testSplitLines () :Unit = {
     assertEquals(Seq(""), Line.splitText(""))
     assertEquals(Seq("Foo bar"), Line.splitText("Foo bar"))
@@ -57,4 +57,30 @@ class MapTest {
     }
     assertEquals(Seq(2, 4), evens)
   }
+
+  @Test def testIntIntMap () :Unit = {
+    val map = new IntIntMap()
+    -500 to 500 foreach { ii => map(ii*3) = ii }
+    assertEquals(1001, map.size)
+    -500 to 500 foreach { ii =>
+      assertEquals(ii, map(ii*3))
+      assertEquals(-1, map.getOrElse(ii*3+1, -1))
+    }
+    -500 to 500 by 2 foreach { ii => assertTrue(map.remove(ii*3)) }
+    assertEquals(500, map.size)
+    -500 to 500 foreach { ii =>
+      assertEquals(ii % 2 != 0, map.contains(ii*3))
+      if (ii % 2 != 0) assertEquals(ii, map(ii*3))
+    }
+    var sum = 0 ; map foreach { (k, v) => sum += v }
+    assertEquals(0, sum)
+    try { map(0) ; fail() } catch { case e :NoSuchElementException => }
+
+    val counts = new IntIntMap()
+    Seq(3, 1, 3, 0, 3, 1) foreach { counts.increment(_, 1) }
+    assertEquals(IntIntMap(3 -> 3, 1 -> 2, 0 -> 1), counts)
+    assertEquals(Map(3 -> 3, 1 -> 2, 0 -> 1), counts.toMap)
+    assertEquals(Set(0, 1, 3), counts.keys.toSeq.toSet)
+    assertEquals(IntIntMap(1 -> 2, 3 -> 3, 0 -> 1).hashCode, counts.hashCode)
+  }
 }
@@ -6,6 +6,7 @@ package scaled
 
 import org.junit.Assert._
 import org.junit._
+import scaled.impl.TestData.sched
 
 class SearchTest {
 
@@ -49,5 +50,81 @@ class SearchTest {
     assertEquals(2, secondLimitThes.size)
   }
 
+  @Test def testMatcherSkips () :Unit = {
+    // compare exact and loose matchers (which skip via tables) with a plain indexOf
+    val r = new java.util.Random(42)
+    val alpha = "abcAB\u0161\u0160\u0461 " // includes chars which hash to the same skip entry
+    def rand (length :Int) = Array.fill(length)(alpha.charAt(r.nextInt(alpha.length))).mkString
+    for (ii <- 0 until 2000) {
+      val hay = rand(r.nextInt(60)) ; val needle = rand(1 + r.nextInt(4))
+      val lneedle = needle.toLowerCase ; val lhay = hay.toLowerCase
+      val exact = Matcher.exact(needle) ; val loose = Matcher.loose(lneedle)
+      val cs = hay.toCharArray ; val from = r.nextInt(hay.length+1)
+      assertEquals(s"$needle in $hay", hay.indexOf(needle, from),
+                   exact.search(cs, 0, cs.length, from))
+      assertEquals(s"$needle in $hay", hay.lastIndexOf(needle, from),
+                   exact.searchBackward(cs, 0, cs.length, from))
+      assertEquals(s"$lneedle in $hay", lhay.indexOf(lneedle, from),
+                   loose.search(cs, 0, cs.length, from))
+      assertEquals(s"$lneedle in $hay", lhay.lastIndexOf(lneedle, from),
+                   loose.searchBackward(cs, 0, cs.length, from))
+    }
+  }
+
+  @Test def testFindAllAsync () :Unit = {
+    // a buffer with enough rows that it is searched in a few units, in parallel
+    val lines = Seq.builder[String]()
+    for (ii <- 0 until 3*Search.RowsPerUnit) lines += (if (ii % 7 == 0) NOW else WHO)
+    val big = Buffer("big", lines.build().map(Line.apply))
+    // run background ops on a pool, and queue UI ops up to be run by this thread
+    val pool = java.util.concurrent.Executors.newFixedThreadPool(4)
+    val uiq = new java.util.concurrent.LinkedBlockingQueue[Runnable]()
+    val exec = new Executor(sched(uiq.add), sched(pool.execute), t => throw t, Some(pool))
+    try {
+      val visible = Region(Loc(5000, 0), Loc(5040, 0))
+      val search = Search(big, big.start, big.end, Line("the"))
+      val finding = search.findAllAsync(exec, visible)
+      val batches = SeqBuffer[Seq[Loc]]()
+      finding.found.onValue(batches += _)
+      var all :Seq[Loc] = null
+      finding.all.onSuccess(all = _)
+      while (all == null) uiq.poll(5, java.util.concurrent.TimeUnit.SECONDS) match {
+        case null => fail("Timed out waiting for search")
+        case op   => op.run()
+      }
+      assertEquals(search.findAll(), all)
+      // the visible matches are reported first, and every match is reported once
+      assertTrue(batches.head.forall(l => l.row >= visible.start.row && l.row <= visible.end.row))
+      val reported = batches.flatMap(b => b)
+      assertEquals(all.size, reported.size)
+      assertEquals(all.toSet, reported.toSet)
+
+      // a closed search reports nothing further
+      val closed = search.findAllAsync(exec, visible)
+      closed.found.onValue(_ => fail("Closed search reported matches"))
+      closed.close()
+      pool.shutdown()
+      pool.awaitTermination(5, java.util.concurrent.TimeUnit.SECONDS)
+      while (!uiq.isEmpty) uiq.poll().run()
+    } finally pool.shutdownNow()
+  }
+
+  @Test def testFindAllAsyncEdited () :Unit = {
+    val buffer = Buffer.scratch("test")
+    buffer.append(Line.fromText(s"$WHO\n$NOW\n$WHO\n$NOW"))
+    val search = Search(buffer, buffer.start, buffer.end, Line("the"))
+    val expect = search.findAll()
+    assertEquals(6, expect.size)
+    // queue background ops so that we can edit the buffer before the search runs
+    val bgq = SeqBuffer[Runnable]()
+    val exec = new Executor(sched(_.run()), sched(bgq += _), t => throw t, None)
+    var all :Seq[Loc] = null
+    search.findAllAsync(exec, Region(buffer.start, buffer.end)).all.onSuccess(all = _)
+    // edits made after the search started are not seen by it
+    buffer.delete(buffer.start, buffer.end)
+    while (!bgq.isEmpty) bgq.removeAt(0).run()
+    assertEquals(expect, all)
+  }
+
   // TODO: @Test def testMultiLineSearch () :Unit = {}
 }
@@ -108,4 +108,39 @@ class SeqBufferTest {
       case _ => fail()
     }
   }
+
+  @Test def testIntSeqBuffer () :Unit = {
+    val sb = IntSeqBuffer()
+    1 to 40 foreach { sb += _ }
+    assertEquals(40, sb.size)
+    assertEquals(s1to40, sb.toSeq)
+    assertEquals(820L, sb.sum)
+    sb.remove(4, 36)
+    assertEquals(IntSeqBuffer(1, 2, 3, 4), sb)
+    sb.insert(0, 0)
+    sb.insert(5, IntSeqBuffer(7, 6, 5))
+    assertEquals(IntSeqBuffer(0, 1, 2, 3, 4, 7, 6, 5), sb)
+    assertEquals(5, sb.indexOf(7))
+    assertEquals(-1, sb.indexOf(9))
+    assertEquals(7, sb.removeAt(5))
+    sb.sort()
+    assertEquals(IntSeqBuffer(0, 1, 2, 3, 4, 5, 6), sb)
+    assertEquals(3, sb.binarySearch(3))
+    assertEquals(-8, sb.binarySearch(10))
+    sb.shift(4, 7, 10)
+    assertEquals(IntSeqBuffer(0, 1, 2, 3, 14, 15, 16), sb)
+    sb.retain(_ % 2 == 0)
+    assertEquals(IntSeqBuffer(0, 2, 14, 16), sb)
+    assertEquals(2, sb.count(_ > 10))
+    assertEquals(32, sb.foldLeft(0)(_ + _))
+    assertArrayEquals(Array(0, 2, 14, 16), sb.toArray)
+    val copy = sb.clone
+    sb.trimStart(1) ; sb.trimEnd(1)
+    assertEquals(IntSeqBuffer(2, 14), sb)
+    assertEquals(IntSeqBuffer(0, 2, 14, 16), copy)
+    assertEquals(copy.hashCode, IntSeqBuffer(0, 2, 14, 16).hashCode)
+    assertEquals("IntSeqBuffer(2, 14)", sb.toString)
+    sb.clear()
+    assertTrue(sb.isEmpty)
+  }
 }
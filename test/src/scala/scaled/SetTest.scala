@@ -70,4 +70,62 @@ class SetTest {
       implicitly[Ordering[Int]].on[String](_.length))
     assertEquals(Seq("one", "two", "four", "five", "three"), bylen.toSeq)
   }
+
+  @Test def testIntSet () :Unit = {
+    val set = new IntSet()
+    // include zero and negatives, and enough elements to force a few rehashes
+    -500 to 500 foreach { ii => assertTrue(set.add(ii*7)) }
+    assertFalse(set.add(0))
+    assertEquals(1001, set.size)
+    -500 to 500 foreach { ii => assertTrue(set(ii*7)) ; assertFalse(set(ii*7+1)) }
+    // remove every other element, which exercises the backward shift of probe chains
+    -500 to 500 by 2 foreach { ii => assertTrue(set.remove(ii*7)) }
+    assertFalse(set.remove(0))
+    assertEquals(500, set.size)
+    -500 to 500 foreach { ii => assertEquals(ii % 2 != 0, set(ii*7)) }
+    var sum = 0L ; set foreach { sum += _ }
+    assertEquals(0L, sum)
+    assertEquals(Set(-3493, 3493), IntSet(-3493, 3493).toSet)
+    assertEquals(IntSet(1, 2, 3), IntSet(3, 2, 1, 2))
+    assertEquals(IntSet(1, 2, 3).hashCode, IntSet(3, 2, 1).hashCode)
+    set.clear()
+    assertTrue(set.isEmpty)
+  }
+
+  @Test def testLongSet () :Unit = {
+    val set = LongSet(0L, 1L << 40, -1L, Long.MaxValue)
+    assertEquals(4, set.size)
+    assertTrue(set(1L << 40))
+    assertFalse(set(1L << 41))
+    0 until 1000 foreach { ii => set += ii.toLong << 20 }
+    assertEquals(1003, set.size)
+    assertTrue(set.remove(Long.MaxValue))
+    assertTrue(set.remove(0L))
+    0 until 1000 foreach { ii => assertEquals(ii != 0, set(ii.toLong << 20)) }
+    assertEquals(Set(-1L), LongSet(-1L).toSet)
+  }
+
+  @Test def testCharSet () :Unit = {
+    val set = CharSet("hello")
+    assertEquals(4, set.size)
+    assertTrue(set('h'))
+    assertFalse(set('x'))
+    assertFalse(set('\u2603'))
+    assertTrue(set.add('\u2603'))
+    assertFalse(set.add('\u2603'))
+    assertEquals(Set('h', 'e', 'l', 'o', '\u2603'), set.toSet)
+    assertEquals("ehlo\u2603", new String(set.toArray))
+    assertEquals('l'.toInt, set.next('i'))
+    assertEquals('\u2603'.toInt, set.next('p'))
+    assertEquals(-1, set.next('\u2604'))
+    assertEquals(1, set.indexIn("why hello", 0))
+    assertEquals(4, set.indexIn("why hello", 2))
+    assertEquals(-1, set.indexIn("xyz", 0))
+    assertTrue(set.remove('\u2603'))
+    assertEquals(CharSet("ohel"), set)
+    assertEquals(CharSet("ohel").hashCode, set.hashCode)
+    assertEquals(26, CharSet.range('a', 'z').size)
+    set.clear()
+    assertTrue(set.isEmpty)
+  }
 }
@@ -74,4 +74,92 @@ class SignalTest {
     assertEquals(Seq(3, 6), debounced.toSeq)
     assertEquals(Seq(Seq(1, 2, 3), Seq(4, 5, 6), Seq(7, 8)), debatched.toSeq)
   }
+
+  @Test def testReentrancy () :Unit = {
+    val signal = Signal[Int]()
+    val got = Seq.builder[String]()
+    var added :Connection = null
+    var second :Connection = null
+    signal.onValueAt(10) { v =>
+      got += s"first $v"
+      // a listener added during dispatch is not notified until the next dispatch
+      if (added == null) added = signal.onValue { v => got += s"added $v" }
+      // a listener removed during dispatch is still notified by that dispatch
+      if (v == 2) second.close()
+    }
+    second = signal.onValueAt(5) { v => got += s"second $v" }
+    signal.emit(1)
+    signal.emit(2)
+    signal.emit(3)
+    assertEquals(Seq("first 1", "second 1",
+                     "first 2", "second 2", "added 2",
+                     "first 3", "added 3"), got.build())
+
+    // emitting from within a dispatch is not allowed
+    val nested = Signal[Int]()
+    nested.onValue { v => if (v == 1) nested.emit(2) }
+    try { nested.emit(1) ; fail("Expected exception") }
+    catch { case e :ReactionException => assertTrue(
+      e.getSuppressed()(0).isInstanceOf[IllegalStateException]) }
+    // but the signal is usable again afterwards
+    nested.emit(3)
+  }
+
+  @Test def testConcurrentConnects () :Unit = {
+    val signal = Signal[Int]()
+    val count = new java.util.concurrent.atomic.AtomicInteger()
+    signal.onValue { _ => count.incrementAndGet() }
+    val threads = 0 until 4 map { _ => new Thread() {
+      override def run () = for (ii <- 0 until 1000) signal.onValue { _ => () }.close()
+    }}
+    threads foreach { _.start() }
+    for (ii <- 0 until 1000) signal.emit(ii)
+    threads foreach { _.join() }
+    assertEquals(1000, count.get)
+    signal.emit(0)
+    assertEquals(1001, count.get)
+    assertTrue(signal.hasConnections)
+  }
+
+  @Test def testCoalesce () :Unit = {
+    val signal = Signal[Int]()
+    val sched = new TestScheduler()
+    val latest = Seq.builder[Int]()
+    signal.coalesce(sched).onValue { v => latest += v }
+    val batched = Seq.builder[Seq[Int]]()
+    signal.coalesceBatched(sched).onValue { v => batched += v }
+
+    signal.emit(1)
+    signal.emit(2)
+    signal.emit(3)
+    sched.advance(0)
+    signal.emit(4)
+    sched.advance(0)
+    signal.emit(5)
+    signal.emit(6)
+    sched.advance(0)
+    sched.advance(0)
+
+    assertEquals(Seq(3, 4, 6), latest.build())
+    assertEquals(Seq(Seq(1, 2, 3), Seq(4), Seq(5, 6)), batched.build())
+  }
+
+  @Test def testBatching () :Unit = {
+    val sched = new TestScheduler()
+    val batcher = Scheduler.batching(sched)
+    val ran = SeqBuffer[Int]()
+    batcher.execute(() => ran += 1)
+    batcher.execute(() => ran += 2)
+    batcher.execute(() => throw new RuntimeException("boom"))
+    batcher.execute(() => { ran += 3 ; batcher.execute(() => ran += 5) })
+    batcher.execute(() => ran += 4)
+    // all of the above should be run by a single batch
+    assertEquals(1, sched.queue.size)
+    try { sched.advance(0) ; fail("Expected exception") }
+    catch { case e :RuntimeException => assertEquals("boom", e.getMessage) }
+    // the op submitted during the batch is run by a new batch
+    assertEquals(Seq(1, 2, 3, 4), ran.toSeq)
+    sched.advance(0)
+    assertEquals(Seq(1, 2, 3, 4, 5), ran.toSeq)
+  }
 }
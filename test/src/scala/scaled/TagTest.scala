@@ -220,6 +220,75 @@ class TagTest {
                  tags.tags.map(t => (t.start, t.end, t.tag.toString)))
   }
 
+  @Test def testManyTags () :Unit = {
+    val tags = new Tags()
+    // add enough overlapping tags that queries go through the index
+    for (ii <- 0 until 1000) tags.add(s"t$ii", ii*2, ii*2+10)
+    assertEquals(List("t496", "t497", "t498", "t499", "t500"),
+                 tags.tagsAt(classOf[String], 1000).map(_.tag).reverse)
+    assertEquals("t496", tags.tagAt(classOf[String], 1000, ""))
+    assertEquals("", tags.tagAt(classOf[String], 2010, ""))
+    tags.expand(1000, 5)
+    assertEquals(List("t496", "t497", "t498", "t499"),
+                 tags.tagsAt(classOf[String], 1004).map(_.tag).reverse)
+    tags.delete(1000, 1005)
+    assertEquals(List("t496", "t497", "t498", "t499", "t500"),
+                 tags.tagsAt(classOf[String], 1000).map(_.tag).reverse)
+  }
+
+  @Test def testRandomDifferential () :Unit = {
+    val r = new java.util.Random(42)
+    for (round <- 0 until 200) {
+      val tags = new Tags() ; val ref = new TagTest.LinkedTags()
+      val ntags = if (round % 10 == 0) 500 else r.nextInt(40)
+      def randTag = if (r.nextInt(4) == 0) Integer.valueOf(r.nextInt(3)) else s"s${r.nextInt(8)}"
+      def randPos = r.nextInt(ntags/2 + 20)
+      for (ii <- 0 until ntags) {
+        val start = randPos ; val end = start + 1 + r.nextInt(12)
+        val tag = randTag ; tags.add(tag, start, end) ; ref.add(tag, start, end)
+      }
+      for (op <- 0 until 50) {
+        val start = randPos ; val end = start + r.nextInt(8) ; val where = s"$round/$op"
+        r.nextInt(6) match {
+          case 0 => val tag = randTag ; tags.add(tag, start, end+1) ; ref.add(tag, start, end+1)
+          case 1 => tags.expand(start, end-start+1) ; ref.expand(start, end-start+1)
+          case 2 => tags.delete(start, end) ; ref.delete(start, end)
+          case 3 => tags.clear(start, end) ; ref.clear(start, end)
+          case 4 =>
+            val tag = randTag
+            assertEquals(where, ref.remove(tag, start, end), tags.remove(tag, start, end))
+            ref.sort()
+          case 5 =>
+            val pred = (s :String) => s.hashCode % 2 == 0
+            assertEquals(where, ref.removeAll(classOf[String], pred, start, end),
+                         tags.removeAll(classOf[String], pred, start, end))
+        }
+        assertEquals(where, spans(ref.tags), spans(tags.tags))
+        for (ii <- 0 until 10) {
+          val pos = randPos
+          assertEquals(where, ref.tagAt(classOf[String], pos, ""),
+                       tags.tagAt(classOf[String], pos, ""))
+          assertEquals(where, spans(ref.tagsAt(classOf[Integer], pos)),
+                       spans(tags.tagsAt(classOf[Integer], pos)))
+          assertEquals(where, spans(ref.tagsAt(pos)), spans(tags.tagsAt(pos)))
+          val end = pos + r.nextInt(20)
+          val slice = new Tags() ; tags.sliceInto(pos, end, slice, 3)
+          val rslice = new TagTest.LinkedTags() ; ref.sliceInto(pos, end, rslice, 3)
+          assertEquals(where, spans(rslice.tags), spans(slice.tags))
+        }
+        assertEquals(where, visits(ref.visit(classOf[String])), visits(tags.visit(classOf[String])))
+      }
+    }
+  }
+
+  private def spans (tags :List[_ <: Tag[_]]) = tags.map(t => (t.start, t.end, t.tag))
+
+  private def visits (visit :((Seq[Tag[String]], Int, Int) => Unit) => Unit) = {
+    val groups = SeqBuffer[(Int,Int,Seq[String])]()
+    visit((ts, start, end) => groups += ((start, end, ts.map(_.tag))))
+    groups.toSeq
+  }
+
   private def testVisit (tags :Tags, expect :Seq[(Int,Int,Seq[String])]) :Unit = {
     val groups = SeqBuffer[(Int,Int,Seq[String])]()
     tags.visit(classOf[String])((ts, start, end) => groups += ((start, end, ts.map(_.tag))))
@@ -227,3 +296,157 @@ class TagTest {
     for ((exp,got) <- expect zip groups) assertEquals(exp, got)
   }
 }
+
+object TagTest {
+
+  /** The original linked list implementation of [[Tags]], against which the array based
+    * implementation is tested. */
+  class LinkedTags {
+    private val _root :Node[_] = Node(null, Int.MinValue, Int.MaxValue)
+
+    def add[T] (tag :T, start :Int, end :Int) :Unit = _root.insert(Node(tag, start, end))
+
+    def tags :List[Tag[_]] = _root.toListTail
+
+    def tagAt[T] (tclass :Class[T], idx :Int, dflt :T) :T = {
+      var node = _root.next ; while (node != null) {
+        if (tclass.isInstance(node.tag) && node.contains(idx)) return node.tag.asInstanceOf[T]
+        node = node.next
+      }
+      dflt
+    }
+
+    def tagsAt[T] (tclass :Class[T], idx :Int) :List[Tag[T]] = {
+      var rs = Nil :List[Tag[T]] ; var node = _root.next ; while (node != null) {
+        if (tclass.isInstance(node.tag) && node.contains(idx)) rs = node.asInstanceOf[Tag[T]] :: rs
+        node = node.next
+      }
+      rs
+    }
+
+    def tagsAt (idx :Int) :List[Tag[_]] = tagsAt(classOf[Any], idx)
+
+    def visit[T] (tclass :Class[T])(vis :(Seq[Tag[T]], Int, Int) => Unit) :Unit = {
+      var vts = Seq[Tag[T]]() ; var start = 0 ; var maxex = Int.MaxValue
+      var node = _root.next ; while (node != null) {
+        if (!tclass.isInstance(node.tag)) node = node.next
+        else if (vts.isEmpty || node.start == start) {
+          vts :+= node.asInstanceOf[Tag[T]]
+          start = node.start
+          maxex = math.min(maxex, node.end)
+          node = node.next
+        } else {
+          maxex = math.min(maxex, node.start)
+          vis(vts, start, maxex)
+          start = maxex
+          vts = vts.filter(_.end > start)
+          maxex = (Int.MaxValue /: vts)((mx, vt) => math.min(vt.end, mx))
+        }
+      }
+      while (!vts.isEmpty) {
+        vis(vts, start, maxex)
+        start = maxex
+        vts = vts.filter(_.end > start)
+        maxex = (Int.MaxValue /: vts)((mx, vt) => math.min(vt.end, mx))
+      }
+    }
+
+    def remove[T] (tag :T, start :Int, end :Int) :Boolean = delete(_ == tag, start, end, 0)
+
+    def removeAll[T] (tclass :Class[T], pred :T => Boolean, start :Int, end :Int) :Boolean = {
+      var removed = false
+      var pnode = _root ; var node = _root.next ; while (node != null && node.start < end) {
+        if (tclass.isInstance(node.tag) && node.overlaps(start, end) &&
+            pred(node.tag.asInstanceOf[T])) {
+          pnode.next = node.next
+          node = node.next
+          removed = true
+        } else {
+          pnode = node
+          node = node.next
+        }
+      }
+      removed
+    }
+
+    def delete (start :Int, end :Int) :Unit = delete(null, start, end, end-start)
+
+    def expand (start :Int, length :Int) :Unit = {
+      var pnode = _root ; var node = _root.next ; while (node != null) {
+        val nstart = node.start ; val nend = node.end
+        if (nstart >= start) pnode.replaceNext(Node(node.tag, nstart+length, nend+length))
+        else if (nend > start) pnode.replaceNext(Node(node.tag, nstart, nend+length))
+        pnode = pnode.next
+        node = node.next
+      }
+    }
+
+    def clear (start :Int, end :Int) :Unit = delete(null, start, end, 0)
+
+    def sliceInto (start :Int, end :Int, into :LinkedTags, offset :Int) :Unit = {
+      def clip[T] (tag :T, cstart :Int, cend :Int) = if (cend > cstart) into.add(tag, cstart, cend)
+      var node = _root.next ; while (node != null && node.start < end) {
+        val nstart = node.start ; val nend = node.end
+        if (nstart <= start) {
+          if (nend >= end) clip(node.tag, offset, offset+end-start)
+          else if (nend > start) clip(node.tag, offset, offset+nend-start)
+        }
+        else if (nstart < end) clip(node.tag, offset+nstart-start, offset+math.min(nend, end)-start)
+        node = node.next
+      }
+    }
+
+    /** Removing a tag can leave this implementation's tags out of order, which the array based
+      * implementation corrects by (stably) sorting its tags. This does the same. */
+    def sort () :Unit = {
+      val sorted = tags.sortBy(_.start)
+      _root.next = null
+      var pnode = _root ; for (t <- sorted) {
+        pnode.next = Node(t.tag, t.start, t.end) ; pnode = pnode.next
+      }
+    }
+
+    private def delete (pred :Any => Boolean, start :Int, end :Int, shift :Int) :Boolean = {
+      @tailrec def loop (pnode :Node[_], mod :Boolean) :Boolean = {
+        val node = pnode.next
+        if (node == null) mod
+        else if (pred != null && !pred(node.tag)) loop(node, mod)
+        else {
+          val nstart = node.start ; val nend = node.end
+          if (nstart < start) {
+            if (nend <= start) loop(node, mod)
+            else if (nend <= end) loop(pnode.replaceNext(Node(node.tag, node.start, start)), true)
+            else {
+              val lfrag = Node(node.tag, node.start, start)
+              val rfrag = Node(node.tag, end-shift, node.end)
+              pnode.replaceNext(lfrag)
+              lfrag.insert(rfrag)
+              loop(lfrag, true)
+            }
+          }
+          else if (nstart < end) {
+            if (nend <= end) loop(pnode.setNext(node.next), true)
+            else loop(pnode.replaceNext(Node(node.tag, end-shift, nend-shift)), true)
+          }
+          else if (shift != 0) {
+            loop(pnode.replaceNext(Node(node.tag, nstart-shift, nend-shift)), true)
+          }
+          else loop(node, mod)
+        }
+      }
+      loop(_root, false)
+    }
+  }
+
+  private case class Node[T] (tag :T, start :Int, end :Int) extends Tag[T] {
+    var next :Node[_] = _
+    def toList :List[Tag[_]] = this :: toListTail
+    def toListTail :List[Tag[_]] = if (next == null) Nil else next.toList
+    def insert (node :Node[_]) :Unit = {
+      if (next == null || node.start < next.start) next = node.setNext(next)
+      else next.insert(node)
+    }
+    def setNext (node :Node[_]) :this.type = { next = node ; this }
+    def replaceNext (node :Node[_]) :node.type = { node.next = next.next ; next = node ; node }
+  }
+}
@@ -50,4 +50,73 @@ class BlockerTest {
     assertEquals(Loc(12,15), blocker(Loc(12, 17)).get.start)
     assertEquals(Loc(6,18), blocker(Loc(13, 0)).get.start)
   }
+
+  @Test def testMatchesScan () :Unit = {
+    // random edits of bracket-heavy text (with some brackets in comments and strings) leave the
+    // blocker in agreement with a character by character scan of the buffer
+    val buf = scaled.impl.BufferImplTest.testBuffer(testJavaCode.mkString("\n"))
+    val blocker = new Blocker(buf, "{([", "})]")
+    val r = new java.util.Random(42)
+    val texts = Seq("{", "}", "(", ")", "[", "]", "x", "\n", "{\n}", "(\n[")
+    val syntaxes = Seq(Syntax.Default, Syntax.Default, Syntax.LineComment, Syntax.StringLiteral)
+    def randLoc = {
+      val row = r.nextInt(buf.lines.size)
+      Loc(row, r.nextInt(buf.line(row).length+1))
+    }
+    for (ii <- 0 until 500) {
+      r.nextInt(4) match {
+        case 0 =>
+          val start = randLoc ; val end = buf.forward(start, r.nextInt(3))
+          buf.delete(start, end)
+        case 1 =>
+          val start = randLoc ; val end = buf.forward(start, r.nextInt(5))
+          buf.setSyntax(syntaxes(r.nextInt(syntaxes.size)), start, end)
+        case _ =>
+          buf.insert(randLoc, Line.fromText(texts(r.nextInt(texts.size))))
+      }
+      for (jj <- 0 until 5) {
+        val loc = randLoc ; val syntax = syntaxes(r.nextInt(syntaxes.size))
+        assertEquals(s"$ii @ $loc", BlockerTest.scan(buf, "{([", "})]", loc, syntax),
+                     blocker(loc, syntax))
+      }
+    }
+  }
+}
+
+object BlockerTest {
+
+  /** The blocker algorithm, as implemented via a scan of every character in the buffer. */
+  def scan (buffer :BufferV, openers :String, closers :String, loc :Loc,
+            syntax :Syntax) :Option[Block] = {
+    class Scanner (starts :String, ends :String) extends Function2[Char,Syntax,Boolean] {
+      val counts = new Array[Int](starts.length)
+      def apply (c :Char, cs :Syntax) :Boolean = {
+        val sidx = starts.indexOf(c)
+        if (sidx >= 0 && (cs matches syntax)) counts(sidx) += 1
+        else {
+          val eidx = ends.indexOf(c)
+          if (eidx >= 0 && (cs matches syntax)) {
+            if (counts(eidx) == 0) return true
+            else counts(eidx) -= 1
+          }
+        }
+        false
+      }
+    }
+    val pcidx = if (loc.col == 0 || !(buffer.syntaxAt(loc.prevC) matches syntax)) -1
+                else closers.indexOf(buffer.charAt(loc.prevC))
+    if (pcidx >= 0) {
+      val start = buffer.scanBackward(new Scanner(closers, openers), loc.prevC)
+      if (openers.indexOf(buffer.charAt(start)) == pcidx) Some(Block(start, loc.prevC, true))
+      else None
+    } else {
+      val start = buffer.scanBackward(new Scanner(closers, openers), loc)
+      val sbidx = openers.indexOf(buffer.charAt(start))
+      if (sbidx == -1) None
+      else {
+        val end = buffer.scanForward(new Scanner(openers, closers), loc)
+        Some(Block(start, end, sbidx == closers.indexOf(buffer.charAt(end))))
+      }
+    }
+  }
 }
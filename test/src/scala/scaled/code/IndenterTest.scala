@@ -54,4 +54,77 @@ class IndenterTest {
     assertEquals("ExprS(), 20) BlockS(}, -1)", sstrs(25))
     assertEquals("BlockS(}, -1)", sstrs(26))
   }
+
+  /** Counts the states it computes, and exposes the cached state computation. */
+  class CountingIndenter (buf :Buffer) extends BlockIndenter(Config.testConfig, Seq()) {
+    var computed = 0
+    override def computeState (line :LineV, start :Indenter.State) = {
+      computed += 1
+      super.computeState(line, start)
+    }
+    def uncounted (line :LineV, start :Indenter.State) = super.computeState(line, start)
+    def stateAt (row :Int) = Indenter.state(Indenter.Info(buf, row, buf.line(row), 0),
+                                            computeState)
+  }
+
+  @Test def testStateCache () :Unit = {
+    val buf = Buffer.scratch("Test.java")
+    buf.append(testJavaCode.map(Line.apply))
+    val indenter = new CountingIndenter(buf)
+    def fresh (row :Int) = {
+      var st = Indenter.EmptyS
+      for (ll <- 0 until row) st = indenter.uncounted(buf.line(ll), st)
+      st
+    }
+    val last = buf.lines.length-1
+    assertEquals(fresh(last).toString, indenter.stateAt(last).toString)
+    assertEquals(last, indenter.computed) // one computation per row
+
+    // an edit that doesn't change the state of its row recomputes only until states agree
+    indenter.computed = 0
+    buf.insert(Loc(18, 0), Line("foo();"))
+    assertEquals(fresh(last).toString, indenter.stateAt(last).toString)
+    assertEquals(1, indenter.computed)
+
+    // an edit that does change states is followed all the way down
+    buf.insert(Loc(12, 19), Line("{"))
+    indenter.computed = 0
+    assertEquals(fresh(last).toString, indenter.stateAt(last).toString)
+    assertEquals(last-12, indenter.computed)
+    // and a cutoff only happens after all the edited rows
+    buf.insert(Loc(20, 0), Line("}"))
+    buf.insert(Loc(9, 0), Line(" "))
+    assertEquals(fresh(15).toString, indenter.stateAt(15).toString)
+    assertEquals(fresh(last).toString, indenter.stateAt(last).toString)
+
+    // random edits leave the cache in agreement with a fresh computation
+    val r = new java.util.Random(42)
+    val edits = Seq("{", "}", "(", ")", "x", "\n", "{\n}", "(\nfoo")
+    for (ii <- 0 until 300) {
+      val rows = buf.lines.length
+      val row = r.nextInt(rows) ; val col = r.nextInt(buf.line(row).length+1)
+      if (r.nextInt(3) > 0) buf.insert(Loc(row, col), Line.fromText(edits(r.nextInt(edits.size))))
+      else {
+        val erow = math.min(rows-1, row + r.nextInt(3))
+        val ecol = if (erow == row) col + r.nextInt(buf.line(row).length-col+1)
+                   else r.nextInt(buf.line(erow).length+1)
+        buf.delete(Loc(row, col), Loc(erow, ecol))
+      }
+      val check = r.nextInt(buf.lines.length)
+      assertEquals(s"$ii @ $check", fresh(check).toString, indenter.stateAt(check).toString)
+    }
+  }
+
+  @Test def testReindent () :Unit = {
+    val buf = Buffer.scratch("Test.java")
+    buf.append(testJavaCode.map(line => Line(line.trim)))
+    val indenter = new BlockIndenter(Config.testConfig, Seq())
+    val changed = indenter.reindent(buf, 0, buf.lines.length, false)
+    assertTrue(changed > 0)
+    // a second pass finds nothing to change, and agrees with indenting each row separately
+    assertEquals(0, indenter.reindent(buf, 0, buf.lines.length, false))
+    for (ll <- 0 until buf.lines.length) if (buf.line(ll).length > 0) {
+      assertEquals(Indenter.readIndent(buf.line(ll)), indenter.apply(buf, ll))
+    }
+  }
 }
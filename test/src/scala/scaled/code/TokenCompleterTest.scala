@@ -0,0 +1,94 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.code
+
+import java.util.LinkedHashSet
+import org.junit.Assert._
+import org.junit._
+import scaled._
+import scaled.impl.{BufferImplTest, TestData}
+
+class TokenCompleterTest {
+
+  def tokens (index :TokenCompleter.Index, prefix :String = "") = {
+    val into = new LinkedHashSet[String]()
+    index.addCompletions(prefix, into)
+    Seq.builder[String]().append(into).build()
+  }
+
+  @Test def testTokenize () :Unit = {
+    assertEquals(Seq("this", "some", "tokens_here", "Mixed"),
+                 Seq.from(TokenCompleter.tokenize(Line("this is some (tokens_here) Mixed"))))
+    assertEquals(Seq(), Seq.from(TokenCompleter.tokenize(Line(""))))
+  }
+
+  @Test def testIndex () :Unit = {
+    val index = new TokenCompleter.Index()
+    Seq("fooBar", "foobar", "fooBaz", "fooBar", "frobozz") foreach index.add
+    assertEquals(Seq("fooBar", "foobar", "fooBaz"), tokens(index, "foo"))
+    assertEquals(Seq("fooBaz"), tokens(index, "foobaz"))
+    index.remove("fooBar")
+    assertEquals(Seq("fooBar", "foobar", "fooBaz"), tokens(index, "foo"))
+    index.remove("fooBar")
+    assertEquals(Seq("foobar", "fooBaz"), tokens(index, "foo"))
+    assertEquals(3, index.size)
+  }
+
+  @Test def testIncremental () :Unit = {
+    val buffer = BufferImplTest.testBuffer("first line text\nsecond line\nthird line text")
+    val comp = new TokenCompleter(TestData.workspace)
+    val tok = new comp.Tokener(buffer)
+    def check () = assertEquals(tokens(new comp.Tokener(buffer).index), tokens(tok.index))
+    assertEquals(Seq("first", "line", "second", "text", "third"), tokens(tok.index))
+
+    buffer.insert(Loc(1, 6), Line(" wonderful"))
+    check()
+    buffer.insert(Loc(0, 5), Seq(Line(" alpha"), Line("beta gamma"), Line("")))
+    check()
+    buffer.delete(Loc(1, 2), Loc(3, 3))
+    check()
+    buffer.replace(buffer.start, buffer.end, Seq(Line("replaced entirely")))
+    check()
+    assertEquals(Seq("entirely", "replaced"), tokens(tok.index))
+
+    // random edits are tracked the same as a full tokenization
+    val r = new java.util.Random(42)
+    val words = Seq("alpha", "be", "gamma_delta", " ", "\n", "epsilon ")
+    for (ii <- 0 until 200) {
+      val rows = buffer.lines.size
+      val row = r.nextInt(rows) ; val col = r.nextInt(buffer.line(row).length+1)
+      if (r.nextBoolean) buffer.insert(Loc(row, col), Line.fromText(words(r.nextInt(words.size))))
+      else {
+        val erow = math.min(rows-1, row + r.nextInt(2))
+        val ecol = if (erow == row) col + r.nextInt(buffer.line(row).length-col+1)
+                   else r.nextInt(buffer.line(erow).length+1)
+        buffer.delete(Loc(row, col), Loc(erow, ecol))
+      }
+      check()
+    }
+  }
+
+  @Test def testBackgroundTokenize () :Unit = {
+    // queue background work so that we can edit the buffer while it is being tokenized
+    val queued = SeqBuffer[Runnable]()
+    val bg = TestData.sched(queued += _)
+    val comp = new TokenCompleter(TestData.workspace) {
+      override val exec = new Executor(TestData.immSched, bg, _.printStackTrace(System.err), None)
+    }
+    val buffer = BufferImplTest.testBuffer("first line text\nsecond line\nthird line text")
+    val tok = new comp.Tokener(buffer)
+    assertEquals(Seq(), tokens(tok.index))
+
+    buffer.insert(Loc(0, 5), Seq(Line(" alpha"), Line("beta gamma"), Line("")))
+    buffer.delete(Loc(3, 2), Loc(4, 3))
+    buffer.insert(Loc(2, 0), Line("delta "))
+    queued foreach { _.run() }
+    // compare with tokenizing the edited buffer from scratch
+    val icomp = new TokenCompleter(TestData.workspace) ; val fresh = new icomp.Tokener(buffer)
+    assertEquals(Seq("alpha", "beta", "delta", "first", "gamma", "line", "serd", "text"),
+                 tokens(fresh.index))
+    assertEquals(tokens(fresh.index), tokens(tok.index))
+  }
+}
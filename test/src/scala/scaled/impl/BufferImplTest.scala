@@ -4,12 +4,18 @@
 
 package scaled.impl
 
+import java.nio.charset.StandardCharsets.UTF_8
 import org.junit.Assert._
 import org.junit._
 import scaled._
 
 object BufferImplTest {
 
+  val immediate = new Scheduler() {
+    override def execute (op :Runnable) :Unit = op.run()
+    override def schedule (delay :Long, op :Runnable) = throw new UnsupportedOperationException()
+  }
+
   val WHO = "Who was that man?"
   val NOW = "Now is the time for all good citizens to come to the aid of their country."
   val EGBDF = "Every good boy deserves fudge."
@@ -40,6 +46,139 @@ class BufferImplTest {
     assertEquals(Loc(4, 0), buffer.loc(testText.length+20))
   }
 
+  @Test def testLocIndex () :Unit = {
+    val buffer = testBuffer(testText)
+    val rando = new java.util.Random(42)
+    def randLoc = {
+      val row = rando.nextInt(buffer.lines.size)
+      Loc(row, rando.nextInt(buffer.line(row).length+1))
+    }
+    def check (op :String) :Unit = {
+      // compute our expected mappings the slow way and compare them to the indexed mappings
+      var off = 0 ; val offs = Seq.builder[Int]() ; val locs = Seq.builder[Loc]()
+      for (row <- 0 until buffer.lines.size) {
+        val len = buffer.line(row).length
+        for (col <- 0 to len) {
+          assertEquals(s"offset after $op", off+col, buffer.offset(Loc(row, col)))
+          assertEquals(s"loc after $op", Loc(row, col), buffer.loc(off+col))
+          offs += off+col ; locs += Loc(row, col)
+        }
+        off += len+1
+      }
+      assertEquals(buffer.end, buffer.loc(off+5))
+      offs += off+5 ; locs += buffer.end
+      assertEquals(s"locs after $op", locs.build(), buffer.locs(offs.build()))
+    }
+    check("load")
+    for (ii <- 0 until 200) {
+      val op = rando.nextInt(7) match {
+        case 0 => buffer.insert(randLoc, 'x', Syntax.Default) ; "insert char"
+        case 1 => buffer.split(randLoc) ; "split"
+        case 2 => buffer.insert(randLoc, Seq(Line("ab"), Line(""), Line("cde"))) ; "insert region"
+        case 3 => buffer.delete(randLoc, randLoc) ; "delete region"
+        case 4 => val start = randLoc ; val end = buffer.forward(start, 3)
+                  buffer.transform(start, end, Character.toUpperCase) ; "transform"
+        case 5 => buffer.insert(buffer.end, Seq(Line(""), Line("appended"))) ; "append"
+        case _ => val start = randLoc ; val end = Loc(start.row+2, 1) // an exact replacement
+                  if (end.row < buffer.lines.size && end.col <= buffer.line(end).length) {
+                    buffer.replace(start, end, Seq(Line("ab"), Line("c"), Line("d")))
+                  }
+                  "replace"
+      }
+      check(op)
+    }
+    try { buffer.locs(Seq(5, 3)) ; fail("locs() should require sorted offsets") }
+    catch { case e :IllegalArgumentException => } // expected
+  }
+
+  @Test def testPaged () :Unit = {
+    val file = java.nio.file.Files.createTempFile("paged", ".log")
+    def append (text :String) = java.nio.file.Files.write(
+      file, text.getBytes("UTF-8"), java.nio.file.StandardOpenOption.APPEND)
+    try {
+      val text = (0 until 500).map(ii => s"line $ii").mkString("", "\n", "\n")
+      append(text + "café ☃\r\npartial")
+      // use a tiny resident budget so that lines are evicted and paged back in
+      val buffer = BufferImpl.paged(Store(file), new PagedText(file, UTF_8, 100))
+      assertFalse(buffer.editable)
+      // the partial line is not paged in until it is terminated
+      assertEquals(502, buffer.lines.size)
+      val first = buffer.line(0)
+      assertEquals("line 0", first.asString)
+      assertEquals("café ☃", buffer.line(500).asString)
+      assertEquals("", buffer.line(501).asString)
+      assertEquals(Loc(42, 2), buffer.loc(buffer.offset(Loc(42, 2))))
+      assertEquals(text.length, buffer.offset(Loc(500, 0)))
+      // page in every line, which will evict the first line's chars, then check it again
+      for (ii <- 0 until 500) assertEquals(s"line $ii", buffer.line(ii).asString)
+      assertTrue(buffer.line(0) eq first)
+      assertEquals("line 0", first.asString)
+
+      // now append to the file and check that we page in the new lines
+      val edits = SeqBuffer[Buffer.Edit]()
+      buffer.edited.onValue(edits += _)
+      val exec = new Executor(immediate, immediate, t => throw t, None)
+      buffer.startPaging(exec)
+      append(" line\nanother line\n")
+      buffer.checkStale()
+      assertEquals(Seq("café ☃", "partial line", "another line", ""),
+                   buffer.lines.drop(500).map(_.asString))
+      assertEquals(Seq((Loc(500, 6), Loc(502, 12))), edits.map(e => (e.start, e.end)))
+      assertFalse(buffer.dirty)
+
+      // lines appended to an empty buffer should also work
+      buffer.delete(buffer.start, buffer.end)
+      append("more\nstuff\n")
+      buffer.checkStale()
+      assertEquals(Seq("more", "stuff", ""), buffer.lines.map(_.asString))
+      assertEquals(buffer.offset(buffer.end), "more\nstuff\n".length)
+      // paging in lines leaves the buffer as dirty as it was
+      assertTrue(buffer.dirty)
+      buffer.kill()
+    } finally java.nio.file.Files.delete(file)
+  }
+
+  @Test def testPagedSnapshot () :Unit = {
+    val file = java.nio.file.Files.createTempFile("paged", ".log")
+    val copy = java.nio.file.Files.createTempFile("paged", ".copy")
+    try {
+      val text = (0 until 100).map(ii => s"line $ii").mkString("", "\n", "\n")
+      java.nio.file.Files.write(file, text.getBytes("UTF-8"))
+      var pagedIn = 0
+      val paged = new PagedText(file, UTF_8) {
+        override def line (buffer :BufferImpl, row :Int) = {
+          pagedIn += 1 ; super.line(buffer, row)
+        }
+      }
+      val buffer = BufferImpl.paged(Store(file), paged)
+      buffer.line(3)
+      assertEquals(1, pagedIn)
+      // snapshotting (and reading the snapshot) does not page in lines
+      val snap = buffer.snapshot()
+      assertEquals(101, snap.lines.size)
+      assertEquals(text, snap.lines.map(_.asString).mkString("\n"))
+      assertSame(buffer.line(3).frozen, snap.line(3))
+      // nor does saving
+      val exec = new Executor(immediate, immediate, t => throw t, None)
+      buffer.saveToAsync(Store(copy), exec, false)
+      assertEquals(text, new String(java.nio.file.Files.readAllBytes(copy), UTF_8))
+      assertEquals(1, pagedIn)
+      buffer.kill()
+    } finally {
+      java.nio.file.Files.delete(file)
+      java.nio.file.Files.deleteIfExists(copy)
+    }
+  }
+
+  @Test def testView () :Unit = {
+    // viewing a file that is too small to page reads it into a normal (read-only) buffer
+    val buffer = BufferImpl.view(new TextStore("test", "", testText))
+    assertFalse(buffer.isPaged)
+    assertFalse(buffer.editable)
+    assertEquals(NOW, buffer.line(1).asString)
+    assertTrue(testBuffer(testText).editable)
+  }
+
   @Test def testMutate () :Unit = {
     val buffer = testBuffer(testText)
     buffer.delete(Loc(1, 0), Loc(2, 0))
@@ -119,4 +258,224 @@ class BufferImplTest {
     // finally make sure the originally extracted regions didn't change out from under us
     checkregions()
   }
+
+  @Test def testSharedLines () :Unit = {
+    val buffer = testBuffer(testText)
+    // loaded lines view the buffer's stored text until they're edited
+    assertTrue(buffer.line(0).isShared)
+    assertTrue(buffer.line(1).isShared)
+
+    // editing one line must not disturb the lines that share its storage
+    buffer.insert(Loc(0, 0), Line("So, "))
+    assertFalse(buffer.line(0).isShared)
+    assertEquals(s"So, $WHO", buffer.line(0).asString)
+    assertEquals(NOW, buffer.line(1).asString)
+    buffer.delete(Loc(1, 0), 4)
+    assertEquals(NOW.substring(4), buffer.line(1).asString)
+    assertEquals(EGBDF, buffer.line(2).asString)
+
+    // splitting a shared line need not copy it
+    val sp = Loc(2, "Every good".length)
+    buffer.split(sp)
+    assertTrue(buffer.line(2).isShared)
+    assertTrue(buffer.line(3).isShared)
+    assertEquals("Every good", buffer.line(2).asString)
+    assertEquals(" boy deserves fudge.", buffer.line(3).asString)
+    // appending to the truncated half must not clobber the other half
+    buffer.insert(buffer.lineEnd(sp), Line(" smelling"))
+    assertEquals("Every good smelling", buffer.line(2).asString)
+    assertEquals(" boy deserves fudge.", buffer.line(3).asString)
+    buffer.setSyntax(Syntax.StringLiteral, Loc(3, 1), Loc(3, 4))
+    assertEquals(Syntax.Default, buffer.line(3).syntaxAt(0))
+    assertEquals(Syntax.StringLiteral, buffer.line(3).syntaxAt(1))
+    assertEquals(ABC, buffer.line(4).asString)
+    assertEquals(Syntax.Default, buffer.line(4).syntaxAt(1))
+
+    // finally make sure undo restores everything
+    buffer.undoStack.delimitAction(Loc.Zero)
+    while (buffer.undoStack.undo().isDefined) {}
+    assertEquals(Seq(WHO, NOW, EGBDF, ABC, ""), buffer.lines.map(_.asString))
+  }
+
+  @Test def testSnapshot () :Unit = {
+    val buffer = testBuffer("one\ntwo\nthree")
+    def text (b :BufferV) = b.lines.map(_.asString)
+    val v0 = buffer.version
+    val snap0 = buffer.snapshot()
+    assertEquals(v0, snap0.version)
+    assertEquals(Seq("one", "two", "three", ""), text(snap0))
+    // lines which have not yet been materialized are also shared between snapshots
+    val snap0b = buffer.snapshot()
+    for (row <- 0 until 3) assertSame(snap0.line(row), snap0b.line(row))
+
+    buffer.insert(Loc(1, 3), Line("!!"))
+    buffer.setSyntax(Syntax.StringLiteral, Loc(0, 0), Loc(0, 3))
+    buffer.addStyle("bold", Loc(2, 0), Loc(2, 5))
+    assertTrue(buffer.version > v0)
+    val snap1 = buffer.snapshot()
+    assertEquals(buffer.version, snap1.version)
+    // the earlier snapshot sees none of the changes
+    assertEquals(Seq("one", "two", "three", ""), text(snap0))
+    assertEquals(Syntax.Default, snap0.line(0).syntaxAt(0))
+    assertEquals(Seq(), snap0.line(2).tagsAt(0))
+    assertEquals(Seq("one", "two!!", "three", ""), text(snap1))
+    assertEquals(Syntax.StringLiteral, snap1.line(0).syntaxAt(0))
+    assertEquals(List("bold"), snap1.line(2).tagsAt(0).map(_.tag))
+
+    // edits made after a snapshot (which must copy the shared chars) do not leak into it
+    buffer.insert(Loc(1, 0), 'x', Syntax.Default)
+    buffer.setSyntax(Syntax.LineComment, Loc(0, 0), Loc(0, 1))
+    buffer.transform(Loc(2, 0), Loc(2, 5), Character.toUpperCase)
+    assertEquals(Seq("one", "two!!", "three", ""), text(snap1))
+    assertEquals(Syntax.StringLiteral, snap1.line(0).syntaxAt(0))
+    assertEquals(Seq("one", "xtwo!!", "THREE", ""), text(buffer))
+
+    // lines which have not changed are shared between snapshots
+    val snap2 = buffer.snapshot() ; val snap3 = buffer.snapshot()
+    assertEquals(snap2.version, snap3.version)
+    for (row <- 0 until 3) assertSame(snap2.line(row), snap3.line(row))
+    buffer.delete(Loc(2, 0), Loc(2, 1))
+    val snap4 = buffer.snapshot()
+    assertSame(snap3.line(1), snap4.line(1))
+    assertNotSame(snap3.line(2), snap4.line(2))
+  }
+
+  @Test def testTransaction () :Unit = {
+    val buffer = testBuffer("zero\none\ntwo\nthree\nfour")
+    val styled = SeqBuffer[Loc]() ; buffer.lineStyled.onValue(styled += _)
+    val commits = SeqBuffer[Buffer.Commit]() ; buffer.committed.onValue(commits += _)
+
+    // style notifications are deferred and coalesced to one per line
+    buffer.transaction {
+      buffer.addStyle("a", Loc(1, 3), Loc(1, 5))
+      buffer.addStyle("b", Loc(1, 0), Loc(1, 2))
+      buffer.addStyle("c", Loc(3, 1), Loc(3, 2))
+      buffer.transaction { buffer.addStyle("d", Loc(1, 1), Loc(2, 2)) }
+      assertEquals(Seq(), styled)
+    }
+    assertEquals(Seq(Loc(1, 0), Loc(2, 0), Loc(3, 1)), styled)
+    // no edits were made, so nothing was committed
+    assertEquals(Seq(), commits)
+
+    // edits are summarized (in post-transaction rows) in a single commit, even if op fails
+    styled.clear()
+    try buffer.transaction {
+      buffer.insert(Loc(3, 0), Line("3: "))
+      buffer.addStyle("e", Loc(3, 0), Loc(3, 2))
+      // this insert moves row 3 down, so pending styles must be delivered before it
+      buffer.insert(Loc(0, 4), Seq(Line("!"), Line("new"), Line("")))
+      assertEquals(Seq(Loc(3, 0)), styled)
+      buffer.delete(Loc(3, 0), Loc(4, 0))
+      throw new IllegalStateException("oops")
+    } catch { case e :IllegalStateException => }
+    assertEquals(Seq("zero!", "new", "", "two", "3: three", "four"),
+                 buffer.lines.map(_.asString).take(6))
+    assertEquals(Seq(Buffer.Commit(Seq((0, 5)), 3)), commits)
+
+    // edits in a transaction are undone as a single action
+    buffer.undoStack.delimitAction(Loc.Zero)
+    val before = buffer.lines.map(_.asString)
+    buffer.transaction {
+      buffer.insert(Loc(1, 0), Line("x"))
+      buffer.undoStack.delimitAction(Loc(1, 1)) // ignored during the transaction
+      buffer.split(Loc(3, 1))
+      buffer.delete(Loc(0, 0), Loc(0, 2))
+    }
+    buffer.undoStack.delimitAction(Loc(0, 0))
+    buffer.undoStack.undo()
+    assertEquals(before, buffer.lines.map(_.asString))
+  }
+
+  @Test def testCommitRows () :Unit = {
+    // check the committed rows of random transactions against a row by row model
+    val buffer = testBuffer((0 until 20).map(ii => s"line $ii").mkString("\n"))
+    val changed = SeqBuffer[Boolean]()
+    buffer.edited.onValue { edit =>
+      val srow = edit.start.row ; val erow = edit.end.row
+      edit match {
+        case _ :Buffer.Insert =>
+          srow until erow foreach { _ => changed.insert(srow+1, true) }
+          changed(srow) = true
+        case _ :Buffer.Delete =>
+          changed.remove(srow+1, erow-srow)
+          changed(srow) = true
+        case _ =>
+          srow to erow foreach { changed(_) = true }
+      }
+    }
+    val r = new java.util.Random(42)
+    for (tx <- 0 until 50) {
+      changed.clear() ; buffer.lines foreach { _ => changed += false }
+      var commit :Buffer.Commit = null
+      val conn = buffer.committed.onValue(commit = _)
+      buffer.transaction {
+        for (ii <- 0 until 1 + r.nextInt(10)) {
+          val rows = buffer.lines.size
+          val loc = Loc(r.nextInt(rows), 0)
+          r.nextInt(3) match {
+            case 0 => buffer.insert(loc, Line.fromText("a\n" * r.nextInt(3) + "b"))
+            case 1 => buffer.delete(loc, Loc(math.min(rows-1, loc.row + r.nextInt(3)), 0))
+            case _ => buffer.transform(loc, buffer.lineEnd(loc), Character.toUpperCase)
+          }
+        }
+      }
+      conn.close()
+      val expect = SeqBuffer[(Int, Int)]()
+      var row = 0 ; while (row < changed.size) {
+        if (!changed(row)) row += 1
+        else {
+          val start = row ; while (row < changed.size && changed(row)) row += 1
+          expect += ((start, row))
+        }
+      }
+      assertEquals(expect.toSeq, commit.rows)
+    }
+  }
+
+  @Test def testSaveAsync () :Unit = {
+    val file = java.nio.file.Files.createTempFile("save", ".txt")
+    // queue UI and background operations and run them by hand, so that we control when the
+    // background write actually happens
+    val uiq = SeqBuffer[Runnable]() ; val bgq = SeqBuffer[Runnable]()
+    val exec = new Executor(TestData.sched(uiq += _), TestData.sched(bgq += _), t => throw t, None)
+    def await (result :Future[Unit]) :Unit = while (!result.isComplete()) {
+      assertFalse("Save did not complete", uiq.isEmpty && bgq.isEmpty)
+      val queue = if (bgq.isEmpty) uiq else bgq
+      queue.removeAt(0).run()
+    }
+    def contents = new String(java.nio.file.Files.readAllBytes(file), UTF_8)
+    try {
+      java.nio.file.Files.write(file, "one\ntwo\nthree\n".getBytes(UTF_8))
+      val buffer = BufferImpl(FileStore(file))
+      buffer.insert(Loc(1, 0), Line("2: "))
+      val saved = buffer.saveAsync(exec)
+      // edits made while the save is in progress must not affect the saved snapshot
+      buffer.insert(Loc(1, 3), Line("edited "))
+      buffer.insert(Loc(2, 0), Line("3: "))
+      assertEquals("one\ntwo\nthree\n", contents)
+      await(saved)
+      assertEquals("one\n2: two\nthree\n", contents)
+      // the buffer was edited after the snapshot, so it remains dirty
+      assertTrue(buffer.dirty)
+      await(buffer.saveAsync(exec, true))
+      assertEquals("one\n2: edited two\n3: three\n", contents)
+      assertFalse(buffer.dirty)
+
+      // a synchronous save made while a background save is queued wins, and the queued (older)
+      // snapshot is not written over it
+      buffer.insert(Loc(0, 0), Line("1: "))
+      val queued = buffer.saveAsync(exec)
+      buffer.insert(Loc(0, 3), Line("sync "))
+      buffer.save()
+      assertEquals("1: sync one\n2: edited two\n3: three\n", contents)
+      assertFalse(buffer.dirty)
+      await(queued)
+      assertEquals("1: sync one\n2: edited two\n3: three\n", contents)
+      assertFalse(buffer.dirty)
+      // no temp files are left behind
+      val temps = java.nio.file.Files.list(file.getParent).filter(
+        _.getFileName.toString.startsWith("." + file.getFileName)).count()
+      assertEquals(0L, temps)
+    } finally java.nio.file.Files.delete(file)
+  }
 }
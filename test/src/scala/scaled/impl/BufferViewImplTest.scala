@@ -0,0 +1,74 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import java.util.{Collections, IdentityHashMap}
+import org.junit.Assert._
+import org.junit._
+import scaled._
+
+class BufferViewImplTest {
+
+  def testView (lines :Int) = {
+    val text = 0 until lines map(ii => s"line $ii") mkString("\n")
+    new BufferViewImpl(null, TestData.buffer("test", text), 80, 10)
+  }
+
+  // checks that every view we have is bound to the line it claims to visualize
+  def checkViews (view :BufferViewImpl) :Unit = {
+    val lines = view.buffer.lines
+    0 until lines.size foreach { row => view.lineView(row) foreach { lv =>
+      assertTrue(s"View for $row bound to ${lv.line}", lv.line eq lines(row))
+    }}
+  }
+
+  @Test def testVisualize () :Unit = {
+    val view = testView(1000)
+    val views = Collections.newSetFromMap(new IdentityHashMap[LineViewImpl, java.lang.Boolean]())
+    var top = 0 ; while (top < 990) {
+      val lines = view.visualize(top, top+11)
+      assertEquals(11, lines.size)
+      0 until 11 foreach { ii => assertTrue(lines(ii).line eq view.buffer.lines(top+ii)) }
+      lines foreach { views.add(_) }
+      top += 7
+    }
+    // we should only ever have created enough views to cover the visible lines and margin
+    assertTrue(views.size <= 11 + 2*BufferViewImpl.Margin)
+    assertFalse(view.lineView(0).isDefined)
+    assertTrue(view.lineView(999).isDefined)
+
+    // a request past the end of the buffer is bounded, and an empty request releases everything
+    assertEquals(view.buffer.lines.size-995, view.visualize(995, 2000).size)
+    assertEquals(0, view.visualize(0, 0).size)
+    assertFalse(view.lineView(999).isDefined)
+  }
+
+  @Test def testEdits () :Unit = {
+    val view = testView(100)
+    val buffer = view.buffer
+    view.visualize(40, 51)
+    checkViews(view)
+
+    // lines inserted above, within and below the visualized lines
+    buffer.insert(Loc(10, 2), Line.fromText("a\nb\nc"))
+    checkViews(view)
+    assertTrue(view.lineView(44).isDefined)
+    buffer.insert(Loc(45, 0), Line.fromText("d\ne\nf\ng\n"))
+    checkViews(view)
+    buffer.insert(Loc(90, 0), Line.fromText("h\ni\n"))
+    checkViews(view)
+
+    // lines deleted above, overlapping and entirely covering the visualized lines
+    buffer.delete(Loc(5, 0), Loc(8, 0))
+    checkViews(view)
+    buffer.delete(Loc(30, 0), Loc(45, 0))
+    checkViews(view)
+    view.visualize(40, 51)
+    buffer.delete(Loc(20, 0), Loc(80, 0))
+    checkViews(view)
+    assertEquals(11, view.visualize(20, 31).size)
+    checkViews(view)
+  }
+}
@@ -7,6 +7,7 @@ package scaled.impl
 import org.junit._
 import org.junit.Assert._
 
+import scaled._
 import scaled.major.TextMode
 
 class FnBindingsTest {
@@ -20,4 +21,27 @@ class FnBindingsTest {
     assertTrue(binds.binding("backward-char").isDefined)
     assertFalse(binds.binding("peanut").isDefined)
   }
+
+  @Test def testInvoke () :Unit = {
+    val view = new BufferViewImpl(null, TestData.buffer("test", ""), 80, 24)
+    val mode = new TextMode(TestData.env(view))
+    val binds = new FnBindings(mode, System.err.println)
+    val insert = binds.binding("self-insert-command").get
+    assertTrue(insert.wantsTyped)
+    insert.invoke("a") ; insert.invoke("b")
+    assertEquals("ab", view.buffer.line(0).asString)
+    val backward = binds.binding("backward-char").get
+    assertFalse(backward.wantsTyped)
+    backward.invoke(null)
+    assertEquals(Loc(0, 1), view.point())
+
+    // a second instance of the mode shares the compiled fn methods, but binds its own mode
+    val oview = new BufferViewImpl(null, TestData.buffer("other", ""), 80, 24)
+    val obinds = new FnBindings(new TextMode(TestData.env(oview)), System.err.println)
+    val oinsert = obinds.binding("self-insert-command").get
+    assertTrue(oinsert.fn eq insert.fn)
+    oinsert.invoke("c")
+    assertEquals("c", oview.buffer.line(0).asString)
+    assertEquals("ab", view.buffer.line(0).asString)
+  }
 }
@@ -0,0 +1,49 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import org.junit.Assert._
+import org.junit._
+import scaled._
+
+class KeyTrieTest {
+
+  def keys (trigger :String) :Seq[KeyPress] = KeyPress.toKeyPresses(trigger) match {
+    case Right(kps) => kps
+    case Left(errs) => throw new IllegalArgumentException(errs.mkString(", "))
+  }
+
+  def keymap (binds :(String, String)*) :Map[Seq[KeyPress],String] = {
+    val mb = Map.builder[Seq[KeyPress],String]()
+    binds foreach { case (trigger, fn) => mb.put(keys(trigger), fn) }
+    mb.build()
+  }
+
+  @Test def testResolve () :Unit = {
+    val minor = keymap("C-c C-c" -> "minor-compile", "TAB" -> "minor-tab")
+    val major = keymap("C-c C-c" -> "compile", "C-c C-k" -> "kill", "TAB" -> "tab", "a" -> "a")
+    val trie = KeyTrie(List(minor, major))
+    assertEquals(List("minor-tab", "tab"), trie.resolve(keys("TAB")))
+    assertEquals(List("minor-compile", "compile"), trie.resolve(keys("C-c C-c")))
+    assertEquals(List("kill"), trie.resolve(keys("C-c C-k")))
+    assertEquals(Nil, trie.resolve(keys("C-c")))
+    assertEquals(Nil, trie.resolve(keys("C-c C-x")))
+    assertEquals(Nil, trie.resolve(keys("b")))
+  }
+
+  @Test def testWalk () :Unit = {
+    val trie = KeyTrie(List(keymap("C-x C-f" -> "find-file", "C-x 4 f" -> "other", "a" -> "a")))
+    val cx = trie.next(keys("C-x").head)
+    assertTrue(cx.isPrefix)
+    assertEquals(Nil, cx.values)
+    val c4 = cx.next(keys("4").head)
+    assertTrue(c4.isPrefix)
+    val f = c4.next(keys("f").head)
+    assertFalse(f.isPrefix)
+    assertEquals(List("other"), f.values)
+    assertFalse(trie.next(keys("a").head).isPrefix)
+    assertNull(cx.next(keys("a").head))
+  }
+}
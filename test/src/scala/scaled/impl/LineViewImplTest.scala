@@ -0,0 +1,59 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import javafx.scene.text.Text
+import org.junit.Assert._
+import org.junit._
+import scaled._
+
+class LineViewImplTest {
+
+  def texts (view :LineViewImpl) :Seq[Text] = {
+    val texts = Seq.builder[Text]()
+    view.getChildren.forEach { _ match {
+      case text :Text => texts += text
+      case _ => // skip fill rects
+    }}
+    texts.build()
+  }
+
+  @Test def testReuseFragments () :Unit = {
+    val buffer = BufferImplTest.testBuffer("def foo = bar")
+    buffer.addStyle("keyword", Loc(0, 0), Loc(0, 3))
+    buffer.addStyle("function", Loc(0, 4), Loc(0, 7))
+    val view = new LineViewImpl(buffer.line(0))
+    view.validate()
+    val frags = texts(view)
+    assertEquals(Seq("def", " ", "foo", " = bar"), frags.map(_.getText))
+    assertTrue(frags(0).getStyleClass.contains("keyword"))
+
+    // changing the text of the last fragment reuses all fragments
+    buffer.insert(Loc(0, 13), Line("Baz"))
+    view.invalidate() ; view.validate()
+    val nfrags = texts(view)
+    assertEquals(Seq("def", " ", "foo", " = barBaz"), nfrags.map(_.getText))
+    0 until frags.size foreach { ii => assertTrue(frags(ii) eq nfrags(ii)) }
+
+    // restyling changes only the classes of the affected fragment
+    buffer.removeStyle("function", Loc(0, 4), Loc(0, 7))
+    buffer.addStyle("variable", Loc(0, 4), Loc(0, 7))
+    view.invalidate() ; view.validate()
+    val rfrags = texts(view)
+    assertTrue(rfrags(2) eq frags(2))
+    assertTrue(rfrags(2).getStyleClass.contains("variable"))
+    assertFalse(rfrags(2).getStyleClass.contains("function"))
+
+    // merging style runs drops the trailing fragments (and their fill rects)
+    buffer.removeStyle("keyword", Loc(0, 0), Loc(0, 3))
+    buffer.removeStyle("variable", Loc(0, 4), Loc(0, 7))
+    view.invalidate() ; view.validate()
+    assertEquals(Seq("def foo = barBaz"), texts(view).map(_.getText))
+    assertTrue(texts(view)(0) eq frags(0))
+    assertEquals(2, view.getChildren.size)
+    val classes = Seq.builder[String]().append(texts(view)(0).getStyleClass).build()
+    assertEquals(Seq("textFace"), classes)
+  }
+}
@@ -0,0 +1,63 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import java.nio.file.{Files, Path}
+import java.nio.file.attribute.FileTime
+import org.junit.Assert._
+import org.junit._
+import scaled._
+import scaled.major.TextMode
+import scaled.minor.WhitespaceMode
+
+class ModuleIndexTest {
+  import ModuleMeta._
+
+  // copies the class file for `clazz` into `classesDir`
+  def copyClass (classesDir :Path, clazz :Class[_]) :Path = {
+    val path = classesDir.resolve(clazz.getName.replace('.', '/') + ".class")
+    Files.createDirectories(path.getParent)
+    val in = clazz.getResourceAsStream(clazz.getSimpleName + ".class")
+    try Files.copy(in, path) finally in.close()
+    path
+  }
+
+  @Test def testIndex () :Unit = {
+    val root = Files.createTempDirectory("modidx")
+    val classesDir = root.resolve("classes")
+    val text = copyClass(classesDir, classOf[TextMode])
+    copyClass(classesDir, classOf[WhitespaceMode])
+    val indexFile = root.resolve("modules.index")
+
+    val index = new ModuleIndex(TestData.log, indexFile)
+    val facts = index.facts("test", classesDir).toSet
+    assertTrue(facts(Fact(MajorFact, "text", "scaled.major.TextMode")))
+    assertTrue(facts(Fact(MinorFact, "whitespace", "scaled.minor.WhitespaceMode")))
+    assertTrue(facts(Fact(TagFact, "code", "whitespace")))
+    assertEquals(0, index.hits)
+    assertEquals(2, index.misses)
+    index.save()
+
+    // a fresh index reads the metadata from the index file instead of the class files
+    val windex = new ModuleIndex(TestData.log, indexFile)
+    assertEquals(facts, windex.facts("test", classesDir).toSet)
+    assertEquals(2, windex.hits)
+    assertEquals(0, windex.misses)
+
+    // a changed class file is reparsed
+    Files.setLastModifiedTime(text, FileTime.fromMillis(
+      Files.getLastModifiedTime(text).toMillis + 5000))
+    val cindex = new ModuleIndex(TestData.log, indexFile)
+    assertEquals(facts, cindex.facts("test", classesDir).toSet)
+    assertEquals(1, cindex.hits)
+    assertEquals(1, cindex.misses)
+
+    // a corrupt index file is ignored
+    Files.write(indexFile, Array[Byte](1, 2, 3))
+    val xindex = new ModuleIndex(TestData.log, indexFile)
+    assertEquals(facts, xindex.facts("test", classesDir).toSet)
+    assertEquals(2, xindex.misses)
+  }
+}
@@ -25,6 +25,13 @@ object TestData {
   }
   val exec = new Executor(immSched, immSched, _.printStackTrace(System.err), None)
 
+  /** Returns a scheduler which passes the operations it is asked to execute to `fn` (which may
+    * queue them, to be run when a test chooses). */
+  def sched (fn :Runnable => Unit) = new Scheduler() {
+    override def execute (op :Runnable) :Unit = fn(op)
+    override def schedule (delay :Long, op :Runnable) = throw new UnsupportedOperationException()
+  }
+
   val cwd = Paths.get("")
   val testScope = Config.Scope("test", cwd, None)
 
@@ -50,12 +57,14 @@ object TestData {
     val bufferOpened = Signal[RBuffer]()
     def createBuffer (store :Store, state :List[State.Init[_]], reuse :Boolean) = BufferImpl(store)
     def openBuffer (store :Store) = BufferImpl(store)
+    def viewBuffer (store :Store) = BufferImpl.view(store)
     def openWindow (geom :Option[Geometry]) = null
     def getInfoWindow (tag :String) = null
     def visitWindowConfig (window :Window) :Unit = {}
     def killBuffer (buffer :Buffer) :Unit = {}
     def addHintPath (path :Path) :Unit = {}
     def removeHintPath (path :Path) :Unit = {}
+    def hintPaths = Seq()
     def exec = editor.exec
     protected def log = TestData.log
   }
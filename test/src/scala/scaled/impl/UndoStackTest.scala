@@ -0,0 +1,96 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.impl
+
+import org.junit.Assert._
+import org.junit._
+import scaled._
+
+class UndoStackTest {
+
+  def text (buffer :Buffer) = buffer.lines.map(_.asString).mkString("\n")
+  // the styles and syntax of every character (restored tags may be split into multiple spans)
+  def styles (buffer :Buffer) = buffer.lines.map(l => 0 until l.length map { ii =>
+    (l.tagsAt(ii).map(_.tag).toSet, l.syntaxAt(ii))
+  })
+
+  // makes a series of random edits (delimiting actions as it goes), then checks that undoing
+  // every action and redoing every action yields the expected intermediate buffer states
+  def checkUndoRedo (budget :Long) :Unit = {
+    val buffer = BufferImplTest.testBuffer("first line text\nsecond line\nthird line text")
+    val undo = buffer.undoStack
+    undo.memoryBudget = budget
+    undo.delimitAction(Loc.Zero)
+
+    val r = new java.util.Random(42)
+    val words = Seq("alpha", "be", "gamma delta", " ", "\n", "epsilon\nzeta ")
+    val states = SeqBuffer[String]()
+    states += text(buffer)
+    for (ii <- 0 until 300) {
+      val rows = buffer.lines.size
+      val row = r.nextInt(rows) ; val col = r.nextInt(buffer.line(row).length+1)
+      val loc = Loc(row, col)
+      r.nextInt(5) match {
+        // typed characters (which accumulate into a single action)
+        case 0 => undo.accumNextEdit() ; buffer.insert(loc, 'x', Syntax.Default)
+        // forward deletes and backspaces (which coalesce within an action)
+        case 1 => if (buffer.end > loc) {
+          buffer.delete(loc, buffer.forward(loc, 1))
+          if (buffer.end > loc) buffer.delete(loc, buffer.forward(loc, 1))
+          if (loc > buffer.start) buffer.delete(buffer.backward(loc, 1), loc)
+        }
+        case 2 => buffer.transform(loc, buffer.forward(loc, r.nextInt(10)), Character.toUpperCase)
+        case _ => buffer.insert(loc, Line.fromText(words(r.nextInt(words.size))))
+      }
+      undo.delimitAction(loc)
+      if (states.last != text(buffer)) states += text(buffer)
+    }
+
+    // undo everything, checking that we see each of our states (in reverse) along the way
+    var idx = states.size-1
+    while (undo.undo().isDefined) {
+      val t = text(buffer)
+      while (idx > 0 && states(idx) != t) idx -= 1
+      assertEquals(states(idx), t)
+    }
+    assertEquals(states(0), text(buffer))
+
+    // now redo everything and make sure we end up where we started
+    while (undo.redo().isDefined) undo.delimitAction(Loc.Zero)
+    assertEquals(states.last, text(buffer))
+    assertTrue(undo.memoryUsed <= math.max(budget, 1024))
+  }
+
+  // checks that the styles and syntax of deleted text are restored when the delete is undone
+  def checkRestoresStyles (budget :Long) :Unit = {
+    val buffer = BufferImplTest.testBuffer("first line text\nsecond line\nthird line text")
+    val undo = buffer.undoStack
+    undo.memoryBudget = budget
+    buffer.addStyle("keyword", Loc(0, 0), Loc(0, 5))
+    buffer.addStyle("string", Loc(1, 7), Loc(2, 5))
+    buffer.setSyntax(Syntax.StringLiteral, Loc(1, 7), Loc(2, 5))
+    val before = (text(buffer), styles(buffer))
+    undo.delimitAction(Loc.Zero)
+    // a forward delete followed by a backspace, which are coalesced into a single delta
+    buffer.delete(Loc(0, 3), Loc(1, 8))
+    buffer.delete(Loc(0, 1), Loc(0, 3))
+    undo.delimitAction(Loc(0, 1))
+    buffer.insert(Loc(0, 0), Line("junk "))
+    undo.delimitAction(Loc(0, 5))
+    assertEquals(Some(Loc(0, 1)), undo.undo())
+    assertEquals(Some(Loc(0, 0)), undo.undo())
+    assertEquals(before, (text(buffer), styles(buffer)))
+  }
+
+  @Test def testInMemory () :Unit = {
+    checkUndoRedo(UndoStack.DefaultBudget)
+    checkRestoresStyles(UndoStack.DefaultBudget)
+  }
+
+  @Test def testSpilled () :Unit = {
+    checkUndoRedo(1)
+    checkRestoresStyles(1)
+  }
+}
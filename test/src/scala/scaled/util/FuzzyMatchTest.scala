@@ -20,4 +20,56 @@ class FuzzyMatchTest {
     println(m2.score("Path:pythagoras.d"))
     println(m2.score("PathTest:pythagoras.d"))
   }
+
+  @Test def testFilterOrder () :Unit = {
+    val m = FuzzyMatch("pnts")
+    assertEquals(8, m.score("pants"))
+    assertEquals(6, m.score("peanuts"))
+    assertEquals(Seq("pants", "peanuts", "xxpeanutsxx"),
+                 m.filter(Seq("xxpeanutsxx", "nope", "peanuts", "pants")))
+    // ties are broken lexically
+    assertEquals(Seq("pa", "pb", "pc"), FuzzyMatch("p").filter(Seq("pc", "pa", "pb")))
+  }
+
+  @Test def testParallelTopK () :Unit = {
+    // enough candidates to be scored in parallel
+    val rand = new java.util.Random(42)
+    val sb = Seq.builder[String]()
+    for (ii <- 0 until 5*FuzzyMatch.ChunkSize) {
+      val cs = new Array[Char](4 + rand.nextInt(12))
+      for (cc <- 0 until cs.length) cs(cc) = ('a' + rand.nextInt(8)).toChar
+      sb += new String(cs)
+    }
+    val strs = sb.build()
+    val m = FuzzyMatch("abc")
+    val expect = strs.filter(m.score(_) > 0).sortBy(s => (-m.score(s), s))
+    assertEquals(expect, m.filter(strs))
+    assertEquals(expect.take(10), m.filterBy(strs, 10)(identity))
+    assertEquals(Seq(), m.filterBy(strs, 0)(identity))
+  }
+
+  @Test def testCandidates () :Unit = {
+    val strs = Seq("FooBar", "fubar", "Baz", "frob")
+    val cands = FuzzyMatch.Candidates(strs)
+    val fb = FuzzyMatch("fb").filter(cands)
+    assertEquals(FuzzyMatch("fb").filter(strs), fb.toSeq)
+    // these score the same, so are ordered lexically (by their unfolded strings)
+    assertEquals(Seq("FooBar", "fubar"), FuzzyMatch("fba").filter(fb).toSeq)
+    // a mixed case glob matches case sensitively
+    assertEquals(Seq("FooBar"), FuzzyMatch("FB").filter(fb).toSeq)
+  }
+
+  @Test def testLimitedCandidates () :Unit = {
+    val strs = Seq("pc", "xpx", "pa", "nope", "pb", "ppp", "xxp")
+    val m = FuzzyMatch("p")
+    val expect = m.filter(strs)
+    // the first two are ordered eagerly, the rest are ordered when first requested
+    val top = m.filter(FuzzyMatch.Candidates(strs), 2)
+    assertEquals(expect.take(2), top.toSeq.take(2))
+    assertEquals(expect, top.toSeq)
+    // refining a partially ordered set sees all of its candidates
+    val part = m.filter(FuzzyMatch.Candidates(strs), 1)
+    assertEquals(FuzzyMatch("pp").filter(strs), FuzzyMatch("pp").filter(part).toSeq)
+    assertEquals(Seq(), m.filter(FuzzyMatch.Candidates(strs), 0).toSeq.take(0))
+  }
 }
@@ -0,0 +1,99 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.util
+
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path}
+import java.util.concurrent.{Executors, LinkedBlockingQueue, TimeUnit}
+import org.junit.Assert._
+import org.junit._
+import scaled._
+import scaled.impl.TestData
+
+class GrepTest {
+
+  @Test def testIgnore () :Unit = {
+    val rules = Seq("# comment", "", "*.class", "build/", "/top.txt", "docs/**/*.html",
+                    "!keep.class")
+    assertEquals(5, rules.flatMap(Grep.Ignore.parse).size)
+    val root = Files.createTempDirectory("grep")
+    try {
+      write(root, ".gitignore", rules.mkString("\n"))
+      val ign = Grep.Ignore.root(root)
+      def ignored (rel :String, isDir :Boolean = false) = ign.ignored(root.resolve(rel), isDir)
+      assertTrue(ignored("Foo.class"))
+      assertTrue(ignored("src/Foo.class"))
+      assertFalse(ignored("keep.class"))
+      assertTrue(ignored("build", true))
+      assertFalse(ignored("build")) // a file named build is not a directory
+      assertTrue(ignored("top.txt"))
+      assertFalse(ignored("sub/top.txt"))
+      assertTrue(ignored("docs/index.html"))
+      assertTrue(ignored("docs/api/a/b.html"))
+      assertFalse(ignored("docs/index.txt"))
+
+      // a subdirectory's rules take precedence over those of its parent
+      write(root, "sub/.gitignore", "!*.class\n")
+      val sub = ign.enter(root.resolve("sub"))
+      assertFalse(sub.ignored(root.resolve("sub/Foo.class"), false))
+      assertTrue(ign.ignored(root.resolve("sub/Foo.class"), false))
+    } finally delete(root)
+  }
+
+  @Test def testGrep () :Unit = {
+    val root = Files.createTempDirectory("grep")
+    val pool = Executors.newFixedThreadPool(2)
+    val uiq = new LinkedBlockingQueue[Runnable]()
+    val exec = new Executor(TestData.sched(uiq.add), TestData.sched(pool.execute),
+                            t => throw t, Some(pool))
+    try {
+      write(root, ".gitignore", "ignored/\n*.log\n")
+      write(root, "a.txt", "nothing here\nthe needle\r\nand another needle\n")
+      write(root, "src/b/c.txt", "no\nno\nneedle at start")
+      write(root, "h.txt", "carriage\rreturn needle\r\rneedle\r")
+      write(root, "src/b/big.txt", ("hay\n" * 20000) + "  needle\n")
+      write(root, "ignored/d.txt", "needle\n")
+      write(root, "e.log", "needle\n")
+      write(root, ".git/f.txt", "needle\n")
+      Files.write(root.resolve("g.bin"), Array[Byte](0, 1, 2) ++ "needle".getBytes(UTF_8))
+
+      val run = Grep(Seq(root), Matcher.exact("needle"), exec)
+      val hits = SeqBuffer[Grep.Hit]()
+      run.hits.onValue(hits ++= _)
+      var stats :Grep.Stats = null
+      run.done.onSuccess(stats = _)
+      while (stats == null) uiq.poll(5, TimeUnit.SECONDS) match {
+        case null => fail("Timed out waiting for grep")
+        case op   => op.run()
+      }
+
+      def hit (rel :String, row :Int, col :Int, line :String) =
+        Grep.Hit(root.resolve(rel), Loc(row, col), line)
+      assertEquals(Set(hit("a.txt", 1, 4, "the needle"),
+                       hit("a.txt", 2, 12, "and another needle"),
+                       hit("src/b/c.txt", 2, 0, "needle at start"),
+                       hit("h.txt", 1, 7, "return needle"),
+                       hit("h.txt", 3, 0, "needle"),
+                       hit("src/b/big.txt", 20000, 2, "  needle")), hits.toSet)
+      assertEquals(6, stats.hits)
+      // .gitignore, a.txt, c.txt, h.txt, big.txt and g.bin (which is read, but skipped as binary)
+      assertEquals(6, stats.files)
+    } finally {
+      pool.shutdownNow()
+      delete(root)
+    }
+  }
+
+  private def write (root :Path, rel :String, text :String) :Unit = {
+    val path = root.resolve(rel)
+    Files.createDirectories(path.getParent)
+    Files.write(path, text.getBytes(UTF_8))
+  }
+
+  private def delete (root :Path) :Unit = {
+    val paths = Files.walk(root).toArray.map(_.asInstanceOf[Path])
+    paths.sortBy(-_.getNameCount).foreach(Files.delete)
+  }
+}
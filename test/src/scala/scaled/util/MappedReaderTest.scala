@@ -0,0 +1,98 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.util
+
+import java.io.StringReader
+import java.nio.charset.StandardCharsets.{ISO_8859_1, UTF_16LE, UTF_8}
+import java.nio.file.Files
+import org.junit.Assert._
+import org.junit._
+import scaled._
+
+class MappedReaderTest {
+
+  val texts = Seq(
+    "",
+    "one line",
+    "one line\n",
+    "two\nlines",
+    "windows\r\nline\r\nendings\r\n",
+    "old mac\rline endings\r\r",
+    "\n\n\nblanks\n\n",
+    "tabs\tare\tspaces\n",
+    "unicode: été, ☃ and 😀 (a surrogate pair)\nand more\n",
+    "a somewhat longer line that spans many of our tiny test chunks\r\nand another\n" * 5)
+
+  @Test def testMatchesReader () :Unit = {
+    for (text <- texts ; chunkSize <- Seq(4, 16, MappedReader.ChunkSize)) {
+      val enc = readMapped(text.getBytes(UTF_8), chunkSize)
+      assertEquals(UTF_8, enc._1.charset)
+      assertEquals(s"'$text' @ $chunkSize", readDirect(text), enc._2)
+    }
+  }
+
+  @Test def testEncodings () :Unit = {
+    val text = "café\r\nnaïve\n"
+    // a UTF-8 byte order mark is skipped and noted
+    val (u8enc, u8lines) = readMapped(Array(0xEF, 0xBB, 0xBF).map(_.toByte) ++ text.getBytes(UTF_8))
+    assertEquals(MappedReader.Encoding(UTF_8, true), u8enc)
+    assertEquals(readDirect(text), u8lines)
+    // as is a UTF-16 byte order mark
+    val (u16enc, u16lines) = readMapped(Array(0xFF, 0xFE).map(_.toByte) ++ text.getBytes(UTF_16LE))
+    assertEquals(MappedReader.Encoding(UTF_16LE, true), u16enc)
+    assertEquals(readDirect(text), u16lines)
+    // text that is not valid UTF-8 is read with the fallback charset
+    val fallback = MappedReader.FallbackCharset
+    val latin1 = text.getBytes(ISO_8859_1)
+    val (fbenc, fblines) = readMapped(latin1)
+    assertEquals(MappedReader.Encoding(fallback, false), fbenc)
+    assertEquals(readDirect(new String(latin1, fallback)), fblines)
+  }
+
+  @Test def testZeroSize () :Unit = {
+    // files in /proc report their size as zero, but are not empty
+    val status = java.nio.file.Paths.get("/proc/self/status")
+    Assume.assumeTrue(Files.isRegularFile(status) && Files.size(status) == 0)
+    val lines = Seq.builder[String]()
+    MappedReader.readLines(status, (data, start, end, off) => {
+      lines += new String(data, start, end-start)
+    })
+    assertTrue(lines.build().exists(_ startsWith "Name:"))
+  }
+
+  @Test def testStoreReader () :Unit = {
+    // a file store's reader decodes with its file's encoding rather than the platform default
+    val text = "café\r\nnaïve\n"
+    val file = Files.createTempFile("mapped", ".txt")
+    try {
+      Files.write(file, Array(0xFF, 0xFE).map(_.toByte) ++ text.getBytes(UTF_16LE))
+      val read = new StringBuilder()
+      FileStore(file).read(r => {
+        val buf = new Array[Char](64)
+        var n = r.read(buf) ; while (n >= 0) { read.appendAll(buf, 0, n) ; n = r.read(buf) }
+      })
+      assertEquals(text, read.toString)
+    } finally Files.delete(file)
+  }
+
+  private def readDirect (text :String) :Seq[(String,Int)] = {
+    val lines = Seq.builder[(String,Int)]()
+    Store.reader((data, start, end, off) => lines += (new String(data, start, end-start) -> off))(
+      new StringReader(text))
+    lines.build()
+  }
+
+  private def readMapped (bytes :Array[Byte], chunkSize :Int = MappedReader.ChunkSize) = {
+    val file = Files.createTempFile("mapped", ".txt")
+    try {
+      Files.write(file, bytes)
+      val lines = Seq.builder[(String,Int)]()
+      val enc = MappedReader.readLines(file, (data, start, end, off) => {
+        lines += (new String(data, start, end-start) -> off)
+      }, chunkSize)
+      (enc, lines.build())
+    } finally Files.delete(file)
+  }
+}
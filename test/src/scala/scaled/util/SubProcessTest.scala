@@ -0,0 +1,51 @@
+//
+// Scaled - a scalable editor extensible via JVM languages
+// http://github.com/scaled/scaled/blob/master/LICENSE
+
+package scaled.util
+
+import java.io.{ByteArrayInputStream, InputStream}
+import java.nio.charset.StandardCharsets
+import org.junit.Assert._
+import org.junit._
+import scaled._
+import scaled.impl.TestData
+
+class SubProcessTest {
+
+  def readAll (in :InputStream) :(SeqV[Seq[String]], Boolean) = {
+    val batches = SeqBuffer[Seq[String]]()
+    var ended = false
+    SubProcess.readLines(in, batches += _, () => ended = true, err => throw err)
+    (batches, ended)
+  }
+
+  @Test def testReadLines () :Unit = {
+    val text = "one\r\ntwo\n\nthree"
+    val (batches, ended) = readAll(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)))
+    assertTrue(ended)
+    assertEquals(Seq("one", "two", "", "three"), batches.flatMap(b => b))
+  }
+
+  @Test def testSplitChunks () :Unit = {
+    // feed the bytes a few at a time so that lines and characters are split across chunks
+    val text = "Ünïcödé €uro\nsecond line\n" * 10
+    val bytes = text.getBytes(StandardCharsets.UTF_8)
+    val in = new ByteArrayInputStream(bytes) {
+      override def read (buf :Array[Byte], off :Int, len :Int) = super.read(buf, off, len min 3)
+    }
+    val (batches, _) = readAll(in)
+    assertTrue(batches.size > 1)
+    assertEquals(Line.splitText(text).take(20), batches.flatMap(b => b))
+  }
+
+  @Test def testAppendTrims () :Unit = {
+    val buffer = TestData.buffer("output", "")
+    SubProcess.append(buffer, Seq("a", "b", "c"), 5)
+    assertEquals(Seq("a", "b", "c", ""), buffer.lines.map(_.asString))
+    SubProcess.append(buffer, Seq("d", "e", "f", "g"), 5)
+    assertEquals(Seq("c", "d", "e", "f", "g", ""), buffer.lines.map(_.asString))
+    SubProcess.append(buffer, Seq("h"), 0)
+    assertEquals(7, buffer.lines.size)
+  }
+}